@@ -9,6 +9,7 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,6 +17,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -41,6 +43,7 @@ import com.sun.xml.txw2.output.IndentingXMLStreamWriter;
 import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftware;
 import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftwareList;
 import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.FileFormat;
 import uk.ac.ebi.jmzidml.model.mzidml.Inputs;
 import uk.ac.ebi.jmzidml.model.mzidml.SearchDatabase;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectraData;
@@ -53,6 +56,7 @@ import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
+import de.mpc.pia.intermediate.compiler.parser.ProteinSequenceIndex;
 import de.mpc.pia.intermediate.piaxml.AccessionXML;
 import de.mpc.pia.intermediate.piaxml.PIAInputFileXML;
 import de.mpc.pia.intermediate.piaxml.FilesListXML;
@@ -60,6 +64,7 @@ import de.mpc.pia.intermediate.piaxml.GroupXML;
 import de.mpc.pia.intermediate.piaxml.PeptideXML;
 import de.mpc.pia.intermediate.piaxml.SpectrumMatchXML;
 import de.mpc.pia.tools.MzIdentMLTools;
+import de.mpc.pia.tools.OrderedPipeline;
 import de.mpc.pia.tools.PIAConstants;
 import de.mpc.pia.tools.PIATools;
 import de.mpc.pia.tools.matomo.PIAMatomoTracker;
@@ -134,6 +139,9 @@ public abstract class PIACompiler {
     private Map<Long, Group> groups;
 
 
+    /** the number of peptides mapped together in one task */
+    private static final int MAPPING_BATCH_SIZE = 1024;
+
     /** the default name for a compilation */
     public static final String DEFAULT_PIA_COMPILATION_NAME = "PIA compilation";
 
@@ -189,7 +197,7 @@ public abstract class PIACompiler {
      */
     public final OBOMapper getOBOMapper() {
         if (oboMapper == null) {
-            oboMapper = new OBOMapper();
+            oboMapper = OBOMapper.getSharedInstance();
         }
         return oboMapper;
     }
@@ -204,7 +212,7 @@ public abstract class PIACompiler {
     public final UnimodParser getUnimodParser() {
         if (unimodParser == null) {
             LOGGER.info("Initializing unimod parser...");
-            unimodParser = new UnimodParser();
+            unimodParser = UnimodParser.getSharedInstance();
             LOGGER.info("unimod parser initialized...");
         }
         return unimodParser;
@@ -217,7 +225,7 @@ public abstract class PIACompiler {
      */
     public final PsiModParser getPsiModParser() {
         if (psiModParser == null) {
-            psiModParser = new PsiModParser();
+            psiModParser = PsiModParser.getSharedInstance();
         }
         return psiModParser;
     }
@@ -270,6 +278,119 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Maps all peptides of the compilation to the proteins in the given index.
+     * The accessions, their occurrences in the proteins and the connections to
+     * the peptides are added for all found proteins. This is used for input
+     * files without (reliable) protein information and should be called after
+     * all files are parsed.
+     * <p>
+     * If the mapping fails, the peptides processed so far keep their mapped
+     * proteins, so the compilation should not be used any further.
+     *
+     * @param index the index of the protein database
+     * @return true, if all peptides were mapped, false if the mapping failed
+     */
+    public final boolean mapPeptidesToProteins(ProteinSequenceIndex index) {
+        // add the searchDB (the indexed FASTA file)
+        SearchDatabase searchDatabase = new SearchDatabase();
+        searchDatabase.setId("proteinMapping");
+        searchDatabase.setLocation(index.getFastaFileName());
+
+        FileFormat fileFormat = new FileFormat();
+        CvParam abstractParam = new CvParam();
+        abstractParam.setAccession("MS:1001348");
+        abstractParam.setCv(MzIdentMLTools.getCvPSIMS());
+        abstractParam.setName("FASTA format");
+        fileFormat.setCvParam(abstractParam);
+        searchDatabase.setFileFormat(fileFormat);
+
+        SearchDatabase mappingDatabase = putIntoSearchDatabasesMap(searchDatabase);
+
+        List<Long> peptideIDs = new ArrayList<>(getAllPeptideIDs());
+        LOGGER.info("mapping " + peptideIDs.size() + " peptides to the proteins of " + index.getFastaFileName());
+
+        int nrAccessionsBefore = getNrAccessions();
+        int[] nextPeptide = {0};
+        int[] inserted = {0};
+
+        try {
+            // the occurrences are searched in parallel, but inserted in the order of the peptides
+            OrderedPipeline.process(
+                    () -> {
+                        if (nextPeptide[0] >= peptideIDs.size()) {
+                            return null;
+                        }
+                        int end = Math.min(nextPeptide[0] + MAPPING_BATCH_SIZE, peptideIDs.size());
+                        List<String> sequences = new ArrayList<>(end - nextPeptide[0]);
+                        for (Long peptideID : peptideIDs.subList(nextPeptide[0], end)) {
+                            sequences.add(getPeptide(peptideID).getSequence());
+                        }
+                        nextPeptide[0] = end;
+                        return sequences;
+                    },
+                    sequences -> sequences.stream()
+                            .map(index::findOccurrences)
+                            .collect(Collectors.toList()),
+                    occurrences -> inserted[0] = insertProteinOccurrences(occurrences, peptideIDs, inserted[0],
+                            index, mappingDatabase),
+                    PIATools.resolveThreads(numThreads), "mapping the peptides to the proteins");
+        } catch (IOException e) {
+            LOGGER.error("error while mapping the peptides to the proteins", e);
+            return false;
+        }
+
+        LOGGER.info("mapped the peptides to the proteins, "
+                + (getNrAccessions() - nrAccessionsBefore) + " new accessions");
+        return true;
+    }
+
+
+    /**
+     * Inserts the accessions, occurrences and connections of the next batch of
+     * peptides.
+     *
+     * @return the number of processed peptides
+     */
+    private int insertProteinOccurrences(List<List<ProteinSequenceIndex.ProteinOccurrence>> batchOccurrences,
+            List<Long> peptideIDs, int inserted, ProteinSequenceIndex index, SearchDatabase searchDatabase) {
+        int peptideIdx = inserted;
+
+        for (List<ProteinSequenceIndex.ProteinOccurrence> occurrences : batchOccurrences) {
+            Peptide peptide = getPeptide(peptideIDs.get(peptideIdx++));
+
+            Set<Long> fileIDs = new HashSet<>();
+            for (PeptideSpectrumMatch psm : peptide.getSpectra()) {
+                fileIDs.add(psm.getFile().getID());
+            }
+
+            for (ProteinSequenceIndex.ProteinOccurrence occurrence : occurrences) {
+                int protein = occurrence.getProtein();
+                Accession accession = getAccession(index.getAccession(protein));
+
+                if (accession == null) {
+                    accession = insertNewAccession(index.getAccession(protein), index.getProteinSequence(protein));
+                } else if (accession.getDbSequence() == null) {
+                    accession.setDbSequence(index.getProteinSequence(protein));
+                }
+
+                accession.addSearchDatabaseRef(searchDatabase.getId());
+                for (Long fileID : fileIDs) {
+                    accession.addFile(fileID);
+                    if (!accession.getDescriptions().containsKey(fileID) && (index.getDescription(protein) != null)) {
+                        accession.addDescription(fileID, index.getDescription(protein));
+                    }
+                }
+
+                peptide.addAccessionOccurrence(accession, occurrence.getStart(), occurrence.getEnd());
+                addAccessionPeptideConnection(accession, peptide);
+            }
+        }
+
+        return peptideIdx;
+    }
+
+
     /**
      * Inserts a new file into the map of file and return a reference to it.
      *
@@ -309,6 +430,16 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Returns the {@link PIAInputFile}s of the compilation by their IDs.
+     *
+     * @return
+     */
+    public final Map<Long, PIAInputFile> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+
     /**
      * Returns the {@link Accession} given by the string of the accession
      *
@@ -341,7 +472,7 @@ public abstract class PIACompiler {
      *
      * @return
      */
-    protected abstract int getNrAccessions();
+    public abstract int getNrAccessions();
 
 
     /**
@@ -349,7 +480,7 @@ public abstract class PIACompiler {
      *
      * @return
      */
-    protected abstract Collection<Long> getAllAccessionIDs();
+    public abstract Collection<Long> getAllAccessionIDs();
 
 
     /**
@@ -666,6 +797,36 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Returns the {@link SpectraData} of the compilation by their IDs.
+     *
+     * @return
+     */
+    public final Map<String, SpectraData> getSpectraData() {
+        return Collections.unmodifiableMap(spectraDataMap);
+    }
+
+
+    /**
+     * Returns the {@link SearchDatabase}s of the compilation by their IDs.
+     *
+     * @return
+     */
+    public final Map<String, SearchDatabase> getSearchDatabases() {
+        return Collections.unmodifiableMap(searchDatabasesMap);
+    }
+
+
+    /**
+     * Returns the {@link AnalysisSoftware}s of the compilation by their IDs.
+     *
+     * @return
+     */
+    public final Map<String, AnalysisSoftware> getAnalysisSoftware() {
+        return Collections.unmodifiableMap(softwareMap);
+    }
+
+
 
     /**
      * Builds up the list of peptide accession maps. The list is clustered, i.e.
@@ -773,13 +934,7 @@ public abstract class PIACompiler {
      * must be called.
      */
     public final void buildIntermediateStructure() {
-        int nrThreads;
-
-        if (numThreads > 0) {
-            nrThreads = numThreads;
-        } else {
-            nrThreads = Runtime.getRuntime().availableProcessors();
-        }
+        int nrThreads = PIATools.resolveThreads(numThreads);
 
         LOGGER.info("Using " + nrThreads + " threads.");
 
@@ -871,6 +1026,17 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Returns the groups of the intermediate structure by their IDs. These are
+     * only available after {@link #buildIntermediateStructure()}.
+     *
+     * @return
+     */
+    public final Map<Long, Group> getGroups() {
+        return (groups != null) ? Collections.unmodifiableMap(groups) : Collections.emptyMap();
+    }
+
+
     /**
      * Setter for the name
      * @param name
@@ -1227,6 +1393,21 @@ public abstract class PIACompiler {
                 .build();
         options.addOption(inputFileOpt);
 
+        Option mapFastaOpt = Option.builder("mapFasta")
+                .argName("fastaFile")
+                .hasArg()
+                .desc("FASTA file, which is used to map all peptides to all proteins containing them (for input "
+                        + "files without complete protein information). An index of the FASTA file is stored next "
+                        + "to it and reused for further compilations.")
+                .build();
+        options.addOption(mapFastaOpt);
+
+        Option ilEquivalentOpt = Option.builder("ilEquivalent")
+                .hasArg(false)
+                .desc("treat isoleucine and leucine as equal, when mapping the peptides to the FASTA file")
+                .build();
+        options.addOption(ilEquivalentOpt);
+
         Option disableUsageStatisticsOpt = Option.builder("disableUsageStatistics")
                 .hasArg(false)
                 .desc("set this option to disable the collection of usage statistics for quality control and"
@@ -1252,17 +1433,13 @@ public abstract class PIACompiler {
 
             PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_COMMAND_LINE_CATEGORY,
                     PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME, PIAMatomoTracker.PIA_TRACKING_COMPILER_STARTED, null);
-            boolean filesOk = false;
-            if (line.hasOption(inputFileOpt.getOpt())) {
-                filesOk = parseCommandLineInfiles(line.getOptionValues(inputFileOpt.getOpt()), piaCompiler);
-            }
-            if (!filesOk) {
+            if (!line.hasOption(inputFileOpt.getOpt())
+                    || !compileCommandLineInfiles(line.getOptionValues(inputFileOpt.getOpt()),
+                            line.getOptionValue(mapFastaOpt.getOpt()), line.hasOption(ilEquivalentOpt.getOpt()),
+                            piaCompiler)) {
                 return;
             }
 
-            piaCompiler.buildClusterList();
-            piaCompiler.buildIntermediateStructure();
-
             piaName = line.getOptionValue(nameOpt.getOpt());
             if (piaName == null) {
                 piaName = outFileName;
@@ -1289,6 +1466,44 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Parses the files given from the command line into the given
+     * {@link PIACompiler} and builds the intermediate structure. If a FASTA
+     * file is given, all peptides are mapped to the proteins of this file
+     * beforehand.
+     *
+     * @param inputFiles the input files, as given to the infile option
+     * @param fastaFileName the FASTA file for the peptide mapping, may be null
+     * @param ilEquivalent whether isoleucine and leucine are treated as equal in the mapping
+     * @param piaCompiler
+     * @return true, if the intermediate structure was built, otherwise false
+     */
+    public static boolean compileCommandLineInfiles(String[] inputFiles, String fastaFileName,
+            boolean ilEquivalent, PIACompiler piaCompiler) {
+        if (!parseCommandLineInfiles(inputFiles, piaCompiler)) {
+            return false;
+        }
+
+        if (fastaFileName != null) {
+            ProteinSequenceIndex index;
+            try {
+                index = ProteinSequenceIndex.getIndex(fastaFileName, ilEquivalent, piaCompiler.getNrThreads());
+            } catch (IOException e) {
+                LOGGER.error("Error while indexing the FASTA file " + fastaFileName, e);
+                return false;
+            }
+            if (!piaCompiler.mapPeptidesToProteins(index)) {
+                LOGGER.error("Could not map the peptides to the proteins of " + fastaFileName);
+                return false;
+            }
+        }
+
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+        return true;
+    }
+
+
     /**
      * Parses the files given from the command line in the String array into the
      * given {@link PIACompiler}. The files may also contain the name and
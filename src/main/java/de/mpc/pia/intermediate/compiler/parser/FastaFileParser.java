@@ -3,11 +3,15 @@ package de.mpc.pia.intermediate.compiler.parser;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,14 +25,17 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
 
 import de.mpc.pia.intermediate.Accession;
-import de.mpc.pia.intermediate.AccessionOccurrence;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
+import de.mpc.pia.tools.CleavageSiteScanner;
 import de.mpc.pia.tools.MzIdentMLTools;
+import de.mpc.pia.tools.OrderedPipeline;
+import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.ResidueMasses;
 
 public class FastaFileParser {
 
@@ -36,6 +43,13 @@ public class FastaFileParser {
     private static final Logger LOGGER = Logger.getLogger(FastaFileParser.class);
 
 
+    /** the charge of the pseudo-PSMs of the peptides */
+    private static final int PSEUDO_CHARGE = 2;
+
+    /** the number of proteins digested together in one task */
+    private static final int BATCH_SIZE = 256;
+
+
     /**
      * We don't ever want to instantiate this class
      */
@@ -100,57 +114,13 @@ public class FastaFileParser {
             inputFile.addSpectrumIdentification(spectrumID);
 
 
-            String strLine;
-            int spectrumOffset = 0;
-            int accessions = 0;
-            FastaHeaderInfos headerInfos = null;
-            StringBuilder dbSequenceBuffer = new StringBuilder();
+            ProteinInserter inserter = new ProteinInserter(compiler, inputFile,
+                    spectrumID, searchDatabase.getId());
+            ProteinDigester digester = new ProteinDigester(
+                    new CleavageSiteScanner(enzymePattern), minPepLength,
+                    maxPepLength, missedCleavages);
 
-            while ((strLine = br.readLine()) != null) {
-                if (strLine.startsWith(">")) {
-                    if ((headerInfos != null) && (dbSequenceBuffer.length() > 0)) {
-                        // a prior protein can be inserted and digested
-                        spectrumOffset += digestProtein(headerInfos,
-                                dbSequenceBuffer.toString(),
-                                compiler,
-                                inputFile,
-                                spectrumID,
-                                searchDatabase.getId(),
-                                enzymePattern,
-                                minPepLength,
-                                maxPepLength,
-                                missedCleavages,
-                                spectrumOffset);
-                        accessions++;
-
-                        if (accessions % 100000 == 0) {
-                            LOGGER.info(accessions + " accessions processed");
-                        }
-                    }
-
-                    // start of a new protein
-                    headerInfos = FastaHeaderInfos.parseHeaderInfos(strLine);
-                    dbSequenceBuffer = new StringBuilder();
-                } else {
-                    // just reading in the protein sequence
-                    dbSequenceBuffer.append(strLine.trim());
-                }
-            }
-
-            if ((headerInfos != null) && (dbSequenceBuffer.length() > 0)) {
-                // the last protein can be inserted and digested
-                spectrumOffset += digestProtein(headerInfos,
-                        dbSequenceBuffer.toString(),
-                        compiler,
-                        inputFile,
-                        spectrumID,
-                        searchDatabase.getId(),
-                        enzymePattern,
-                        minPepLength,
-                        maxPepLength,
-                        missedCleavages,
-                        spectrumOffset);
-            }
+            digestProteins(br, digester, inserter, PIATools.resolveThreads(compiler.getNrThreads()));
 
             in.close();
         } catch (Exception e) {
@@ -162,160 +132,50 @@ public class FastaFileParser {
 
 
     /**
-     * Inserts the peptides of the given protein into the compiler.
+     * Reads the proteins from the reader and digests them. If more than one
+     * thread is given, batches of proteins are digested in parallel, while
+     * the reading thread inserts the digested proteins in the file's order
+     * into the compiler.
      *
-     * @param fastaHeader
-     * @param dbSequence
-     * @param compiler
+     * @param br
+     * @param digester
+     * @param inserter
+     * @param nrThreads
+     * @throws IOException
      */
-    private static int digestProtein(FastaHeaderInfos fastaHeader,
-            String dbSequence, PIACompiler compiler, PIAInputFile inputFile,
-            SpectrumIdentification spectrumID, String searchDBRef,
-            String enzymePattern, int minPepLength, int maxPepLength,
-            int maxMissedCleavages, int spectrumCountOffset) {
-        Accession accession;
-
-        // first, look if the accession is already in the compilation (this should not be the case!)
-        accession = compiler.getAccession(fastaHeader.getAccession());
-        if (accession != null) {
-            LOGGER.warn("Protein with accession " + accession.getAccession() +
-                    " already in the compilation! Only keeping the sequence " +
-                    "of the first accession.");
-            return 0;
-        }
-
-        // put the new accession into the compiler
-        accession = compiler.insertNewAccession(fastaHeader.getAccession(),
-                dbSequence);
-
-        accession.addFile(inputFile.getID());
-
-        accession.addDescription(inputFile.getID(),
-                fastaHeader.getDescription());
-
-        accession.addSearchDatabaseRef(searchDBRef);
-
-        // digest the protein
-        String[] peptides = dbSequence.split(enzymePattern);
-
-        // if the missedCleavages is below 0, allow for all possible missed cleavages
-        int missedCleavages;
-        if (maxMissedCleavages >= 0) {
-            missedCleavages = maxMissedCleavages;
-        } else {
-            missedCleavages = peptides.length - 1;
-        }
-
-        // get the peptides
-        int spectraCount = 1;
-        for (int missed=0; missed <= missedCleavages; missed++) {
-
-            int start = 0;
-            for (int i = 0; i < peptides.length-missed; i++) {
-                // build the sequence with misses
-                StringBuilder sequence = new StringBuilder(peptides[i]);
-                for (int miss=1; miss <= missed; miss++) {
-                    sequence.append(peptides[i+miss]);
-                }
-
-                if ((sequence.length() >= minPepLength) &&
-                        (sequence.length() <= maxPepLength)) {
-                    addSequence(sequence.toString(),
-                            accession,
-                            start+1,
-                            missed,
-                            compiler,
-                            inputFile,
-                            spectrumID,
-                            spectrumCountOffset + spectraCount);
-                }
-
-                start += peptides[i].length();
-                spectraCount++;
-            }
-
-        }
-
-        return spectraCount;
+    private static void digestProteins(BufferedReader br, ProteinDigester digester,
+            ProteinInserter inserter, int nrThreads) throws IOException {
+        FastaRecordReader reader = new FastaRecordReader(br);
+
+        OrderedPipeline.process(
+                () -> {
+                    List<FastaRecord> batch = readBatch(reader, BATCH_SIZE);
+                    return batch.isEmpty() ? null : batch;
+                },
+                batch -> batch.stream().map(digester::digest).collect(Collectors.toList()),
+                digested -> digested.forEach(inserter::insertProtein),
+                nrThreads, "digesting proteins");
     }
 
 
     /**
-     * Adds the sequence to the compiler.
+     * Reads the next maxProteins proteins from the reader.
+     *
+     * @param reader
+     * @param maxProteins
+     * @return the proteins, empty at the end of the file
+     * @throws IOException
      */
-    private static void addSequence(String sequence, Accession accession,
-            int start, int missed, PIACompiler compiler, PIAInputFile inputFile,
-            SpectrumIdentification spectrumID, int spectrumCount) {
-        Peptide peptide = compiler.getPeptide(sequence);
-
-        if (peptide == null) {
-            peptide = compiler.insertNewPeptide(sequence);
-
-            // only add one PSM for one peptide-sequence
-            // TODO: calculate the mass
-            double massToCharge = sequence.length();
-
-            String sourceID = "index=" + spectrumCount;
-
-            PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
-                    2,                          // just a pseudo-charge
-                    massToCharge,
-                    0,
-                    null,
-                    sequence,
-                    missed,
-                    sourceID,
-                    sequence,
-                    inputFile,
-                    spectrumID);
-
-            peptide.addSpectrum(psm);
-
-            // add the "FASTA Sequence Count" score
-            ScoreModel score = new ScoreModel(1.0,
-                    ScoreModelEnum.FASTA_SEQUENCE_COUNT);
-            psm.addScore(score);
-
-            // add the "FASTA Accession Count" score
-            score = new ScoreModel(0.0,
-                    ScoreModelEnum.FASTA_ACCESSION_COUNT);
-            psm.addScore(score);
-
-            compiler.insertCompletePeptideSpectrumMatch(psm);
-        } else {
-            // increase the "FASTA Sequence Count" score
-            Optional<PeptideSpectrumMatch> psm = peptide.getSpectra().stream().findFirst();
-            if (psm.isPresent()) {
-                ScoreModel score = psm.get().getScore(ScoreModelEnum.FASTA_SEQUENCE_COUNT.getShortName());
-                Double value = score.getValue();
-                score.setValue(value + 1);
-            }
-        }
+    private static List<FastaRecord> readBatch(FastaRecordReader reader, int maxProteins)
+            throws IOException {
+        List<FastaRecord> batch = new ArrayList<>(maxProteins);
 
-        boolean increaseAccessionCount = true;
-        for (AccessionOccurrence occ : peptide.getAccessionOccurrences()) {
-            // only count the accessions once for the "FASTA Accession Count"
-            if (accession.getID().equals(occ.getAccession().getID())) {
-                increaseAccessionCount = false;
-                break;
-            }
-        }
-        if (increaseAccessionCount) {
-            // increase the "FASTA Accession Count" score
-            Optional<PeptideSpectrumMatch> psm = peptide.getSpectra().stream().findFirst();
-            if (psm.isPresent()) {
-                ScoreModel score = psm.get().getScore(ScoreModelEnum.FASTA_ACCESSION_COUNT.getShortName());
-                Double value = score.getValue();
-                score.setValue(value + 1);
-            }
+        FastaRecord record;
+        while ((batch.size() < maxProteins) && ((record = reader.next()) != null)) {
+            batch.add(record);
         }
 
-        peptide.addAccessionOccurrence(accession,
-                start,
-                start+sequence.length()-1);
-
-        // now insert the connection between peptide and accession into the compiler
-        compiler.addAccessionPeptideConnection(accession, peptide);
+        return batch;
     }
 
 
@@ -368,4 +228,353 @@ public class FastaFileParser {
 
         return isFastaFile;
     }
+
+
+    /**
+     * Reads the FASTA file protein by protein.
+     */
+    private static class FastaRecordReader {
+        /** the underlying reader */
+        private final BufferedReader br;
+
+        /** the header of the next protein, which was already read */
+        private String nextHeader;
+
+
+        private FastaRecordReader(BufferedReader br) {
+            this.br = br;
+            this.nextHeader = null;
+        }
+
+
+        /**
+         * Reads the next protein with a sequence.
+         *
+         * @return the protein or null at the end of the file
+         * @throws IOException
+         */
+        private FastaRecord next() throws IOException {
+            String header = nextHeader;
+            StringBuilder dbSequenceBuffer = new StringBuilder();
+            String strLine;
+
+            while ((strLine = br.readLine()) != null) {
+                if (strLine.startsWith(">")) {
+                    if ((header != null) && (dbSequenceBuffer.length() > 0)) {
+                        // the prior protein is complete
+                        nextHeader = strLine;
+                        return new FastaRecord(header, dbSequenceBuffer.toString());
+                    }
+
+                    // start of a new protein
+                    header = strLine;
+                    dbSequenceBuffer.setLength(0);
+                } else {
+                    // just reading in the protein sequence
+                    dbSequenceBuffer.append(strLine.trim());
+                }
+            }
+
+            nextHeader = null;
+            if ((header != null) && (dbSequenceBuffer.length() > 0)) {
+                // the last protein
+                return new FastaRecord(header, dbSequenceBuffer.toString());
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * A protein as read from the FASTA file.
+     */
+    private static class FastaRecord {
+        private final String header;
+        private final String dbSequence;
+
+        private FastaRecord(String header, String dbSequence) {
+            this.header = header;
+            this.dbSequence = dbSequence;
+        }
+    }
+
+
+    /**
+     * A protein with its digested peptides.
+     */
+    private static class DigestedProtein {
+        private final FastaHeaderInfos headerInfos;
+        private final String dbSequence;
+        private final List<DigestedPeptide> peptides;
+
+        /** the number of spectrum indices used by the protein */
+        private final int spectraCount;
+
+        private DigestedProtein(FastaHeaderInfos headerInfos, String dbSequence,
+                List<DigestedPeptide> peptides, int spectraCount) {
+            this.headerInfos = headerInfos;
+            this.dbSequence = dbSequence;
+            this.peptides = peptides;
+            this.spectraCount = spectraCount;
+        }
+    }
+
+
+    /**
+     * A peptide of a digested protein.
+     */
+    private static class DigestedPeptide {
+        private final String sequence;
+
+        /** the (one based) start in the protein */
+        private final int start;
+
+        private final int missed;
+
+        /** the spectrum index relative to the protein */
+        private final int spectrumIndex;
+
+        /** whether this is the first occurrence of the sequence in the protein */
+        private final boolean firstInProtein;
+
+        private final double massToCharge;
+
+        private DigestedPeptide(String sequence, int start, int missed,
+                int spectrumIndex, boolean firstInProtein, double massToCharge) {
+            this.sequence = sequence;
+            this.start = start;
+            this.missed = missed;
+            this.spectrumIndex = spectrumIndex;
+            this.firstInProtein = firstInProtein;
+            this.massToCharge = massToCharge;
+        }
+    }
+
+
+    /**
+     * Digests the proteins, this is thread safe and does not access the
+     * compiler.
+     */
+    private static class ProteinDigester {
+        private final CleavageSiteScanner siteScanner;
+        private final int minPepLength;
+        private final int maxPepLength;
+        private final int maxMissedCleavages;
+
+
+        private ProteinDigester(CleavageSiteScanner siteScanner, int minPepLength,
+                int maxPepLength, int maxMissedCleavages) {
+            this.siteScanner = siteScanner;
+            this.minPepLength = minPepLength;
+            this.maxPepLength = maxPepLength;
+            this.maxMissedCleavages = maxMissedCleavages;
+        }
+
+
+        /**
+         * Parses the header and digests the sequence of the given protein.
+         *
+         * @param record
+         * @return
+         */
+        private DigestedProtein digest(FastaRecord record) {
+            String dbSequence = record.dbSequence;
+            String[] peptides = siteScanner.split(dbSequence);
+
+            // the start positions of the peptides, with the end of the last one appended
+            int[] starts = new int[peptides.length + 1];
+            for (int i = 0; i < peptides.length; i++) {
+                starts[i + 1] = starts[i] + peptides[i].length();
+            }
+            // if the site consumed no residues, the peptides are substrings of the protein
+            boolean contiguous = (starts[peptides.length] == dbSequence.length());
+
+            // if the missedCleavages is below 0, allow for all possible missed cleavages
+            int missedCleavages;
+            if (maxMissedCleavages >= 0) {
+                missedCleavages = maxMissedCleavages;
+            } else {
+                missedCleavages = peptides.length - 1;
+            }
+
+            List<DigestedPeptide> digested = new ArrayList<>();
+            Set<String> proteinSequences = new HashSet<>();
+
+            int spectraCount = 1;
+            for (int missed = 0; missed <= missedCleavages; missed++) {
+                for (int i = 0; i < peptides.length - missed; i++) {
+                    int length = starts[i + missed + 1] - starts[i];
+
+                    if ((length >= minPepLength) && (length <= maxPepLength)) {
+                        String sequence;
+                        if (contiguous) {
+                            sequence = dbSequence.substring(starts[i], starts[i + missed + 1]);
+                        } else {
+                            StringBuilder sequenceBuilder = new StringBuilder(length);
+                            for (int miss = 0; miss <= missed; miss++) {
+                                sequenceBuilder.append(peptides[i + miss]);
+                            }
+                            sequence = sequenceBuilder.toString();
+                        }
+
+                        double massToCharge;
+                        if (ResidueMasses.hasResidueMasses(sequence)) {
+                            massToCharge = ResidueMasses.calculateMassToCharge(
+                                    ResidueMasses.calculatePeptideMass(sequence), PSEUDO_CHARGE);
+                        } else {
+                            // no mass for e.g. stop codons, use the former pseudo m/z
+                            massToCharge = sequence.length();
+                        }
+
+                        digested.add(new DigestedPeptide(sequence, starts[i] + 1, missed,
+                                spectraCount, proteinSequences.add(sequence), massToCharge));
+                    }
+
+                    spectraCount++;
+                }
+            }
+
+            return new DigestedProtein(FastaHeaderInfos.parseHeaderInfos(record.header),
+                    dbSequence, digested, spectraCount);
+        }
+    }
+
+
+    /**
+     * Inserts the digested proteins and their peptides into the compiler. This
+     * must be called by only one thread in the order of the file.
+     */
+    private static class ProteinInserter {
+        private final PIACompiler compiler;
+        private final PIAInputFile inputFile;
+        private final SpectrumIdentification spectrumID;
+        private final String searchDBRef;
+
+        /** the offset for the spectrum indices of the next protein */
+        private int spectrumOffset;
+
+        /** the number of processed proteins */
+        private int accessions;
+
+
+        private ProteinInserter(PIACompiler compiler, PIAInputFile inputFile,
+                SpectrumIdentification spectrumID, String searchDBRef) {
+            this.compiler = compiler;
+            this.inputFile = inputFile;
+            this.spectrumID = spectrumID;
+            this.searchDBRef = searchDBRef;
+            this.spectrumOffset = 0;
+            this.accessions = 0;
+        }
+
+
+        /**
+         * Inserts the protein and its peptides into the compiler.
+         *
+         * @param protein
+         */
+        private void insertProtein(DigestedProtein protein) {
+            FastaHeaderInfos fastaHeader = protein.headerInfos;
+
+            // first, look if the accession is already in the compilation (this should not be the case!)
+            Accession accession = compiler.getAccession(fastaHeader.getAccession());
+            if (accession != null) {
+                LOGGER.warn("Protein with accession " + accession.getAccession() +
+                        " already in the compilation! Only keeping the sequence " +
+                        "of the first accession.");
+            } else {
+                // put the new accession into the compiler
+                accession = compiler.insertNewAccession(fastaHeader.getAccession(),
+                        protein.dbSequence);
+
+                accession.addFile(inputFile.getID());
+
+                accession.addDescription(inputFile.getID(),
+                        fastaHeader.getDescription());
+
+                accession.addSearchDatabaseRef(searchDBRef);
+
+                for (DigestedPeptide peptide : protein.peptides) {
+                    addSequence(peptide, accession);
+                }
+
+                spectrumOffset += protein.spectraCount;
+            }
+
+            accessions++;
+            if (accessions % 100000 == 0) {
+                LOGGER.info(accessions + " accessions processed");
+            }
+        }
+
+
+        /**
+         * Adds the sequence to the compiler.
+         */
+        private void addSequence(DigestedPeptide digested, Accession accession) {
+            String sequence = digested.sequence;
+            Peptide peptide = compiler.getPeptide(sequence);
+
+            if (peptide == null) {
+                peptide = compiler.insertNewPeptide(sequence);
+
+                // only add one PSM for one peptide-sequence
+                String sourceID = "index=" + (spectrumOffset + digested.spectrumIndex);
+
+                PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
+                        PSEUDO_CHARGE,
+                        digested.massToCharge,
+                        0,
+                        null,
+                        sequence,
+                        digested.missed,
+                        sourceID,
+                        sequence,
+                        inputFile,
+                        spectrumID);
+
+                peptide.addSpectrum(psm);
+
+                // add the "FASTA Sequence Count" score
+                ScoreModel score = new ScoreModel(1.0,
+                        ScoreModelEnum.FASTA_SEQUENCE_COUNT);
+                psm.addScore(score);
+
+                // add the "FASTA Accession Count" score
+                score = new ScoreModel(0.0,
+                        ScoreModelEnum.FASTA_ACCESSION_COUNT);
+                psm.addScore(score);
+
+                compiler.insertCompletePeptideSpectrumMatch(psm);
+            } else {
+                // increase the "FASTA Sequence Count" score
+                increaseScore(peptide, ScoreModelEnum.FASTA_SEQUENCE_COUNT);
+            }
+
+            if (digested.firstInProtein) {
+                // only count the accessions once for the "FASTA Accession Count"
+                increaseScore(peptide, ScoreModelEnum.FASTA_ACCESSION_COUNT);
+            }
+
+            peptide.addAccessionOccurrence(accession,
+                    digested.start,
+                    digested.start + sequence.length() - 1);
+
+            // now insert the connection between peptide and accession into the compiler
+            compiler.addAccessionPeptideConnection(accession, peptide);
+        }
+
+
+        /**
+         * Increases the given count score of the peptide's PSM by one.
+         */
+        private static void increaseScore(Peptide peptide, ScoreModelEnum scoreType) {
+            Optional<PeptideSpectrumMatch> psm = peptide.getSpectra().stream().findFirst();
+            if (psm.isPresent()) {
+                ScoreModel score = psm.get().getScore(scoreType.getShortName());
+                Double value = score.getValue();
+                score.setValue(value + 1);
+            }
+        }
+    }
 }
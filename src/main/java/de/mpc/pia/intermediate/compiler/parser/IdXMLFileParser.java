@@ -126,10 +126,12 @@ public class IdXMLFileParser {
             return false;
         }
 
-        int accNr = 0;
-        int pepNr = 0;
-        int specNr = 0;
+        // the number of inserted PSMs, peptides and accessions
+        int[] counts = new int[3];
         int runCount = 0;
+
+        // the settings of the runs, needed for their peptide identifications
+        Map<IdentificationRun, RunSettings> runsSettings = new HashMap<>();
         for (IdentificationRun idRun : idXMLFile.getIdentificationRuns()) {
 
             runCount++;
@@ -260,21 +262,34 @@ public class IdXMLFileParser {
 
             file.addSpectrumIdentification(spectrumID);
 
-            // go through the peptide identifications
-            for (PeptideIdentification pepID : idRun.getPeptideIdentification()) {
+            runsSettings.put(idRun, new RunSettings(file, enzyme, spectrumID, searchDatabase.getId()));
+        }
+
+        // go through the peptide identifications, one at a time
+        try {
+            idXMLFile.streamPeptideIdentifications((idRun, pepID) -> {
+                RunSettings settings = runsSettings.get(idRun);
+                if (settings == null) {
+                    // this run was not processed
+                    return;
+                }
+
                 int[] adds = processPeptideIdentification(pepID, compiler,
-                        enzyme, file, spectrumID, idRun,
-                        searchDatabase.getId());
-                specNr += adds[0];
-                pepNr += adds[1];
-                accNr += adds[2];
-            }
+                        settings.enzyme, settings.file, settings.spectrumID, idRun,
+                        settings.searchDbId);
+                for (int idx = 0; idx < counts.length; idx++) {
+                    counts[idx] += adds[idx];
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.error("could not read the peptide identifications of '" + fileName + "'.", e);
+            return false;
         }
 
         LOGGER.info("inserted new: \n\t" +
-                pepNr + " peptides\n\t" +
-                specNr + " peptide spectrum matches\n\t" +
-                accNr + " accessions");
+                counts[1] + " peptides\n\t" +
+                counts[0] + " peptide spectrum matches\n\t" +
+                counts[2] + " accessions");
         return true;
     }
 
@@ -1112,4 +1127,24 @@ public class IdXMLFileParser {
 
         return isIdXMLFile;
     }
+
+
+    /**
+     * The settings of an identification run, which are needed to process its
+     * peptide identifications.
+     */
+    private static class RunSettings {
+        private final PIAInputFile file;
+        private final Enzyme enzyme;
+        private final SpectrumIdentification spectrumID;
+        private final String searchDbId;
+
+        private RunSettings(PIAInputFile file, Enzyme enzyme, SpectrumIdentification spectrumID,
+                String searchDbId) {
+            this.file = file;
+            this.enzyme = enzyme;
+            this.spectrumID = spectrumID;
+            this.searchDbId = searchDbId;
+        }
+    }
 }
@@ -8,19 +8,30 @@ import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.OrderedPipeline;
+import de.mpc.pia.tools.PIATools;
 import de.mpc.pia.tools.obo.AbstractOBOMapper;
 import de.mpc.pia.tools.obo.OBOMapper;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.log4j.Logger;
 import org.biojava.nbio.ontology.Term;
 import org.biojava.nbio.ontology.Triple;
+import uk.ac.ebi.jmzidml.MzIdentMLElement;
 import uk.ac.ebi.jmzidml.model.mzidml.*;
 import uk.ac.ebi.jmzidml.xml.io.MzIdentMLUnmarshaller;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -47,18 +58,21 @@ class MzIdentMLFileParser {
     /** the used unmarshaller */
     private MzIdentMLUnmarshaller unmarshaller;
 
-    /** maps from the ID to the peptides */
-    private Map<String, uk.ac.ebi.jmzidml.model.mzidml.Peptide> peptides;
+    /** maps from the ID to the needed information of the Peptide */
+    private Map<String, PeptideInfo> peptides;
 
-    /** maps from the ID to the PeptideEvidence */
-    private Map<String, PeptideEvidence> peptideEvidences;
+    /** maps from the ID to the needed information of the PeptideEvidence */
+    private Map<String, PeptideEvidenceInfo> peptideEvidences;
 
-    /** maps from the ID to the DBSequence */
-    private Map<String, DBSequence> dbSequences;
+    /** maps from the ID to the needed information of the DBSequence */
+    private Map<String, DBSequenceInfo> dbSequences;
 
     /** maps from the SpectrumIdentificationList IDs to the SpectrumIdentification IDs */
     private Map<String, String> specIdListIDtoSpecIdID;
 
+    /** caches for the cvParam accessions the name and description of the score or NO_SCORE_TERM */
+    private Map<String, String[]> scoreTerms;
+
 
     /** number of added accessions */
     private int accNr;
@@ -70,6 +84,12 @@ class MzIdentMLFileParser {
     /** unit ontology accession for minutes */
     private static final String UNIT_ACCESSION_MINUTES = "UO:0000031";
 
+    /** marks a cvParam accession, which is no score */
+    private static final String[] NO_SCORE_TERM = new String[0];
+
+    /** the number of SpectrumIdentificationResults converted together in one task */
+    private static final int CONVERSION_BATCH_SIZE = 64;
+
 
     /** the cvParams which are specially parsed and don't need to be passed for the spectrumIdentificationResults */
     private static List<String> parsedSpecIdResultCVParams = Arrays.asList(OntologyConstants.SCAN_NUMBERS.getPsiAccession(), OntologyConstants.SCAN_START_TIME.getPsiAccession());
@@ -80,6 +100,7 @@ class MzIdentMLFileParser {
      */
     private MzIdentMLFileParser(PIACompiler compiler) {
         this.compiler = compiler;
+        this.scoreTerms = new ConcurrentHashMap<>();
     }
 
 
@@ -128,9 +149,12 @@ class MzIdentMLFileParser {
         pepNr = 0;
         specNr = 0;
 
-        // maps from the ID to the SpectrumIdentificationList
-        Map<String, SpectrumIdentificationList> specIdLists = getSpectrumIdentificationLists();
-        LOGGER.error("File has " + specIdLists.size() + " specIdLists");
+        // maps from the IDs of the SpectrumIdentificationLists to their number of results, in the file's order
+        Map<String, Integer> specIdLists = countSpectrumIdentificationResults(fileName);
+        if (specIdLists == null) {
+            return false;
+        }
+        LOGGER.info("File has " + specIdLists.size() + " specIdLists");
 
         specIdListIDtoSpecIdID = new HashMap<>();
 
@@ -190,36 +214,23 @@ class MzIdentMLFileParser {
         // update the PIAFile's references for SpectraData, SearchDBs and AnalysisSoftwares
         file.updateReferences(spectraDataRefs, searchDBRefs, analysisSoftwareRefs);
 
-        // get/hash the SequenceCollection:PeptideEvidences
-        SequenceCollection sc = unmarshaller.unmarshal(SequenceCollection.class);
-        peptideEvidences = new HashMap<>();
-        for (PeptideEvidence pepEvidence : sc.getPeptideEvidence()) {
-            peptideEvidences.put(pepEvidence.getId(), pepEvidence);
-        }
-
-        // get/hash the SequenceCollection:DBSequences
-        dbSequences = new HashMap<>();
-        for (DBSequence dbSeq : sc.getDBSequence()) {
-            dbSequences.put(dbSeq.getId(), dbSeq);
-        }
-
-        // get/hash the SequenceCollection:Peptides
-        peptides = new HashMap<>();
-        for (uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide: sc.getPeptide()) {
-            peptides.put(peptide.getId(), peptide);
-        }
+        // index the SequenceCollection, only the needed information is kept
+        indexSequenceCollection();
 
+        List<SpectrumIdentificationListInfo> specIdListInfos = specIdLists.entrySet().stream()
+                .map(specIdList -> createSpectrumIdentificationListInfo(specIdList.getKey(), specIdList.getValue()))
+                .collect(Collectors.toList());
 
-        boolean ok = true;
+        // initialize the OBO mapper, before it is used by the converter threads
+        compiler.getOBOMapper();
 
-        // go through the SpectrumIdentificationList:SpectrumIdentificationResult:SpectrumIdentificationItem and build the PeptideSpectrumMatches, Accessions and Peptides
-        for (SpectrumIdentificationList specIDList : specIdLists.values()) {
-            ok = addSpectrumIdentificationList(specIDList);
+        // go through the SpectrumIdentificationList:SpectrumIdentificationResult:SpectrumIdentificationItem and build
+        // the PeptideSpectrumMatches, Accessions and Peptides, the results are streamed one by one in file order
+        Iterator<SpectrumIdentificationResult> specIdResultIterator =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.SpectrumIdentificationResult);
 
-            if (!ok) {
-                break;
-            }
-        }
+        boolean ok = addSpectrumIdentificationResults(specIdListInfos, specIdResultIterator,
+                PIATools.resolveThreads(compiler.getNrThreads()));
 
         LOGGER.info("inserted new: \n\t" +
                 pepNr + " peptides\n\t" +
@@ -255,17 +266,85 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Parses the spectrumIdentificationLists
-     * @return
+     * Counts the SpectrumIdentificationResults of each SpectrumIdentificationList with a StAX reader, without
+     * unmarshalling any of them.
+     *
+     * @param fileName
+     * @return maps from the IDs of the SpectrumIdentificationLists to their number of results in the order of the
+     * file, or null, if an error occurred
      */
-    private Map<String, SpectrumIdentificationList> getSpectrumIdentificationLists() {
-        Map<String, SpectrumIdentificationList> spectrumIdentificationLists = new HashMap<>();
+    private static Map<String, Integer> countSpectrumIdentificationResults(String fileName) {
+        Map<String, Integer> specIdListSizes = new LinkedHashMap<>();
+
+        XMLInputFactory xmlif = XMLInputFactory.newInstance();
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        try (InputStream inputStream = new FileInputStream(fileName)) {
+            XMLStreamReader xmlr = xmlif.createXMLStreamReader(inputStream);
+
+            String specIdListID = null;
+            int nrResults = 0;
+            while (xmlr.hasNext()) {
+                int event = xmlr.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("SpectrumIdentificationList".equals(xmlr.getLocalName())) {
+                        specIdListID = xmlr.getAttributeValue(null, "id");
+                        nrResults = 0;
+                    } else if ("SpectrumIdentificationResult".equals(xmlr.getLocalName())) {
+                        nrResults++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if ("SpectrumIdentificationList".equals(xmlr.getLocalName())) {
+                        specIdListSizes.put(specIdListID, nrResults);
+                    } else if ("AnalysisData".equals(xmlr.getLocalName())) {
+                        // nothing more of interest in the file
+                        break;
+                    }
+                }
+            }
 
-        AnalysisData analysisData = unmarshaller.unmarshal(AnalysisData.class);
-        analysisData.getSpectrumIdentificationList()
-                .forEach(specIdList -> spectrumIdentificationLists.put(specIdList.getId(), specIdList));
+            xmlr.close();
+        } catch (IOException | XMLStreamException e) {
+            LOGGER.error("Could not read the SpectrumIdentificationLists of " + fileName, e);
+            return null;
+        }
 
-        return spectrumIdentificationLists;
+        return specIdListSizes;
+    }
+
+
+    /**
+     * Iterates through the PeptideEvidences, DBSequences and Peptides of the SequenceCollection one by one and keeps
+     * only the information needed for the PSMs in the maps.
+     */
+    private void indexSequenceCollection() {
+        peptideEvidences = new HashMap<>();
+        Iterator<PeptideEvidence> pepEvidenceIt =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.PeptideEvidence);
+        while (pepEvidenceIt.hasNext()) {
+            PeptideEvidence pepEvidence = pepEvidenceIt.next();
+            peptideEvidences.put(pepEvidence.getId(), new PeptideEvidenceInfo(pepEvidence));
+        }
+
+        dbSequences = new HashMap<>();
+        Iterator<DBSequence> dbSeqIt = unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.DBSequence);
+        while (dbSeqIt.hasNext()) {
+            DBSequence dbSeq = dbSeqIt.next();
+            dbSequences.put(dbSeq.getId(), new DBSequenceInfo(dbSeq));
+        }
+
+        peptides = new HashMap<>();
+        // the modification names and accessions are repeated in many peptides, keep each only once
+        Map<String, String> modificationTerms = new HashMap<>();
+        Iterator<uk.ac.ebi.jmzidml.model.mzidml.Peptide> peptideIt =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.Peptide);
+        while (peptideIt.hasNext()) {
+            uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide = peptideIt.next();
+            peptides.put(peptide.getId(), new PeptideInfo(peptide, modificationTerms));
+        }
+
+        LOGGER.debug("indexed " + peptideEvidences.size() + " peptideEvidences, "
+                + dbSequences.size() + " dbSequences and " + peptides.size() + " peptides");
     }
 
 
@@ -357,12 +436,14 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Add the SpectrumIdentificationList and all its contents to the compiler.
+     * Collects the information of the SpectrumIdentification for the given SpectrumIdentificationList, which is
+     * needed for its PSMs.
      *
-     * @param specIDList
+     * @param specIDListID the ID of the SpectrumIdentificationList
+     * @param nrResults the number of results in the SpectrumIdentificationList
      * @return
      */
-    private boolean addSpectrumIdentificationList(SpectrumIdentificationList specIDList) {
+    private SpectrumIdentificationListInfo createSpectrumIdentificationListInfo(String specIDListID, int nrResults) {
         // get some information from the SpectrumIdentification
         Set<String> specIDListsDBRefs = new HashSet<>();
         SpectrumIdentification spectrumID = null;
@@ -371,7 +452,7 @@ class MzIdentMLFileParser {
         String analysisSoftwareName = null;
 
         for (SpectrumIdentification specID : file.getAnalysisCollection().getSpectrumIdentification()) {
-            if (specID.getId().equals(specIdListIDtoSpecIdID.get(specIDList.getId()))  ) {
+            if (specID.getId().equals(specIdListIDtoSpecIdID.get(specIDListID))) {
                 // this is the SpectrumIdentification for this list
                 specIDListsDBRefs.addAll(specID.getSearchDatabaseRef().stream().map(SearchDatabaseRef::getSearchDatabaseRef).collect(Collectors.toList()));
                 spectrumID = specID;
@@ -389,53 +470,105 @@ class MzIdentMLFileParser {
             }
         }
 
-        // go through all the SpectrumIdentificationResults and build the PSMs
-        LOGGER.debug("Processing " + specIDList.getSpectrumIdentificationResult().size() + " specIdResults");
-        boolean ok = true;
-        for (SpectrumIdentificationResult specIdRes : specIDList.getSpectrumIdentificationResult()) {
-            ok = addSpectrumIdentificationResult(specIdRes, spectrumID, specIDListsDBRefs, specIDListsEnzymes,
-                    analysisSoftwareName);
-            if (!ok) {
-                break;
-            }
+        return new SpectrumIdentificationListInfo(specIDListID, nrResults, spectrumID, specIDListsDBRefs,
+                specIDListsEnzymes, analysisSoftwareName);
+    }
+
+
+    /**
+     * Converts the SpectrumIdentificationResults of all SpectrumIdentificationLists and adds them to the compiler.
+     * The calling thread reads the results from the iterator in batches, the given number of threads convert them
+     * into PSMs and the calling thread inserts them into the compiler in file order, so the IDs stay deterministic.
+     *
+     * @param specIdListInfos the information of the SpectrumIdentificationLists in file order
+     * @param specIdResultIterator iterator over all SpectrumIdentificationResults of the file
+     * @param nrThreads the number of converter threads
+     * @return
+     */
+    private boolean addSpectrumIdentificationResults(List<SpectrumIdentificationListInfo> specIdListInfos,
+            Iterator<SpectrumIdentificationResult> specIdResultIterator, int nrThreads) {
+        LOGGER.debug("converting the PSMs with " + nrThreads + " threads");
+
+        Iterator<SpectrumIdentificationListInfo> listInfoIterator = specIdListInfos.iterator();
+        SpectrumIdentificationListInfo[] listInfo = {null};
+        int[] remainingResults = {0};
+
+        try {
+            OrderedPipeline.process(
+                    () -> {
+                        List<ConversionTask> batch = new ArrayList<>(CONVERSION_BATCH_SIZE);
+                        while (batch.size() < CONVERSION_BATCH_SIZE) {
+                            while ((remainingResults[0] == 0) && listInfoIterator.hasNext()) {
+                                listInfo[0] = listInfoIterator.next();
+                                remainingResults[0] = listInfo[0].nrResults;
+                                LOGGER.debug("Processing " + listInfo[0].nrResults + " specIdResults");
+                            }
+                            if (remainingResults[0] == 0) {
+                                break;
+                            }
+                            if (!specIdResultIterator.hasNext()) {
+                                throw new IOException("Missing SpectrumIdentificationResults for "
+                                        + listInfo[0].specIdListID);
+                            }
+
+                            batch.add(new ConversionTask(listInfo[0], specIdResultIterator.next()));
+                            remainingResults[0]--;
+                        }
+                        return batch.isEmpty() ? null : batch;
+                    },
+                    batch -> {
+                        batch.forEach(task ->
+                                task.convertedPSMs = convertSpectrumIdentificationResult(task.specIdResult, task.listInfo));
+                        return batch;
+                    },
+                    batch -> {
+                        for (ConversionTask task : batch) {
+                            if (task.convertedPSMs == null) {
+                                throw new IOException("could not convert the SpectrumIdentificationResult "
+                                        + task.specIdResult.getId());
+                            }
+                            task.convertedPSMs.forEach(convertedPSM -> insertConvertedPSM(convertedPSM, task.listInfo));
+                        }
+                    },
+                    nrThreads, "converting the SpectrumIdentificationResults");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error while adding the SpectrumIdentificationResults", e);
+            return false;
         }
 
-        return ok;
+        return true;
     }
 
 
     /**
-     * Add the SpectrumIdentificationResult and all its contents to the compiler.
+     * Converts the SpectrumIdentificationResult into PSMs, without changing the compiler. This method may be called
+     * concurrently.
      *
      * @param specIdResult
-     * @param spectrumID
-     * @param specIDListsDBRefs
-     * @param specIDListsEnzymes
-     * @return
+     * @param listInfo the information of the result's SpectrumIdentificationList
+     * @return the converted PSMs or null, if an error occurred
      */
-    private boolean addSpectrumIdentificationResult(SpectrumIdentificationResult specIdResult,
-            SpectrumIdentification spectrumID, Set<String> specIDListsDBRefs, Enzymes specIDListsEnzymes,
-            String analysisSoftwareName) {
+    private List<ConvertedPSM> convertSpectrumIdentificationResult(SpectrumIdentificationResult specIdResult,
+            SpectrumIdentificationListInfo listInfo) {
         String sourceID = parseSourceID(specIdResult);
         String spectrumTitle = parseSpectrumTitle(specIdResult);
         Double retentionTime = parseRetentionTime(specIdResult);
 
         // stores the not specially parsed cvParams
-        ParamList resultParams = new ParamList();
-        specIdResult.getParamGroup().stream()
+        List<AbstractParam> resultParams = specIdResult.getParamGroup().stream()
                 .filter(param -> !((param instanceof CvParam) && parsedSpecIdResultCVParams.contains(((CvParam)param).getAccession())))
-                .forEach(resultParams.getParamGroup()::add);
+                .collect(Collectors.toList());
 
-        boolean ok = true;
+        List<ConvertedPSM> convertedPSMs = new ArrayList<>(specIdResult.getSpectrumIdentificationItem().size());
         for (SpectrumIdentificationItem specIdItem : specIdResult.getSpectrumIdentificationItem()) {
-
-            ok = processSpectrumIdentificationItem(specIdItem, resultParams, sourceID, spectrumTitle, retentionTime,
-                    spectrumID, specIDListsDBRefs, specIDListsEnzymes, analysisSoftwareName);
-            if (!ok) {
-                break;
+            ConvertedPSM convertedPSM = convertSpectrumIdentificationItem(specIdItem, resultParams, sourceID,
+                    spectrumTitle, retentionTime, listInfo);
+            if (convertedPSM == null) {
+                return null;
             }
+            convertedPSMs.add(convertedPSM);
         }
-        return ok;
+        return convertedPSMs;
     }
 
 
@@ -537,63 +670,52 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Add the SpectrumIdentificationItem and all its contents to the compiler.
+     * Converts the SpectrumIdentificationItem and all its contents into a PSM, without changing the compiler.
      *
      * @param specIdItem
      * @param resultParams
      * @param sourceID
      * @param spectrumTitle
      * @param retentionTime
-     * @param spectrumID
-     * @param specIDListsDBRefs
-     * @param specIDListsEnzymes
-     * @return
+     * @param listInfo
+     * @return the converted PSM or null, if an error occurred
      */
-    private boolean processSpectrumIdentificationItem(SpectrumIdentificationItem specIdItem, ParamList resultParams,
-            String sourceID, String spectrumTitle, Double retentionTime, SpectrumIdentification spectrumID,
-            Set<String> specIDListsDBRefs, Enzymes specIDListsEnzymes, String analysisSoftwareName) {
-        double deltaMass = calculateDeltaMass(specIdItem);
-        uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide = peptides.get(specIdItem.getPeptideRef());
-
-        Peptide pep = parseSIIPeptideEvidences(specIdItem.getPeptideEvidenceRef(), peptide, specIDListsDBRefs);
+    private ConvertedPSM convertSpectrumIdentificationItem(SpectrumIdentificationItem specIdItem,
+            List<AbstractParam> resultParams, String sourceID, String spectrumTitle, Double retentionTime,
+            SpectrumIdentificationListInfo listInfo) {
+        PeptideInfo peptide = peptides.get(specIdItem.getPeptideRef());
+
+        List<PeptideEvidenceInfo> evidences = new ArrayList<>(specIdItem.getPeptideEvidenceRef().size());
+        String sequence = parseSIIPeptideEvidences(specIdItem.getPeptideEvidenceRef(), peptide, evidences);
+        if (sequence == null) {
+            return null;
+        }
 
         boolean isDecoy = true;
-        for(PeptideEvidenceRef peptideEvidenceRef: specIdItem.getPeptideEvidenceRef()){
-            if(peptideEvidenceRef != null && peptideEvidenceRef.getPeptideEvidence() != null &&
-                    !peptideEvidenceRef.getPeptideEvidence().isIsDecoy())
+        for (PeptideEvidenceInfo pepEvidence : evidences) {
+            if (!pepEvidence.isDecoy) {
                 isDecoy = false;
-
-        }
-        if (pep == null) {
-            return false;
+            }
         }
-        String sequence = pep.getSequence();
 
         // calculate the missed cleavages
         // TODO: how do multiple and independent enzymes behave???
-        int missed = calculateMissedCleavages(sequence, specIDListsEnzymes);
+        int missed = calculateMissedCleavages(sequence, listInfo.enzymes);
 
-        // create the PeptideSpectrumMatch object
-        PeptideSpectrumMatch psm;
-        psm = compiler.createNewPeptideSpectrumMatch(specIdItem.getChargeState(),
+        ConvertedPSM psm = new ConvertedPSM(specIdItem.getChargeState(),
                 specIdItem.getExperimentalMassToCharge(),
-                deltaMass,
+                calculateDeltaMass(specIdItem),
                 retentionTime,
                 sequence,
                 missed,
                 sourceID,
                 spectrumTitle,
-                file,
-                spectrumID);
-        psm.setIsDecoy(isDecoy);
-
-        pep.addSpectrum(psm);
-        specNr++;
+                isDecoy,
+                evidences);
 
         // get the cvParams add them to the PSM
         for (CvParam cvParam : specIdItem.getCvParam()) {
-            Term oboTerm = compiler.getOBOMapper().getTerm(cvParam.getAccession());
-            ScoreModel score = parseOBOTermAsScore(oboTerm, cvParam.getValue());
+            ScoreModel score = parseCvParamAsScore(cvParam);
 
             if (score != null) {
                 psm.addScore(score);
@@ -604,16 +726,15 @@ class MzIdentMLFileParser {
         }
 
         // add the userParam to the params of the PSM
-
-        specIdItem.getUserParam().forEach(userParam -> addUserParamToPSM(psm, userParam, analysisSoftwareName));
+        specIdItem.getUserParam().forEach(userParam -> addUserParamToPSM(psm, userParam, listInfo.analysisSoftwareName));
 
         // add the params from the specIdResult to the PSM
-        resultParams.getParamGroup().forEach(psm::addParam);
+        resultParams.forEach(psm::addParam);
 
         // adding the modifications
         // the modifications are in SequenceCollection:Peptide
         if (peptide != null) {
-            for (Modification mod : peptide.getModification()) {
+            for (ModificationInfo mod : peptide.modifications) {
                 processModification(mod, sequence, psm);
             }
         } else {
@@ -621,10 +742,51 @@ class MzIdentMLFileParser {
                     " in the SequenceCollection -> can't get Modifications for it.");
         }
 
+        return psm;
+    }
+
+
+    /**
+     * Adds the converted PSM with its accessions and peptide to the compiler.
+     *
+     * @param convertedPSM
+     * @param listInfo the information of the PSM's SpectrumIdentificationList
+     */
+    private void insertConvertedPSM(ConvertedPSM convertedPSM, SpectrumIdentificationListInfo listInfo) {
+        Peptide pep = null;
+        for (PeptideEvidenceInfo pepEvidence : convertedPSM.evidences) {
+            DBSequenceInfo dbSeq = dbSequences.get(pepEvidence.dbSequenceRef);
+            Accession acc = addAccessionInformationFromPeptideEvidence(dbSeq, dbSeq.sequence, listInfo.dbRefs);
+
+            // create the peptide or create new connections
+            pep = addPeptideInformationFromPeptideEvidence(pep, convertedPSM.sequence, acc,
+                    pepEvidence.start, pepEvidence.end);
+        }
+
+        // create the PeptideSpectrumMatch object
+        PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(convertedPSM.charge,
+                convertedPSM.massToCharge,
+                convertedPSM.deltaMass,
+                convertedPSM.retentionTime,
+                convertedPSM.sequence,
+                convertedPSM.missed,
+                convertedPSM.sourceID,
+                convertedPSM.spectrumTitle,
+                file,
+                listInfo.spectrumIdentification);
+        psm.setIsDecoy(convertedPSM.isDecoy);
+
+        pep.addSpectrum(psm);
+        specNr++;
+
+        convertedPSM.scores.forEach(psm::addScore);
+        convertedPSM.params.forEach(psm::addParam);
+        for (int idx = 0; idx < convertedPSM.modifications.size(); idx++) {
+            psm.addModification(convertedPSM.modificationLocations.get(idx), convertedPSM.modifications.get(idx));
+        }
+
         // the PSM is finished here
         compiler.insertCompletePeptideSpectrumMatch(psm);
-
-        return true;
     }
 
 
@@ -647,35 +809,33 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Processed the peptideEvidences of a SpectrumIdentificationItem.
+     * Processed the peptideEvidences of a SpectrumIdentificationItem and checks, whether all evidences and their
+     * DBSequences are given and have the same sequence.
      *
      * @param peptideEvidenceRefs
      * @param peptide
-     * @param specIDListsDBRefs
-     * @return
+     * @param evidences the found evidences are added to this list
+     * @return the sequence of the PSM or null, if an error occurred
      */
-    private Peptide parseSIIPeptideEvidences(List<PeptideEvidenceRef> peptideEvidenceRefs,
-            uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide, Set<String> specIDListsDBRefs) {
-        Peptide pep = null;
+    private String parseSIIPeptideEvidences(List<PeptideEvidenceRef> peptideEvidenceRefs,
+            PeptideInfo peptide, List<PeptideEvidenceInfo> evidences) {
         String sequence = null;
         for (PeptideEvidenceRef pepEvRef : peptideEvidenceRefs) {
-            PeptideEvidence pepEvidence = peptideEvidences.get(pepEvRef.getPeptideEvidenceRef());
+            PeptideEvidenceInfo pepEvidence = peptideEvidences.get(pepEvRef.getPeptideEvidenceRef());
 
             if (pepEvidence == null) {
                 LOGGER.error("PeptideEvidence " + pepEvRef.getPeptideEvidenceRef() + " not found!");
                 return null;
             }
 
-            DBSequence dbSeq = dbSequences.get(pepEvidence.getDBSequenceRef());
+            DBSequenceInfo dbSeq = dbSequences.get(pepEvidence.dbSequenceRef);
             if (dbSeq == null) {
-                LOGGER.error("DBSequence " + pepEvidence.getDBSequenceRef() + " not found!");
+                LOGGER.error("DBSequence " + pepEvidence.dbSequenceRef + " not found!");
                 return null;
             }
 
-            Integer start = pepEvidence.getStart();
-            Integer end = pepEvidence.getEnd();
-            String proteinSequence = dbSeq.getSeq();
-            String pepEvSequence = getPeptideEvidenceSequence(start, end, peptide, proteinSequence);
+            String pepEvSequence = getPeptideEvidenceSequence(pepEvidence.start, pepEvidence.end, peptide,
+                    dbSeq.sequence);
 
             if (sequence == null) {
                 // first sequence of peptide evidence will be the PSM sequence
@@ -687,13 +847,10 @@ class MzIdentMLFileParser {
                 }
             }
 
-            Accession acc = addAccessionInformationFromPeptideEvidence(dbSeq, proteinSequence, specIDListsDBRefs);
-
-            // create the peptide or create new connections
-            pep = addPeptideInformationFromPeptideEvidence(pep, sequence, acc, start, end);
+            evidences.add(pepEvidence);
         }
 
-        return pep;
+        return sequence;
     }
 
 
@@ -707,11 +864,11 @@ class MzIdentMLFileParser {
      * @return
      */
     private static String getPeptideEvidenceSequence(Integer start, Integer end,
-            uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide, String proteinSequence) {
+            PeptideInfo peptide, String proteinSequence) {
         String pepEvSequence = null;
 
         if (peptide != null) {
-            pepEvSequence = peptide.getPeptideSequence();
+            pepEvSequence = peptide.sequence;
         } else if ((start != null) && (end != null) && (proteinSequence != null)) {
             pepEvSequence = proteinSequence.substring(start-1, end);
         } else {
@@ -742,10 +899,10 @@ class MzIdentMLFileParser {
      * @param specIDListsDBRefs
      * @return
      */
-    private Accession addAccessionInformationFromPeptideEvidence(DBSequence dbSeq, String proteinSequence,
+    private Accession addAccessionInformationFromPeptideEvidence(DBSequenceInfo dbSeq, String proteinSequence,
             Set<String> specIDListsDBRefs) {
         // add the Accession to the compiler (if it is not already there)
-        FastaHeaderInfos accHeader = FastaHeaderInfos.parseHeaderInfos(dbSeq);
+        FastaHeaderInfos accHeader = dbSeq.headerInfos;
 
         Accession acc = compiler.getAccession(accHeader.getAccession());
         if (acc == null) {
@@ -766,7 +923,7 @@ class MzIdentMLFileParser {
                     !proteinSequence.equals(acc.getDbSequence())) {
                 LOGGER.warn("Different DBSequences found for same Accession, this is not suported!\n" +
                         "\t Accession: " + acc.getAccession() +
-                        '\t' + dbSeq.getSeq() + '\n' +
+                        '\t' + dbSeq.sequence + '\n' +
                         '\t' + acc.getDbSequence());
             } else if (acc.getDbSequence() == null) {
                 // found a sequence now
@@ -840,14 +997,33 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Parses the given OBO term as a score. If it is no score, returns null, otherwise the score.
+     * Parses the given cvParam as a score. If it is no score, returns null, otherwise the score. The lookup of the
+     * accession in the OBO file is cached.
+     *
+     * @param cvParam
+     * @return
+     */
+    private ScoreModel parseCvParamAsScore(CvParam cvParam) {
+        String[] scoreTerm = scoreTerms.computeIfAbsent(cvParam.getAccession(), this::getScoreTerm);
+
+        if (scoreTerm == NO_SCORE_TERM) {
+            return null;
+        }
+
+        double doubleValue = Double.parseDouble(cvParam.getValue());
+        return new ScoreModel(doubleValue, scoreTerm[0], scoreTerm[1]);
+    }
+
+
+    /**
+     * Looks up the given accession in the OBO file. If it is a score, its name and description are returned,
+     * otherwise NO_SCORE_TERM.
      *
-     * @param oboTerm
-     * @param value
+     * @param accession
      * @return
      */
-    private ScoreModel parseOBOTermAsScore(Term oboTerm, String value) {
-        ScoreModel score = null;
+    private String[] getScoreTerm(String accession) {
+        Term oboTerm = compiler.getOBOMapper().getTerm(accession);
 
         if (oboTerm != null) {
             // the score is in the OBO file, get the relations etc.
@@ -857,15 +1033,13 @@ class MzIdentMLFileParser {
                 if (triple.getPredicate().getName().equals(AbstractOBOMapper.OBO_IS_A) &&
                         triple.getObject().getName().equals(OntologyConstants.SEARCH_ENGINE_PSM_SCORE.getPsiAccession())) {
                     // subject is a "search engine specific score for PSM"
-                    double doubleValue = Double.parseDouble(value);
-                    score = new ScoreModel(doubleValue,
-                            StringEscapeUtils.unescapeJava(oboTerm.getName()),
-                            StringEscapeUtils.unescapeJava(oboTerm.getDescription()));
+                    return new String[] {StringEscapeUtils.unescapeJava(oboTerm.getName()),
+                            StringEscapeUtils.unescapeJava(oboTerm.getDescription())};
                 }
             }
         }
 
-        return score;
+        return NO_SCORE_TERM;
     }
 
 
@@ -876,38 +1050,19 @@ class MzIdentMLFileParser {
      * @param sequence
      * @param psm
      */
-    private static void processModification(Modification mod, String sequence, PeptideSpectrumMatch psm) {
-        if (mod.getLocation() == null) {
-            LOGGER.warn("Cannot build modification without location, skipping.");
-        }
-
-        de.mpc.pia.intermediate.Modification modification;
-
+    private static void processModification(ModificationInfo mod, String sequence, ConvertedPSM psm) {
         Character residue;
-        String description = null;
-        String accession = null;
-        Double massDelta = mod.getMonoisotopicMassDelta();
-
-        if ((mod.getLocation() == 0) || (mod.getLocation() > sequence.length())) {
+        if ((mod.location == 0) || (mod.location > sequence.length())) {
             residue = '.';
         } else {
-            residue = sequence.charAt(mod.getLocation() - 1);
-        }
-
-        for (CvParam param : mod.getCvParam()) {
-            // get the cvParam, which maps to UNIMOD, this is the description
-            if ("UNIMOD".equals(param.getCvRef())) {
-                description = param.getName();
-                accession = param.getAccession();
-                break;
-            }
+            residue = sequence.charAt(mod.location - 1);
         }
 
-        modification = new de.mpc.pia.intermediate.Modification(
-                residue, massDelta, description,
-                accession);
+        de.mpc.pia.intermediate.Modification modification = new de.mpc.pia.intermediate.Modification(
+                residue, mod.massDelta, mod.description,
+                mod.accession);
 
-        psm.addModification(mod.getLocation(), modification);
+        psm.addModification(mod.location, modification);
     }
 
 
@@ -917,7 +1072,7 @@ class MzIdentMLFileParser {
      * @param psm
      * @param userParam
      */
-    private static void addUserParamToPSM(PeptideSpectrumMatch psm, UserParam userParam, String analysisSoftwareName) {
+    private static void addUserParamToPSM(ConvertedPSM psm, UserParam userParam, String analysisSoftwareName) {
         boolean processed = false;
 
         if(analysisSoftwareName != null){
@@ -945,7 +1100,7 @@ class MzIdentMLFileParser {
      * @param psm
      * @param userParam
      */
-    private static boolean checkParamForCometSpecifics(PeptideSpectrumMatch psm, UserParam userParam) {
+    private static boolean checkParamForCometSpecifics(ConvertedPSM psm, UserParam userParam) {
         String paramName = userParam.getName().trim().toLowerCase();
         boolean isScore;
         OntologyConstants foundParam;
@@ -1001,7 +1156,7 @@ class MzIdentMLFileParser {
      * @param psm
      * @param userParam
      */
-    private static boolean checkParamForPercolatorSpecifics(PeptideSpectrumMatch psm, UserParam userParam) {
+    private static boolean checkParamForPercolatorSpecifics(ConvertedPSM psm, UserParam userParam) {
         String paramName = userParam.getName().trim().toLowerCase();
         boolean isScore;
         OntologyConstants foundParam;
@@ -1039,7 +1194,7 @@ class MzIdentMLFileParser {
      * @param ontology
      * @return
      */
-    private static boolean addScoreFromParam(PeptideSpectrumMatch psm, UserParam userParam, OntologyConstants ontology) {
+    private static boolean addScoreFromParam(ConvertedPSM psm, UserParam userParam, OntologyConstants ontology) {
         boolean processed = false;
 
         try {
@@ -1058,6 +1213,229 @@ class MzIdentMLFileParser {
     }
 
 
+    /**
+     * The information of a SpectrumIdentificationList, which is needed to build its PSMs.
+     */
+    private static final class SpectrumIdentificationListInfo {
+        /** the ID of the SpectrumIdentificationList */
+        private final String specIdListID;
+
+        /** the number of results in the list */
+        private final int nrResults;
+
+        /** the SpectrumIdentification of the list */
+        private final SpectrumIdentification spectrumIdentification;
+
+        /** the references to the searched databases */
+        private final Set<String> dbRefs;
+
+        /** the used enzymes */
+        private final Enzymes enzymes;
+
+        /** the name of the used analysis software */
+        private final String analysisSoftwareName;
+
+        private SpectrumIdentificationListInfo(String specIdListID, int nrResults,
+                SpectrumIdentification spectrumIdentification, Set<String> dbRefs, Enzymes enzymes,
+                String analysisSoftwareName) {
+            this.specIdListID = specIdListID;
+            this.nrResults = nrResults;
+            this.spectrumIdentification = spectrumIdentification;
+            this.dbRefs = dbRefs;
+            this.enzymes = enzymes;
+            this.analysisSoftwareName = analysisSoftwareName;
+        }
+    }
+
+
+    /**
+     * A SpectrumIdentificationResult, which is converted in the pipeline.
+     */
+    private static final class ConversionTask {
+        /** the information of the result's SpectrumIdentificationList */
+        private final SpectrumIdentificationListInfo listInfo;
+
+        /** the converted result */
+        private final SpectrumIdentificationResult specIdResult;
+
+        /** the PSMs of the result, when converted (null on an error) */
+        private List<ConvertedPSM> convertedPSMs;
+
+        private ConversionTask(SpectrumIdentificationListInfo listInfo, SpectrumIdentificationResult specIdResult) {
+            this.listInfo = listInfo;
+            this.specIdResult = specIdResult;
+            this.convertedPSMs = null;
+        }
+    }
+
+
+    /**
+     * A PSM converted from a SpectrumIdentificationItem, which is not yet added to the compiler.
+     */
+    private static final class ConvertedPSM {
+        private final int charge;
+        private final double massToCharge;
+        private final double deltaMass;
+        private final Double retentionTime;
+        private final String sequence;
+        private final int missed;
+        private final String sourceID;
+        private final String spectrumTitle;
+        private final boolean isDecoy;
+
+        /** the evidences of the PSM's peptide */
+        private final List<PeptideEvidenceInfo> evidences;
+
+        private final List<ScoreModel> scores;
+        private final List<AbstractParam> params;
+        private final List<Integer> modificationLocations;
+        private final List<de.mpc.pia.intermediate.Modification> modifications;
+
+        private ConvertedPSM(int charge, double massToCharge, double deltaMass, Double retentionTime,
+                String sequence, int missed, String sourceID, String spectrumTitle, boolean isDecoy,
+                List<PeptideEvidenceInfo> evidences) {
+            this.charge = charge;
+            this.massToCharge = massToCharge;
+            this.deltaMass = deltaMass;
+            this.retentionTime = retentionTime;
+            this.sequence = sequence;
+            this.missed = missed;
+            this.sourceID = sourceID;
+            this.spectrumTitle = spectrumTitle;
+            this.isDecoy = isDecoy;
+            this.evidences = evidences;
+
+            this.scores = new ArrayList<>();
+            this.params = new ArrayList<>();
+            this.modificationLocations = new ArrayList<>();
+            this.modifications = new ArrayList<>();
+        }
+
+        private void addScore(ScoreModel score) {
+            scores.add(score);
+        }
+
+        private void addParam(AbstractParam param) {
+            params.add(param);
+        }
+
+        private void addModification(int location, de.mpc.pia.intermediate.Modification modification) {
+            modificationLocations.add(location);
+            modifications.add(modification);
+        }
+    }
+
+
+    /**
+     * The information of a PeptideEvidence, which is needed to build the PSMs.
+     */
+    private static final class PeptideEvidenceInfo {
+        /** the reference to the DBSequence */
+        private final String dbSequenceRef;
+
+        /** the start in the DBSequence, may be null */
+        private final Integer start;
+
+        /** the end in the DBSequence, may be null */
+        private final Integer end;
+
+        /** whether this is a decoy evidence */
+        private final boolean isDecoy;
+
+        private PeptideEvidenceInfo(PeptideEvidence pepEvidence) {
+            this.dbSequenceRef = pepEvidence.getDBSequenceRef();
+            this.start = pepEvidence.getStart();
+            this.end = pepEvidence.getEnd();
+            this.isDecoy = pepEvidence.isIsDecoy();
+        }
+    }
+
+
+    /**
+     * The information of a Peptide, which is needed for the PSMs: the sequence
+     * and the modifications.
+     */
+    private static final class PeptideInfo {
+        /** the modifications of peptides without any */
+        private static final ModificationInfo[] NO_MODIFICATIONS = new ModificationInfo[0];
+
+        /** the peptide sequence */
+        private final String sequence;
+
+        /** the modifications with a location */
+        private final ModificationInfo[] modifications;
+
+        private PeptideInfo(uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide, Map<String, String> modificationTerms) {
+            this.sequence = peptide.getPeptideSequence();
+
+            List<ModificationInfo> mods = new ArrayList<>(peptide.getModification().size());
+            for (Modification mod : peptide.getModification()) {
+                if (mod.getLocation() == null) {
+                    LOGGER.warn("Cannot build modification without location, skipping.");
+                } else {
+                    mods.add(new ModificationInfo(mod, modificationTerms));
+                }
+            }
+            this.modifications = mods.isEmpty() ? NO_MODIFICATIONS : mods.toArray(new ModificationInfo[mods.size()]);
+        }
+    }
+
+
+    /**
+     * The information of a Modification of a Peptide, which is needed to
+     * build the PSMs' modifications.
+     */
+    private static final class ModificationInfo {
+        /** the location in the peptide */
+        private final int location;
+
+        /** the monoisotopic mass delta, may be null */
+        private final Double massDelta;
+
+        /** the name of the UNIMOD cvParam, may be null */
+        private final String description;
+
+        /** the accession of the UNIMOD cvParam, may be null */
+        private final String accession;
+
+        private ModificationInfo(Modification mod, Map<String, String> modificationTerms) {
+            this.location = mod.getLocation();
+            this.massDelta = mod.getMonoisotopicMassDelta();
+
+            String desc = null;
+            String acc = null;
+            for (CvParam param : mod.getCvParam()) {
+                // get the cvParam, which maps to UNIMOD, this is the description
+                if ("UNIMOD".equals(param.getCvRef())) {
+                    desc = param.getName();
+                    acc = param.getAccession();
+                    break;
+                }
+            }
+
+            this.description = (desc != null) ? modificationTerms.computeIfAbsent(desc, k -> k) : null;
+            this.accession = (acc != null) ? modificationTerms.computeIfAbsent(acc, k -> k) : null;
+        }
+    }
+
+
+    /**
+     * The information of a DBSequence, which is needed to build the accessions.
+     */
+    private static final class DBSequenceInfo {
+        /** the parsed accession and description */
+        private final FastaHeaderInfos headerInfos;
+
+        /** the sequence, may be null */
+        private final String sequence;
+
+        private DBSequenceInfo(DBSequence dbSequence) {
+            this.headerInfos = FastaHeaderInfos.parseHeaderInfos(dbSequence);
+            this.sequence = dbSequence.getSeq();
+        }
+    }
+
+
     /**
      * Checks, whether the given file looks like an mzIdentML file
      *
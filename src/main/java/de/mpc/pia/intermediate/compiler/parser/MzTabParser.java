@@ -32,23 +32,34 @@ import uk.ac.ebi.pride.jmztab.model.CVParam;
 import uk.ac.ebi.pride.jmztab.model.FixedMod;
 import uk.ac.ebi.pride.jmztab.model.Metadata;
 import uk.ac.ebi.pride.jmztab.model.Mod;
+import uk.ac.ebi.pride.jmztab.model.MZTabColumnFactory;
 import uk.ac.ebi.pride.jmztab.model.Modification;
 import uk.ac.ebi.pride.jmztab.model.MsRun;
 import uk.ac.ebi.pride.jmztab.model.PSM;
 import uk.ac.ebi.pride.jmztab.model.PSMSearchEngineScore;
 import uk.ac.ebi.pride.jmztab.model.Param;
-import uk.ac.ebi.pride.jmztab.model.Protein;
 import uk.ac.ebi.pride.jmztab.model.Software;
 import uk.ac.ebi.pride.jmztab.model.SpectraRef;
 import uk.ac.ebi.pride.jmztab.model.SplitList;
 import uk.ac.ebi.pride.jmztab.model.VariableMod;
-import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabErrorList;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabErrorOverflowException;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabErrorType;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabException;
+import uk.ac.ebi.pride.jmztab.utils.parser.MTDLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PSHLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PSMLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PositionMapping;
 import uk.ac.ebi.pride.utilities.pridemod.model.PTM;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
@@ -76,14 +87,17 @@ public class MzTabParser {
     /** filename of the imported mzTab file */
     private String fileName;
 
-    /** the mzTab file parser */
-    private MZTabFileParser tabParser;
+    /** the errors reported by the line parsers */
+    private MZTabErrorList errorList;
 
     /** mapping from PRIDE modification accession to modification name */
     private Map<String, String> prideModAccToName;
 
-    /** mapping for the accessions to the parsed proteins, which contain descriptions and sequences */
-    private Map<String, Protein> proteinsCache;
+    /** mapping for the accessions to the descriptions and sequences of the parsed proteins */
+    private Map<String, CachedProtein> proteinsCache;
+
+    /** the accessions of the proteins, which were given after PSM lines */
+    private Set<String> lateProteinAccessions;
 
     /** mapping from the mzTab software id to the software in teh compiler */
     private Map<Integer, AnalysisSoftware> analysisSoftwareMap;
@@ -125,8 +139,8 @@ public class MzTabParser {
     /** logical position of the PSM decoy state column */
     private String psmDecoyStateLogicalPosition;
 
-    /** logical position of the protein sequence column */
-    private String proteinSequenceLogicalPosition;
+    /** the (zero based) indices of the protein columns accession, description and sequence */
+    private int[] proteinColumns;
 
 
     /** number of added accessions */
@@ -145,6 +159,14 @@ public class MzTabParser {
     /** optional column header for peptide decoy state */
     public static final String OPTIONAL_PEPTIDE_DECOY_COLUMN = "cv_MS:1002217_decoy_peptide";
 
+    /** the line prefixes of the used mzTab sections */
+    private static final String PREFIX_COMMENT = "COM";
+    private static final String PREFIX_METADATA = "MTD";
+    private static final String PREFIX_PROTEIN_HEADER = "PRH";
+    private static final String PREFIX_PROTEIN = "PRT";
+    private static final String PREFIX_PSM_HEADER = "PSH";
+    private static final String PREFIX_PSM = "PSM";
+
     /** Cv label for PSI-MOD */
     private static final String CV_LABEL_PSI_MOD = "MOD";
     private static final String CV_LABEL_UNIMOD = "UNIMOD";
@@ -156,10 +178,10 @@ public class MzTabParser {
     private MzTabParser(PIACompiler compiler, String fileName) {
         this.compiler = compiler;
         this.fileName = fileName;
-        this.tabParser = null;
+        this.errorList = null;
 
         this.psmDecoyStateLogicalPosition = null;
-        this.proteinSequenceLogicalPosition = null;
+        this.proteinColumns = null;
     }
 
 
@@ -204,13 +226,7 @@ public class MzTabParser {
         }
 
         if (retOk) {
-            try {
-                tabParser = new MZTabFileParser(mzTabFile,
-                        new FileOutputStream(mzTabFile.getAbsolutePath() + "errors.out"));
-            } catch (IOException e) {
-                LOGGER.error("Could not create mzTab file reader", e);
-                retOk = false;
-            }
+            errorList = new MZTabErrorList(MZTabErrorType.Level.Error);
         }
 
         return retOk;
@@ -218,26 +234,95 @@ public class MzTabParser {
 
 
     /**
-     * Parses the mzTab file
+     * Parses the mzTab file line by line. The metadata section is parsed
+     * completely before any other section, the PRT lines are reduced to the
+     * needed values and each PSM line is converted directly into the compiler,
+     * so the whole file is never held in memory. Proteins given after PSM
+     * lines are added to the accessions after the whole file is read.
      *
      * @param name the base name of the file
      * @return
      */
-    private boolean parseFile(String name){
-        Metadata metadata = tabParser.getMZTabFile().getMetadata();
+    private boolean parseFile(String name) {
+        MTDLineParser mtdParser = new MTDLineParser();
+        Metadata metadata = null;
 
-        parseMetadataInformation(metadata, name);
+        PSHLineParser pshParser = null;
+        PositionMapping psmPositionMapping = null;
+        PSMLineParser psmParser = null;
 
         searchDatabaseMap = new HashMap<>();
         runsToSearchDatabases = new HashMap<>();
-
-        cacheProteins();
+        proteinsCache = new HashMap<>();
+        lateProteinAccessions = new HashSet<>();
+        psmMap = new HashMap<>();
 
         accNr = 0;
         pepNr = 0;
         psmNr = 0;
 
-        parsePSMs();
+        boolean retOk = true;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (line.startsWith(PREFIX_METADATA)) {
+                    mtdParser.parse(lineNumber, line, errorList);
+                    continue;
+                } else if (!isDataLine(line)) {
+                    continue;
+                }
+
+                if (metadata == null) {
+                    // the metadata section is complete
+                    mtdParser.refineNormalMetadata();
+                    metadata = mtdParser.getMetadata();
+                    parseMetadataInformation(metadata, name);
+                }
+
+                if (line.startsWith(PREFIX_PROTEIN_HEADER)) {
+                    resolveProteinColumns(line);
+                } else if (line.startsWith(PREFIX_PROTEIN)) {
+                    String accession = cacheProtein(line);
+                    if ((psmParser != null) && (accession != null)) {
+                        lateProteinAccessions.add(accession);
+                    }
+                } else if (line.startsWith(PREFIX_PSM_HEADER)) {
+                    pshParser = new PSHLineParser(metadata);
+                    pshParser.parse(lineNumber, line, errorList);
+                    psmPositionMapping = new PositionMapping(pshParser.getFactory(), line);
+                    resolvePSMColumns(pshParser.getFactory());
+                } else if (line.startsWith(PREFIX_PSM) && (pshParser != null)) {
+                    if (psmParser == null) {
+                        psmParser = new PSMLineParser(pshParser.getFactory(), psmPositionMapping, metadata, errorList);
+                    }
+                    psmParser.parse(lineNumber, line, errorList);
+                    parsePSMLine(psmParser.getRecord());
+                }
+                // the peptide and small molecule sections are not used by PIA
+            }
+
+            if (metadata == null) {
+                // a file without any data lines
+                mtdParser.refineNormalMetadata();
+                parseMetadataInformation(mtdParser.getMetadata(), name);
+            }
+        } catch (IOException | MZTabException | MZTabErrorOverflowException e) {
+            LOGGER.error("Could not parse the mzTab file " + fileName, e);
+            retOk = false;
+        }
+
+        writeErrors();
+
+        if (!retOk) {
+            return false;
+        }
+
+        addLateProteins();
 
         // add the searchDatabase references for each msRun
         runsToSearchDatabases.forEach((id, searchDBs) -> {
@@ -261,26 +346,141 @@ public class MzTabParser {
 
 
     /**
-     * Parses through the proteins and caches them.
+     * Whether the line contains any section data, i.e. is no empty or comment
+     * line.
      *
+     * @param line
      * @return
      */
-    private void cacheProteins() {
-        proteinsCache = new  HashMap<>();
-        Collection<Protein> proteins = tabParser.getMZTabFile().getProteins();
-
-        if(proteins != null && !proteins.isEmpty()){
-            tabParser.getMZTabFile().getProteinColumnFactory().getColumnMapping().forEach((key, value) -> {
-                if (value.getHeader().endsWith(OPTIONAL_SEQUENCE_COLUMN)) {
-                    proteinSequenceLogicalPosition = value.getLogicPosition();
+    private static boolean isDataLine(String line) {
+        return !line.trim().isEmpty()
+                && !line.startsWith(PREFIX_COMMENT)
+                && !line.startsWith("MTH")
+                && !line.startsWith("#");
+    }
+
+
+    /**
+     * Writes the errors reported by the line parsers into the errors file next
+     * to the mzTab file.
+     */
+    private void writeErrors() {
+        if (errorList.isEmpty()) {
+            return;
+        }
+
+        File errorsFile = new File(new File(fileName).getAbsolutePath() + "errors.out");
+        try (FileOutputStream out = new FileOutputStream(errorsFile)) {
+            out.write(errorList.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.error("Could not write the mzTab errors to " + errorsFile.getAbsolutePath(), e);
+        }
+    }
+
+
+    /**
+     * Resolves the indices of the accession, description and (optional)
+     * sequence columns from the PRH line.
+     *
+     * @param headerLine
+     */
+    private void resolveProteinColumns(String headerLine) {
+        proteinColumns = new int[] {-1, -1, -1};
+
+        int column = 0;
+        int start = 0;
+        while (start <= headerLine.length()) {
+            int end = headerLine.indexOf('\t', start);
+            if (end < 0) {
+                end = headerLine.length();
+            }
+
+            String header = headerLine.substring(start, end).trim();
+            if ("accession".equals(header)) {
+                proteinColumns[0] = column;
+            } else if ("description".equals(header)) {
+                proteinColumns[1] = column;
+            } else if (header.endsWith(OPTIONAL_SEQUENCE_COLUMN)) {
+                proteinColumns[2] = column;
+            }
+
+            column++;
+            start = end + 1;
+        }
+    }
+
+
+    /**
+     * Caches the description and sequence of the protein in the PRT line. Only
+     * the needed columns are extracted, without splitting the whole line.
+     *
+     * @param line
+     * @return the accession of the protein or null, if none could be parsed
+     */
+    private String cacheProtein(String line) {
+        if ((proteinColumns == null) || (proteinColumns[0] < 0)) {
+            return null;
+        }
+
+        String[] values = new String[proteinColumns.length];
+        int column = 0;
+        int start = 0;
+        while (start <= line.length()) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                end = line.length();
+            }
+
+            for (int idx = 0; idx < proteinColumns.length; idx++) {
+                if (proteinColumns[idx] == column) {
+                    values[idx] = parseString(line.substring(start, end));
+                }
+            }
+
+            column++;
+            start = end + 1;
+        }
+
+        if (values[0] != null) {
+            proteinsCache.put(values[0], new CachedProtein(values[1], values[2]));
+        }
+        return values[0];
+    }
+
+
+    /**
+     * Adds the sequences and descriptions of the proteins, which were given
+     * after PSM lines, to the accessions already created by these PSMs.
+     */
+    private void addLateProteins() {
+        for (String accession : lateProteinAccessions) {
+            Accession acc = compiler.getAccession(accession);
+            if (acc == null) {
+                continue;
+            }
+
+            for (PIAInputFile piaFile : inputFileMap.values()) {
+                if (acc.getFiles().contains(piaFile.getID())) {
+                    applyCachedProtein(acc, accession, piaFile.getID());
                 }
-            });
+            }
         }
+    }
 
 
-        if (proteins != null) {
-            proteins.forEach(protein -> proteinsCache.put(protein.getAccession(), protein));
+    /**
+     * Parses a string value of an mzTab column the same way as the jmzTab
+     * parsers, i.e. empty and "null" values are null.
+     *
+     * @param value
+     * @return
+     */
+    private static String parseString(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty() || "null".equalsIgnoreCase(trimmed)) {
+            return null;
         }
+        return trimmed;
     }
 
 
@@ -505,24 +705,29 @@ public class MzTabParser {
 
 
     /**
-     * Parse the PSMs of the mzTab file.
+     * Resolves the logical positions of the used optional PSM columns.
+     *
+     * @param psmColumnFactory
      */
-    private void parsePSMs() {
-        psmMap = new HashMap<>();
-
-        tabParser.getMZTabFile().getPsmColumnFactory().getColumnMapping().forEach((key, value) -> {
+    private void resolvePSMColumns(MZTabColumnFactory psmColumnFactory) {
+        psmDecoyStateLogicalPosition = null;
+        psmColumnFactory.getColumnMapping().forEach((key, value) -> {
             if (value.getHeader().endsWith(OPTIONAL_PEPTIDE_DECOY_COLUMN)) {
                 psmDecoyStateLogicalPosition = value.getLogicPosition();
             }
         });
+    }
 
-        for (PSM mzTabPSM : tabParser.getMZTabFile().getPSMs()) {
-            try {
-                parsePSM(mzTabPSM);
-            } catch (PTMMappingException exception) {
-                // exception is not rethrown, as the text is too long
-                LOGGER.error("PSM skipped: " + mzTabPSM.getSequence());
-            }
+
+    /**
+     * Parses the PSM of one line of the mzTab file.
+     */
+    private void parsePSMLine(PSM mzTabPSM) {
+        try {
+            parsePSM(mzTabPSM);
+        } catch (PTMMappingException exception) {
+            // exception is not rethrown, as the text is too long
+            LOGGER.error("PSM skipped: " + mzTabPSM.getSequence());
         }
     }
 
@@ -916,20 +1121,32 @@ public class MzTabParser {
             accNr++;
         }
 
-        if (proteinsCache.containsKey(accession)) {
-            Protein mzTabProtein = proteinsCache.get(accession);
+        applyCachedProtein(acc, accession, fileID);
 
-            if ((acc.getDbSequence() == null) && (proteinSequenceLogicalPosition != null)) {
-                acc.setDbSequence(mzTabProtein.getValue(proteinSequenceLogicalPosition).toString());
+        acc.addFile(fileID);
+        return acc;
+    }
+
+
+    /**
+     * Sets the sequence and the description for the given file of the
+     * accession from the cached protein, if they are not yet set.
+     *
+     * @param acc
+     * @param accession
+     * @param fileID
+     */
+    private void applyCachedProtein(Accession acc, String accession, Long fileID) {
+        CachedProtein mzTabProtein = proteinsCache.get(accession);
+        if (mzTabProtein != null) {
+            if ((acc.getDbSequence() == null) && (mzTabProtein.sequence != null)) {
+                acc.setDbSequence(mzTabProtein.sequence);
             }
 
             if (!acc.getDescriptions().containsKey(fileID)) {
-                acc.addDescription(fileID, mzTabProtein.getDescription());
+                acc.addDescription(fileID, mzTabProtein.description);
             }
         }
-
-        acc.addFile(fileID);
-        return acc;
     }
 
 
@@ -1035,4 +1252,22 @@ public class MzTabParser {
 
         return isMzTabFile;
     }
+
+
+    /**
+     * The values of a PRT line, which are needed for the accessions.
+     */
+    private static class CachedProtein {
+        /** the description of the protein */
+        private final String description;
+
+        /** the sequence of the protein, if given in the optional column */
+        private final String sequence;
+
+
+        private CachedProtein(String description, String sequence) {
+            this.description = description;
+            this.sequence = sequence;
+        }
+    }
 }
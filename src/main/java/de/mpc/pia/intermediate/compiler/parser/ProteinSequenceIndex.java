@@ -0,0 +1,704 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.tools.PIATools;
+
+
+/**
+ * An index over all protein sequences of a FASTA file, which finds all
+ * occurrences of a peptide sequence in the proteins. This is used to map
+ * peptides to proteins for input files, which do not contain (reliable)
+ * protein information.
+ * <p>
+ * The index is a suffix array over the concatenated protein sequences, which
+ * is sorted up to a depth of {@value #SORT_DEPTH} residues. Optionally,
+ * isoleucine and leucine are treated as equal. The index can be written into
+ * a file, which is memory-mapped when it is read again, so it can be reused
+ * for further compilations with the same FASTA file.
+ *
+ * @author julian
+ *
+ */
+public class ProteinSequenceIndex {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ProteinSequenceIndex.class);
+
+
+    /** path to the indexed FASTA file */
+    private final String fastaFileName;
+
+    /** the size of the FASTA file, when it was indexed */
+    private final long fastaLength;
+
+    /** the last modification of the FASTA file, when it was indexed */
+    private final long fastaLastModified;
+
+    /** whether isoleucine and leucine are treated as equal */
+    private final boolean ilEquivalent;
+
+    /** the protein sequences, each one followed by the separator */
+    private final ByteBuffer text;
+
+    /** the sorted suffixes (positions in the text) */
+    private final IntBuffer suffixArray;
+
+    /** the positions of the proteins in the text */
+    private final int[] proteinStarts;
+
+    /** the accessions of the proteins */
+    private final String[] accessions;
+
+    /** the descriptions of the proteins */
+    private final String[] descriptions;
+
+
+    /** the file suffix of the index files, which are created for FASTA files */
+    public static final String INDEX_FILE_SUFFIX = ".pia-index";
+
+    /** the suffixes are sorted up to this many residues, longer peptides are verified after the lookup */
+    private static final int SORT_DEPTH = 64;
+
+    /** separates the proteins in the text */
+    private static final byte SEPARATOR = 0;
+
+    /** below this size, suffixes are sorted by insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** magic number at the start of an index file ("PIASIDX1") */
+    private static final long INDEX_FILE_MAGIC = 0x5049415349445831L;
+
+    /** the version of the index file format */
+    private static final int INDEX_FILE_VERSION = 1;
+
+    /** size of the preamble of the index file, before the text starts */
+    private static final int PREAMBLE_SIZE = 8 + 4 + 8 + 8 + 1 + 4 + 4 + 4;
+
+
+    private ProteinSequenceIndex(String fastaFileName, long fastaLength, long fastaLastModified,
+            boolean ilEquivalent, ByteBuffer text, IntBuffer suffixArray, int[] proteinStarts,
+            String[] accessions, String[] descriptions) {
+        this.fastaFileName = fastaFileName;
+        this.fastaLength = fastaLength;
+        this.fastaLastModified = fastaLastModified;
+        this.ilEquivalent = ilEquivalent;
+        this.text = text;
+        this.suffixArray = suffixArray;
+        this.proteinStarts = proteinStarts;
+        this.accessions = accessions;
+        this.descriptions = descriptions;
+    }
+
+
+    /**
+     * Returns the index for the given FASTA file. If an up-to-date index file
+     * (the FASTA file name with {@link #INDEX_FILE_SUFFIX}) exists, it is
+     * used, otherwise the index is built and written into the index file.
+     *
+     * @param fastaFileName
+     * @param ilEquivalent whether isoleucine and leucine are treated as equal
+     * @param nrThreads the number of threads used to build the index, if
+     * smaller than 1, all available processors are used
+     * @return
+     * @throws IOException
+     */
+    public static ProteinSequenceIndex getIndex(String fastaFileName, boolean ilEquivalent, int nrThreads)
+            throws IOException {
+        File fastaFile = new File(fastaFileName);
+        File indexFile = new File(fastaFile.getAbsolutePath() + INDEX_FILE_SUFFIX);
+
+        if (indexFile.canRead()) {
+            try {
+                ProteinSequenceIndex index = read(indexFile);
+                if ((index.fastaLength == fastaFile.length())
+                        && (index.fastaLastModified == fastaFile.lastModified())
+                        && (index.ilEquivalent == ilEquivalent)) {
+                    LOGGER.info("using protein index " + indexFile.getAbsolutePath());
+                    return index;
+                }
+                LOGGER.info("protein index " + indexFile.getAbsolutePath() + " is outdated");
+            } catch (IOException e) {
+                LOGGER.warn("could not read protein index " + indexFile.getAbsolutePath(), e);
+            }
+        }
+
+        ProteinSequenceIndex index = build(fastaFileName, ilEquivalent, nrThreads);
+        try {
+            index.write(indexFile);
+        } catch (IOException e) {
+            LOGGER.warn("could not write protein index " + indexFile.getAbsolutePath(), e);
+        }
+        return index;
+    }
+
+
+    /**
+     * Builds the index of the given FASTA file.
+     *
+     * @param fastaFileName
+     * @param ilEquivalent whether isoleucine and leucine are treated as equal
+     * @param nrThreads the number of threads used to sort the suffixes, if
+     * smaller than 1, all available processors are used
+     * @return
+     * @throws IOException
+     */
+    public static ProteinSequenceIndex build(String fastaFileName, boolean ilEquivalent, int nrThreads)
+            throws IOException {
+        File fastaFile = new File(fastaFileName);
+        long fastaLength = fastaFile.length();
+        long fastaLastModified = fastaFile.lastModified();
+
+        if (fastaLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("FASTA file too large for the protein index: " + fastaFileName);
+        }
+
+        LOGGER.info("building protein index for " + fastaFileName);
+
+        // the residues and separators are never more than the bytes of the file
+        byte[] textArray = new byte[(int) fastaLength + 1];
+        int textLength = 0;
+        List<Integer> starts = new ArrayList<>();
+        List<String> accessionsList = new ArrayList<>();
+        List<String> descriptionsList = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fastaFile), StandardCharsets.UTF_8))) {
+            String header = null;
+            int proteinStart = 0;
+            String strLine;
+
+            while ((strLine = br.readLine()) != null) {
+                if (strLine.startsWith(">")) {
+                    if ((header != null) && (textLength > proteinStart)) {
+                        textArray[textLength++] = SEPARATOR;
+                        addProtein(header, proteinStart, starts, accessionsList, descriptionsList);
+                    }
+
+                    // start of a new protein (a prior protein without sequence is dropped)
+                    header = strLine;
+                    proteinStart = textLength;
+                } else if (header != null) {
+                    for (int idx = 0; idx < strLine.length(); idx++) {
+                        char residue = Character.toUpperCase(strLine.charAt(idx));
+                        if ((residue < 128) && Character.isLetter(residue)) {
+                            textArray[textLength++] = (byte) residue;
+                        }
+                    }
+                }
+            }
+
+            if ((header != null) && (textLength > proteinStart)) {
+                textArray[textLength++] = SEPARATOR;
+                addProtein(header, proteinStart, starts, accessionsList, descriptionsList);
+            }
+        }
+
+        textArray = Arrays.copyOf(textArray, textLength);
+        int[] proteinStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+
+        int[] suffixes = sortSuffixes(textArray, textLength - proteinStarts.length, ilEquivalent, nrThreads);
+
+        LOGGER.info("protein index built for " + proteinStarts.length + " proteins");
+
+        return new ProteinSequenceIndex(fastaFileName, fastaLength, fastaLastModified,
+                ilEquivalent, ByteBuffer.wrap(textArray), IntBuffer.wrap(suffixes), proteinStarts,
+                accessionsList.toArray(new String[accessionsList.size()]),
+                descriptionsList.toArray(new String[descriptionsList.size()]));
+    }
+
+
+    /**
+     * Adds the accession and description of the protein.
+     */
+    private static void addProtein(String header, int proteinStart, List<Integer> starts,
+            List<String> accessionsList, List<String> descriptionsList) {
+        FastaHeaderInfos headerInfos = FastaHeaderInfos.parseHeaderInfos(header);
+
+        starts.add(proteinStart);
+        accessionsList.add(headerInfos.getAccession());
+        descriptionsList.add(headerInfos.getDescription());
+    }
+
+
+    /**
+     * Creates the suffix array of all residue positions in the text. The
+     * suffixes are first distributed into buckets by their first residue,
+     * which are then sorted in parallel.
+     *
+     * @param text
+     * @param nrSuffixes the number of residues in the text
+     * @param ilEquivalent
+     * @param nrThreads
+     * @return
+     * @throws IOException
+     */
+    private static int[] sortSuffixes(byte[] text, int nrSuffixes, boolean ilEquivalent, int nrThreads)
+            throws IOException {
+        int[] bucketStarts = new int[129];
+        for (byte residue : text) {
+            if (residue != SEPARATOR) {
+                bucketStarts[normalize(residue, ilEquivalent) + 1]++;
+            }
+        }
+        for (int idx = 1; idx < bucketStarts.length; idx++) {
+            bucketStarts[idx] += bucketStarts[idx - 1];
+        }
+
+        int[] suffixes = new int[nrSuffixes];
+        int[] fill = Arrays.copyOf(bucketStarts, 128);
+        for (int pos = 0; pos < text.length; pos++) {
+            if (text[pos] != SEPARATOR) {
+                suffixes[fill[normalize(text[pos], ilEquivalent)]++] = pos;
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(PIATools.resolveThreads(nrThreads));
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int bucket = 0; bucket < 128; bucket++) {
+                int lo = bucketStarts[bucket];
+                int hi = bucketStarts[bucket + 1];
+                if (hi - lo > 1) {
+                    futures.add(executor.submit(() -> sortSuffixes(text, suffixes, lo, hi, 1, ilEquivalent)));
+                }
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while sorting the protein index", e);
+        } catch (ExecutionException e) {
+            throw new IOException("error while sorting the protein index", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return suffixes;
+    }
+
+
+    /**
+     * Sorts the suffixes in the range [lo, hi), which are equal up to the
+     * given depth, by a multikey quicksort up to the {@link #SORT_DEPTH}.
+     */
+    private static void sortSuffixes(byte[] text, int[] suffixes, int lo, int hi, int depth,
+            boolean ilEquivalent) {
+        int from = lo;
+        int to = hi;
+        int currentDepth = depth;
+
+        while ((to - from > 1) && (currentDepth < SORT_DEPTH)) {
+            if (to - from < INSERTION_SORT_THRESHOLD) {
+                insertionSort(text, suffixes, from, to, currentDepth, ilEquivalent);
+                return;
+            }
+
+            int pivot = medianOfThree(
+                    residueAt(text, suffixes[from] + currentDepth, ilEquivalent),
+                    residueAt(text, suffixes[(from + to) >>> 1] + currentDepth, ilEquivalent),
+                    residueAt(text, suffixes[to - 1] + currentDepth, ilEquivalent));
+
+            // three-way partition: [from, lt) smaller, [lt, gt] equal, (gt, to) greater
+            int lt = from;
+            int gt = to - 1;
+            int idx = from;
+            while (idx <= gt) {
+                int residue = residueAt(text, suffixes[idx] + currentDepth, ilEquivalent);
+                if (residue < pivot) {
+                    swap(suffixes, lt++, idx++);
+                } else if (residue > pivot) {
+                    swap(suffixes, idx, gt--);
+                } else {
+                    idx++;
+                }
+            }
+
+            sortSuffixes(text, suffixes, from, lt, currentDepth, ilEquivalent);
+            sortSuffixes(text, suffixes, gt + 1, to, currentDepth, ilEquivalent);
+
+            if (pivot == SEPARATOR) {
+                // these suffixes all end here
+                return;
+            }
+
+            from = lt;
+            to = gt + 1;
+            currentDepth++;
+        }
+    }
+
+
+    private static void insertionSort(byte[] text, int[] suffixes, int lo, int hi, int depth,
+            boolean ilEquivalent) {
+        for (int i = lo + 1; i < hi; i++) {
+            for (int j = i; (j > lo) && (compareSuffixes(text, suffixes[j - 1], suffixes[j], depth, ilEquivalent) > 0); j--) {
+                swap(suffixes, j, j - 1);
+            }
+        }
+    }
+
+
+    /**
+     * Compares the suffixes from the given depth up to the {@link #SORT_DEPTH}
+     */
+    private static int compareSuffixes(byte[] text, int posA, int posB, int depth, boolean ilEquivalent) {
+        for (int d = depth; d < SORT_DEPTH; d++) {
+            int a = residueAt(text, posA + d, ilEquivalent);
+            int b = residueAt(text, posB + d, ilEquivalent);
+            if (a != b) {
+                return a - b;
+            } else if (a == SEPARATOR) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+
+    private static int residueAt(byte[] text, int pos, boolean ilEquivalent) {
+        return (pos < text.length) ? normalize(text[pos], ilEquivalent) : SEPARATOR;
+    }
+
+
+    private static int medianOfThree(int a, int b, int c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+
+    /**
+     * Returns the residue used for the comparisons, i.e. leucine for
+     * isoleucine, if they are equivalent.
+     */
+    private static int normalize(int residue, boolean ilEquivalent) {
+        return (ilEquivalent && (residue == 'I')) ? 'L' : residue;
+    }
+
+
+    /**
+     * Writes the index into the given file.
+     *
+     * @param indexFile
+     * @throws IOException
+     */
+    public void write(File indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeLong(INDEX_FILE_MAGIC);
+            out.writeInt(INDEX_FILE_VERSION);
+            out.writeLong(fastaLength);
+            out.writeLong(fastaLastModified);
+            out.writeBoolean(ilEquivalent);
+            out.writeInt(proteinStarts.length);
+            out.writeInt(text.limit());
+            out.writeInt(suffixArray.limit());
+
+            ByteBuffer textCopy = text.duplicate();
+            textCopy.rewind();
+            byte[] chunk = new byte[64 * 1024];
+            while (textCopy.hasRemaining()) {
+                int length = Math.min(chunk.length, textCopy.remaining());
+                textCopy.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+
+            for (int idx = 0; idx < suffixArray.limit(); idx++) {
+                out.writeInt(suffixArray.get(idx));
+            }
+
+            writeString(out, fastaFileName);
+            for (int idx = 0; idx < proteinStarts.length; idx++) {
+                out.writeInt(proteinStarts[idx]);
+                writeString(out, accessions[idx]);
+                writeString(out, descriptions[idx]);
+            }
+        }
+
+        LOGGER.info("protein index written to " + indexFile.getAbsolutePath());
+    }
+
+
+    /**
+     * Reads the index from the given file. The protein sequences and the
+     * suffix array are memory-mapped.
+     *
+     * @param indexFile
+     * @return
+     * @throws IOException
+     */
+    public static ProteinSequenceIndex read(File indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+            while (preamble.hasRemaining()) {
+                if (channel.read(preamble) < 0) {
+                    throw new IOException("unexpected end of protein index file");
+                }
+            }
+            preamble.flip();
+
+            if ((preamble.getLong() != INDEX_FILE_MAGIC) || (preamble.getInt() != INDEX_FILE_VERSION)) {
+                throw new IOException("not a protein index file (of this version): " + indexFile);
+            }
+            long fastaLength = preamble.getLong();
+            long fastaLastModified = preamble.getLong();
+            boolean ilEquivalent = preamble.get() != 0;
+            int nrProteins = preamble.getInt();
+            int textLength = preamble.getInt();
+            int nrSuffixes = preamble.getInt();
+
+            ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, PREAMBLE_SIZE, textLength);
+            IntBuffer suffixArray = channel.map(FileChannel.MapMode.READ_ONLY,
+                    (long) PREAMBLE_SIZE + textLength, 4L * nrSuffixes).asIntBuffer();
+
+            // the stream is not closed, as this would close the channel before the end of the try
+            channel.position((long) PREAMBLE_SIZE + textLength + 4L * nrSuffixes);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            String fastaFileName = readString(in);
+            int[] proteinStarts = new int[nrProteins];
+            String[] accessions = new String[nrProteins];
+            String[] descriptions = new String[nrProteins];
+            for (int idx = 0; idx < nrProteins; idx++) {
+                proteinStarts[idx] = in.readInt();
+                accessions[idx] = readString(in);
+                descriptions[idx] = readString(in);
+            }
+
+            return new ProteinSequenceIndex(fastaFileName, fastaLength, fastaLastModified,
+                    ilEquivalent, text, suffixArray, proteinStarts, accessions, descriptions);
+        }
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Finds all occurrences of the given peptide sequence in the proteins.
+     * This is thread safe.
+     *
+     * @param peptideSequence
+     * @return the occurrences, sorted by the positions in the index
+     */
+    public List<ProteinOccurrence> findOccurrences(String peptideSequence) {
+        int length = peptideSequence.length();
+        if (length == 0) {
+            return Collections.emptyList();
+        }
+
+        int[] query = new int[length];
+        for (int idx = 0; idx < length; idx++) {
+            char residue = Character.toUpperCase(peptideSequence.charAt(idx));
+            if (residue >= 128) {
+                return Collections.emptyList();
+            }
+            query[idx] = normalize(residue, ilEquivalent);
+        }
+
+        int prefixLength = Math.min(length, SORT_DEPTH);
+        int lo = lowerBound(query, prefixLength, false);
+        int hi = lowerBound(query, prefixLength, true);
+
+        List<ProteinOccurrence> occurrences = new ArrayList<>(hi - lo);
+        for (int idx = lo; idx < hi; idx++) {
+            int pos = suffixArray.get(idx);
+
+            if ((length <= prefixLength) || (compareToQuery(pos, query, length) == 0)) {
+                int protein = Arrays.binarySearch(proteinStarts, pos);
+                if (protein < 0) {
+                    protein = -protein - 2;
+                }
+                int start = pos - proteinStarts[protein] + 1;
+                occurrences.add(new ProteinOccurrence(protein, start, start + length - 1));
+            }
+        }
+
+        return occurrences;
+    }
+
+
+    /**
+     * Returns the first index in the suffix array, whose suffix is not smaller
+     * (or, if upper is set, is greater) than the query on the first
+     * prefixLength residues.
+     */
+    private int lowerBound(int[] query, int prefixLength, boolean upper) {
+        int lo = 0;
+        int hi = suffixArray.limit();
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareToQuery(suffixArray.get(mid), query, prefixLength);
+            if ((cmp < 0) || (upper && (cmp == 0))) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+
+    /**
+     * Compares the suffix at the given position with the first length residues
+     * of the query.
+     */
+    private int compareToQuery(int pos, int[] query, int length) {
+        for (int idx = 0; idx < length; idx++) {
+            int residue = (pos + idx < text.limit()) ? normalize(text.get(pos + idx), ilEquivalent) : SEPARATOR;
+            if (residue != query[idx]) {
+                return residue - query[idx];
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Returns the path to the indexed FASTA file.
+     *
+     * @return
+     */
+    public String getFastaFileName() {
+        return fastaFileName;
+    }
+
+
+    /**
+     * Returns whether isoleucine and leucine are treated as equal.
+     *
+     * @return
+     */
+    public boolean isIlEquivalent() {
+        return ilEquivalent;
+    }
+
+
+    /**
+     * Returns the number of indexed proteins.
+     *
+     * @return
+     */
+    public int getNrProteins() {
+        return proteinStarts.length;
+    }
+
+
+    public String getAccession(int protein) {
+        return accessions[protein];
+    }
+
+
+    public String getDescription(int protein) {
+        return descriptions[protein];
+    }
+
+
+    /**
+     * Returns the sequence of the given protein.
+     *
+     * @param protein
+     * @return
+     */
+    public String getProteinSequence(int protein) {
+        int start = proteinStarts[protein];
+        int end = (protein + 1 < proteinStarts.length) ? proteinStarts[protein + 1] - 1 : text.limit() - 1;
+
+        byte[] sequence = new byte[end - start];
+        for (int idx = 0; idx < sequence.length; idx++) {
+            sequence[idx] = text.get(start + idx);
+        }
+        return new String(sequence, StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * An occurrence of a peptide in a protein of the index.
+     */
+    public static class ProteinOccurrence {
+        /** the index of the protein */
+        private final int protein;
+
+        /** the (one based) start in the protein */
+        private final int start;
+
+        /** the (one based, inclusive) end in the protein */
+        private final int end;
+
+
+        private ProteinOccurrence(int protein, int start, int end) {
+            this.protein = protein;
+            this.start = start;
+            this.end = end;
+        }
+
+
+        public int getProtein() {
+            return protein;
+        }
+
+
+        public int getStart() {
+            return start;
+        }
+
+
+        public int getEnd() {
+            return end;
+        }
+    }
+}
@@ -5,9 +5,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -81,13 +83,35 @@ public class MascotDatFileParser {
 
 
     /**
-     * Parses the data from an mzIdentML file given by its name into the given
+     * Parses the data from a Mascot DAT file given by its name into the given
      * {@link PIACompiler}.
+     * <p>
+     * The file is parsed natively by a {@link MascotDatFileScanner}. If the
+     * scanner cannot handle the file, the mascotdatfile library is used as
+     * fallback.
      *
-     * @param fileName name of the mzTab file
+     * @param fileName name of the Mascot DAT file
      */
     public static boolean getDataFromMascotDatFile(String name, String fileName,
             PIACompiler compiler) {
+        MascotDatFileScanner scanner = new MascotDatFileScanner(fileName);
+        if (scanner.scan(compiler.getUnimodParser())) {
+            return scanner.insertIntoCompiler(name, compiler);
+        }
+
+        LOGGER.info("could not scan '" + fileName + "' natively, using the mascotdatfile library");
+        return getDataFromMascotDatFileByLibrary(name, fileName, compiler);
+    }
+
+
+    /**
+     * Parses the data from a Mascot DAT file given by its name into the given
+     * {@link PIACompiler} using the mascotdatfile library.
+     *
+     * @param fileName name of the Mascot DAT file
+     */
+    static boolean getDataFromMascotDatFileByLibrary(String name, String fileName,
+            PIACompiler compiler) {
 
         // need to parse through the file, as mascotdatfile (3.2.11) does not support
         //   - the "index" variable of the queries
@@ -153,13 +177,118 @@ public class MascotDatFileParser {
         PIAInputFile file = compiler.insertNewFile(name, fileName,
                 InputFileParserFactory.InputFileTypes.MASCOT_DAT_INPUT.getFileSuffix());
 
+        SearchSettings settings = new SearchSettings();
+        settings.version = mascotFile.getHeaderSection().getVersion();
+        settings.fastaFile = fastaFile;
+        settings.database = mascotFile.getParametersSection().getDatabase();
+        settings.sequences = (long) mascotFile.getHeaderSection().getSequences();
+        settings.residues = (long) mascotFile.getHeaderSection().getResidues();
+        settings.release = mascotFile.getHeaderSection().getRelease();
+        settings.spectrumFile = mascotFile.getParametersSection().getFile();
+        settings.spectrumFormat = mascotFile.getParametersSection().getFormat();
+        settings.searchType = mascotFile.getParametersSection().getSearch();
+        settings.instrument = mascotFile.getParametersSection().getInstrument();
+        settings.comment = mascotFile.getParametersSection().getCom();
+        settings.massType = mascotFile.getParametersSection().getMass();
+        settings.missedCleavages = mascotFile.getParametersSection().getPFA();
+        settings.fragmentTolerance = mascotFile.getParametersSection().getITOL();
+        settings.fragmentToleranceUnit = mascotFile.getParametersSection().getITOLU();
+        settings.parentTolerance = mascotFile.getParametersSection().getTOL();
+        settings.parentToleranceUnit = mascotFile.getParametersSection().getTOLU();
+        settings.enzymeCleavage = enzymeCleavage;
+        settings.enzymeRestrict = enzymeRestrict;
+
+        for (Object objMod : mascotFile.getModificationList().getVariableModifications()) {
+            VariableModification mod = (VariableModification) objMod;
+            settings.modifications.add(createPSIModification(false, mod.getType(), mod.getLocation(),
+                    mod.getMass(), compiler.getUnimodParser()));
+        }
+        for (Object objMod : mascotFile.getModificationList().getFixedModifications()) {
+            FixedModification mod = (FixedModification) objMod;
+            settings.modifications.add(createPSIModification(true, mod.getType(), mod.getLocation(),
+                    mod.getMass(), compiler.getUnimodParser()));
+        }
+
+        SpectrumIdentification spectrumID = insertSearchSettings(compiler, file, settings);
+        SearchDatabase searchDatabase = spectrumID.getSearchDatabaseRef().get(0).getSearchDatabase();
+
+        // get the mappings
+        QueryEnumerator queryEnumerator = mascotFile.getQueryEnumerator();
+        QueryToPeptideMapInf queryToPeptideMap = mascotFile.getQueryToPeptideMap();
+        QueryToPeptideMapInf decoyQueryToPeptideMap = mascotFile.getDecoyQueryToPeptideMap(false);
+        ProteinMap proteinMap = mascotFile.getProteinMap();
+        ProteinMap decoyProteinMap = mascotFile.getDecoyProteinMap();
+
+        // one query is one spectrum, so go through the queries
+        int nrQueries = mascotFile.getNumberOfQueries();
+        int nrQueriesDone = 0;
+        LOGGER.debug("queries in file: " + nrQueries);
+        while (queryEnumerator.hasMoreElements()) {
+            Query currQuery = queryEnumerator.nextElement();
+
+            int charge = parseCharge(currQuery.getChargeString(), currQuery.getTitle());
+            double precursorMZ = currQuery.getPrecursorMZ();
+
+            Double retentionTime;
+            if (currQuery.getRetentionTimeInSeconds() != null) {
+                retentionTime = Double.parseDouble(currQuery.getRetentionTimeInSeconds());
+            } else {
+                retentionTime = null;
+            }
+
+            String spectrumTitle = currQuery.getTitle();
+            String index = queryIndexMap.get("query"+currQuery.getQueryNumber());
+
+            // add the target identifications
+            if (queryToPeptideMap != null) {
+                List<PeptideHit> peptideHits =
+                        queryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
+                insertPeptideHitsIntoCompiler(compiler, peptideHits, proteinMap,
+                        searchDatabase, charge, precursorMZ, retentionTime,
+                        index, spectrumTitle, file, spectrumID, false);
+            }
+
+            // add the decoy identifications
+            if (decoyQueryToPeptideMap != null) {
+                List<PeptideHit> peptideHits =
+                        decoyQueryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
+                insertPeptideHitsIntoCompiler(compiler, peptideHits,
+                        decoyProteinMap, searchDatabase, charge, precursorMZ,
+                        retentionTime, index, spectrumTitle, file, spectrumID,
+                        true);
+            }
+
+            nrQueriesDone++;
+            if (nrQueriesDone % 10000 == 0) {
+                LOGGER.debug("done " + nrQueriesDone + " / " + nrQueries
+                        + String.format(" (%1$.4f%%)", 100.0 * nrQueriesDone / nrQueries));
+            }
+        }
+
+        mascotFile.finish();
+        return true;
+    }
+
+
+    /**
+     * Creates the analysis software, search database, spectra data, protocol
+     * and spectrum identification of a Mascot search and adds them to the
+     * compiler and file.
+     *
+     * @param compiler
+     * @param file
+     * @param settings
+     * @return the spectrum identification, which references the search database
+     */
+    static SpectrumIdentification insertSearchSettings(PIACompiler compiler, PIAInputFile file,
+            SearchSettings settings) {
         // create the analysis software and add it to the compiler
         AnalysisSoftware mascot = new AnalysisSoftware();
 
         mascot.setId("mascot");
         mascot.setName("mascot");
         mascot.setUri("http://www.matrixscience.com/");
-        mascot.setVersion(mascotFile.getHeaderSection().getVersion());
+        mascot.setVersion(settings.version);
 
         Param param = new Param();
         param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.MASCOT, null));
@@ -173,11 +302,11 @@ public class MascotDatFileParser {
 
         // required
         searchDatabase.setId("mascotDB");
-        searchDatabase.setLocation(fastaFile);
+        searchDatabase.setLocation(settings.fastaFile);
         // optional
-        searchDatabase.setName(mascotFile.getParametersSection().getDatabase());
-        searchDatabase.setNumDatabaseSequences(mascotFile.getHeaderSection().getSequences());
-        searchDatabase.setNumResidues(mascotFile.getHeaderSection().getResidues());
+        searchDatabase.setName(settings.database);
+        searchDatabase.setNumDatabaseSequences(settings.sequences);
+        searchDatabase.setNumResidues(settings.residues);
 
         // fileformat
         FileFormat fileFormat = new FileFormat();
@@ -185,7 +314,7 @@ public class MascotDatFileParser {
         searchDatabase.setFileFormat(fileFormat);
         // databaseName
         param = new Param();
-        param.setParam(MzIdentMLTools.createUserParam(mascotFile.getHeaderSection().getRelease(), null, "string"));
+        param.setParam(MzIdentMLTools.createUserParam(settings.release, null, "string"));
         searchDatabase.setDatabaseName(param);
 
         // add searchDB to the compiler
@@ -194,15 +323,15 @@ public class MascotDatFileParser {
 
         // add the spectraData (input file)
         SpectraData spectraData = null;
-        if ((mascotFile.getParametersSection().getFile() != null) &&
-                (mascotFile.getParametersSection().getFile().trim().length() > 0)) {
+        if ((settings.spectrumFile != null) &&
+                (settings.spectrumFile.trim().length() > 0)) {
             spectraData = new SpectraData();
 
             spectraData.setId("mascotInput");
-            spectraData.setLocation(mascotFile.getParametersSection().getFile());
+            spectraData.setLocation(settings.spectrumFile);
 
-            if ((mascotFile.getParametersSection().getFormat() != null) &&
-                    "Mascot generic".equals(mascotFile.getParametersSection().getFormat())) {
+            if ((settings.spectrumFormat != null) &&
+                    "Mascot generic".equals(settings.spectrumFormat)) {
                 fileFormat = new FileFormat();
 
                 fileFormat.setCvParam(MzIdentMLTools.createPSICvParam(
@@ -228,7 +357,7 @@ public class MascotDatFileParser {
         spectrumIDProtocol.setAnalysisSoftware(mascot);
 
         param = new Param();
-        if ("MIS".equals(mascotFile.getParametersSection().getSearch())) {
+        if ("MIS".equals(settings.searchType)) {
             param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.MS_MS_SEARCH, null));
         }
         // TODO: add error on PMF query (not usable for PIA)
@@ -238,12 +367,12 @@ public class MascotDatFileParser {
         ParamList paramList = new ParamList();
         paramList.getCvParam().add(MzIdentMLTools.createPSICvParam(
                 OntologyConstants.MASCOT_INSTRUMENT,
-                mascotFile.getParametersSection().getInstrument()));
+                settings.instrument));
 
         paramList.getUserParam().add(MzIdentMLTools.createUserParam("Mascot User Comment",
-                        mascotFile.getParametersSection().getCom(), "string"));
+                        settings.comment, "string"));
 
-        if ("Monoisotopic".equalsIgnoreCase(mascotFile.getParametersSection().getMass())) {
+        if ("Monoisotopic".equalsIgnoreCase(settings.massType)) {
             paramList.getCvParam().add(
                     MzIdentMLTools.createPSICvParam(OntologyConstants.FRAGMENT_MASS_TYPE_MONO, null));
             paramList.getCvParam().add(
@@ -258,33 +387,28 @@ public class MascotDatFileParser {
         spectrumIDProtocol.setAdditionalSearchParams(paramList);
 
         ModificationParams modParams = new ModificationParams();
-        for (Object objMod : mascotFile.getModificationList().getVariableModifications()) {
-            modParams.getSearchModification().add(createPSIModification((VariableModification)objMod, compiler.getUnimodParser()));
-        }
-        for (Object objMod : mascotFile.getModificationList().getFixedModifications()) {
-            modParams.getSearchModification().add(createPSIModification((FixedModification)objMod, compiler.getUnimodParser()));
-        }
+        modParams.getSearchModification().addAll(settings.modifications);
         spectrumIDProtocol.setModificationParams(modParams);
 
         Enzymes enzymes = new Enzymes();
         spectrumIDProtocol.setEnzymes(enzymes);
-        if (enzymeCleavage != null) {
+        if (settings.enzymeCleavage != null) {
             Enzyme enzyme = new Enzyme();
 
             enzyme.setId("enzyme");
             enzyme.setMissedCleavages(
-                    Integer.parseInt(mascotFile.getParametersSection().getPFA()));
+                    Integer.parseInt(settings.missedCleavages));
 
             StringBuilder regExp = new StringBuilder();
-            if (enzymeRestrict == null) {
+            if (settings.enzymeRestrict == null) {
                 regExp.append("(?=[");
-                regExp.append(enzymeCleavage);
+                regExp.append(settings.enzymeCleavage);
                 regExp.append("])");
             } else {
                 regExp.append("(?<=[");
-                regExp.append(enzymeCleavage);
+                regExp.append(settings.enzymeCleavage);
                 regExp.append("])(?!");
-                regExp.append(enzymeRestrict);
+                regExp.append(settings.enzymeRestrict);
                 regExp.append(')');
             }
             enzyme.setSiteRegexp(regExp.toString());
@@ -296,16 +420,16 @@ public class MascotDatFileParser {
 
         CvParam abstractParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                mascotFile.getParametersSection().getITOL());
+                settings.fragmentTolerance);
         MzIdentMLTools.setUnitParameterFromString(
-                mascotFile.getParametersSection().getITOLU(), abstractParam);
+                settings.fragmentToleranceUnit, abstractParam);
         tolerance.getCvParam().add(abstractParam);
 
         abstractParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                mascotFile.getParametersSection().getITOL());
+                settings.fragmentTolerance);
         MzIdentMLTools.setUnitParameterFromString(
-                mascotFile.getParametersSection().getITOLU(), abstractParam);
+                settings.fragmentToleranceUnit, abstractParam);
         tolerance.getCvParam().add(abstractParam);
 
         spectrumIDProtocol.setFragmentTolerance(tolerance);
@@ -315,16 +439,16 @@ public class MascotDatFileParser {
 
         abstractParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                mascotFile.getParametersSection().getTOL());
+                settings.parentTolerance);
         MzIdentMLTools.setUnitParameterFromString(
-                mascotFile.getParametersSection().getTOLU(), abstractParam);
+                settings.parentToleranceUnit, abstractParam);
         tolerance.getCvParam().add(abstractParam);
 
         abstractParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                mascotFile.getParametersSection().getTOL());
+                settings.parentTolerance);
         MzIdentMLTools.setUnitParameterFromString(
-                mascotFile.getParametersSection().getTOLU(), abstractParam);
+                settings.parentToleranceUnit, abstractParam);
         tolerance.getCvParam().add(abstractParam);
 
         spectrumIDProtocol.setParentTolerance(tolerance);
@@ -356,76 +480,33 @@ public class MascotDatFileParser {
 
         file.addSpectrumIdentification(spectrumID);
 
+        return spectrumID;
+    }
 
-        // get the mappings
-        QueryEnumerator queryEnumerator = mascotFile.getQueryEnumerator();
-        QueryToPeptideMapInf queryToPeptideMap = mascotFile.getQueryToPeptideMap();
-        QueryToPeptideMapInf decoyQueryToPeptideMap = mascotFile.getDecoyQueryToPeptideMap(false);
-        ProteinMap proteinMap = mascotFile.getProteinMap();
-        ProteinMap decoyProteinMap = mascotFile.getDecoyProteinMap();
 
-        // one query is one spectrum, so go through the queries
-        int nrQueries = mascotFile.getNumberOfQueries();
-        int nrQueriesDone = 0;
-        LOGGER.debug("queries in file: " + nrQueries);
-        while (queryEnumerator.hasMoreElements()) {
-            Query currQuery = queryEnumerator.nextElement();
-
-            int charge;
-            try {
-                if (currQuery.getChargeString() == null) {
-                    charge = 0;
-                } else if (currQuery.getChargeString().contains("-")) {
-                    charge = -Integer.parseInt(currQuery.getChargeString().replace("-", ""));
-                } else {
-                    // we assume, it is positively charged
-                    charge = Integer.parseInt(currQuery.getChargeString().replace("+", ""));
-                }
-            } catch (NumberFormatException e) {
+    /**
+     * Parses the charge from the Mascot charge string, e.g. "2+" or "1-".
+     *
+     * @param chargeString
+     * @param spectrumTitle used for logging only
+     * @return the charge or 0, if it could not be parsed
+     */
+    static int parseCharge(String chargeString, String spectrumTitle) {
+        int charge;
+        try {
+            if (chargeString == null) {
                 charge = 0;
-                LOGGER.warn("could not parse charge '" + currQuery.getChargeString() + "' for '" + currQuery.getTitle() + '\'');
-            }
-
-            double precursorMZ = currQuery.getPrecursorMZ();
-
-            Double retentionTime;
-            if (currQuery.getRetentionTimeInSeconds() != null) {
-                retentionTime = Double.parseDouble(currQuery.getRetentionTimeInSeconds());
+            } else if (chargeString.contains("-")) {
+                charge = -Integer.parseInt(chargeString.replace("-", ""));
             } else {
-                retentionTime = null;
-            }
-
-            String spectrumTitle = currQuery.getTitle();
-            String index = queryIndexMap.get("query"+currQuery.getQueryNumber());
-
-            // add the target identifications
-            if (queryToPeptideMap != null) {
-                List<PeptideHit> peptideHits =
-                        queryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
-                insertPeptideHitsIntoCompiler(compiler, peptideHits, proteinMap,
-                        searchDatabase, charge, precursorMZ, retentionTime,
-                        index, spectrumTitle, file, spectrumID, false);
-            }
-
-            // add the decoy identifications
-            if (decoyQueryToPeptideMap != null) {
-                List<PeptideHit> peptideHits =
-                        decoyQueryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
-                insertPeptideHitsIntoCompiler(compiler, peptideHits,
-                        decoyProteinMap, searchDatabase, charge, precursorMZ,
-                        retentionTime, index, spectrumTitle, file, spectrumID,
-                        true);
-            }
-
-            nrQueriesDone++;
-            if (nrQueriesDone % 10000 == 0) {
-                LOGGER.debug("done " + nrQueriesDone + " / " + nrQueries
-                        + String.format(" (%1$.4f%%)", 100.0 * nrQueriesDone / nrQueries));
+                // we assume, it is positively charged
+                charge = Integer.parseInt(chargeString.replace("+", ""));
             }
+        } catch (NumberFormatException e) {
+            charge = 0;
+            LOGGER.warn("could not parse charge '" + chargeString + "' for '" + spectrumTitle + '\'');
         }
-
-        mascotFile.finish();
-        return true;
+        return charge;
     }
 
 
@@ -435,155 +516,206 @@ public class MascotDatFileParser {
             Double retentionTime, String sourceId, String spectrumTitle,
             PIAInputFile file, SpectrumIdentification spectrumID,
             boolean isDecoy) {
-        String sourceIdStr = sourceId;
-
         if (peptideHits == null) {
             return 0;
         }
 
         int nrPepHits = 0;
 
-        Matcher matcher = MzIdentMLTools.patternScanInTitle.matcher(spectrumTitle);
-        if (matcher.matches()) {
-            sourceIdStr = "index=" + matcher.group(1);
-        }
-
         // the peptideHits are the SpectrumPeptideMatches
         for (PeptideHit peptideHit : peptideHits) {
-            PeptideSpectrumMatch psm;
-            psm = compiler.createNewPeptideSpectrumMatch(
-                    charge,
-                    precursorMZ,
-                    peptideHit.getDeltaMass(),
-                    retentionTime,
-                    peptideHit.getSequence(),
+            PeptideHitInfo hitInfo = new PeptideHitInfo(peptideHit.getSequence(),
                     peptideHit.getMissedCleavages(),
-                    sourceIdStr,
-                    spectrumTitle,
-                    file,
-                    spectrumID);
-
-            psm.setIsDecoy(isDecoy);
-
-            // get the peptide from the compiler or, if need be, add it
-            Peptide peptide;
-            peptide = compiler.getPeptide(peptideHit.getSequence());
-            if (peptide == null) {
-                peptide = compiler.insertNewPeptide(peptideHit.getSequence());
-            }
-
-            // add the spectrum to the peptide
-            peptide.addSpectrum(psm);
+                    peptideHit.getDeltaMass(),
+                    peptideHit.getIonsScore(),
+                    peptideHit.getExpectancy());
 
-            // go through the protein hits
             @SuppressWarnings("unchecked")
             List<ProteinHit> proteins = peptideHit.getProteinHits();
             for (ProteinHit proteinHit : proteins) {
+                hitInfo.addProteinHit(proteinHit.getAccession(),
+                        proteinMap.getProteinID(proteinHit.getAccession()).getDescription(),
+                        proteinHit.getStart(), proteinHit.getStop());
+            }
 
-                FastaHeaderInfos fastaInfo =
-                        FastaHeaderInfos.parseHeaderInfos(proteinHit.getAccession());
-
-                if (fastaInfo == null) {
-                    fastaInfo = new FastaHeaderInfos(null,
-                            proteinHit.getAccession(),
-                            proteinMap.getProteinID(proteinHit.getAccession()).getDescription());
-                } else {
-                    // if there was a protein description different to the now parsed one, take the original from mascot
-                    String proteinDescription = proteinMap.
-                            getProteinID(proteinHit.getAccession()).
-                            getDescription();
-                    if ((proteinDescription != null) &&
-                            (proteinDescription.trim().length() > 0) &&
-                            !proteinDescription.equals(fastaInfo.getDescription())) {
-                        fastaInfo = new FastaHeaderInfos(null,
-                                fastaInfo.getAccession(),
-                                proteinDescription);
-                    }
+            com.compomics.mascotdatfile.util.interfaces.Modification[] mods = peptideHit.getModifications();
+            for (int loc = 0; loc < mods.length; loc++) {
+                if (mods[loc] != null) {
+                    hitInfo.addModification(loc, mods[loc].getMass(), mods[loc].getType());
                 }
+            }
 
-                // add the Accession to the compiler (if it is not already there)
-                Accession acc = compiler.getAccession(fastaInfo.getAccession());
-                if (acc == null) {
-                    // unfortunately, the sequence is not stored in the dat file
-                    acc = compiler.insertNewAccession(
-                            fastaInfo.getAccession(), null);
-                }
+            insertPeptideHit(compiler, hitInfo, searchDatabase.getId(), charge, precursorMZ,
+                    retentionTime, sourceId, spectrumTitle, file, spectrumID, isDecoy);
+            nrPepHits++;
+        }
 
-                acc.addFile(file.getID());
+        return nrPepHits;
+    }
+
+
+    /**
+     * Inserts the peptide hit with its peptide and accessions as PSM into the
+     * compiler.
+     *
+     * @param compiler
+     * @param peptideHit
+     * @param searchDatabaseID
+     * @param charge
+     * @param precursorMZ
+     * @param retentionTime
+     * @param sourceId
+     * @param spectrumTitle
+     * @param file
+     * @param spectrumID
+     * @param isDecoy
+     */
+    static void insertPeptideHit(PIACompiler compiler, PeptideHitInfo peptideHit,
+            String searchDatabaseID, int charge, Double precursorMZ,
+            Double retentionTime, String sourceId, String spectrumTitle,
+            PIAInputFile file, SpectrumIdentification spectrumID,
+            boolean isDecoy) {
+        String sourceIdStr = sourceId;
 
-                if ((fastaInfo.getDescription() != null) &&
-                        (fastaInfo.getDescription().length() > 0)) {
-                    acc.addDescription(file.getID(),
-                            fastaInfo.getDescription());
+        Matcher matcher = MzIdentMLTools.patternScanInTitle.matcher(spectrumTitle);
+        if (matcher.matches()) {
+            sourceIdStr = "index=" + matcher.group(1);
+        }
+
+        PeptideSpectrumMatch psm;
+        psm = compiler.createNewPeptideSpectrumMatch(
+                charge,
+                precursorMZ,
+                peptideHit.deltaMass,
+                retentionTime,
+                peptideHit.sequence,
+                peptideHit.missedCleavages,
+                sourceIdStr,
+                spectrumTitle,
+                file,
+                spectrumID);
+
+        psm.setIsDecoy(isDecoy);
+
+        // get the peptide from the compiler or, if need be, add it
+        Peptide peptide;
+        peptide = compiler.getPeptide(peptideHit.sequence);
+        if (peptide == null) {
+            peptide = compiler.insertNewPeptide(peptideHit.sequence);
+        }
+
+        // add the spectrum to the peptide
+        peptide.addSpectrum(psm);
+
+        // go through the protein hits
+        for (ProteinHitInfo proteinHit : peptideHit.proteinHits) {
+
+            FastaHeaderInfos fastaInfo =
+                    FastaHeaderInfos.parseHeaderInfos(proteinHit.accession);
+
+            if (fastaInfo == null) {
+                fastaInfo = new FastaHeaderInfos(null,
+                        proteinHit.accession,
+                        proteinHit.description);
+            } else {
+                // if there was a protein description different to the now parsed one, take the original from mascot
+                String proteinDescription = proteinHit.description;
+                if ((proteinDescription != null) &&
+                        (proteinDescription.trim().length() > 0) &&
+                        !proteinDescription.equals(fastaInfo.getDescription())) {
+                    fastaInfo = new FastaHeaderInfos(null,
+                            fastaInfo.getAccession(),
+                            proteinDescription);
                 }
+            }
 
-                acc.addSearchDatabaseRef(searchDatabase.getId());
+            // add the Accession to the compiler (if it is not already there)
+            Accession acc = compiler.getAccession(fastaInfo.getAccession());
+            if (acc == null) {
+                // unfortunately, the sequence is not stored in the dat file
+                acc = compiler.insertNewAccession(
+                        fastaInfo.getAccession(), null);
+            }
 
-                // add the accession occurrence to the peptide
-                peptide.addAccessionOccurrence(acc,
-                        proteinHit.getStart(), proteinHit.getStop());
+            acc.addFile(file.getID());
 
-                // now insert the connection between peptide and accession into the compiler
-                compiler.addAccessionPeptideConnection(acc, peptide);
+            if ((fastaInfo.getDescription() != null) &&
+                    (fastaInfo.getDescription().length() > 0)) {
+                acc.addDescription(file.getID(),
+                        fastaInfo.getDescription());
             }
 
-            // add the scores
-            ScoreModel score;
+            acc.addSearchDatabaseRef(searchDatabaseID);
 
-            score = new ScoreModel(peptideHit.getIonsScore(),
-                    ScoreModelEnum.MASCOT_SCORE);
-            psm.addScore(score);
+            // add the accession occurrence to the peptide
+            peptide.addAccessionOccurrence(acc,
+                    proteinHit.start, proteinHit.stop);
 
-            score = new ScoreModel(peptideHit.getExpectancy(),
-                    ScoreModelEnum.MASCOT_EXPECT);
-            psm.addScore(score);
+            // now insert the connection between peptide and accession into the compiler
+            compiler.addAccessionPeptideConnection(acc, peptide);
+        }
 
-            // add the modifications
-            com.compomics.mascotdatfile.util.interfaces.Modification[] mods = peptideHit.getModifications();
-            for (int loc = 0; loc < mods.length; loc++) {
-                if (mods[loc] != null) {
-                    Modification modification;
+        // add the scores
+        ScoreModel score;
 
-                    Character residue;
-                    if ((loc == 0) || (loc > psm.getSequence().length())) {
-                        residue = '.';
-                    } else {
-                        residue = psm.getSequence().charAt(loc - 1);
-                    }
+        score = new ScoreModel(peptideHit.ionsScore,
+                ScoreModelEnum.MASCOT_SCORE);
+        psm.addScore(score);
 
-                    modification = new Modification(
-                            residue,
-                            mods[loc].getMass(),
-                            mods[loc].getType(),
-                            null);
+        score = new ScoreModel(peptideHit.expectancy,
+                ScoreModelEnum.MASCOT_EXPECT);
+        psm.addScore(score);
 
-                    psm.addModification(loc, modification);
-                }
+        // add the modifications
+        for (Map.Entry<Integer, ModificationInfo> modIt : peptideHit.modifications.entrySet()) {
+            int loc = modIt.getKey();
+
+            Character residue;
+            if ((loc == 0) || (loc > psm.getSequence().length())) {
+                residue = '.';
+            } else {
+                residue = psm.getSequence().charAt(loc - 1);
             }
 
-            compiler.insertCompletePeptideSpectrumMatch(psm);
-            nrPepHits++;
+            Modification modification = new Modification(
+                    residue,
+                    modIt.getValue().mass,
+                    modIt.getValue().type,
+                    null);
+
+            psm.addModification(loc, modification);
         }
 
-        return nrPepHits;
+        compiler.insertCompletePeptideSpectrumMatch(psm);
     }
 
 
-    private static SearchModification createPSIModification(com.compomics.mascotdatfile.util.interfaces.Modification mod, UnimodParser uniModParser) {
+    /**
+     * Creates the {@link SearchModification} for a Mascot modification.
+     *
+     * @param isFixed whether this is a fixed modification
+     * @param type the name of the modification, e.g. "Oxidation"
+     * @param location the location of the modification, e.g. "M" or "Protein N-term"
+     * @param mass the mass shift
+     * @param uniModParser
+     * @return
+     */
+    static SearchModification createPSIModification(boolean isFixed, String type, String location,
+            double mass, UnimodParser uniModParser) {
         SearchModification searchMod = new SearchModification();
 
-        searchMod.setFixedMod(!(mod instanceof VariableModification));
+        searchMod.setFixedMod(isFixed);
 
-        if (mod.getLocation().contains("term") || mod.getLocation().contains("Term")) {
+        if (location.contains("term") || location.contains("Term")) {
 
             OntologyConstants modConstant = null;
-            if (mod.getLocation().startsWith("Protein N")) {
+            if (location.startsWith("Protein N")) {
                 modConstant = OntologyConstants.MODIFICATION_SPECIFICITY_PROTEIN_N_TERM;
-            } else if (mod.getLocation().startsWith("Protein C")) {
+            } else if (location.startsWith("Protein C")) {
                 modConstant = OntologyConstants.MODIFICATION_SPECIFICITY_PROTEIN_C_TERM;
-            } else if (mod.getLocation().startsWith("N")) {
+            } else if (location.startsWith("N")) {
                 modConstant = OntologyConstants.MODIFICATION_SPECIFICITY_PEP_N_TERM;
-            } else if (mod.getLocation().startsWith("C")) {
+            } else if (location.startsWith("C")) {
                 modConstant = OntologyConstants.MODIFICATION_SPECIFICITY_PEP_C_TERM;
             }
 
@@ -594,7 +726,7 @@ public class MascotDatFileParser {
                 specRules.getCvParam().add(specificity);
                 searchMod.getSpecificityRules().add(specRules);
 
-                String[] residues = mod.getLocation().split("erm");
+                String[] residues = location.split("erm");
                 if (residues.length > 1) {
                     for (Character residue : residues[1].trim().toCharArray()) {
                         if (residue != ' ') {
@@ -606,15 +738,15 @@ public class MascotDatFileParser {
                 }
             }
         } else {
-            for (Character residue : mod.getLocation().toCharArray()) {
+            for (Character residue : location.toCharArray()) {
                 searchMod.getResidues().add(residue.toString());
             }
         }
-        searchMod.setMassDelta((float)mod.getMass());
+        searchMod.setMassDelta((float)mass);
 
         ModT unimod = uniModParser.getModificationByNameAndMass(
-                mod.getType(),
-                mod.getMass(),
+                type,
+                mass,
                 searchMod.getResidues());
         if (unimod != null) {
             CvParam cvParam = new CvParam();
@@ -628,6 +760,109 @@ public class MascotDatFileParser {
     }
 
 
+    /**
+     * The settings of a Mascot search, which are needed to create the
+     * protocol and search database.
+     */
+    static final class SearchSettings {
+        String version;
+        String fastaFile;
+        String database;
+        Long sequences;
+        Long residues;
+        String release;
+        String spectrumFile;
+        String spectrumFormat;
+        String searchType;
+        String instrument;
+        String comment;
+        String massType;
+        String missedCleavages;
+        String fragmentTolerance;
+        String fragmentToleranceUnit;
+        String parentTolerance;
+        String parentToleranceUnit;
+        String enzymeCleavage;
+        String enzymeRestrict;
+        final List<SearchModification> modifications = new ArrayList<>();
+    }
+
+
+    /**
+     * A peptide hit of a query, independent of how the file was parsed.
+     */
+    static final class PeptideHitInfo {
+        private final String sequence;
+        private final int missedCleavages;
+        private final double deltaMass;
+        private final double ionsScore;
+        private final double expectancy;
+        private final List<ProteinHitInfo> proteinHits;
+
+        /** the modifications, mapped by their location (0 is N-terminal) */
+        private final Map<Integer, ModificationInfo> modifications;
+
+        PeptideHitInfo(String sequence, int missedCleavages, double deltaMass, double ionsScore,
+                double expectancy) {
+            this.sequence = sequence;
+            this.missedCleavages = missedCleavages;
+            this.deltaMass = deltaMass;
+            this.ionsScore = ionsScore;
+            this.expectancy = expectancy;
+            this.proteinHits = new ArrayList<>();
+            this.modifications = new TreeMap<>();
+        }
+
+        String getSequence() {
+            return sequence;
+        }
+
+        void addProteinHit(String accession, String description, int start, int stop) {
+            proteinHits.add(new ProteinHitInfo(accession, description, start, stop));
+        }
+
+        void addModification(int location, double mass, String type) {
+            modifications.put(location, new ModificationInfo(mass, type));
+        }
+
+        boolean hasModification(int location) {
+            return modifications.containsKey(location);
+        }
+    }
+
+
+    /**
+     * A protein hit of a {@link PeptideHitInfo}.
+     */
+    private static final class ProteinHitInfo {
+        private final String accession;
+        private final String description;
+        private final int start;
+        private final int stop;
+
+        private ProteinHitInfo(String accession, String description, int start, int stop) {
+            this.accession = accession;
+            this.description = description;
+            this.start = start;
+            this.stop = stop;
+        }
+    }
+
+
+    /**
+     * A modification of a {@link PeptideHitInfo}.
+     */
+    private static final class ModificationInfo {
+        private final double mass;
+        private final String type;
+
+        private ModificationInfo(double mass, String type) {
+            this.mass = mass;
+            this.type = type;
+        }
+    }
+
+
 
     /**
      * Checks, whether the given file looks like a Mascot DAT file
@@ -0,0 +1,1021 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
+import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
+import de.mpc.pia.tools.unimod.UnimodParser;
+
+
+/**
+ * Native parser for Mascot DAT files, which maps the file into memory and
+ * scans its MIME sections once.
+ * <p>
+ * While scanning, only the sections needed by PIA are parsed (parameters,
+ * masses, header, enzyme, summaries and proteins). For the peptides and
+ * queries only the byte ranges of each query are recorded, the PSMs are then
+ * built query by query directly from the mapped file.
+ * <p>
+ * All queries are parsed already in {@link #scan(UnimodParser)} and kept for
+ * the insertion into the compiler, so that a file which cannot be parsed
+ * natively is rejected before anything is written into a compiler and can be
+ * parsed by the fallback instead.
+ *
+ * @author julian
+ *
+ */
+class MascotDatFileScanner {
+
+    /** the name of the scanned file */
+    private final String fileName;
+
+    /** the mapped file, split into chunks of 2^MAPPING_SHIFT bytes */
+    private MappedByteBuffer[] buffers;
+
+    /** the size of the file */
+    private long fileSize;
+
+    /** the MIME boundary, including the leading "--" */
+    private byte[] boundary;
+
+
+    /** the key-value pairs of the parameters section */
+    private Map<String, String> parameters;
+
+    /** the key-value pairs of the masses section */
+    private Map<String, String> masses;
+
+    /** the key-value pairs of the header section */
+    private Map<String, String> header;
+
+    /** the Cleavage of the enzyme */
+    private String enzymeCleavage;
+
+    /** the Restrict of the enzyme */
+    private String enzymeRestrict;
+
+    /** the variable modifications, mapped by their index */
+    private Map<Integer, MassesModification> variableMods;
+
+    /** the fixed modifications, mapped by their residues */
+    private Map<String, MassesModification> fixedMods;
+
+    /** the search settings, created while scanning */
+    private MascotDatFileParser.SearchSettings searchSettings;
+
+    /** the descriptions of the proteins, mapped by the accessions */
+    private Map<String, String> proteinDescriptions;
+
+    /** whether the summary section was found */
+    private boolean hasSummary;
+
+    /** the largest query number found */
+    private int maxQueryNr;
+
+    /** the precursor m/z of the queries, from the summary */
+    private double[] precursorMZs;
+
+    /** the charges of the queries, from the summary */
+    private int[] charges;
+
+    /** the number of candidate peptides of the queries in the target and decoy search */
+    private double[] targetMatches;
+    private double[] decoyMatches;
+
+    /** the start offsets of the query sections */
+    private long[] querySectionStarts;
+
+    /** the ranges of the peptide lines of the queries in the peptides and decoy_peptides sections */
+    private long[] targetHitsStarts;
+    private long[] targetHitsEnds;
+    private long[] decoyHitsStarts;
+    private long[] decoyHitsEnds;
+
+    /** the queries parsed by the scan, which are inserted into the compiler */
+    private List<QueryInfo> queries;
+
+
+    /** the logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(MascotDatFileScanner.class);
+
+    /** the mapped chunks have a size of 1 GiB */
+    private static final int MAPPING_SHIFT = 30;
+    private static final long MAPPING_MASK = (1L << MAPPING_SHIFT) - 1;
+
+    /** the probability threshold used for the expectancy, as in Mascot */
+    private static final double EXPECTANCY_THRESHOLD = 0.05;
+
+    private static final String MULTIPART_CONTENT_TYPE = "Content-Type: multipart/mixed";
+    private static final String MASCOT_CONTENT_TYPE = "Content-Type: application/x-Mascot;";
+    private static final String BOUNDARY_KEY = "boundary=";
+    private static final String NAME_KEY = "name=\"";
+
+
+    /** the sections of a Mascot DAT file, which are parsed */
+    private enum Section {
+        PARAMETERS,
+        MASSES,
+        HEADER,
+        ENZYME,
+        SUMMARY,
+        DECOY_SUMMARY,
+        PEPTIDES,
+        DECOY_PEPTIDES,
+        PROTEINS,
+        QUERY,
+        /** any other section or no section */
+        OTHER,
+    }
+
+
+    MascotDatFileScanner(String fileName) {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * Maps the file, scans through all sections and parses all queries and
+     * modifications. Returns false, if the file could not be read, does not
+     * contain the needed sections or any part of it cannot be parsed. In this
+     * case, nothing was changed in any compiler.
+     *
+     * @param unimodParser used to create the modifications of the search
+     * settings
+     * @return
+     */
+    boolean scan(UnimodParser unimodParser) {
+        parameters = new HashMap<>();
+        masses = new HashMap<>();
+        header = new HashMap<>();
+        proteinDescriptions = new HashMap<>();
+        hasSummary = false;
+        maxQueryNr = 0;
+        initQueryArrays(1024);
+
+        try {
+            mapFile();
+            scanSections();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("could not scan '" + fileName + "'", e);
+            return false;
+        }
+
+        if ((boundary == null) || parameters.isEmpty() || header.isEmpty() || masses.isEmpty()
+                || !hasSummary) {
+            LOGGER.warn("needed sections are missing in '" + fileName + "'");
+            return false;
+        }
+
+        try {
+            variableMods = parseVariableModifications();
+            fixedMods = parseFixedModifications();
+            searchSettings = createSearchSettings(unimodParser);
+
+            queries = new ArrayList<>();
+            for (int queryNr = 1; queryNr <= maxQueryNr; queryNr++) {
+                if (querySectionStarts[queryNr] != 0) {
+                    queries.add(parseQuery(queryNr));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("could not parse '" + fileName + "'", e);
+            queries = null;
+            return false;
+        } finally {
+            // all needed data is parsed, release the mapping
+            buffers = null;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Maps the whole file in chunks into memory.
+     *
+     * @throws IOException
+     */
+    private void mapFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+
+            int nrBuffers = (int) ((fileSize + MAPPING_MASK) >>> MAPPING_SHIFT);
+            buffers = new MappedByteBuffer[nrBuffers];
+            for (int idx = 0; idx < nrBuffers; idx++) {
+                long start = (long) idx << MAPPING_SHIFT;
+                buffers[idx] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MAPPING_MASK + 1, fileSize - start));
+            }
+        }
+    }
+
+
+    /**
+     * Runs once through the file, parses the needed sections and records the
+     * positions of the peptides and queries.
+     */
+    private void scanSections() {
+        Section section = Section.OTHER;
+        int sectionQueryNr = 0;
+        boolean inSectionHeader = false;
+
+        long pos = 0;
+        while (pos < fileSize) {
+            long lineEnd = findLineEnd(pos);
+            long contentEnd = lineEnd;
+            if ((contentEnd > pos) && (byteAt(contentEnd - 1) == '\r')) {
+                contentEnd--;
+            }
+
+            if ((boundary != null) && startsWith(pos, contentEnd, boundary)) {
+                // a new section starts with its Content-Type
+                section = Section.OTHER;
+                inSectionHeader = true;
+            } else if (inSectionHeader) {
+                String line = getString(pos, contentEnd);
+                if (line.startsWith(MASCOT_CONTENT_TYPE)) {
+                    String name = parseSectionName(line);
+                    section = getSection(name);
+                    if (section == Section.SUMMARY) {
+                        hasSummary = true;
+                    } else if (section == Section.QUERY) {
+                        sectionQueryNr = Integer.parseInt(name.substring(5));
+                        ensureQueryCapacity(sectionQueryNr);
+                        querySectionStarts[sectionQueryNr] = lineEnd + 1;
+                    }
+                    inSectionHeader = false;
+                }
+            } else if (boundary == null) {
+                String line = getString(pos, contentEnd);
+                if (line.startsWith(MULTIPART_CONTENT_TYPE) && line.contains(BOUNDARY_KEY)) {
+                    String boundaryStr = line.substring(line.indexOf(BOUNDARY_KEY) + BOUNDARY_KEY.length())
+                            .replace("\"", "").trim();
+                    boundary = ("--" + boundaryStr).getBytes(StandardCharsets.US_ASCII);
+                }
+            } else if (contentEnd > pos) {
+                scanLine(section, pos, contentEnd, lineEnd);
+            }
+
+            pos = lineEnd + 1;
+        }
+    }
+
+
+    /**
+     * Processes a not empty line inside the given section.
+     *
+     * @param section
+     * @param start the start of the line
+     * @param contentEnd the end of the line without line break
+     * @param lineEnd the position of the line break
+     */
+    private void scanLine(Section section, long start, long contentEnd, long lineEnd) {
+        switch (section) {
+        case PARAMETERS:
+            putKeyValue(parameters, getString(start, contentEnd));
+            break;
+
+        case MASSES:
+            putKeyValue(masses, getString(start, contentEnd));
+            break;
+
+        case HEADER:
+            putKeyValue(header, getString(start, contentEnd));
+            break;
+
+        case ENZYME:
+            String enzymeLine = getString(start, contentEnd);
+            if (enzymeLine.startsWith("Cleavage:")) {
+                enzymeCleavage = enzymeLine.substring(9).trim();
+            } else if (enzymeLine.startsWith("Restrict:")) {
+                enzymeRestrict = enzymeLine.substring(9).trim();
+            }
+            break;
+
+        case SUMMARY:
+        case DECOY_SUMMARY:
+            scanSummaryLine(getString(start, contentEnd), section == Section.DECOY_SUMMARY);
+            break;
+
+        case PEPTIDES:
+        case DECOY_PEPTIDES:
+            // only record the range of the query's lines, these are sorted by query
+            int queryNr = parseQueryNumber(start, contentEnd);
+            if (queryNr > 0) {
+                ensureQueryCapacity(queryNr);
+                long[] starts = (section == Section.PEPTIDES) ? targetHitsStarts : decoyHitsStarts;
+                long[] ends = (section == Section.PEPTIDES) ? targetHitsEnds : decoyHitsEnds;
+                if (starts[queryNr] == 0) {
+                    starts[queryNr] = start;
+                }
+                ends[queryNr] = lineEnd;
+            }
+            break;
+
+        case PROTEINS:
+            scanProteinLine(getString(start, contentEnd));
+            break;
+
+        case QUERY:
+        case OTHER:
+        default:
+            // queries are parsed later, other sections are not needed
+            break;
+        }
+    }
+
+
+    /**
+     * Parses the qexp (precursor m/z and charge) and qmatch (number of
+     * candidate peptides) of the summary sections.
+     *
+     * @param line
+     * @param isDecoy
+     */
+    private void scanSummaryLine(String line, boolean isDecoy) {
+        int eqIdx = line.indexOf('=');
+        if (eqIdx < 0) {
+            return;
+        }
+
+        if (line.startsWith("qmatch")) {
+            int queryNr = Integer.parseInt(line.substring(6, eqIdx));
+            ensureQueryCapacity(queryNr);
+            double nrMatches = Double.parseDouble(line.substring(eqIdx + 1));
+            if (isDecoy) {
+                decoyMatches[queryNr] = nrMatches;
+            } else {
+                targetMatches[queryNr] = nrMatches;
+            }
+        } else if (!isDecoy && line.startsWith("qexp")) {
+            int queryNr = Integer.parseInt(line.substring(4, eqIdx));
+            ensureQueryCapacity(queryNr);
+
+            String[] values = line.substring(eqIdx + 1).split(",");
+            precursorMZs[queryNr] = Double.parseDouble(values[0]);
+            charges[queryNr] = MascotDatFileParser.parseCharge((values.length > 1) ? values[1] : null,
+                    "query" + queryNr);
+        }
+    }
+
+
+    /**
+     * Parses a protein line like <code>"accession"=mass,"description"</code>.
+     *
+     * @param line
+     */
+    private void scanProteinLine(String line) {
+        int accEnd = line.indexOf("\"=");
+        if (!line.startsWith("\"") || (accEnd < 0)) {
+            return;
+        }
+
+        String accession = line.substring(1, accEnd);
+        String description = null;
+
+        int descStart = line.indexOf(",\"", accEnd);
+        if ((descStart > 0) && line.endsWith("\"")) {
+            description = line.substring(descStart + 2, line.length() - 1);
+        }
+        proteinDescriptions.put(accession, description);
+    }
+
+
+    /**
+     * Inserts the scanned data into the given compiler. Must only be called
+     * after a successful {@link #scan(UnimodParser)}.
+     *
+     * @param name the name of the file in the compiler
+     * @param compiler
+     * @return
+     */
+    boolean insertIntoCompiler(String name, PIACompiler compiler) {
+        PIAInputFile file = compiler.insertNewFile(name, fileName,
+                InputFileParserFactory.InputFileTypes.MASCOT_DAT_INPUT.getFileSuffix());
+
+        try {
+            SpectrumIdentification spectrumID = MascotDatFileParser.insertSearchSettings(compiler, file,
+                    searchSettings);
+            String searchDatabaseID = spectrumID.getSearchDatabaseRef().get(0).getSearchDatabase().getId();
+
+            int nrQueriesDone = 0;
+            LOGGER.debug("queries in file: " + queries.size());
+            for (QueryInfo query : queries) {
+                for (MascotDatFileParser.PeptideHitInfo peptideHit : query.targetHits) {
+                    insertPeptideHit(compiler, query, peptideHit, searchDatabaseID, file, spectrumID, false);
+                }
+                for (MascotDatFileParser.PeptideHitInfo peptideHit : query.decoyHits) {
+                    insertPeptideHit(compiler, query, peptideHit, searchDatabaseID, file, spectrumID, true);
+                }
+
+                nrQueriesDone++;
+                if (nrQueriesDone % 10000 == 0) {
+                    LOGGER.debug("done " + nrQueriesDone + " / " + queries.size()
+                            + String.format(" (%1$.4f%%)", 100.0 * nrQueriesDone / queries.size()));
+                }
+            }
+        } catch (RuntimeException e) {
+            // everything was parsed in scan(), so this is a failure of the compiler
+            LOGGER.error("could not insert '" + fileName + "' into the compiler", e);
+            return false;
+        } finally {
+            // the queries are only inserted once
+            queries = null;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Creates the search settings from the parameters, header, masses and
+     * enzyme sections.
+     *
+     * @param unimodParser
+     * @return
+     */
+    private MascotDatFileParser.SearchSettings createSearchSettings(UnimodParser unimodParser) {
+        MascotDatFileParser.SearchSettings settings = new MascotDatFileParser.SearchSettings();
+
+        settings.version = header.get("version");
+        settings.fastaFile = header.get("fastafile");
+        settings.database = parameters.get("DB");
+        settings.sequences = parseLong(header.get("sequences"));
+        settings.residues = parseLong(header.get("residues"));
+        settings.release = header.get("release");
+        settings.spectrumFile = parameters.get("FILE");
+        settings.spectrumFormat = parameters.get("FORMAT");
+        settings.searchType = parameters.get("SEARCH");
+        settings.instrument = parameters.get("INSTRUMENT");
+        settings.comment = parameters.get("COM");
+        settings.massType = parameters.get("MASS");
+        settings.missedCleavages = parameters.get("PFA");
+        settings.fragmentTolerance = parameters.get("ITOL");
+        settings.fragmentToleranceUnit = parameters.get("ITOLU");
+        settings.parentTolerance = parameters.get("TOL");
+        settings.parentToleranceUnit = parameters.get("TOLU");
+        settings.enzymeCleavage = enzymeCleavage;
+        settings.enzymeRestrict = enzymeRestrict;
+
+        for (MassesModification mod : variableMods.values()) {
+            settings.modifications.add(MascotDatFileParser.createPSIModification(false, mod.getType(),
+                    mod.getLocation(), mod.getMass(), unimodParser));
+        }
+        for (MassesModification mod : fixedMods.values()) {
+            settings.modifications.add(MascotDatFileParser.createPSIModification(true, mod.getType(),
+                    mod.getLocation(), mod.getMass(), unimodParser));
+        }
+
+        return settings;
+    }
+
+
+    /**
+     * Parses the variable modifications (deltaN=mass,name) of the masses
+     * section, mapped by their index.
+     *
+     * @return
+     */
+    private Map<Integer, MassesModification> parseVariableModifications() {
+        Map<Integer, MassesModification> mods = new TreeMap<>();
+        for (int idx = 1; masses.containsKey("delta" + idx); idx++) {
+            mods.put(idx, MassesModification.parse(masses.get("delta" + idx)));
+        }
+        return mods;
+    }
+
+
+    /**
+     * Parses the fixed modifications (FixedModN=mass,name) of the masses
+     * section, mapped by their residues (FixedModResiduesN).
+     *
+     * @return
+     */
+    private Map<String, MassesModification> parseFixedModifications() {
+        Map<String, MassesModification> mods = new LinkedHashMap<>();
+        for (int idx = 1; masses.containsKey("FixedMod" + idx); idx++) {
+            mods.put(masses.get("FixedModResidues" + idx),
+                    MassesModification.parse(masses.get("FixedMod" + idx)));
+        }
+        return mods;
+    }
+
+
+    /**
+     * Parses the query section and the target and decoy peptide hits of the
+     * query, without changing any compiler.
+     *
+     * @param queryNr
+     * @return
+     */
+    private QueryInfo parseQuery(int queryNr) {
+        QueryInfo query = new QueryInfo(queryNr);
+
+        // the title, index and rtinseconds are given before the ions
+        long pos = querySectionStarts[queryNr];
+        while (pos < fileSize) {
+            long lineEnd = findLineEnd(pos);
+            long contentEnd = ((lineEnd > pos) && (byteAt(lineEnd - 1) == '\r')) ? lineEnd - 1 : lineEnd;
+
+            if (startsWith(pos, contentEnd, boundary)) {
+                break;
+            }
+
+            String line = getString(pos, contentEnd);
+            if (line.startsWith("title=")) {
+                query.spectrumTitle = decodeTitle(line.substring(6));
+            } else if (line.startsWith("index=")) {
+                query.index = line;
+            } else if (line.startsWith("rtinseconds=")) {
+                query.retentionTime = parseDouble(line.substring(12));
+            } else if (line.startsWith("Ions")) {
+                break;
+            }
+
+            pos = lineEnd + 1;
+        }
+
+        if (query.spectrumTitle == null) {
+            query.spectrumTitle = "";
+        }
+
+        parsePeptideHits(queryNr, targetHitsStarts[queryNr], targetHitsEnds[queryNr],
+                targetMatches[queryNr], query.targetHits);
+        parsePeptideHits(queryNr, decoyHitsStarts[queryNr], decoyHitsEnds[queryNr],
+                decoyMatches[queryNr], query.decoyHits);
+
+        return query;
+    }
+
+
+    /**
+     * Parses the peptide hits of a query in the given range of a peptides
+     * section into the given list.
+     */
+    private void parsePeptideHits(int queryNr, long start, long end, double nrMatches,
+            List<MascotDatFileParser.PeptideHitInfo> peptideHits) {
+        if (start == 0) {
+            return;
+        }
+
+        // collect the lines of this query, the additional lines of a hit (e.g. qN_pM_et_mods) follow its hit
+        Map<String, String> queryLines = new LinkedHashMap<>();
+        long pos = start;
+        while (pos < end) {
+            long lineEnd = findLineEnd(pos);
+            long contentEnd = ((lineEnd > pos) && (byteAt(lineEnd - 1) == '\r')) ? lineEnd - 1 : lineEnd;
+            putKeyValue(queryLines, getString(pos, contentEnd));
+            pos = lineEnd + 1;
+        }
+
+        String hitPrefix = "q" + queryNr + "_p";
+        for (Map.Entry<String, String> lineIt : queryLines.entrySet()) {
+            String key = lineIt.getKey();
+            if (!key.startsWith(hitPrefix) || (key.indexOf('_', hitPrefix.length()) > -1)
+                    || "-1".equals(lineIt.getValue())) {
+                // only peptide hits, no further hit information or empty hits
+                continue;
+            }
+
+            peptideHits.add(parsePeptideHit(lineIt.getValue(), queryLines.get(key + "_et_mods"), nrMatches));
+        }
+    }
+
+
+    /**
+     * Inserts a parsed peptide hit of the query into the compiler.
+     */
+    private void insertPeptideHit(PIACompiler compiler, QueryInfo query,
+            MascotDatFileParser.PeptideHitInfo peptideHit, String searchDatabaseID, PIAInputFile file,
+            SpectrumIdentification spectrumID, boolean isDecoy) {
+        MascotDatFileParser.insertPeptideHit(compiler, peptideHit, searchDatabaseID,
+                charges[query.queryNr], precursorMZs[query.queryNr], query.retentionTime, query.index,
+                query.spectrumTitle, file, spectrumID, isDecoy);
+    }
+
+
+    /**
+     * Parses a peptide hit line of the form
+     * <code>missed,peptideMr,delta,nrIons,sequence,peaksUsed,varMods,ionsScore,...;"acc":frame:start:end:multiplicity,...</code>
+     *
+     * @param value the value of the hit line
+     * @param etModsValue the error tolerant modification of the hit (may be null)
+     * @param nrMatches the number of candidate peptides for the query (qmatch)
+     * @return
+     */
+    private MascotDatFileParser.PeptideHitInfo parsePeptideHit(String value, String etModsValue,
+            double nrMatches) {
+        int proteinsIdx = value.indexOf(';');
+        String[] fields = ((proteinsIdx > -1) ? value.substring(0, proteinsIdx) : value).split(",");
+
+        String sequence = fields[4];
+        double ionsScore = Double.parseDouble(fields[7]);
+
+        MascotDatFileParser.PeptideHitInfo peptideHit = new MascotDatFileParser.PeptideHitInfo(
+                sequence,
+                Integer.parseInt(fields[0]),
+                Double.parseDouble(fields[2]),
+                ionsScore,
+                calculateExpectancy(ionsScore, nrMatches));
+
+        // the protein hits
+        if (proteinsIdx > -1) {
+            parseProteinHits(value, proteinsIdx + 1, peptideHit);
+        }
+
+        // the variable modifications, given for N-term, each residue and C-term
+        String modString = fields[6];
+        for (int loc = 0; loc < modString.length(); loc++) {
+            char modChar = modString.charAt(loc);
+            if (modChar == 'X') {
+                if (etModsValue != null) {
+                    String[] etMod = etModsValue.split(",");
+                    peptideHit.addModification(loc, Double.parseDouble(etMod[0]), etMod[etMod.length - 1]);
+                }
+            } else if (modChar != '0') {
+                int modIdx = (modChar <= '9') ? modChar - '0' : modChar - 'A' + 10;
+                MassesModification mod = variableMods.get(modIdx);
+                if (mod != null) {
+                    peptideHit.addModification(loc, mod.getMass(), mod.getType());
+                } else {
+                    LOGGER.warn("unknown variable modification " + modChar + " for " + sequence);
+                }
+            }
+        }
+
+        // the fixed modifications
+        for (Map.Entry<String, MassesModification> fixedIt : fixedMods.entrySet()) {
+            String residues = fixedIt.getKey();
+            MassesModification mod = fixedIt.getValue();
+            if ("N_term".equals(residues)) {
+                addFixedModification(peptideHit, 0, mod);
+            } else if ("C_term".equals(residues)) {
+                addFixedModification(peptideHit, sequence.length() + 1, mod);
+            } else if (residues != null) {
+                for (int pos = 0; pos < sequence.length(); pos++) {
+                    if (residues.indexOf(sequence.charAt(pos)) > -1) {
+                        addFixedModification(peptideHit, pos + 1, mod);
+                    }
+                }
+            }
+        }
+
+        return peptideHit;
+    }
+
+
+    /**
+     * Adds the fixed modification at the given location, if there is no
+     * other modification.
+     */
+    private static void addFixedModification(MascotDatFileParser.PeptideHitInfo peptideHit, int location,
+            MassesModification mod) {
+        if (!peptideHit.hasModification(location)) {
+            peptideHit.addModification(location, mod.getMass(), mod.getType());
+        }
+    }
+
+
+    /**
+     * Parses the protein hits, which are given as
+     * <code>"acc":frame:start:end:multiplicity</code> separated by commas,
+     * starting at the given position.
+     *
+     * @param value
+     * @param startIdx
+     * @param peptideHit
+     */
+    private void parseProteinHits(String value, int startIdx, MascotDatFileParser.PeptideHitInfo peptideHit) {
+        int pos = startIdx;
+        while ((pos < value.length()) && (value.charAt(pos) == '"')) {
+            int accEnd = value.indexOf('"', pos + 1);
+            String accession = value.substring(pos + 1, accEnd);
+
+            int hitEnd = value.indexOf(',', accEnd);
+            if (hitEnd < 0) {
+                hitEnd = value.length();
+            }
+
+            // the values after the accession are :frame:start:end:multiplicity
+            String[] positions = value.substring(accEnd + 2, hitEnd).split(":");
+            peptideHit.addProteinHit(accession, proteinDescriptions.get(accession),
+                    Integer.parseInt(positions[1]), Integer.parseInt(positions[2]));
+
+            pos = hitEnd + 1;
+        }
+    }
+
+
+    /**
+     * Calculates the expectancy of a peptide hit like Mascot does, from the
+     * ions score and the number of candidate peptides (qmatch) of the query.
+     *
+     * @param ionsScore
+     * @param nrMatches
+     * @return
+     */
+    private static double calculateExpectancy(double ionsScore, double nrMatches) {
+        double identityThreshold = 10.0 * Math.log10(Math.max(nrMatches, 1.0) / (EXPECTANCY_THRESHOLD * 20.0));
+        return EXPECTANCY_THRESHOLD * Math.pow(10.0, (identityThreshold - ionsScore) / 10.0);
+    }
+
+
+    /**
+     * Parses the query number of a line in the peptides section
+     * (qN_pM=...), without creating a String.
+     *
+     * @return the query number or 0, if the line is no query line
+     */
+    private int parseQueryNumber(long start, long end) {
+        if (byteAt(start) != 'q') {
+            return 0;
+        }
+
+        int queryNr = 0;
+        for (long pos = start + 1; pos < end; pos++) {
+            byte b = byteAt(pos);
+            if ((b >= '0') && (b <= '9')) {
+                queryNr = queryNr * 10 + (b - '0');
+            } else {
+                return (b == '_') ? queryNr : 0;
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Returns the section for the given section name.
+     *
+     * @param name
+     * @return
+     */
+    private static Section getSection(String name) {
+        if (name == null) {
+            return Section.OTHER;
+        }
+
+        switch (name) {
+        case "parameters":
+            return Section.PARAMETERS;
+        case "masses":
+            return Section.MASSES;
+        case "header":
+            return Section.HEADER;
+        case "enzyme":
+            return Section.ENZYME;
+        case "summary":
+            return Section.SUMMARY;
+        case "decoy_summary":
+            return Section.DECOY_SUMMARY;
+        case "peptides":
+            return Section.PEPTIDES;
+        case "decoy_peptides":
+            return Section.DECOY_PEPTIDES;
+        case "proteins":
+            return Section.PROTEINS;
+        default:
+            if (name.startsWith("query") && (name.length() > 5)
+                    && name.substring(5).chars().allMatch(Character::isDigit)) {
+                return Section.QUERY;
+            }
+            return Section.OTHER;
+        }
+    }
+
+
+    /**
+     * Parses the name of the section from the Content-Type line.
+     *
+     * @param line
+     * @return
+     */
+    private static String parseSectionName(String line) {
+        int nameIdx = line.toLowerCase().indexOf(NAME_KEY);
+        if (nameIdx < 0) {
+            return null;
+        }
+
+        nameIdx += NAME_KEY.length();
+        int nameEnd = line.indexOf('"', nameIdx);
+        return (nameEnd > nameIdx) ? line.substring(nameIdx, nameEnd) : null;
+    }
+
+
+    /**
+     * Puts a key=value line into the given map.
+     *
+     * @param map
+     * @param line
+     */
+    private static void putKeyValue(Map<String, String> map, String line) {
+        int eqIdx = line.indexOf('=');
+        if (eqIdx > 0) {
+            map.put(line.substring(0, eqIdx), line.substring(eqIdx + 1));
+        }
+    }
+
+
+    /**
+     * Decodes the URL encoded title of a query.
+     *
+     * @param title
+     * @return
+     */
+    private static String decodeTitle(String title) {
+        try {
+            return URLDecoder.decode(title, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            LOGGER.debug("could not decode title " + title, e);
+            return title;
+        }
+    }
+
+
+    private static Long parseLong(String value) {
+        try {
+            return (value != null) ? Long.parseLong(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            LOGGER.debug("could not parse " + value, e);
+            return null;
+        }
+    }
+
+
+    private static Double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("could not parse " + value, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Initializes the arrays of the queries with the given capacity.
+     */
+    private void initQueryArrays(int capacity) {
+        precursorMZs = new double[capacity];
+        charges = new int[capacity];
+        targetMatches = new double[capacity];
+        decoyMatches = new double[capacity];
+        querySectionStarts = new long[capacity];
+        targetHitsStarts = new long[capacity];
+        targetHitsEnds = new long[capacity];
+        decoyHitsStarts = new long[capacity];
+        decoyHitsEnds = new long[capacity];
+    }
+
+
+    /**
+     * Ensures, that the arrays of the queries can hold the given query
+     * number.
+     */
+    private void ensureQueryCapacity(int queryNr) {
+        if (queryNr > maxQueryNr) {
+            maxQueryNr = queryNr;
+        }
+
+        if (queryNr < querySectionStarts.length) {
+            return;
+        }
+
+        int capacity = Math.max(queryNr + 1, querySectionStarts.length * 2);
+        precursorMZs = Arrays.copyOf(precursorMZs, capacity);
+        charges = Arrays.copyOf(charges, capacity);
+        targetMatches = Arrays.copyOf(targetMatches, capacity);
+        decoyMatches = Arrays.copyOf(decoyMatches, capacity);
+        querySectionStarts = Arrays.copyOf(querySectionStarts, capacity);
+        targetHitsStarts = Arrays.copyOf(targetHitsStarts, capacity);
+        targetHitsEnds = Arrays.copyOf(targetHitsEnds, capacity);
+        decoyHitsStarts = Arrays.copyOf(decoyHitsStarts, capacity);
+        decoyHitsEnds = Arrays.copyOf(decoyHitsEnds, capacity);
+    }
+
+
+    private byte byteAt(long pos) {
+        return buffers[(int) (pos >>> MAPPING_SHIFT)].get((int) (pos & MAPPING_MASK));
+    }
+
+
+    /**
+     * Returns the position of the next line break or the end of the file.
+     */
+    private long findLineEnd(long start) {
+        long pos = start;
+        while ((pos < fileSize) && (byteAt(pos) != '\n')) {
+            pos++;
+        }
+        return pos;
+    }
+
+
+    private boolean startsWith(long start, long end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+
+        for (int idx = 0; idx < prefix.length; idx++) {
+            if (byteAt(start + idx) != prefix[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private String getString(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int idx = 0; idx < bytes.length; idx++) {
+            bytes[idx] = byteAt(start + idx);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * The parsed information of a query and its peptide hits.
+     */
+    private static final class QueryInfo {
+        private final int queryNr;
+        private String spectrumTitle;
+        private String index;
+        private Double retentionTime;
+        private final List<MascotDatFileParser.PeptideHitInfo> targetHits;
+        private final List<MascotDatFileParser.PeptideHitInfo> decoyHits;
+
+        private QueryInfo(int queryNr) {
+            this.queryNr = queryNr;
+            this.targetHits = new ArrayList<>();
+            this.decoyHits = new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * A modification as given in the masses section, e.g.
+     * <code>15.994915,Oxidation (M)</code>.
+     */
+    private static final class MassesModification {
+        private final double mass;
+        private final String type;
+        private final String location;
+
+        private MassesModification(double mass, String type, String location) {
+            this.mass = mass;
+            this.type = type;
+            this.location = location;
+        }
+
+        /**
+         * Parses the modification from the value in the masses section.
+         *
+         * @param value
+         * @return
+         */
+        private static MassesModification parse(String value) {
+            int commaIdx = value.indexOf(',');
+            double mass = Double.parseDouble(value.substring(0, commaIdx));
+            String name = value.substring(commaIdx + 1).trim();
+
+            // the location is given in the last brackets, e.g. "Gln->pyro-Glu (N-term Q)"
+            int locIdx = name.lastIndexOf(" (");
+            if ((locIdx > 0) && name.endsWith(")")) {
+                return new MassesModification(mass, name.substring(0, locIdx),
+                        name.substring(locIdx + 2, name.length() - 1));
+            }
+            return new MassesModification(mass, name, "");
+        }
+
+        private double getMass() {
+            return mass;
+        }
+
+        private String getType() {
+            return type;
+        }
+
+        private String getLocation() {
+            return location;
+        }
+    }
+}
@@ -1,21 +1,28 @@
 package de.mpc.pia.intermediate.compiler.parser.searchengines;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.log4j.Logger;
 
 import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftware;
@@ -47,24 +54,23 @@ import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
 import de.mpc.pia.modeller.IdentificationKeySettings;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
+import de.mpc.pia.tools.IntToDoubleMap;
 import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
 import de.mpc.pia.tools.PIAConstants;
 import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.TabSeparatedFileReader;
 import de.mpc.pia.tools.unimod.UnimodParser;
-import de.proteinms.xtandemparser.parser.XTandemParser;
-import de.proteinms.xtandemparser.xtandem.Domain;
-import de.proteinms.xtandemparser.xtandem.InputParams;
-import de.proteinms.xtandemparser.xtandem.PeptideMap;
-import de.proteinms.xtandemparser.xtandem.Protein;
-import de.proteinms.xtandemparser.xtandem.ProteinMap;
-import de.proteinms.xtandemparser.xtandem.Spectrum;
-import de.proteinms.xtandemparser.xtandem.XTandemFile;
+import de.mpc.pia.tools.unimod.jaxb.ModT;
 
 
 /**
- * This class parses the data from a mzIdentML file for a given
+ * This class parses the data from an X!Tandem XML file for a given
  * {@link PIACompiler}.<br/>
+ * The file is read once with a StAX reader. The parameters, which are needed
+ * for the PSMs, are at the end of the file, so only the information of the
+ * PSMs in the groups of type "model" is kept until they are read. Afterwards
+ * the groups are inserted into the compiler one after the other.
  *
  * @author julian
  *
@@ -78,6 +84,12 @@ public class TandemFileParser {
     /** this pattern matches a special case of RT, which occurs from mzML files */
     private static Pattern patternMzMLRT = Pattern.compile("^PT(\\d+(\\.\\d+))S$");
 
+    /** the prefix of the performance parameters' labels of the sequence sources */
+    private static final String SEQUENCE_SOURCE_LABEL = "list path, sequence source #";
+
+    /** the prefix of the performance parameters' labels of the sequence sources' descriptions */
+    private static final String SEQUENCE_SOURCE_DESCRIPTION_LABEL = "list path, sequence source description #";
+
 
     /**
      * We don't ever want to instantiate this class
@@ -88,8 +100,8 @@ public class TandemFileParser {
 
 
     /**
-     * Parses the data from an mzIdentML file given by its name into the given
-     * {@link PIACompiler}.
+     * Parses the data from an X!Tandem XML file given by its name into the
+     * given {@link PIACompiler}.
      *
      * @param fileName name of the XTandem XML result file
      * @param compiler the PIACompiler
@@ -97,93 +109,46 @@ public class TandemFileParser {
      */
     public static boolean getDataFromTandemFile(String name, String fileName,
             PIACompiler compiler, String rtMapFileName) {
-        int accNr = 0;
-        int pepNr = 0;
-        int specNr = 0;
-
-        Map<Integer, Double> rtMap = new HashMap<>();
-
-        if ((rtMapFileName != null) && (rtMapFileName.length() > 0)) {
-            // additional RT info is given, parse the file
-            try (FileInputStream rtStream = new FileInputStream(rtMapFileName)) {
-                LOGGER.info("Parsing the file '" + rtMapFileName + '\''
-                        + " for RT information.");
-
-                DataInputStream in = new DataInputStream(rtStream);
-                BufferedReader br = new BufferedReader(new InputStreamReader(in));
+        int[] counts = new int[3];   // the numbers of inserted peptides, PSMs and accessions
 
-                String strLine;
-                while ((strLine = br.readLine()) != null) {
-                    String[] v = strLine.split("\t");
-                    rtMap.put(Integer.parseInt(v[0]), Double.parseDouble(v[1]));
-                }
+        IntToDoubleMap rtMap = parseRTMap(rtMapFileName);
 
-                in.close();
-            } catch (Exception e) {
-                LOGGER.error("Error while parsing the RT info file " +
-                        rtMapFileName + ", program will continue, " +
-                        "but you won't have RT information", e);
-                rtMap.clear();
-            }
-        }
-
-        // TODO: test for multiple databases!
-        Map<String, SearchDatabase> searchDatabaseMap = // maps from the "sequence source" to the SearchDatabse object
-                new HashMap<>();
-        FileFormat fileFormat;
-
-        /* tandemParser.getPerformParamMap()
-         * POINTMUT=0
-         * TOTALPROTUSED=1032162
-         * TOTALSPECUSED=261
-         * TOTALSPECASS=145
-         * TOTALUNIQUEASS=139
-         * TOTALPEPUSED=18158050
-         * SEQSRC1=/var/www/thegpm/fasta/uniprot_sprot_trembl/uniprot_sprot_decoy.fasta
-         * INITMODELSPECTIME=0.221
-         * LOADSEQMODELTIME=3.17
-         * INITMODELTOTALTIME=57.65
-         * INPUTMOD=0
-         * POTC_TERM=0
-         * ESTFP=1
-         * UNANTICLEAV=0
-         * PARTCLEAV=0
-         * PROCVER=x! tandem TORNADO (2010.01.01.4)
-         * PROCSTART=2012:01:24:15:18:04
-         * REFINETIME=0.000
-         * POTN_TERM=0
-         * SEQSRCDESC1=no description
-         * QUALVAL=25 14 16 15 17 15 12 14 5 13 8 4 4 4 6 4 3 2 2 3
-         * INPUTSPEC=0
-         */
-        // only three sources are possible with the parser, take the file...
         File tandemFile = new File(fileName);
         if (!tandemFile.canRead()) {
             // TODO: better error / exception
             LOGGER.error("could not read '" + fileName + "'.");
             return false;
         }
-        XTandemParser tandemParser;
+
+        // the parameters are at the end of the file, but needed before the PSMs
+        Map<String, String> inputParams = new HashMap<>();
+        Map<String, String> performParams = new HashMap<>();
+        Deque<ModelGroup> modelGroups = new ArrayDeque<>();
         try {
-            tandemParser = new XTandemParser(tandemFile);
-        } catch (Exception e) {
+            readTandemFile(fileName, inputParams, performParams, modelGroups::add);
+        } catch (IOException | XMLStreamException e) {
             // TODO: better error / exception
             LOGGER.error("could not parse '" + fileName + "'.", e);
             return false;
         }
-        for (Map.Entry<String, String> performParam : tandemParser.getPerformParamMap().entrySet()) {
-            if (performParam.getKey().startsWith("SEQSRC") &&
-                    !performParam.getKey().startsWith("SEQSRCDESC")) {
+
+        // TODO: test for multiple databases!
+        Map<String, SearchDatabase> searchDatabaseMap = // maps from the "sequence source" to the SearchDatabse object
+                new HashMap<>();
+        FileFormat fileFormat;
+
+        for (Map.Entry<String, String> performParam : performParams.entrySet()) {
+            if (performParam.getKey().startsWith(SEQUENCE_SOURCE_LABEL)) {
                 // create the searchDatabase and add it to the compiler
                 SearchDatabase searchDatabase = new SearchDatabase();
 
-                int dbNr = Integer.parseInt(performParam.getKey().substring(6));
+                int dbNr = Integer.parseInt(performParam.getKey().substring(SEQUENCE_SOURCE_LABEL.length()).trim());
 
                 // required
                 searchDatabase.setId("tandemDB" + dbNr);
                 searchDatabase.setLocation(performParam.getValue());
 
-                // TODO: set searchDatabase.setName("") to tandemParser.getInputParamMap("TAXON")
+                // TODO: set searchDatabase.setName("") to the input parameter "protein, taxon"
                 // <note type="input" label="protein, taxon">uniprot_decoy</note> (comma separated)
 
                 // optional
@@ -202,7 +167,7 @@ public class TandemFileParser {
                 Param param = new Param();
                 param.setParam(MzIdentMLTools.createUserParam(
                         "databaseName",
-                        tandemParser.getPerformParamMap().get("SEQSRCDESC" + dbNr),
+                        performParams.get(SEQUENCE_SOURCE_DESCRIPTION_LABEL + dbNr),
                         "string"));
                 searchDatabase.setDatabaseName(param);
 
@@ -212,17 +177,6 @@ public class TandemFileParser {
             }
         }
 
-        // now go on with the XTandemFile (easier access)
-        XTandemFile xtandemFile;
-
-        try {
-            xtandemFile = new XTandemFile(fileName);
-        } catch (Exception e) {
-            // TODO: better error / exception
-            LOGGER.error("could not parse '" + fileName + "'.", e);
-            return false;
-        }
-
         PIAInputFile file = compiler.insertNewFile(name, fileName,
                 InputFileParserFactory.InputFileTypes.TANDEM_INPUT.getFileSuffix());
 
@@ -232,7 +186,7 @@ public class TandemFileParser {
         tandem.setId("tandem");
         tandem.setName("tandem");
         tandem.setUri("http://www.thegpm.org/TANDEM/index.html");
-        String strParam = xtandemFile.getPerformParameters().getProcVersion();
+        String strParam = performParams.get("process, version");
         if (strParam != null) {
             tandem.setVersion(strParam);
         }
@@ -245,67 +199,11 @@ public class TandemFileParser {
 
         // TODO: add refinement (modifications and all other stuff
 
-        /* tandemParser.getInputParamMap()
-         * N_TERMCLEAVMASSCHANGE=+1.007825
-         * SPECPARENTMASSERRORMINUS=0.15
-         * SPECMINPEAKS=15
-         * SCORINGMINIONCOUNT=4
-         * SPECMAXPRECURSORCHANGE=4
-         * REFINEUNANTICLEAV=yes
-         * POINTMUTATIONS=no
-         * POTMODMASS=15.994915@M,15.994915@W,0.984016@N,0.984016@Q
-         * RESIDUEPOTMODMASS=15.994915@M
-         * SPECPARENTMASSERRORPLUS=0.15
-         * SPECMONOISOMASSERROR=0.3
-         * C_TERMRESMODMASS=0.0
-         * SPECTOTALPEAK=50
-         * SCORING_BIONS=yes
-         * SPECPARENTMASSISOERROR=yes
-         * SPECTHREADS=1
-         * HISTOEXIST=yes
-         * OUTPUTSPECTRA=yes
-         * C_TERMCLEAVMASSCHANGE=+17.002735
-         * REFINE=no
-         * SCORINGMISSCLEAV=1
-         * SPECMONOISOMASSERRORUNITS=Daltons
-         * MAXVALIDEXPECT=0.1
-         * HISTOCOLWIDTH=30
-         * SPECMINPRECURSORMZ=500.0
-         * SPECTRUMPATH=/usr/tmp/CGItemp4088
-         * CLEAVAGESITE=[RK]|{P}
-         * N_TERMRESMODMASS=0.0
-         * POTMODMASS_1=31.98983@M,31.98983@W
-         * OUTPUTPERFORMANCE=yes
-         * TAXONOMYINFOPATH=../tandem/taxonomy.xml
-         * OUTPUTPROTEINS=yes
-         * SPECMINFRAGMZ=150.0
-         * OUTPUTPARAMS=yes
-         * OUTPUTPATH=../gpm/archive/GPM77700000033.xml
-         * SCORINGINCREV=no
-         * OUTPUTRESULTS=valid
-         * DEFAULTPARAMPATH=../tandem/methods/qstar.xml
-         * SPECPARENTMASSERRORUNITS=Daltons
-         * SPECDYNRANGE=100.0
-         * SCORINGPLUGSCORING=yes
-         * OUTPUTSEQUENCES=yes
-         * REFINEMAXVALIDEXPECT=0.01
-         * SCORING_YIONS=yes
-         * SPECUSENOISECOMP=no
-         * REFINESPECSYTNH=yes
-         * TAXON=uniprot_decoy
-         * OUTPUTSORTRESULTS=protein
-         * POTMODSFULLREFINE=no
-         * OUTPUTPATHHASH=no
-         * OUTPUTSXSLPATH=/tandem/tandem-style.xsl
-         * SPECFRAGMASSTYPE=monoisotopic
-         */
-        InputParams inputParams = xtandemFile.getInputParameters();
-
         // add the spectraData (input file)
         SpectraData spectraData = new SpectraData();
 
         spectraData.setId("tandemInputMGF");
-        spectraData.setLocation(inputParams.getSpectrumPath());
+        spectraData.setLocation(inputParams.get("spectrum, path"));
         // TODO: for now write MGF, though it could be mzML as well
         fileFormat = new FileFormat();
         fileFormat.setCvParam(MzIdentMLTools.createPSICvParam(
@@ -336,9 +234,10 @@ public class TandemFileParser {
                 MzIdentMLTools.createPSICvParam(OntologyConstants.PARENT_MASS_TYPE_MONO, null));
 
         boolean fragmentMonoisotopic = false;
-        if (inputParams.getSpectrumFragMassType() != null) {
+        strParam = inputParams.get("spectrum, fragment mass type");
+        if (strParam != null) {
             CvParam fragMassType;
-            if ("monoisotopic".equalsIgnoreCase(inputParams.getSpectrumFragMassType())) {
+            if ("monoisotopic".equalsIgnoreCase(strParam)) {
                 fragMassType = MzIdentMLTools.createPSICvParam(
                         OntologyConstants.FRAGMENT_MASS_TYPE_MONO, null);
                 fragmentMonoisotopic = true;
@@ -355,8 +254,8 @@ public class TandemFileParser {
 
 
         ModificationParams modParams = new ModificationParams();
-        addSearchModifications(inputParams.getResidueModMass(), true, modParams);
-        addSearchModifications(inputParams.getResiduePotModMass(), false, modParams);
+        addSearchModifications(inputParams.get("residue, modification mass"), true, modParams);
+        addSearchModifications(inputParams.get("residue, potential modification mass"), false, modParams);
         spectrumIDProtocol.setModificationParams(modParams);
 
         // TODO: add the modifications given by tandem's "quick acetyl" and "quick pyrolidone"
@@ -370,9 +269,9 @@ public class TandemFileParser {
         Enzyme enzyme = new Enzyme();
 
         enzyme.setId("enzyme");
-        enzyme.setMissedCleavages(inputParams.getScoringMissCleavageSites());
+        enzyme.setMissedCleavages(parseIntegerParam(inputParams.get("scoring, maximum missed cleavage sites")));
 
-        strParam = inputParams.getProteinCleavageSite();
+        strParam = inputParams.get("protein, cleavage site");
         if (strParam != null) {
             enzyme.setSiteRegexp(strParam);
 
@@ -425,22 +324,19 @@ public class TandemFileParser {
 
         Tolerance tolerance = new Tolerance();
 
-        if (fragmentMonoisotopic) {
-            Double fragmentError;
-            String units;
-
-            fragmentError = inputParams.getSpectrumMonoIsoMassError();
-            units = inputParams.getSpectrumMonoIsoMassErrorUnits();
+        Double fragmentError = parseDoubleParam(inputParams.get("spectrum, fragment monoisotopic mass error"));
+        if (fragmentMonoisotopic && (fragmentError != null)) {
+            String units = inputParams.get("spectrum, fragment monoisotopic mass error units");
 
             CvParam tolParam = MzIdentMLTools.createPSICvParam(
                     OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                    String.valueOf(fragmentError.toString()));
+                    fragmentError.toString());
             MzIdentMLTools.setUnitParameterFromString(units, tolParam);
             tolerance.getCvParam().add(tolParam);
 
             tolParam = MzIdentMLTools.createPSICvParam(
                     OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                    String.valueOf(fragmentError.toString()));
+                    fragmentError.toString());
             MzIdentMLTools.setUnitParameterFromString(units, tolParam);
             tolerance.getCvParam().add(tolParam);
 
@@ -453,16 +349,16 @@ public class TandemFileParser {
 
         CvParam tolParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                String.valueOf(inputParams.getSpectrumParentMonoIsoMassErrorPlus()));
+                String.valueOf(parseDoubleParam(inputParams.get("spectrum, parent monoisotopic mass error plus"))));
         MzIdentMLTools.setUnitParameterFromString(
-                inputParams.getSpectrumParentMonoIsoMassErrorUnits(), tolParam);
+                inputParams.get("spectrum, parent monoisotopic mass error units"), tolParam);
         tolerance.getCvParam().add(tolParam);
 
         tolParam = MzIdentMLTools.createPSICvParam(
                 OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                String.valueOf(inputParams.getSpectrumParentMonoIsoMassErrorMinus()));
+                String.valueOf(parseDoubleParam(inputParams.get("spectrum, parent monoisotopic mass error minus"))));
         MzIdentMLTools.setUnitParameterFromString(
-                inputParams.getSpectrumParentMonoIsoMassErrorUnits(), tolParam);
+                inputParams.get("spectrum, parent monoisotopic mass error units"), tolParam);
         tolerance.getCvParam().add(tolParam);
 
         spectrumIDProtocol.setParentTolerance(tolerance);
@@ -510,235 +406,415 @@ public class TandemFileParser {
         psmSetSettings.put(IdentificationKeySettings.MODIFICATIONS.name(), true);
         psmSetSettings.put(IdentificationKeySettings.CHARGE.name(), true);
 
-        // now go through the spectra
-        Iterator<?> iter = xtandemFile.getSpectraIterator();
-        PeptideMap pepMap = xtandemFile.getPeptideMap();
-        ProteinMap protMap = xtandemFile.getProteinMap();
+        // the UNIMOD modifications of the already seen residues and masses
+        Map<String, ModT> unimodCache = new HashMap<>();
 
-        while (iter.hasNext()) {
-            Object nxt = iter.next();
-            Spectrum spectrum;
-            if (nxt instanceof Spectrum){
-                spectrum = (Spectrum)nxt;
-            } else {
-                continue;
+        // now insert the spectra (model groups) one by one, releasing the inserted ones
+        while (!modelGroups.isEmpty()) {
+            insertModelGroup(modelGroups.poll(), compiler, file, spectrumID,
+                    searchDatabaseMap, modParams, psmSetSettings, rtMap, unimodCache, counts);
+        }
+
+        LOGGER.info("inserted new: \n\t" +
+                counts[0] + " peptides\n\t" +
+                counts[1] + " peptide spectrum matches\n\t" +
+                counts[2] + " accessions");
+        return true;
+    }
+
+
+    /**
+     * Parses the optional file mapping from the spectrum IDs to the retention
+     * times. Each line contains the spectrum ID and RT, separated by a tab.
+     *
+     * @param rtMapFileName
+     * @return the mapping, which is empty, if no file is given or an error
+     * occurred
+     */
+    private static IntToDoubleMap parseRTMap(String rtMapFileName) {
+        IntToDoubleMap rtMap = new IntToDoubleMap();
+
+        if ((rtMapFileName != null) && (rtMapFileName.length() > 0)) {
+            // additional RT info is given, parse the file
+            LOGGER.info("Parsing the file '" + rtMapFileName + '\''
+                    + " for RT information.");
+
+            try (TabSeparatedFileReader reader = new TabSeparatedFileReader(rtMapFileName, false)) {
+                reader.forEachRow(row -> rtMap.put(row.getInt(0), row.getDouble(1)));
+            } catch (Exception e) {
+                LOGGER.error("Error while parsing the RT info file " +
+                        rtMapFileName + ", program will continue, " +
+                        "but you won't have RT information", e);
+                rtMap.clear();
             }
+        }
 
-            int charge = spectrum.getPrecursorCharge();
-            double precursorMZ = (spectrum.getPrecursorMh() +
-                    charge * PIAConstants.H_MASS.doubleValue() -
-                    PIAConstants.H_MASS.doubleValue()) / charge;
-            precursorMZ = PIATools.round(precursorMZ, 6);
+        return rtMap;
+    }
 
-            String sourceID = "index=" + (spectrum.getSpectrumId()-1);
 
-            String spectrumTitle = xtandemFile.
-                    getSupportData(spectrum.getSpectrumNumber()).
-                    getFragIonSpectrumDescription();
+    /**
+     * Reads the whole file in one pass. The notes of the input and performance
+     * parameters groups are read into the given maps, mapping from the notes'
+     * labels to their values. Each group of type "model" is given to the
+     * groupConsumer, after it was read completely, only the information needed
+     * for the PSMs is kept.
+     *
+     * @param fileName
+     * @param inputParams
+     * @param performParams
+     * @param groupConsumer
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private static void readTandemFile(String fileName, Map<String, String> inputParams,
+            Map<String, String> performParams, Consumer<ModelGroup> groupConsumer)
+            throws IOException, XMLStreamException {
+        XMLInputFactory xmlif = XMLInputFactory.newInstance();
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        xmlif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        try (InputStream inputStream = new FileInputStream(fileName)) {
+            XMLStreamReader xmlr = xmlif.createXMLStreamReader(inputStream);
+
+            Map<String, String> currentParams = null;
+            ModelGroup group = null;
+            int groupDepth = 0;
+            ProteinInfo protein = null;
+            StringBuilder proteinSequence = null;
+            DomainHit domain = null;
+
+            // the same protein sequences are given in many groups, keep each only once
+            Map<String, String> proteinSequences = new HashMap<>();
+
+            while (xmlr.hasNext()) {
+                int event = xmlr.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String tag = xmlr.getLocalName();
+
+                    if ("group".equals(tag)) {
+                        if (group != null) {
+                            groupDepth++;
+                        } else if ("model".equals(xmlr.getAttributeValue(null, "type"))) {
+                            group = new ModelGroup(
+                                    Integer.parseInt(xmlr.getAttributeValue(null, "id")),
+                                    Double.parseDouble(xmlr.getAttributeValue(null, "mh")),
+                                    Integer.parseInt(xmlr.getAttributeValue(null, "z")),
+                                    xmlr.getAttributeValue(null, "rt"));
+                            groupDepth = 0;
+                        } else if ("parameters".equals(xmlr.getAttributeValue(null, "type"))) {
+                            String label = xmlr.getAttributeValue(null, "label");
+                            if ("input parameters".equals(label)) {
+                                currentParams = inputParams;
+                            } else if ("performance parameters".equals(label)) {
+                                currentParams = performParams;
+                            }
+                        }
+                    } else if (group == null) {
+                        if ((currentParams != null) && "note".equals(tag)) {
+                            String label = xmlr.getAttributeValue(null, "label");
+                            String value = xmlr.getElementText().trim();
+                            if (label != null) {
+                                currentParams.put(label, value);
+                            }
+                        }
+                    } else if ("protein".equals(tag)) {
+                        protein = new ProteinInfo(xmlr.getAttributeValue(null, "label"));
+                    } else if ("file".equals(tag) && (protein != null)) {
+                        protein.fastaFilePath = xmlr.getAttributeValue(null, "URL");
+                    } else if ("peptide".equals(tag) && (protein != null)) {
+                        proteinSequence = new StringBuilder();
+                    } else if ("domain".equals(tag) && (protein != null)) {
+                        domain = new DomainHit(protein,
+                                xmlr.getAttributeValue(null, "seq"),
+                                Integer.parseInt(xmlr.getAttributeValue(null, "start")),
+                                Integer.parseInt(xmlr.getAttributeValue(null, "end")),
+                                Double.parseDouble(xmlr.getAttributeValue(null, "expect")),
+                                Double.parseDouble(xmlr.getAttributeValue(null, "hyperscore")),
+                                Double.parseDouble(xmlr.getAttributeValue(null, "mh")),
+                                parseIntegerParam(xmlr.getAttributeValue(null, "missed_cleavages")));
+                        group.domains.add(domain);
+                    } else if ("aa".equals(tag) && (domain != null)) {
+                        domain.addModification(Integer.parseInt(xmlr.getAttributeValue(null, "at")),
+                                Double.parseDouble(xmlr.getAttributeValue(null, "modified")));
+                    } else if ("note".equals(tag) && (protein == null)
+                            && "description".equalsIgnoreCase(xmlr.getAttributeValue(null, "label"))) {
+                        // the description of the fragment ion mass spectrum
+                        group.spectrumTitle = xmlr.getElementText().trim();
+                    }
+                } else if ((event == XMLStreamConstants.CHARACTERS) && (proteinSequence != null)
+                        && (domain == null)) {
+                    proteinSequence.append(xmlr.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String tag = xmlr.getLocalName();
+
+                    if (group == null) {
+                        if ("group".equals(tag)) {
+                            currentParams = null;
+                        }
+                    } else if ("group".equals(tag)) {
+                        if (groupDepth > 0) {
+                            groupDepth--;
+                        } else {
+                            groupConsumer.accept(group);
+                            group = null;
+                        }
+                    } else if ("protein".equals(tag)) {
+                        protein = null;
+                    } else if ("peptide".equals(tag) && (protein != null) && (proteinSequence != null)) {
+                        // remove whitespaces and breaks
+                        protein.sequence = proteinSequences.computeIfAbsent(
+                                proteinSequence.toString().replaceAll("\\s", ""), sequence -> sequence);
+                        proteinSequence = null;
+                    } else if ("domain".equals(tag)) {
+                        domain = null;
+                    }
+                }
+            }
 
-            // check for scan number in the title, if it is there, take the title as sourceID
-            Matcher matcher = MzIdentMLTools.patternScanInTitle.matcher(spectrumTitle);
+            xmlr.close();
+        }
+    }
+
+
+    /**
+     * Inserts the PSMs, peptides and accessions of one model group (one
+     * spectrum) into the compiler.
+     */
+    private static void insertModelGroup(ModelGroup group, PIACompiler compiler, PIAInputFile file,
+            SpectrumIdentification spectrumID, Map<String, SearchDatabase> searchDatabaseMap,
+            ModificationParams modParams, Map<String, Boolean> psmSetSettings, IntToDoubleMap rtMap,
+            Map<String, ModT> unimodCache, int[] counts) {
+        int charge = group.charge;
+        double precursorMZ = (group.mh +
+                charge * PIAConstants.H_MASS.doubleValue() -
+                PIAConstants.H_MASS.doubleValue()) / charge;
+        precursorMZ = PIATools.round(precursorMZ, 6);
+
+        String sourceID = "index=" + (group.id-1);
+
+        String spectrumTitle = group.spectrumTitle;
+
+        // check for scan number in the title, if it is there, take the title as sourceID
+        Matcher matcher;
+        if (spectrumTitle != null) {
+            matcher = MzIdentMLTools.patternScanInTitle.matcher(spectrumTitle);
             if (matcher.matches()) {
                 sourceID = "index=" + matcher.group(1);
             }
+        }
 
-            List<de.proteinms.xtandemparser.xtandem.Peptide> pepList =
-                    pepMap.getAllPeptides(spectrum.getSpectrumNumber());
+        String rtStr = group.rt;
+        Double rt = null;
+        if ((rtStr != null) && (rtStr.trim().length() > 0)) {
+            rtStr = rtStr.trim();
+
+            try {
+                matcher = patternMzMLRT.matcher(rtStr);
+                if (matcher.matches()) {
+                    rt = Double.parseDouble(matcher.group(1));
+                    // the RT is also somehow wrong, fix this
+                    rt = rt / 60.0;
+                } else {
+                    // try to get the RT directly from tandem
+                    rt = Double.parseDouble(rtStr);
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.error("Could not parse RT: ", e);
+                rt = null;
+            }
+        }
 
+        if ((rt == null) && rtMap.containsKey(group.id-1)) {
+            // if the RT is still null, try the mapping from OpenMS-file
+            rt = rtMap.get(group.id-1, Double.NaN);
+        }
 
-            String rtStr = spectrum.getPrecursorRetentionTime();
-            Double rt = null;
-            if ((rtStr != null) && (rtStr.trim().length() > 0)) {
-                rtStr = rtStr.trim();
 
-                try {
-                    matcher = patternMzMLRT.matcher(rtStr);
-                    if (matcher.matches()) {
-                        rt = Double.parseDouble(matcher.group(1));
-                        // the RT is also somehow wrong, fix this
-                        rt = rt / 60.0;
-                    } else {
-                        // try to get the RT directly from tandem
-                        rt = Double.parseDouble(rtStr);
-                    }
-                } catch (NumberFormatException e) {
-                    LOGGER.error("Could not parse RT: ", e);
-                    rt = null;
+        // we need a map, to store the PSMs of this spectrum
+        Map<String, PeptideSpectrumMatch> keysToPSMs;
+        keysToPSMs = new HashMap<>();
+
+        for (DomainHit domain : group.domains) {
+            // a domain is a PSM in a protein, therefore this may be already in the compiler
+            String sequence = domain.sequence;
+
+            // to check, whether the PSM is already there, the modifications
+            // are needed.
+            // note: there can not be a PSM with all equal except the scores!
+
+            // create the (variable and fixed) modifications
+            Map<Integer, Modification> modifications = createModifications(domain, modParams,
+                    compiler.getUnimodParser(), unimodCache);
+
+            String psmKey = PeptideSpectrumMatch.getIdentificationKey(
+                    psmSetSettings,
+                    sequence,
+                    PeptideSpectrumMatch.getModificationString(modifications),  // no different rounding in the same file, so this should be safe
+                    charge,
+                    null,
+                    null,
+                    sourceID,
+                    null,
+                    null);
+
+            Peptide peptide;
+            PeptideSpectrumMatch psm = keysToPSMs.get(psmKey);
+
+            if (psm == null) {
+                psm = compiler.createNewPeptideSpectrumMatch(
+                        charge,
+                        precursorMZ,
+                        PIATools.round(group.mh-domain.mh, 6),
+                        rt,
+                        sequence,
+                        domain.missedCleavages,
+                        sourceID,
+                        spectrumTitle,
+                        file,
+                        spectrumID);
+                counts[1]++;
+                keysToPSMs.put(psmKey, psm);
+
+                // get the peptide or create it
+                peptide = compiler.getPeptide(sequence);
+                if (peptide == null) {
+                    peptide = compiler.insertNewPeptide(sequence);
+                    counts[0]++;
                 }
-            }
 
-            if (rt == null) {
-                // if the RT is still null, try the mapping from OpenMS-file
-                rt = rtMap.get(spectrum.getSpectrumId()-1);
-            }
+                // add the spectrum to the peptide
+                peptide.addSpectrum(psm);
 
+                // add the modifications
+                for (Map.Entry<Integer, Modification> mod
+                        : modifications.entrySet()) {
+                    psm.addModification(mod.getKey(), mod.getValue());
+                }
 
-            // we need a map, to store the PSMs of this spectrum
-            Map<String, PeptideSpectrumMatch> keysToPSMs;
-            keysToPSMs = new HashMap<>();
-
-            for (de.proteinms.xtandemparser.xtandem.Peptide pep : pepList) {
-
-                for (Domain domain : pep.getDomains()) {
-                    // a domain is a PSM in a protein, therefore this may be already in the compiler
-                    String sequence = domain.getDomainSequence();
-
-                    // to check, whether the PSM is already there, the modifications
-                    // are needed.
-                    // note: there can not be a PSM with all equal except the scores!
-
-                    // create the modifications
-                    Map<Integer, Modification> modifications =
-                            new HashMap<>();
-
-                    // variable mods
-                    modifications.putAll(createModifications(
-                            xtandemFile.getModificationMap().getVariableModifications(domain.getDomainKey()),
-                            sequence, domain.getDomainStart(), modParams));
-
-                    // fixed mods
-                    modifications.putAll(createModifications(
-                            xtandemFile.getModificationMap().getFixedModifications(domain.getDomainKey()),
-                            sequence, domain.getDomainStart(), modParams));
-
-                    String psmKey = PeptideSpectrumMatch.getIdentificationKey(
-                            psmSetSettings,
-                            sequence,
-                            PeptideSpectrumMatch.getModificationString(modifications),  // no different rounding in the same file, so this should be safe
-                            charge,
-                            null,
-                            null,
-                            sourceID,
-                            null,
-                            null);
-
-                    Peptide peptide;
-                    PeptideSpectrumMatch psm = keysToPSMs.get(psmKey);
-
-                    if (psm == null) {
-                        psm = compiler.createNewPeptideSpectrumMatch(
-                                charge,
-                                precursorMZ,
-                                PIATools.round(spectrum.getPrecursorMh()-domain.getDomainMh(), 6),
-                                rt,
-                                sequence,
-                                domain.getMissedCleavages(),
-                                sourceID,
-                                spectrumTitle,
-                                file,
-                                spectrumID);
-                        specNr++;
-                        keysToPSMs.put(psmKey, psm);
-
-                        // get the peptide or create it
-                        peptide = compiler.getPeptide(sequence);
-                        if (peptide == null) {
-                            peptide = compiler.insertNewPeptide(sequence);
-                            pepNr++;
-                        }
+                // add the scores
+                ScoreModel score;
 
-                        // add the spectrum to the peptide
-                        peptide.addSpectrum(psm);
+                score = new ScoreModel(domain.expect,
+                        ScoreModelEnum.XTANDEM_EXPECT);
+                psm.addScore(score);
 
-                        // add the modifications
-                        for (Map.Entry<Integer, Modification> mod
-                                : modifications.entrySet()) {
-                            psm.addModification(mod.getKey(), mod.getValue());
-                        }
+                score = new ScoreModel(domain.hyperscore,
+                        ScoreModelEnum.XTANDEM_HYPERSCORE);
+                psm.addScore(score);
 
-                        // add the scores
-                        ScoreModel score;
+                // the PSm is finished now
+                compiler.insertCompletePeptideSpectrumMatch(psm);
+            } else {
+                // if the PSM is already in the compiler, the peptide must be there as well
+                peptide = compiler.getPeptide(sequence);
+                if (peptide == null) {
+                    LOGGER.error("The peptide " + sequence +
+                            " was not found in the compiler!");
+                    continue;
+                }
+            }
 
-                        score = new ScoreModel(domain.getDomainExpect(),
-                                ScoreModelEnum.XTANDEM_EXPECT);
-                        psm.addScore(score);
+            // get the protein infos
+            ProteinInfo protein = domain.protein;
 
-                        score = new ScoreModel(domain.getDomainHyperScore(),
-                                ScoreModelEnum.XTANDEM_HYPERSCORE);
-                        psm.addScore(score);
+            FastaHeaderInfos fastaInfo =
+                    FastaHeaderInfos.parseHeaderInfos(protein.label);
 
-                        // the PSm is finished now
-                        compiler.insertCompletePeptideSpectrumMatch(psm);
-                    } else {
-                        // if the PSM is already in the compiler, the peptide must be there as well
-                        peptide = compiler.getPeptide(sequence);
-                        if (peptide == null) {
-                            LOGGER.error("The peptide " + sequence +
-                                    " was not found in the compiler!");
-                            continue;
-                        }
-                    }
+            if (fastaInfo == null) {
+                LOGGER.error("Could not parse '" +
+                        protein.label + '\'');
+                continue;
+            }
 
-                    // get the protein infos
-                    Protein protein = protMap.getProtein(domain.getProteinKey());
+            // add the Accession to the compiler (if it is not already there)
+            Accession acc = compiler.getAccession(fastaInfo.getAccession());
+            if (acc == null) {
+                // sequence will be added later (without whitespaces)
+                acc = compiler.insertNewAccession(
+                        fastaInfo.getAccession(), null);
+                counts[2]++;
+            }
 
-                    FastaHeaderInfos fastaInfo =
-                            FastaHeaderInfos.parseHeaderInfos(protein.getLabel());
+            acc.addFile(file.getID());
 
-                    if (fastaInfo == null) {
-                        LOGGER.error("Could not parse '" +
-                                protein.getLabel() + '\'');
-                        continue;
-                    }
+            if ((fastaInfo.getDescription() != null) &&
+                    (fastaInfo.getDescription().length() > 0)) {
+                acc.addDescription(file.getID(), fastaInfo.getDescription());
+            }
 
-                    // add the Accession to the compiler (if it is not already there)
-                    Accession acc = compiler.getAccession(fastaInfo.getAccession());
-                    if (acc == null) {
-                        // sequence will be added later (without whitespaces)
-                        acc = compiler.insertNewAccession(
-                                fastaInfo.getAccession(), null);
-                        accNr++;
+
+            String proteinSequence = protein.sequence;
+            if ((proteinSequence != null) && !proteinSequence.isEmpty()) {
+                if (acc.getDbSequence() != null)  {
+                    if (!proteinSequence.equals(acc.getDbSequence())) {
+                        LOGGER.warn("Different DBSequences found for same Accession, this is not suported!\n" +
+                                "\t Accession: " + acc.getAccession() +
+                                "\t'" + proteinSequence + "'\n" +
+                                "\t'" + acc.getDbSequence() + '\'');
                     }
+                } else {
+                    acc.setDbSequence(proteinSequence);
+                }
+            }
 
-                    acc.addFile(file.getID());
+            // add the searchDB to the accession
+            SearchDatabase sDB =
+                    searchDatabaseMap.get(protein.fastaFilePath);
+            if (sDB != null) {
+                acc.addSearchDatabaseRef(sDB.getId());
+            }
 
-                    if ((fastaInfo.getDescription() != null) &&
-                            (fastaInfo.getDescription().length() > 0)) {
-                        acc.addDescription(file.getID(), fastaInfo.getDescription());
-                    }
+            // add the accession occurrence to the peptide
+            peptide.addAccessionOccurrence(acc,
+                    domain.start, domain.end);
 
 
-                    String proteinSequence = pep.getSequence();
-                    if (proteinSequence != null) {
-                        // remove whitespaces and breaks
-                        proteinSequence = proteinSequence.replaceAll("\\s", "");
-
-                        if (acc.getDbSequence() != null)  {
-                            if (!proteinSequence.equals(acc.getDbSequence())) {
-                                LOGGER.warn("Different DBSequences found for same Accession, this is not suported!\n" +
-                                        "\t Accession: " + acc.getAccession() +
-                                        "\t'" + proteinSequence + "'\n" +
-                                        "\t'" + acc.getDbSequence() + '\'');
-                            }
-                        } else {
-                            acc.setDbSequence(proteinSequence);
-                        }
-                    }
+            // now insert the connection between peptide and accession into the compiler
+            compiler.addAccessionPeptideConnection(acc, peptide);
+        }
+    }
 
-                    // add the searchDB to the accession
-                    SearchDatabase sDB =
-                            searchDatabaseMap.get(pep.getFastaFilePath());
-                    if (sDB != null) {
-                        acc.addSearchDatabaseRef(sDB.getId());
-                    }
 
-                    // add the accession occurrence to the peptide
-                    peptide.addAccessionOccurrence(acc,
-                            domain.getDomainStart(), domain.getDomainEnd());
+    /**
+     * Parses an integer parameter, returns null if it is not given or no
+     * integer.
+     *
+     * @param value
+     * @return
+     */
+    private static Integer parseIntegerParam(String value) {
+        if (value == null) {
+            return null;
+        }
 
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("could not parse integer from '" + value + "'", e);
+            return null;
+        }
+    }
 
-                    // now insert the connection between peptide and accession into the compiler
-                    compiler.addAccessionPeptideConnection(acc, peptide);
-                }
 
-            }
+    /**
+     * Parses a double parameter, returns null if it is not given or no
+     * number.
+     *
+     * @param value
+     * @return
+     */
+    private static Double parseDoubleParam(String value) {
+        if (value == null) {
+            return null;
         }
 
-        LOGGER.info("inserted new: \n\t" +
-                pepNr + " peptides\n\t" +
-                specNr + " peptide spectrum matches\n\t" +
-                accNr + " accessions");
-        return true;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("could not parse number from '" + value + "'", e);
+            return null;
+        }
     }
 
 
@@ -796,33 +872,36 @@ public class TandemFileParser {
     }
 
 
+
     /**
      * Create a List of {@link Modification}s with the given data from the
-     * tandem file
+     * tandem file. The modifications are identified in UNIMOD by their mass
+     * and residue.
      *
-     * @param mods
-     * @param peptideSequence
-     * @param domainStart
+     * @param domain the domain with the modifications
      * @param modParams these are the (user given) modification parameters for
      * the search, they are used for cross-checking against N- and C-terminal
      * modifications, as they are ambiguously encoded in the tandem XML file
+     * @param unimodParser
+     * @param unimodCache caches the found UNIMOD modifications by residue and mass
      * @return
      */
-    private static Map<Integer, Modification> createModifications(
-            List<de.proteinms.xtandemparser.interfaces.Modification> mods,
-            String peptideSequence, int domainStart,
-            ModificationParams modParams) {
+    private static Map<Integer, Modification> createModifications(DomainHit domain,
+            ModificationParams modParams, UnimodParser unimodParser, Map<String, ModT> unimodCache) {
+        String peptideSequence = domain.sequence;
+        int domainStart = domain.start;
 
         Map<Integer, Modification> modifications =
-                new HashMap<>(mods.size());
+                new HashMap<>(domain.modificationPositions.size());
 
-        for (de.proteinms.xtandemparser.interfaces.Modification mod : mods) {
+        for (int modIdx = 0; modIdx < domain.modificationPositions.size(); modIdx++) {
+            int position = domain.modificationPositions.get(modIdx);
+            double mass = domain.modificationMasses.get(modIdx);
 
-            int loc = Integer.parseInt(mod.getLocation()) -
-                    domainStart + 1;
+            int loc = position - domainStart + 1;
 
             if ((loc < 0) || (loc > peptideSequence.length() + 1)) {
-                LOGGER.error("weird location for modification: '" + mod.getLocation() + "' in " + peptideSequence + ", domainStart: " + domainStart);
+                LOGGER.error("weird location for modification: '" + position + "' in " + peptideSequence + ", domainStart: " + domainStart);
             }
 
             if (loc == 1) {
@@ -845,7 +924,7 @@ public class TandemFileParser {
                 }
 
                 // the quick acetyl and quick pyrolidone are also n-terminal
-                if (Math.abs(mod.getMass() - 42.010565) < UnimodParser.UNIMOD_MASS_TOLERANCE) {
+                if (Math.abs(mass - 42.010565) < UnimodParser.UNIMOD_MASS_TOLERANCE) {
                     // acetylation
                     Modification modification = new Modification('.',
                             42.0105647,
@@ -853,8 +932,8 @@ public class TandemFileParser {
                             "UNIMOD:1");
                     modifications.put(0, modification);
                     continue;
-                } else if ((Math.abs(mod.getMass() + 18.010565) < UnimodParser.UNIMOD_MASS_TOLERANCE) ||
-                        (Math.abs(mod.getMass() + 17.026549) < UnimodParser.UNIMOD_MASS_TOLERANCE)) {
+                } else if ((Math.abs(mass + 18.010565) < UnimodParser.UNIMOD_MASS_TOLERANCE) ||
+                        (Math.abs(mass + 17.026549) < UnimodParser.UNIMOD_MASS_TOLERANCE)) {
                     // pyrolidone
                     loc = 0;
                 }
@@ -885,10 +964,28 @@ public class TandemFileParser {
                 residue = peptideSequence.charAt(loc-1);
             }
 
-            Modification modification = new Modification(residue,
-                    mod.getMass(),
-                    null,       // no description
-                    null);      // no CV accession
+            // look up the modification in UNIMOD (only once per residue and mass)
+            String unimodKey = residue + ":" + mass;
+            ModT unimod;
+            if (unimodCache.containsKey(unimodKey)) {
+                unimod = unimodCache.get(unimodKey);
+            } else {
+                unimod = unimodParser.getModificationByMass(mass, residue.toString());
+                unimodCache.put(unimodKey, unimod);
+            }
+
+            Modification modification;
+            if (unimod != null) {
+                modification = new Modification(residue,
+                        mass,
+                        unimod.getTitle(),
+                        "UNIMOD:" + unimod.getRecordId());
+            } else {
+                modification = new Modification(residue,
+                        mass,
+                        null,       // no description
+                        null);      // no CV accession
+            }
 
             modifications.put(loc, modification);
         }
@@ -954,4 +1051,96 @@ public class TandemFileParser {
 
         return isTandemFile;
     }
+
+
+    /**
+     * The information of a group of type "model", i.e. one spectrum with its
+     * identifications.
+     */
+    private static final class ModelGroup {
+        /** the ID of the spectrum */
+        private final int id;
+
+        /** the parent ion mass (plus a proton) */
+        private final double mh;
+
+        /** the parent ion charge */
+        private final int charge;
+
+        /** the retention time, as given in the file */
+        private final String rt;
+
+        /** the description of the fragment ion mass spectrum */
+        private String spectrumTitle;
+
+        /** the domains (identifications) of the spectrum in all proteins */
+        private final List<DomainHit> domains;
+
+        private ModelGroup(int id, double mh, int charge, String rt) {
+            this.id = id;
+            this.mh = mh;
+            this.charge = charge;
+            this.rt = rt;
+            this.domains = new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * The information of a protein of a model group.
+     */
+    private static final class ProteinInfo {
+        /** the label (FASTA header) of the protein */
+        private final String label;
+
+        /** the path of the FASTA file, containing the protein */
+        private String fastaFilePath;
+
+        /** the protein sequence without whitespaces */
+        private String sequence;
+
+        private ProteinInfo(String label) {
+            this.label = label;
+        }
+    }
+
+
+    /**
+     * A domain, i.e. a peptide identification in a protein.
+     */
+    private static final class DomainHit {
+        private final ProteinInfo protein;
+        private final String sequence;
+        private final int start;
+        private final int end;
+        private final double expect;
+        private final double hyperscore;
+        private final double mh;
+        private final Integer missedCleavages;
+
+        /** the positions of the modified amino acids in the protein */
+        private final List<Integer> modificationPositions;
+
+        /** the mass shifts of the modified amino acids */
+        private final List<Double> modificationMasses;
+
+        private DomainHit(ProteinInfo protein, String sequence, int start, int end, double expect,
+                double hyperscore, double mh, Integer missedCleavages) {
+            this.protein = protein;
+            this.sequence = sequence;
+            this.start = start;
+            this.end = end;
+            this.expect = expect;
+            this.hyperscore = hyperscore;
+            this.mh = mh;
+            this.missedCleavages = (missedCleavages != null) ? missedCleavages : 0;
+            this.modificationPositions = new ArrayList<>();
+            this.modificationMasses = new ArrayList<>();
+        }
+
+        private void addModification(int position, double mass) {
+            modificationPositions.add(position);
+            modificationMasses.add(mass);
+        }
+    }
 }
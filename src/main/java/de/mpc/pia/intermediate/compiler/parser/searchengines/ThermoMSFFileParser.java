@@ -1,5 +1,6 @@
 package de.mpc.pia.intermediate.compiler.parser.searchengines;
 
+import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
@@ -23,31 +24,9 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
 import uk.ac.ebi.jmzidml.model.mzidml.Tolerance;
 import de.mpc.PD.ABaseClass;
-import de.mpc.PD.APeptideScores;
-import de.mpc.PD.APeptides;
-import de.mpc.PD.APeptidesAminoAcidModifications;
-import de.mpc.PD.APeptidesTerminalModifications;
-import de.mpc.PD.AminoAcidModifications;
-import de.mpc.PD.AminoAcids;
 import de.mpc.PD.FastaFiles;
-import de.mpc.PD.FileInfos;
-import de.mpc.PD.MassPeaks;
-import de.mpc.PD.PeptideScores;
-import de.mpc.PD.PeptideScores_decoy;
-import de.mpc.PD.Peptides;
-import de.mpc.PD.PeptidesAminoAcidModifications;
-import de.mpc.PD.PeptidesAminoAcidModifications_decoy;
-import de.mpc.PD.PeptidesProteins;
-import de.mpc.PD.PeptidesProteins_decoy;
-import de.mpc.PD.PeptidesTerminalModifications;
-import de.mpc.PD.PeptidesTerminalModifications_decoy;
-import de.mpc.PD.Peptides_decoy;
 import de.mpc.PD.ProcessingNodeParameters;
-import de.mpc.PD.ProcessingNodeScores;
 import de.mpc.PD.ProcessingNodes;
-import de.mpc.PD.ProteinAnnotations;
-import de.mpc.PD.Proteins;
-import de.mpc.PD.SpectrumHeaders;
 import de.mpc.PD.DB.JDBCAccess;
 import de.mpc.PD.Params.SimpleProgramParameters;
 import de.mpc.pia.intermediate.Accession;
@@ -58,6 +37,11 @@ import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.compiler.parser.FastaHeaderInfos;
 import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFPeptideReader.AminoAcidModification;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFPeptideReader.MSFModificationPosition;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFPeptideReader.MSFPeptide;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFPeptideReader.MSFProtein;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFPeptideReader.MSFScore;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
 import de.mpc.pia.tools.MzIdentMLTools;
@@ -353,8 +337,8 @@ public class ThermoMSFFileParser {
         }
 
 
-        // get the amino acid information from file
-        Map<Character, AminoAcids> aminoAcidMap = getAminoAcids(fileConnectionParams);
+        // the settings are parsed, close the connection of the PD library
+        fileConnectionParams.closeDB();
 
         // mapping from fileID to input spectra
         Map<Long, SpectraData> spectraDataMap =
@@ -364,190 +348,43 @@ public class ThermoMSFFileParser {
         Map<String, Set<String>> spectrumIdToSpectraData =
                 new HashMap<>();
 
-        LOGGER.info("get spectra info...");
-        Map<Object, Object> spectraMap = ABaseClass.getObjectMap(fileConnectionParams, SpectrumHeaders.class);
-        LOGGER.info("#spectra: " + spectraMap.size());
-
-        LOGGER.info("get peak info...");
-        Map<Object, Object> massPeakMap = ABaseClass.getObjectMap(fileConnectionParams, MassPeaks.class);
-        LOGGER.info("#peaks: " + massPeakMap.size());
-
-        LOGGER.info("get file info...");
-        Map<Object, Object> fileMap = ABaseClass.getObjectMap(fileConnectionParams, FileInfos.class);
-        LOGGER.info("#files: " + fileMap.size());
-
-        LOGGER.info("get amino acid modifications...");
-        Map<Object, Object> modificationsMap = ABaseClass.getObjectMap(fileConnectionParams, AminoAcidModifications.class);
-        LOGGER.info("#amino acid modifications: " + modificationsMap.size());
-
-        LOGGER.info("get protein sequences...");
-        Map<Long, String> sequencesMap = new HashMap<>();
-        for (Object proteinObj : ABaseClass.getObjectMap(fileConnectionParams, Proteins.class).values()) {
-            Proteins protein = (Proteins)proteinObj;
-            sequencesMap.put(protein.getProteinID(), protein.getSequence());
-        }
-        LOGGER.info("#protein sequences: " + sequencesMap.size());
-
-        LOGGER.info("get protein annotations...");
-        Map<Long, String> annotationsMap = new HashMap<>();
-        for (Object annotationObj : ABaseClass.getObjectMap(fileConnectionParams, ProteinAnnotations.class).values()) {
-            ProteinAnnotations annotation = (ProteinAnnotations)annotationObj;
-            annotationsMap.put(annotation.getProteinID(), annotation.getDescription());
-        }
-        LOGGER.info("#protein annotations: " + annotationsMap.size());
-
-        LOGGER.info("get scores...");
-        // mapping from scoreID to scoreName
-        Map<Long, String> scoresMap = new HashMap<>();
-        for (Object scoreObj : ABaseClass.getObjectMap(fileConnectionParams, ProcessingNodeScores.class).values()) {
-            ProcessingNodeScores score = (ProcessingNodeScores)scoreObj;
-            scoresMap.put(score.getScoreID(), score.getFriendlyName());
-        }
-        LOGGER.info("#scores: " + scoresMap.size());
-
-
-        // parse the peptides
-        LOGGER.info("get peptide info...");
-        Collection<Object> peptides = ABaseClass.getObjectMap(fileConnectionParams, Peptides.class).values();
-        LOGGER.info("#peptides: " + peptides.size());
-
-        LOGGER.info("get modifications info...");
-        // map from peptideID to modifications
-        Map<Long, List<APeptidesAminoAcidModifications>> peptidesModifications =
-                new HashMap<>();
-        for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesAminoAcidModifications.class).values()) {
-            APeptidesAminoAcidModifications mod = (APeptidesAminoAcidModifications)modObj;
-
-            List<APeptidesAminoAcidModifications> modList = peptidesModifications.computeIfAbsent(mod.getPeptideID(), k -> new ArrayList<>());
-
-            modList.add(mod);
-        }
-        LOGGER.info("#modified peptides: " + peptidesModifications.size());
-
-        LOGGER.info("get terminal modifications info...");
-        // map from peptideID to terminal modifications
-        Map<Long, List<AminoAcidModifications>> terminalModifications =
-                new HashMap<>();
-        for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesTerminalModifications.class).values()) {
-            APeptidesTerminalModifications termMod = (APeptidesTerminalModifications)modObj;
-
-            List<AminoAcidModifications> termModList = terminalModifications.computeIfAbsent(termMod.getPeptideID(), k -> new ArrayList<>());
-
-            termModList.add((AminoAcidModifications)modificationsMap.get(termMod.getTerminalModificationID()));
-        }
-        LOGGER.info("#terminal modified peptides: " + terminalModifications.size());
-
-        LOGGER.info("get peptides/proteins information...");
-        //map from peptideID to proteins
-        Map<Long, List<Long>> peptidesProteins = new HashMap<>();
-        for (Object pepProtObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesProteins.class).values()) {
-            PeptidesProteins pepProt = (PeptidesProteins)pepProtObj;
-
-            List<Long> proteinList = peptidesProteins.computeIfAbsent(pepProt.getPeptideID(), k -> new ArrayList<>());
-
-            proteinList.add(pepProt.getProteinID());
-        }
-        LOGGER.info("#peptides associated to proteins: " + peptidesProteins.size());
-
-        LOGGER.info("get peptides/scores information...");
-        // map from peptideID to scores
-        Map<Long, List<APeptideScores>> peptidesScores = new HashMap<>();
-        for (Object scoreObject : ABaseClass.getObjectMap(fileConnectionParams, PeptideScores.class).values()) {
-            PeptideScores score = (PeptideScores)scoreObject;
-
-            List<APeptideScores> scoreList = peptidesScores.computeIfAbsent(score.getPeptideID(), k -> new ArrayList<>());
-
-            scoreList.add(score);
-        }
-        LOGGER.info("#peptides associated to sores: " + peptidesScores.size());
-
-        long emptyPSMs = 0;
-        for (Object peptide : peptides) {
-            if (parsePSM(peptide, false, spectraMap, massPeakMap, fileMap,
-                    peptidesProteins, peptidesScores, peptidesModifications, terminalModifications,
-                    aminoAcidMap, sequencesMap, annotationsMap, scoresMap,
-                    compiler,
-                    nodeNumbersToIdentifications, nodeNumbersToInputFiles, spectraDataMap, spectrumIdToSpectraData) == null) {
-                emptyPSMs++;
-            }
-        }
-        LOGGER.info("target peptides processed");
-
-
-        // parse the decoy peptides
-        LOGGER.info("get decoy peptide info...");
-        peptides = ABaseClass.getObjectMap(fileConnectionParams, Peptides_decoy.class).values();
-        LOGGER.info("#decoy peptides: " + peptides.size());
-
-        if (!peptides.isEmpty()) {
-            LOGGER.info("get decoy modifications info...");
-            // map from peptideID to modifications
-            peptidesModifications = new HashMap<>();
-            for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesAminoAcidModifications_decoy.class).values()) {
-                APeptidesAminoAcidModifications mod = (APeptidesAminoAcidModifications)modObj;
-
-                List<APeptidesAminoAcidModifications> modList = peptidesModifications.computeIfAbsent(mod.getPeptideID(), k -> new ArrayList<>());
-                modList.add(mod);
-            }
-            LOGGER.info("#modified decoy peptides: " + peptidesModifications.size());
-
-            LOGGER.info("get decoy terminal modifications info...");
-            // map from peptideID to terminal modifications
-            terminalModifications = new HashMap<>();
-            for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesTerminalModifications_decoy.class).values()) {
-                APeptidesTerminalModifications termMod = (APeptidesTerminalModifications)modObj;
-
-                List<AminoAcidModifications> termModList = terminalModifications.computeIfAbsent(termMod.getPeptideID(), k -> new ArrayList<>());
-
-                termModList.add((AminoAcidModifications)modificationsMap.get(termMod.getTerminalModificationID()));
-            }
-            LOGGER.info("#terminal modified decoy peptides: " + terminalModifications.size());
-
-            LOGGER.info("get decoy peptides/proteins information...");
-            // map from peptideID to proteins
-            peptidesProteins = new HashMap<>();
-            for (Object pepProtObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesProteins_decoy.class).values()) {
-                PeptidesProteins_decoy pepProt = (PeptidesProteins_decoy)pepProtObj;
-
-                List<Long> proteinList = peptidesProteins.computeIfAbsent(pepProt.getPeptideID(), k -> new ArrayList<>());
-
-                proteinList.add(pepProt.getProteinID());
-            }
-            LOGGER.info("#decoy peptides associated to proteins: " + peptidesProteins.size());
-
-            LOGGER.info("get decoy peptides/scores information...");
-            // map from peptideID to scores
-            peptidesScores = new HashMap<>();
-            for (Object scoreObject : ABaseClass.getObjectMap(fileConnectionParams, PeptideScores_decoy.class).values()) {
-                PeptideScores_decoy score = (PeptideScores_decoy)scoreObject;
-
-                List<APeptideScores> scoreList = peptidesScores.computeIfAbsent(score.getPeptideID(), k -> new ArrayList<>());
-
-                scoreList.add(score);
-            }
-            LOGGER.info("#decoy peptides associated to sores: " + peptidesScores.size());
-
-            for (Object peptide : peptides) {
-                if (parsePSM(peptide, true, spectraMap, massPeakMap, fileMap,
-                        peptidesProteins, peptidesScores, peptidesModifications, terminalModifications,
-                        aminoAcidMap, sequencesMap, annotationsMap, scoresMap,
-                        compiler,
-                        nodeNumbersToIdentifications, nodeNumbersToInputFiles, spectraDataMap, spectrumIdToSpectraData) == null) {
-                    emptyPSMs++;
+        // stream the peptides with all their information from the file
+        long[] emptyPSMs = {0};
+        try (ThermoMSFPeptideReader reader = new ThermoMSFPeptideReader(fileName)) {
+            LOGGER.info("get peptide info...");
+            long nrPeptides = reader.streamPeptides(false, peptide -> {
+                if (parsePSM(peptide, false, reader, compiler,
+                        nodeNumbersToIdentifications, nodeNumbersToInputFiles,
+                        spectraDataMap, spectrumIdToSpectraData) == null) {
+                    emptyPSMs[0]++;
+                }
+            });
+            LOGGER.info("target peptides processed: " + nrPeptides);
+
+            LOGGER.info("get decoy peptide info...");
+            nrPeptides = reader.streamPeptides(true, peptide -> {
+                if (parsePSM(peptide, true, reader, compiler,
+                        nodeNumbersToIdentifications, nodeNumbersToInputFiles,
+                        spectraDataMap, spectrumIdToSpectraData) == null) {
+                    emptyPSMs[0]++;
                 }
+            });
+            if (nrPeptides > 0) {
+                LOGGER.info("decoy peptides processed: " + nrPeptides);
+            } else {
+                LOGGER.info("no decoy peptides, that's ok");
             }
-            LOGGER.info("decoy peptides processed");
-        } else {
-            LOGGER.info("no decoy peptides, that's ok");
+        } catch (SQLException e) {
+            LOGGER.error("Could not read the peptides from " + fileName, e);
+            return false;
         }
 
         LOGGER.info("all peptides processed");
 
-        if (emptyPSMs > 0) {
-            LOGGER.info("There were " + emptyPSMs + " PSMs without protein connection, these are rejected!");
+        if (emptyPSMs[0] > 0) {
+            LOGGER.info("There were " + emptyPSMs[0] + " PSMs without protein connection, these are rejected!");
         }
 
-        fileConnectionParams.closeDB();
         return true;
     }
 
@@ -759,28 +596,16 @@ public class ThermoMSFFileParser {
      * Creates and adds an {@link PeptideSpectrumMatch} from an peptide entry in
      * the MSF file.
      */
-    private static PeptideSpectrumMatch parsePSM(Object peptideObject,
+    private static PeptideSpectrumMatch parsePSM(MSFPeptide peptide,
             boolean isDecoy,
-            Map<Object, Object> spectraMap,
-            Map<Object, Object> massPeakMap,
-            Map<Object, Object> fileMap,
-            Map<Long, List<Long>> peptidesProteins,
-            Map<Long, List<APeptideScores>> peptidesScores,
-            Map<Long, List<APeptidesAminoAcidModifications>> peptidesModifications,
-            Map<Long, List<AminoAcidModifications>> terminalModifications,
-            Map<Character, AminoAcids> aminoAcidMap,
-            Map<Long, String> sequencesMap,
-            Map<Long, String> annotationsMap,
-            Map<Long, String> scoresMap,
+            ThermoMSFPeptideReader reader,
             PIACompiler compiler,
             Map<Long, SpectrumIdentification> nodeNumbersToIdentifications,
             Map<Long, PIAInputFile> nodeNumbersToInputFiles,
             Map<Long, SpectraData> spectraDataMap,
             Map<String, Set<String>> spectrumIdToSpectraData
             ) {
-        APeptides peptide = (APeptides)peptideObject;
-
-        if (!peptidesProteins.containsKey(peptide.getPeptideID())) {
+        if (peptide.proteins.isEmpty()) {
             // there is no protein information for the peptide! PD does these things...
             // for now: do not include these PSMs
             // TODO: find some better solution
@@ -788,25 +613,22 @@ public class ThermoMSFFileParser {
         }
 
         // get some spectrum information
-        SpectrumHeaders spectrum = (SpectrumHeaders)spectraMap.get(peptide.getSpectrumID());
-        MassPeaks massPeak = (MassPeaks)massPeakMap.get(spectrum.getMassPeakID());
-
-        int charge = spectrum.getCharge();
-        double precursorMZ = PIATools.round(massPeak.getMass(), 6);
-        String sourceID = "index=" + (spectrum.getFirstScan()-1);
+        int charge = peptide.charge;
+        double precursorMZ = PIATools.round(peptide.precursorMass, 6);
+        String sourceID = "index=" + (peptide.firstScan-1);
 
         // get the spectrumIdentification, which identified this peptide
         SpectrumIdentification spectrumID =
-                nodeNumbersToIdentifications.get(peptide.getProcessingNodeNumber());
+                nodeNumbersToIdentifications.get(peptide.processingNodeNumber);
 
         if (spectrumID == null) {
-            LOGGER.warn("PSM (" + sourceID + ", " + peptide.getSequence() +") does not originate from a search.");
+            LOGGER.warn("PSM (" + sourceID + ", " + peptide.sequence +") does not originate from a search.");
             return null;
         } else {
-            String rawFileName = ((FileInfos)fileMap.get(massPeak.getFileID())).getFileName();
+            String rawFileName = reader.getFileName(peptide.fileID);
 
             SpectraData spectraData =
-                    spectraDataMap.get(massPeak.getFileID());
+                    spectraDataMap.get(peptide.fileID);
 
             if (spectraData == null) {
 
@@ -837,7 +659,7 @@ public class ThermoMSFFileParser {
 
                 spectraData = compiler.putIntoSpectraDataMap(spectraData);
 
-                spectraDataMap.put(massPeak.getFileID(), spectraData);
+                spectraDataMap.put(peptide.fileID, spectraData);
             }
 
             // look, if spectrumID has the needed spectraData, if not, add it
@@ -853,31 +675,31 @@ public class ThermoMSFFileParser {
 
         }
 
-        String pepSequence = peptide.getSequence();
-        PIAInputFile file = nodeNumbersToInputFiles.get(peptide.getProcessingNodeNumber());
+        String pepSequence = peptide.sequence;
+        PIAInputFile file = nodeNumbersToInputFiles.get(peptide.processingNodeNumber);
 
         // get the modifications
         Map<Integer, Modification> modifications = new HashMap<>();
-        if (peptidesModifications.containsKey(peptide.getPeptideID())) {
-            for (APeptidesAminoAcidModifications aaMod : peptidesModifications.get(peptide.getPeptideID())) {
-                int loc = (int)aaMod.getPosition() + 1;
-
-                // TODO: get the unimod modification code
-                Modification modification = new Modification(
-                        pepSequence.charAt(loc-1),
-                        aaMod.getAminoAcidModification().getDeltaMass(),
-                        aaMod.getAminoAcidModification().getModificationName(),
-                        null);
-
-                modifications.put(loc, modification);
-            }
+        for (MSFModificationPosition aaMod : peptide.aminoAcidModifications) {
+            int loc = aaMod.position + 1;
+            AminoAcidModification aminoAcidModification = reader.getModification(aaMod.modificationID);
+
+            // TODO: get the unimod modification code
+            Modification modification = new Modification(
+                    pepSequence.charAt(loc-1),
+                    aminoAcidModification.deltaMass,
+                    aminoAcidModification.name,
+                    null);
+
+            modifications.put(loc, modification);
         }
 
-        if (terminalModifications.containsKey(peptide.getPeptideID())) {
-            for (AminoAcidModifications termMod : terminalModifications.get(peptide.getPeptideID())) {
+        if (!peptide.terminalModificationIDs.isEmpty()) {
+            for (Long termModID : peptide.terminalModificationIDs) {
+                AminoAcidModification termMod = reader.getModification(termModID);
                 int loc;
 
-                switch (termMod.getPositionType()) {
+                switch (termMod.positionType) {
                 case 1:
                 case 3:
                     loc = 0;
@@ -887,15 +709,15 @@ public class ThermoMSFFileParser {
                     loc = pepSequence.length() + 1;
                     break;
                 default:
-                    LOGGER.error("unknown position type for terminal modification: " + termMod.getPositionType());
+                    LOGGER.error("unknown position type for terminal modification: " + termMod.positionType);
                     return null;
                 }
                 if (loc > -1) {
                     // TODO: get the unimod modification code
                     Modification modification = new Modification(
                             '.',
-                            termMod.getDeltaMass(),
-                            termMod.getModificationName(),
+                            termMod.deltaMass,
+                            termMod.name,
                             null);
                     modifications.put(loc, modification);
                     break;
@@ -906,10 +728,10 @@ public class ThermoMSFFileParser {
         PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
                 charge,
                 precursorMZ,
-                PIATools.round(spectrum.getMass() - getPeptideMassForCharge(1, pepSequence, aminoAcidMap, modifications), 6),
-                spectrum.getRetentionTime()*60.0,
+                PIATools.round(peptide.spectrumMass - getPeptideMassForCharge(1, pepSequence, reader, modifications), 6),
+                peptide.retentionTime*60.0,
                 pepSequence,
-                peptide.getMissedCleavages(),
+                peptide.missedCleavages,
                 sourceID,
                 null,
                 file,
@@ -927,23 +749,20 @@ public class ThermoMSFFileParser {
         piaPeptide.addSpectrum(psm);
 
         // add the scores
-        if (peptidesScores.containsKey(peptide.getPeptideID())) {
-            for (APeptideScores pepScore : peptidesScores.get(peptide.getPeptideID())) {
-
-                ScoreModelEnum scoreModel =
-                        ScoreModelEnum.getModelByDescription(
-                                scoresMap.get(pepScore.getScoreID()));
-
-                ScoreModel score;
-                if (!scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE)) {
-                    score = new ScoreModel(pepScore.getScoreValue(),
-                            scoreModel);
-                } else {
-                    score = new ScoreModel(pepScore.getScoreValue(),
-                            null, scoresMap.get(pepScore.getScoreID()));
-                }
-                psm.addScore(score);
+        for (MSFScore pepScore : peptide.scores) {
+            String scoreName = reader.getScoreName(pepScore.scoreID);
+            ScoreModelEnum scoreModel =
+                    ScoreModelEnum.getModelByDescription(scoreName);
+
+            ScoreModel score;
+            if (!scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE)) {
+                score = new ScoreModel(pepScore.value,
+                        scoreModel);
+            } else {
+                score = new ScoreModel(pepScore.value,
+                        null, scoreName);
             }
+            psm.addScore(score);
         }
 
         // add the modifications
@@ -952,16 +771,16 @@ public class ThermoMSFFileParser {
         }
 
         // add protein infos
-        for (Long proteinID : peptidesProteins.get(peptide.getPeptideID())) {
+        for (MSFProtein protein : peptide.proteins) {
             FastaHeaderInfos fastaInfo =
-                    FastaHeaderInfos.parseHeaderInfos(annotationsMap.get(proteinID));
+                    FastaHeaderInfos.parseHeaderInfos(protein.description);
             if (fastaInfo == null) {
                 LOGGER.error("Could not parse protein annotation '" +
-                        annotationsMap.get(proteinID) + '\'');
+                        protein.description + '\'');
                 continue;
             }
 
-            String proteinSequence = sequencesMap.get(proteinID);
+            String proteinSequence = protein.sequence;
 
             // add the Accession to the compiler (if it is not already there)
             Accession acc = compiler.getAccession(fastaInfo.getAccession());
@@ -995,7 +814,7 @@ public class ThermoMSFFileParser {
 
             // add the searchDB to the accession
             for (SearchDatabaseRef dbRef
-                    : nodeNumbersToIdentifications.get(peptide.getProcessingNodeNumber()).getSearchDatabaseRef()) {
+                    : spectrumID.getSearchDatabaseRef()) {
                 acc.addSearchDatabaseRef(dbRef.getSearchDatabase().getId());
             }
 
@@ -1024,38 +843,16 @@ public class ThermoMSFFileParser {
     }
 
 
-    /**
-     * Parses the amino acids from the MSF file in a map from oneLetterCode to
-     * AminoAcid
-     *
-     * @param spp
-     * @return
-     */
-    private static Map<Character, AminoAcids> getAminoAcids(SimpleProgramParameters spp) {
-        Map<Character, AminoAcids> aminoAcidMap = new HashMap<>(25);
-
-        for (Object aaObj : ABaseClass.getObjectMap(spp, AminoAcids.class).values()) {
-            AminoAcids aa = (AminoAcids)aaObj;
-
-            if (aa.getOneLetterCode() != ' ') {
-                aminoAcidMap.put(aa.getOneLetterCode(), aa);
-            }
-        }
-
-        return aminoAcidMap;
-    }
-
-
     /**
      * This method calculates the mass based on the charge and the amino acid
      * weights parsed in the MSF file
      */
     private static double getPeptideMassForCharge(int charge, String sequence,
-            Map<Character, AminoAcids> aminoAcidMap, Map<Integer, Modification> modifications){
+            ThermoMSFPeptideReader reader, Map<Integer, Modification> modifications){
         double calculatedMass = 0.0;
 
-        for (Character aa : sequence.toCharArray()) {
-            calculatedMass += aminoAcidMap.get(aa).getMonoisotopicMass();
+        for (char aa : sequence.toCharArray()) {
+            calculatedMass += reader.getAminoAcidMass(aa);
         }
 
         // check modifications
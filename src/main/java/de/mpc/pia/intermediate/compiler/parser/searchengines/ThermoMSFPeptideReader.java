@@ -0,0 +1,435 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Reads the peptides of a ProteomeDiscoverer MSF file (which is an SQLite
+ * database) with ordered, forward-only queries. The peptides are joined with
+ * their spectra and merged with their scores, modifications and proteins
+ * while streaming in the order of the peptide IDs, so only the data of one
+ * peptide and some small reference tables are held in memory.
+ *
+ * @author julian
+ *
+ */
+class ThermoMSFPeptideReader implements AutoCloseable {
+
+    /** the connection to the MSF file */
+    private final Connection connection;
+
+    /** the monoisotopic masses of the amino acids */
+    private final Map<Character, Double> aminoAcidMasses;
+
+    /** the amino acid modifications, mapped by their IDs */
+    private final Map<Long, AminoAcidModification> modifications;
+
+    /** the names of the raw files, mapped by their IDs */
+    private final Map<Long, String> fileNames;
+
+    /** the friendly names of the scores, mapped by their IDs */
+    private final Map<Long, String> scoreNames;
+
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ThermoMSFPeptideReader.class);
+
+    /** the number of rows fetched at once from the database */
+    private static final int FETCH_SIZE = 1000;
+
+    /** the suffix of the tables containing decoy peptides */
+    private static final String DECOY_TABLE_SUFFIX = "_decoy";
+
+
+    /**
+     * Opens the MSF file and reads the reference tables.
+     *
+     * @param fileName
+     * @throws SQLException
+     */
+    ThermoMSFPeptideReader(String fileName) throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + fileName);
+
+        try {
+            aminoAcidMasses = new HashMap<>(25);
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT OneLetterCode, MonoisotopicMass FROM AminoAcids")) {
+                while (rs.next()) {
+                    String code = rs.getString(1);
+                    if ((code != null) && !code.trim().isEmpty()) {
+                        aminoAcidMasses.put(code.charAt(0), rs.getDouble(2));
+                    }
+                }
+            }
+
+            modifications = new HashMap<>();
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT AminoAcidModificationID, ModificationName, DeltaMass, PositionType FROM AminoAcidModifications")) {
+                while (rs.next()) {
+                    modifications.put(rs.getLong(1),
+                            new AminoAcidModification(rs.getString(2), rs.getDouble(3), rs.getInt(4)));
+                }
+            }
+            LOGGER.info("#amino acid modifications: " + modifications.size());
+
+            fileNames = new HashMap<>();
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT FileID, FileName FROM FileInfos")) {
+                while (rs.next()) {
+                    fileNames.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+            LOGGER.info("#files: " + fileNames.size());
+
+            scoreNames = new HashMap<>();
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT ScoreID, FriendlyName FROM ProcessingNodeScores")) {
+                while (rs.next()) {
+                    scoreNames.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+            LOGGER.info("#scores: " + scoreNames.size());
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns the monoisotopic mass of the given amino acid or null, if it is
+     * not known.
+     *
+     * @param aminoAcid
+     * @return
+     */
+    Double getAminoAcidMass(char aminoAcid) {
+        return aminoAcidMasses.get(aminoAcid);
+    }
+
+
+    /**
+     * Returns the amino acid modification with the given ID
+     *
+     * @param modificationID
+     * @return
+     */
+    AminoAcidModification getModification(long modificationID) {
+        return modifications.get(modificationID);
+    }
+
+
+    /**
+     * Returns the name of the raw file with the given ID
+     *
+     * @param fileID
+     * @return
+     */
+    String getFileName(long fileID) {
+        return fileNames.get(fileID);
+    }
+
+
+    /**
+     * Returns the (friendly) name of the score with the given ID
+     *
+     * @param scoreID
+     * @return
+     */
+    String getScoreName(long scoreID) {
+        return scoreNames.get(scoreID);
+    }
+
+
+    /**
+     * Streams the target or decoy peptides with all their information in the
+     * order of their IDs to the given consumer.
+     *
+     * @param decoys whether to read the decoy tables
+     * @param consumer
+     * @return the number of read peptides
+     * @throws SQLException
+     */
+    long streamPeptides(boolean decoys, Consumer<MSFPeptide> consumer) throws SQLException {
+        String suffix = decoys ? DECOY_TABLE_SUFFIX : "";
+
+        if (!tableExists("Peptides" + suffix)) {
+            return 0;
+        }
+
+        long nrPeptides = 0;
+        try (PreparedStatement peptidesStmt = prepareForwardOnly(
+                        "SELECT p.PeptideID, p.ProcessingNodeNumber, p.Sequence, p.MissedCleavages, "
+                        + "sh.Charge, sh.FirstScan, sh.RetentionTime, sh.Mass, mp.Mass, mp.FileID "
+                        + "FROM Peptides" + suffix + " p "
+                        + "JOIN SpectrumHeaders sh ON sh.SpectrumID = p.SpectrumID "
+                        + "JOIN MassPeaks mp ON mp.MassPeakID = sh.MassPeakID "
+                        + "ORDER BY p.PeptideID");
+                PreparedStatement scoresStmt = prepareForwardOnly(
+                        "SELECT PeptideID, ScoreID, ScoreValue FROM PeptideScores" + suffix
+                        + " ORDER BY PeptideID");
+                PreparedStatement modsStmt = prepareForwardOnly(
+                        "SELECT PeptideID, AminoAcidModificationID, Position FROM PeptidesAminoAcidModifications" + suffix
+                        + " ORDER BY PeptideID");
+                PreparedStatement termModsStmt = prepareForwardOnly(
+                        "SELECT PeptideID, TerminalModificationID FROM PeptidesTerminalModifications" + suffix
+                        + " ORDER BY PeptideID");
+                PreparedStatement proteinsStmt = prepareForwardOnly(
+                        "SELECT pp.PeptideID, pp.ProteinID, pr.Sequence, "
+                        + "(SELECT pa.Description FROM ProteinAnnotations pa WHERE pa.ProteinID = pp.ProteinID "
+                        + "ORDER BY pa.ProteinAnnotationID DESC LIMIT 1) "
+                        + "FROM PeptidesProteins" + suffix + " pp "
+                        + "LEFT JOIN Proteins pr ON pr.ProteinID = pp.ProteinID "
+                        + "ORDER BY pp.PeptideID");
+                ResultSet peptidesRs = peptidesStmt.executeQuery();
+                ResultSet scoresRs = scoresStmt.executeQuery();
+                ResultSet modsRs = modsStmt.executeQuery();
+                ResultSet termModsRs = termModsStmt.executeQuery();
+                ResultSet proteinsRs = proteinsStmt.executeQuery()) {
+
+            PeptideIDCursor scores = new PeptideIDCursor(scoresRs);
+            PeptideIDCursor mods = new PeptideIDCursor(modsRs);
+            PeptideIDCursor termMods = new PeptideIDCursor(termModsRs);
+            PeptideIDCursor proteins = new PeptideIDCursor(proteinsRs);
+
+            while (peptidesRs.next()) {
+                MSFPeptide peptide = new MSFPeptide(peptidesRs.getLong(1), peptidesRs.getLong(2),
+                        peptidesRs.getString(3), peptidesRs.getInt(4), peptidesRs.getInt(5),
+                        peptidesRs.getLong(6), peptidesRs.getDouble(7), peptidesRs.getDouble(8),
+                        peptidesRs.getDouble(9), peptidesRs.getLong(10));
+
+                while (scores.moveTo(peptide.peptideID)) {
+                    peptide.scores.add(new MSFScore(scoresRs.getLong(2), scoresRs.getDouble(3)));
+                }
+                while (mods.moveTo(peptide.peptideID)) {
+                    peptide.aminoAcidModifications.add(
+                            new MSFModificationPosition(modsRs.getLong(2), modsRs.getInt(3)));
+                }
+                while (termMods.moveTo(peptide.peptideID)) {
+                    peptide.terminalModificationIDs.add(termModsRs.getLong(2));
+                }
+                while (proteins.moveTo(peptide.peptideID)) {
+                    peptide.proteins.add(new MSFProtein(proteinsRs.getLong(2), proteinsRs.getString(3),
+                            proteinsRs.getString(4)));
+                }
+
+                consumer.accept(peptide);
+                nrPeptides++;
+            }
+        }
+
+        return nrPeptides;
+    }
+
+
+    /**
+     * Checks whether a table with the given name exists in the database.
+     *
+     * @param tableName
+     * @return
+     * @throws SQLException
+     */
+    private boolean tableExists(String tableName) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            stmt.setString(1, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+
+    /**
+     * Prepares a read-only, forward-only statement for the given query.
+     *
+     * @param query
+     * @return
+     * @throws SQLException
+     */
+    private PreparedStatement prepareForwardOnly(String query) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(FETCH_SIZE);
+        return stmt;
+    }
+
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+
+    /**
+     * A cursor over a {@link ResultSet}, which is ordered by the peptide IDs
+     * in the first column.
+     */
+    private static class PeptideIDCursor {
+        private final ResultSet resultSet;
+
+        /** whether the result set is positioned at a valid row, which was not yet consumed */
+        private boolean hasRow;
+
+        /** whether the end of the result set was reached */
+        private boolean exhausted;
+
+
+        private PeptideIDCursor(ResultSet resultSet) {
+            this.resultSet = resultSet;
+            this.hasRow = false;
+            this.exhausted = false;
+        }
+
+
+        /**
+         * Moves the result set to the next row of the given peptide. Rows of
+         * smaller peptide IDs are skipped.
+         *
+         * @param peptideID
+         * @return true, if the result set is at a row of the given peptide
+         * @throws SQLException
+         */
+        private boolean moveTo(long peptideID) throws SQLException {
+            while (!exhausted) {
+                if (!hasRow) {
+                    if (!resultSet.next()) {
+                        exhausted = true;
+                        return false;
+                    }
+                    hasRow = true;
+                }
+
+                long rowPeptideID = resultSet.getLong(1);
+                if (rowPeptideID == peptideID) {
+                    // this row gets consumed now
+                    hasRow = false;
+                    return true;
+                } else if (rowPeptideID > peptideID) {
+                    return false;
+                }
+
+                // a row of a peptide, which was not in the peptides' query
+                hasRow = false;
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * A peptide (i.e. PSM) of the MSF file with its spectrum information,
+     * scores, modifications and proteins.
+     */
+    static class MSFPeptide {
+        final long peptideID;
+        final long processingNodeNumber;
+        final String sequence;
+        final int missedCleavages;
+        final int charge;
+        final long firstScan;
+        final double retentionTime;
+        final double spectrumMass;
+        final double precursorMass;
+        final long fileID;
+
+        final List<MSFScore> scores;
+        final List<MSFModificationPosition> aminoAcidModifications;
+        final List<Long> terminalModificationIDs;
+        final List<MSFProtein> proteins;
+
+
+        private MSFPeptide(long peptideID, long processingNodeNumber, String sequence,
+                int missedCleavages, int charge, long firstScan, double retentionTime,
+                double spectrumMass, double precursorMass, long fileID) {
+            this.peptideID = peptideID;
+            this.processingNodeNumber = processingNodeNumber;
+            this.sequence = sequence;
+            this.missedCleavages = missedCleavages;
+            this.charge = charge;
+            this.firstScan = firstScan;
+            this.retentionTime = retentionTime;
+            this.spectrumMass = spectrumMass;
+            this.precursorMass = precursorMass;
+            this.fileID = fileID;
+
+            this.scores = new ArrayList<>(2);
+            this.aminoAcidModifications = new ArrayList<>(2);
+            this.terminalModificationIDs = new ArrayList<>(1);
+            this.proteins = new ArrayList<>(2);
+        }
+    }
+
+
+    /**
+     * A score value of a peptide
+     */
+    static class MSFScore {
+        final long scoreID;
+        final double value;
+
+        private MSFScore(long scoreID, double value) {
+            this.scoreID = scoreID;
+            this.value = value;
+        }
+    }
+
+
+    /**
+     * The position of an amino acid modification in a peptide
+     */
+    static class MSFModificationPosition {
+        final long modificationID;
+        final int position;
+
+        private MSFModificationPosition(long modificationID, int position) {
+            this.modificationID = modificationID;
+            this.position = position;
+        }
+    }
+
+
+    /**
+     * A protein of a peptide with its sequence and description (FASTA header)
+     */
+    static class MSFProtein {
+        final long proteinID;
+        final String sequence;
+        final String description;
+
+        private MSFProtein(long proteinID, String sequence, String description) {
+            this.proteinID = proteinID;
+            this.sequence = sequence;
+            this.description = description;
+        }
+    }
+
+
+    /**
+     * An amino acid modification as defined in the MSF file
+     */
+    static class AminoAcidModification {
+        final String name;
+        final double deltaMass;
+        final int positionType;
+
+        private AminoAcidModification(String name, double deltaMass, int positionType) {
+            this.name = name;
+            this.deltaMass = deltaMass;
+            this.positionType = positionType;
+        }
+    }
+}
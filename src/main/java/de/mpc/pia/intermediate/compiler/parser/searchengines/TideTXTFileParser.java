@@ -1,16 +1,13 @@
 package de.mpc.pia.intermediate.compiler.parser.searchengines;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -32,6 +29,9 @@ import de.mpc.pia.modeller.score.ScoreModelEnum;
 import de.mpc.pia.tools.CleavageAgent;
 import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.TabSeparatedFileReader;
+import de.mpc.pia.tools.TabSeparatedFileReader.Row;
 import de.mpc.pia.tools.unimod.jaxb.ModT;
 import de.mpc.pia.tools.unimod.jaxb.SpecificityT;
 
@@ -76,10 +76,6 @@ public class TideTXTFileParser {
 
     public static final String HEADER_PROTEINID = "protein id";
 
-    /** pattern to match and grep the accession */
-    private static final Pattern patternAccessions = Pattern.compile("([^(]+)\\(\\d+\\)");
-
-
     /** the names of the columns */
     private static final List<String> colNames = Arrays.asList(
             "file", HEADER_SCAN,
@@ -114,35 +110,25 @@ public class TideTXTFileParser {
      */
     public static boolean getDataFromTideTXTFile(String name, String fileName,
             PIACompiler compiler) {
-        int accNr = 0;
-        int pepNr = 0;
-        int specNr = 0;
-
-        String line;
-        int lineNr = 0;
+        int[] counts = new int[3];   // the numbers of inserted peptides, PSMs and accessions
 
         Map<String, Integer> columnMap = new HashMap<>(colNames.size());
 
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            if ((line = br.readLine()) != null) {
-                lineNr++;
-
-                // the first line contains the headers, create the mapping
-                String[] headers = line.split(SEPARATOR_STRING);
-
-                for (int idx = 0; idx < headers.length; idx++) {
-                    if (colNames.contains(headers[idx])) {
-                        columnMap.put(headers[idx], idx);
-                    }
+        try (TabSeparatedFileReader reader = new TabSeparatedFileReader(fileName, true)) {
+            // the first line contains the headers, create the mapping
+            String[] headers = reader.getHeaders();
+            for (int idx = 0; idx < headers.length; idx++) {
+                if (colNames.contains(headers[idx])) {
+                    columnMap.put(headers[idx], idx);
                 }
+            }
 
-                if (columnMap.get(HEADER_SEQUENCE) == null) {
-                    LOGGER.error("the sequence header is missing");
-                    return false;
-                } else if (columnMap.get(HEADER_PROTEINID) == null) {
-                    LOGGER.error("the proteinid (accession) header is missing");
-                    return false;
-                }
+            if (columnMap.get(HEADER_SEQUENCE) == null) {
+                LOGGER.error("the sequence header is missing");
+                return false;
+            } else if (columnMap.get(HEADER_PROTEINID) == null) {
+                LOGGER.error("the proteinid (accession) header is missing");
+                return false;
             }
 
             PIAInputFile file = compiler.insertNewFile(name, fileName, InputFileParserFactory.InputFileTypes.TIDE_TXT_INPUT.getFileSuffix());
@@ -179,177 +165,220 @@ public class TideTXTFileParser {
 
             file.addSpectrumIdentification(spectrumID);
 
+            // the UNIMOD modifications of the already seen residues and masses
+            Map<String, ModT> unimodCache = new HashMap<>();
 
-            // now parse the lines, each line is one PSM
-            while ((line = br.readLine()) != null) {
-                lineNr++;
+            // now parse the lines, each line is one PSM: convert them in parallel and insert them in order
+            reader.convertRows(
+                    row -> convertRow(row, columnMap),
+                    tideRow -> insertTideRow(tideRow, compiler, file, spectrumID, unimodCache, counts),
+                    PIATools.resolveThreads(compiler.getNrThreads()));
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while parsing the file " + fileName, e);
+            return false;
+        }
 
-                String[] columns = line.split(SEPARATOR_STRING);
-                Peptide peptide;
+        LOGGER.info("inserted new: \n\t" +
+                counts[0] + " peptides\n\t" +
+                counts[1] + " peptide spectrum matches\n\t" +
+                counts[2] + " accessions");
+        return true;
+    }
 
-                Integer charge;
-                try {
-                    charge = Integer.parseInt(columns[columnMap.get(HEADER_CHARGE)]);
-                } catch (Exception ex) {
-                    LOGGER.error("could not parse the chargestate in line " + lineNr, ex);
-                    charge = 0;
-                }
 
-                Double precursorMZ;
-                try {
-                    precursorMZ = Double.parseDouble(columns[columnMap.get(HEADER_PRECURSOR_MZ)]);
-                } catch (Exception ex) {
-                    LOGGER.error("could not parse the precursor m/z in line " + lineNr, ex);
-                    precursorMZ = Double.NaN;
-                }
+    /**
+     * Converts one row of the file into a {@link TideRow}. This does not
+     * access the compiler, so it can be called in parallel.
+     *
+     * @param row
+     * @param columnMap
+     * @return
+     */
+    private static TideRow convertRow(Row row, Map<String, Integer> columnMap) {
+        TideRow tideRow = new TideRow(row.getLineNumber());
+
+        try {
+            tideRow.charge = row.getInt(columnMap.get(HEADER_CHARGE));
+        } catch (Exception ex) {
+            LOGGER.error("could not parse the chargestate in line " + tideRow.lineNr, ex);
+            tideRow.charge = 0;
+        }
 
-                // TODO: implement the delta mass, it is too imprecise to calculate from the given values
-                double deltaMass = Double.NaN;
+        try {
+            tideRow.precursorMZ = row.getDouble(columnMap.get(HEADER_PRECURSOR_MZ));
+        } catch (Exception ex) {
+            LOGGER.error("could not parse the precursor m/z in line " + tideRow.lineNr, ex);
+            tideRow.precursorMZ = Double.NaN;
+        }
 
-                String sequence = columns[columnMap.get(HEADER_SEQUENCE)];
+        String sequence = row.getString(columnMap.get(HEADER_SEQUENCE));
+        if (sequence.indexOf('[') > -1) {
+            sequence = extractModifications(sequence, tideRow.modifications);
+        }
+        tideRow.sequence = sequence;
 
-                Map<Integer, Modification> modifications = new HashMap<>();
-                if (sequence.contains("[")) {
-                    sequence = extractModifications(sequence, modifications, compiler);
-                }
+        tideRow.missedCleavages = calculateMissed(sequence, row.getString(columnMap.get(HEADER_CLEAVAGE_TYPE)));
 
-                int missedCleavages = calculateMissed(sequence, columns[columnMap.get(HEADER_CLEAVAGE_TYPE)]);
-
-                String sourceID = "index=" + columns[columnMap.get(HEADER_SCAN)];
-
-                PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
-                        charge,
-                        precursorMZ,
-                        deltaMass,
-                        null,
-                        sequence,
-                        missedCleavages,
-                        sourceID,
-                        null,
-                        file,
-                        spectrumID);
-
-                // get the peptide or create it
-                peptide = compiler.getPeptide(sequence);
-                if (peptide == null) {
-                    peptide = compiler.insertNewPeptide(sequence);
-                    pepNr++;
-                }
+        tideRow.sourceID = "index=" + row.getString(columnMap.get(HEADER_SCAN));
 
-                // add the spectrum to the peptide
-                peptide.addSpectrum(psm);
+        /*
+         * New versions of XCORR are named REFACTORED XCORR.
+         * Todo: Create the proper CVTerm for it.
+         */
+        if (columnMap.get(HEADER_XCORR) != null) {
+            tideRow.xcorr = row.getDouble(columnMap.get(HEADER_XCORR));
+        } else if (columnMap.get(HEADER_REFACTORED_XCORR) != null) {
+            tideRow.xcorr = row.getDouble(columnMap.get(HEADER_REFACTORED_XCORR));
+        }
 
-                // add the modifications
-                for (Map.Entry<Integer, Modification> mod
-                        : modifications.entrySet()) {
-                    psm.addModification(mod.getKey(), mod.getValue());
-                }
+        // parse the other values or scores
+        if (columnMap.get(HEADER_DELTA_CN) != null) {
+            tideRow.deltaCn = row.getDouble(columnMap.get(HEADER_DELTA_CN));
+        }
+        if (columnMap.get(HEADER_SP_SCORE) != null) {
+            tideRow.spScore = row.getDouble(columnMap.get(HEADER_SP_SCORE));
+        }
+        if (columnMap.get(HEADER_SP_RANK) != null) {
+            tideRow.spRank = row.getDouble(columnMap.get(HEADER_SP_RANK));
+        }
 
+        // the protein/accession info
+        for (String accession : row.getString(columnMap.get(HEADER_PROTEINID)).split(",")) {
+            String parsedAccession = parseAccession(accession);
+            if (parsedAccession != null) {
+                tideRow.accessions.add(parsedAccession);
+            } else {
+                LOGGER.error("could not get the accession in line" + tideRow.lineNr);
+            }
+        }
 
-                // add the scores
-                ScoreModel score;
-
-                /**
-                 * New versions of XCORR are named REFACTORED XCORR.
-                 * Todo: Create the proper CVTerm for it.
-                 */
-                Double scoreValue;
-                if(columnMap.get(HEADER_XCORR) !=null ){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_XCORR)]);
-                    score = new ScoreModel(scoreValue,
-                            ScoreModelEnum.SEQUEST_XCORR);
-                    psm.addScore(score);
-                } else if(columnMap.get(HEADER_REFACTORED_XCORR) !=null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_REFACTORED_XCORR)]);
-                    score = new ScoreModel(scoreValue,
-                            ScoreModelEnum.SEQUEST_XCORR);
-                    psm.addScore(score);
-                }else
-                    LOGGER.error("could not parse the xcorr in line " + lineNr);
-
-                /**
-                 * Parse the other values or scores.
-                 */
-
-                if(columnMap.get(HEADER_DELTA_CN) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_DELTA_CN)]);
-                    score = new ScoreModel(scoreValue,
-                            ScoreModelEnum.SEQUEST_DELTACN);
-                    psm.addScore(score);
-                }
+        return tideRow;
+    }
 
-                if(columnMap.get(HEADER_SP_SCORE) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_SP_SCORE)]);
-                    score = new ScoreModel(scoreValue,
-                            ScoreModelEnum.SEQUEST_SPSCORE);
-                    psm.addScore(score);
-                }
 
-                if(columnMap.get(HEADER_SP_RANK) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_SP_RANK)]);
-                    score = new ScoreModel(scoreValue,
-                            ScoreModelEnum.SEQUEST_PEPTIDE_RANK_SP);
-                    psm.addScore(score);
-                }
+    /**
+     * Inserts a converted row as PSM into the compiler.
+     *
+     * @param tideRow
+     * @param compiler
+     * @param file
+     * @param spectrumID
+     * @param unimodCache
+     * @param counts
+     */
+    private static void insertTideRow(TideRow tideRow, PIACompiler compiler, PIAInputFile file,
+            SpectrumIdentification spectrumID, Map<String, ModT> unimodCache, int[] counts) {
+        // TODO: implement the delta mass, it is too imprecise to calculate from the given values
+        double deltaMass = Double.NaN;
+
+        String sequence = tideRow.sequence;
+        Map<Integer, Modification> modifications = createModifications(tideRow.modifications,
+                sequence, compiler, unimodCache);
+
+        PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
+                tideRow.charge,
+                tideRow.precursorMZ,
+                deltaMass,
+                null,
+                sequence,
+                tideRow.missedCleavages,
+                tideRow.sourceID,
+                null,
+                file,
+                spectrumID);
+
+        // get the peptide or create it
+        Peptide peptide = compiler.getPeptide(sequence);
+        if (peptide == null) {
+            peptide = compiler.insertNewPeptide(sequence);
+            counts[0]++;
+        }
+
+        // add the spectrum to the peptide
+        peptide.addSpectrum(psm);
 
-                // add the protein/accession info
+        // add the modifications
+        for (Map.Entry<Integer, Modification> mod
+                : modifications.entrySet()) {
+            psm.addModification(mod.getKey(), mod.getValue());
+        }
 
-                String[] accessions = columns[columnMap.get(HEADER_PROTEINID)].split(",");
-                for (String accession : accessions) {
 
-                    Matcher matcher = patternAccessions.matcher(accession);
+        // add the scores
+        if (tideRow.xcorr != null) {
+            psm.addScore(new ScoreModel(tideRow.xcorr, ScoreModelEnum.SEQUEST_XCORR));
+        } else {
+            LOGGER.error("could not parse the xcorr in line " + tideRow.lineNr);
+        }
 
-                    if (matcher.matches()) {
-                        // add the Accession to the compiler (if it is not already there)
-                        Accession acc = compiler.getAccession(matcher.group(1));
-                        if (acc == null) {
-                            // no sequence information in the file
-                            acc = compiler.insertNewAccession(
-                                    matcher.group(1), null);
-                            accNr++;
-                        }
+        if (tideRow.deltaCn != null) {
+            psm.addScore(new ScoreModel(tideRow.deltaCn, ScoreModelEnum.SEQUEST_DELTACN));
+        }
 
-                        acc.addFile(file.getID());
+        if (tideRow.spScore != null) {
+            psm.addScore(new ScoreModel(tideRow.spScore, ScoreModelEnum.SEQUEST_SPSCORE));
+        }
 
-                        // now insert the connection between peptide and accession into the compiler
-                        compiler.addAccessionPeptideConnection(acc, peptide);
-                    } else {
-                        LOGGER.error("could not get the accession in line" + lineNr);
-                    }
-                }
+        if (tideRow.spRank != null) {
+            psm.addScore(new ScoreModel(tideRow.spRank, ScoreModelEnum.SEQUEST_PEPTIDE_RANK_SP));
+        }
 
-                // teh PSM is completed now
-                compiler.insertCompletePeptideSpectrumMatch(psm);
-                specNr++;
+        // add the protein/accession info
+        for (String accession : tideRow.accessions) {
+            // add the Accession to the compiler (if it is not already there)
+            Accession acc = compiler.getAccession(accession);
+            if (acc == null) {
+                // no sequence information in the file
+                acc = compiler.insertNewAccession(accession, null);
+                counts[2]++;
             }
-        } catch (IOException e) {
-            LOGGER.error("Error occurred while parsing the file " + fileName, e);
-            return false;
+
+            acc.addFile(file.getID());
+
+            // now insert the connection between peptide and accession into the compiler
+            compiler.addAccessionPeptideConnection(acc, peptide);
         }
 
-        LOGGER.info("inserted new: \n\t" +
-                pepNr + " peptides\n\t" +
-                specNr + " peptide spectrum matches\n\t" +
-                accNr + " accessions");
-        return true;
+        // teh PSM is completed now
+        compiler.insertCompletePeptideSpectrumMatch(psm);
+        counts[1]++;
     }
 
 
     /**
-     * extracts the modifications from the seqeunce string
+     * Gets the accession from an entry of the protein id column, which has the
+     * form "accession(position)".
      *
-     * @param modificationsSequence the string with modifications
-     * @param modifications the modifications map
-     * @param compiler the PIACompiler
-     * @return
+     * @param entry
+     * @return the accession or null, if the entry has not the correct form
      */
-    private static String extractModifications(String modificationsSequence,
-            Map<Integer, Modification> modifications, PIACompiler compiler) {
-        if (modifications == null) {
-            LOGGER.error("Modifications map not initialized!");
+    private static String parseAccession(String entry) {
+        int openIdx = entry.indexOf('(');
+        int length = entry.length();
+
+        if ((openIdx < 1) || (openIdx + 2 >= length) || (entry.charAt(length - 1) != ')')) {
             return null;
         }
 
+        for (int idx = openIdx + 1; idx < length - 1; idx++) {
+            if (!Character.isDigit(entry.charAt(idx))) {
+                return null;
+            }
+        }
+
+        return entry.substring(0, openIdx);
+    }
+
+
+    /**
+     * extracts the modifications from the seqeunce string
+     *
+     * @param modificationsSequence the string with modifications
+     * @param modifications the list for the extracted modifications
+     * @return the sequence without modifications
+     */
+    private static String extractModifications(String modificationsSequence,
+            List<SequenceModification> modifications) {
         StringBuilder sequence = new StringBuilder(modificationsSequence.length());
 
         int pos;
@@ -374,21 +403,54 @@ public class TideTXTFileParser {
             }
 
             int loc = sequence.length();
-            String residue = Character.toString(sequence.charAt(loc-1));
+            char residue = sequence.charAt(loc-1);
+
+            modificationsSequence =
+                    modificationsSequence.substring(modWeight.length() + 2);
 
-            Double massShift;
-            ModT unimod = null;
             try {
-                massShift = Double.parseDouble(modWeight.toString());
-                unimod = compiler.getUnimodParser().getModificationByMass(
-                        massShift, residue);
+                modifications.add(new SequenceModification(loc, residue,
+                        Double.parseDouble(modWeight.toString())));
             } catch (NumberFormatException e) {
                 LOGGER.error("could not parse mass of modification: " + modWeight, e);
+                LOGGER.error("Could not get information for " +
+                        "modification " + modWeight + '@' + residue + " in " +
+                        sequence);
             }
+        }
+
+        sequence.append(modificationsSequence);
+        return sequence.toString();
+    }
 
 
-            modificationsSequence =
-                    modificationsSequence.substring(modWeight.length() + 2);
+    /**
+     * Creates the {@link Modification}s of the extracted modifications from
+     * UNIMOD.
+     *
+     * @param sequenceModifications the modifications extracted from the sequence
+     * @param sequence the sequence without modifications
+     * @param compiler the PIACompiler
+     * @param unimodCache caches the found UNIMOD modifications by residue and mass
+     * @return
+     */
+    private static Map<Integer, Modification> createModifications(
+            List<SequenceModification> sequenceModifications, String sequence,
+            PIACompiler compiler, Map<String, ModT> unimodCache) {
+        Map<Integer, Modification> modifications = new HashMap<>(sequenceModifications.size());
+
+        for (SequenceModification seqMod : sequenceModifications) {
+            int loc = seqMod.location;
+            String residue = Character.toString(seqMod.residue);
+
+            String unimodKey = residue + ":" + seqMod.massShift;
+            ModT unimod;
+            if (unimodCache.containsKey(unimodKey)) {
+                unimod = unimodCache.get(unimodKey);
+            } else {
+                unimod = compiler.getUnimodParser().getModificationByMass(seqMod.massShift, residue);
+                unimodCache.put(unimodKey, unimod);
+            }
 
             if (unimod != null) {
                 if (loc == 1) {
@@ -399,7 +461,7 @@ public class TideTXTFileParser {
                             residue = ".";
                         }
                     }
-                } else if (modificationsSequence.length() == 0) {
+                } else if (loc == sequence.length()) {
                     // TODO: check for C-terminal modifications
                 }
 
@@ -412,13 +474,12 @@ public class TideTXTFileParser {
                 modifications.put(loc, mod);
             } else {
                 LOGGER.error("Could not get information for " +
-                        "modification " + modWeight + '@' + residue + " in " +
+                        "modification " + seqMod.massShift + '@' + residue + " in " +
                         sequence);
             }
         }
 
-        sequence.append(modificationsSequence);
-        return sequence.toString();
+        return modifications;
     }
 
 
@@ -430,8 +491,7 @@ public class TideTXTFileParser {
      * @return
      */
     private static int calculateMissed(String sequence, String cleavageType) {
-        int missed = 0;
-        String type = cleavageType.trim();
+        String type = (cleavageType != null) ? cleavageType.trim() : "";
         CleavageAgent enzyme = null;
 
         // TODO: add further cleavage agents
@@ -440,12 +500,10 @@ public class TideTXTFileParser {
         }
 
         if (enzyme != null) {
-            missed += sequence.split(enzyme.getSiteRegexp()).length - 1;
+            return enzyme.getSiteScanner().countSites(sequence);
         } else {
-            missed = -1;
+            return -1;
         }
-
-        return missed;
     }
 
 
@@ -499,4 +557,47 @@ public class TideTXTFileParser {
 
         return isTideTXTFile;
     }
+
+
+    /**
+     * The values of one row (PSM) of the file, before they are inserted into
+     * the compiler.
+     */
+    private static class TideRow {
+        private final long lineNr;
+        private int charge;
+        private double precursorMZ;
+        private String sequence;
+        private int missedCleavages;
+        private String sourceID;
+        private Double xcorr;
+        private Double deltaCn;
+        private Double spScore;
+        private Double spRank;
+        private final List<SequenceModification> modifications;
+        private final List<String> accessions;
+
+        private TideRow(long lineNr) {
+            this.lineNr = lineNr;
+            this.modifications = new ArrayList<>(2);
+            this.accessions = new ArrayList<>(2);
+        }
+    }
+
+
+    /**
+     * A modification as given in the sequence: its location, the residue and
+     * the mass shift.
+     */
+    private static class SequenceModification {
+        private final int location;
+        private final char residue;
+        private final double massShift;
+
+        private SequenceModification(int location, char residue, double massShift) {
+            this.location = location;
+            this.residue = residue;
+            this.massShift = massShift;
+        }
+    }
 }
@@ -35,6 +35,7 @@ import de.mpc.pia.intermediate.Modification;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.piaxml.AccessionRefXML;
 import de.mpc.pia.intermediate.piaxml.AccessionXML;
 import de.mpc.pia.intermediate.piaxml.AccessionsListXML;
@@ -161,7 +162,59 @@ public class PIAIntermediateJAXBHandler implements Serializable {
 
         parseXMLFile(fileName, progress);
 
-        // the source ID and spectrum title needs to be updated -> deactivate for now
+        addDeactivatedSettingsWarnings();
+    }
+
+
+    /**
+     * Takes over the intermediate structure of a {@link PIACompiler}, after
+     * its {@link PIACompiler#buildIntermediateStructure()} was called. The
+     * objects of the compilation are used directly, without the round trip
+     * through a PIA XML file.
+     *
+     * @param piaCompiler
+     */
+    public void readCompilation(PIACompiler piaCompiler) {
+        projectName = piaCompiler.getName();
+        files = new HashMap<>(piaCompiler.getFiles());
+        spectraData = new HashMap<>(piaCompiler.getSpectraData());
+        searchDatabases = new HashMap<>(piaCompiler.getSearchDatabases());
+        software = new HashMap<>(piaCompiler.getAnalysisSoftware());
+        psms = new HashMap<>(piaCompiler.getNrPeptideSpectrumMatches());
+        peptides = new HashMap<>(piaCompiler.getNrPeptides());
+        accessions = new HashMap<>(piaCompiler.getNrAccessions());
+        groups = new HashMap<>(piaCompiler.getGroups());
+
+        for (Long accId : piaCompiler.getAllAccessionIDs()) {
+            Accession accession = piaCompiler.getAccession(accId);
+            accessions.put(accession.getID(), accession);
+        }
+
+        for (Long pepId : piaCompiler.getAllPeptideIDs()) {
+            Peptide peptide = piaCompiler.getPeptide(pepId);
+            peptides.put(peptide.getID(), peptide);
+            if (peptide.getSpectra() == null) {
+                continue;
+            }
+
+            // the PSMs are taken from the peptides, as the compiler may only hold copies of them
+            for (PeptideSpectrumMatch psm : peptide.getSpectra()) {
+                // backlink the peptide in the PSM
+                psm.setPeptide(peptide);
+                psms.put(psm.getID(), psm);
+                updatePSMSetSettingsWarnings(psm);
+            }
+        }
+
+        addDeactivatedSettingsWarnings();
+    }
+
+
+    /**
+     * The source ID and spectrum title needs to be updated, deactivate them for
+     * now by adding a warning for all files.
+     */
+    private void addDeactivatedSettingsWarnings() {
         // TODO: review the source ID and use it constantly as in the mzIdentML document, converting everything to index=XXX does not work!
         psmSetSettingsWarnings.get(IdentificationKeySettings.SOURCE_ID.toString()).add(0L);
         psmSetSettingsWarnings.get(IdentificationKeySettings.SPECTRUM_TITLE.toString()).add(0L);
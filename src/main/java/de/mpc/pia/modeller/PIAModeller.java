@@ -10,6 +10,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -30,10 +34,13 @@ import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
 import de.mpc.pia.intermediate.xmlhandler.PIAIntermediateJAXBHandler;
 import de.mpc.pia.modeller.execute.xmlparams.CTDTool;
 import de.mpc.pia.modeller.execute.xmlparams.NODEType;
 import de.mpc.pia.modeller.execute.xmlparams.PARAMETERSType;
+import de.mpc.pia.modeller.exporter.MultiFormatExporter;
 import de.mpc.pia.modeller.peptide.PeptideExecuteCommands;
 import de.mpc.pia.modeller.protein.ProteinExecuteCommands;
 import de.mpc.pia.modeller.psm.PSMExecuteCommands;
@@ -122,6 +129,27 @@ public class PIAModeller implements Serializable {
     }
 
 
+    /**
+     * Creates a model directly from the intermediate structure of the given
+     * {@link PIACompiler}, without writing and parsing a PIA XML file.
+     *
+     * @param piaCompiler a compiler, whose intermediate structure is built
+     * @param piaFileName the PIA XML file, into which the compilation is
+     * written, or null
+     */
+    public PIAModeller(PIACompiler piaCompiler, String piaFileName) {
+        this();
+
+        if (piaCompiler == null) {
+            throw new IllegalArgumentException("No compilation given.");
+        }
+
+        if (!loadCompilation(piaCompiler, piaFileName, null)) {
+            throw new IllegalArgumentException("Error loading the compilation.");
+        }
+    }
+
+
     /**
      * Getter for the {@link PSMModeller} of this modeller.
      * @return
@@ -184,6 +212,45 @@ public class PIAModeller implements Serializable {
     }
 
 
+    /**
+     * Initializes the model from the intermediate structure of the given
+     * {@link PIACompiler}, after its intermediate structure was built. The
+     * intermediate objects are shared with the compiler, so it can still write
+     * them into a PIA XML file after this call.
+     *
+     * @param piaCompiler
+     * @param piaFileName the PIA XML file, into which the compilation is
+     * written, or null to use the name of the compilation instead
+     * @param progress the first item in the array holds the current progress
+     *
+     * @return true, if the compilation was loaded
+     */
+    public boolean loadCompilation(PIACompiler piaCompiler, String piaFileName, Long[] progress) {
+        LOGGER.info("start loading compilation " + piaCompiler.getName());
+
+        this.psmModeller = null;
+        this.peptideModeller = null;
+        this.proteinModeller = null;
+
+        this.fileName = (piaFileName != null) ? piaFileName : piaCompiler.getName();
+        this.intermediateHandler = null;
+
+        Long[] progressMonitor = initialiseProgress(progress);
+        try {
+            intermediateHandler = new PIAIntermediateJAXBHandler();
+            intermediateHandler.readCompilation(piaCompiler);
+            progressMonitor[0] += 40;
+
+            initialiseModellers(progressMonitor);
+        } catch (Exception e) {
+            LOGGER.error("Error while loading the compilation", e);
+            return false;
+        }
+
+        return true;
+    }
+
+
     /**
      * Getter for fileName
      * @return
@@ -274,6 +341,29 @@ public class PIAModeller implements Serializable {
             throws IOException {
         LOGGER.info("loadIntermediate started...");
 
+        Long[] progress = initialiseProgress(progressMonitor);
+
+        if (fileName == null) {
+            LOGGER.error("no file given!");
+            return;
+        }
+
+        LOGGER.info("Starting parse...");
+
+        intermediateHandler = new PIAIntermediateJAXBHandler();
+        intermediateHandler.parse(fileName, progress);
+
+        LOGGER.info("loadIntermediate done.");
+
+        initialiseModellers(progress);
+    }
+
+
+    /**
+     * Returns the given progress array with the progress set to 0, or a new
+     * one, if none is given.
+     */
+    private static Long[] initialiseProgress(Long[] progressMonitor) {
         Long[] progress;
         if ((progressMonitor == null) || (progressMonitor.length < 1) || (progressMonitor[0] == null)) {
             LOGGER.warn("No progress array given, creating one. "
@@ -284,18 +374,18 @@ public class PIAModeller implements Serializable {
         }
 
         progress[0] = 0L;
+        return progress;
+    }
 
-        if (fileName == null) {
-            LOGGER.error("no file given!");
-            return;
-        }
-
-        LOGGER.info("Starting parse...");
-
-        intermediateHandler = new PIAIntermediateJAXBHandler();
-        intermediateHandler.parse(fileName, progress);
 
-        LOGGER.info(fileName + " successfully parsed.\n" +
+    /**
+     * Initializes the PSM, peptide and protein modellers from the loaded
+     * intermediate structure.
+     *
+     * @param progress gets increased by 60 by this method
+     */
+    private void initialiseModellers(Long[] progress) {
+        LOGGER.info(fileName + " successfully loaded.\n" +
                 '\t' + intermediateHandler.getFiles().size() + " files\n" +
                 '\t' + intermediateHandler.getGroups().size() + " groups\n" +
                 '\t' + intermediateHandler.getAccessions().size() + " accessions\n" +
@@ -303,8 +393,6 @@ public class PIAModeller implements Serializable {
                 '\t' + intermediateHandler.getPSMs().size() + " peptide spectrum matches\n" +
                 '\t' + intermediateHandler.getNrTrees() + " trees");
 
-        LOGGER.info("loadIntermediate done.");
-
         // set spectra uniquenesses
         setGroupsSpectraUniquenesses(intermediateHandler.getGroups().values());
 
@@ -594,6 +682,38 @@ public class PIAModeller implements Serializable {
                 .build();
         options.addOption(inputFileOpt);
 
+        Option compileOpt = Option.builder(PIAConstants.COMPILE_OPTION)
+                .argName("inputFile")
+                .hasArg()
+                .desc("Compiles the given search engine result file and executes the paramFile directly on the "
+                        + "compilation, instead of using a PIA XML file as infile. This option may be called multiple "
+                        + "times and takes the same values as the infile option of the "
+                        + PIACompiler.class.getSimpleName() + '.')
+                .build();
+        options.addOption(compileOpt);
+
+        Option piaOutFileOpt = Option.builder(PIAConstants.PIA_OUT_FILE_OPTION)
+                .argName("outputFile")
+                .hasArg()
+                .desc("Path to the PIA XML file, into which the compilation is written, while the paramFile is "
+                        + "executed. Only used in combination with compile, no PIA XML file is written if not given.")
+                .build();
+        options.addOption(piaOutFileOpt);
+
+        Option mapFastaOpt = Option.builder(PIAConstants.MAP_FASTA_OPTION)
+                .argName("fastaFile")
+                .hasArg()
+                .desc("FASTA file, which is used to map all peptides to all proteins containing them. Only used in "
+                        + "combination with compile.")
+                .build();
+        options.addOption(mapFastaOpt);
+
+        Option ilEquivalentOpt = Option.builder(PIAConstants.IL_EQUIVALENT_OPTION)
+                .hasArg(false)
+                .desc("treat isoleucine and leucine as equal, when mapping the peptides to the FASTA file")
+                .build();
+        options.addOption(ilEquivalentOpt);
+
         Option psmOpt = Option.builder(PIAConstants.PSM_OPTION)
                 .argName(PIAConstants.COLON_COMMAND_PARAMETERS)
                 .hasArg()
@@ -697,6 +817,16 @@ public class PIAModeller implements Serializable {
                 .build();
         options.addOption(proteinExportOpt);
 
+        Option exportOpt = Option.builder(PIAConstants.EXPORT_OPTION)
+                .argName("[level=psm/peptide/protein] [fileID=ID] format:outfile [format:outfile ...]")
+                .valueSeparator(' ')
+                .hasArgs()
+                .desc("Exports the same report into several files at once, which are written concurrently. The "
+                        + "formats may be mzTab, mzIdentML, idXML, csv and arrow, the level defaults to protein. Only "
+                        + "used in combination with infile and paramFile, which should be executed before exporting.")
+                .build();
+        options.addOption(exportOpt);
+
         Option writeInfoOpt = Option.builder(PIAConstants.WRITE_INFORMATION_OPTION)
                 .argName("outfile")
                 .numberOfArgs(1)
@@ -780,8 +910,10 @@ public class PIAModeller implements Serializable {
             appendToPipelineXML(paramFile, paramOutFile, line.getArgs());
         } else {
             // so the default EXECUTE_OPTION will be performed
-            if (!line.hasOption(PIAConstants.INPUT_FILE_OPTION)) {
-                LOGGER.error("execution of paramFile requires an infile");
+            if (line.hasOption(PIAConstants.COMPILE_OPTION)) {
+                processCompileAndExecuteXMLFile(line.getOptionValue(PIAConstants.PARAM_FILE_OPTION), line);
+            } else if (!line.hasOption(PIAConstants.INPUT_FILE_OPTION)) {
+                LOGGER.error("execution of paramFile requires an infile or compile");
             } else {
                 processExecuteXMLFile(line.getOptionValue(PIAConstants.PARAM_FILE_OPTION), line);
             }
@@ -797,29 +929,113 @@ public class PIAModeller implements Serializable {
     private static void processExecuteXMLFile(String paramFileName, CommandLine line) {
         try {
             PIAModeller model = new PIAModeller(line.getOptionValue(PIAConstants.INPUT_FILE_OPTION));
-            processPipelineFile(paramFileName, model);
+            processPipelineAndExports(paramFileName, model, line);
+        } catch (Exception e) {
+            LOGGER.error("Error while processing XML parameter file", e);
+        }
+    }
 
-            if (line.hasOption(PIAConstants.WRITE_INFORMATION_OPTION)) {
-                processWriteInformation(line.hasOption(PIAConstants.CALCULATE_INFORMATION_OPTION) ? line.getOptionValue(PIAConstants.CALCULATE_INFORMATION_OPTION) : null,
-                        line.getOptionValue(PIAConstants.WRITE_INFORMATION_OPTION), model);
-            }
 
-            if (line.hasOption(PIAConstants.PSM_EXPORT_OPTION)) {
-                String[] params = line.getOptionValues(PIAConstants.PSM_EXPORT_OPTION);
-                processPSMExport(params, model);
-            }
+    /**
+     * Compiles the input files given on the command line and executes the
+     * parameter XML file directly on the compilation. If a PIA XML file is
+     * given, the compilation is written into it in the background meanwhile.
+     *
+     * @param paramFileName
+     * @param line
+     */
+    private static void processCompileAndExecuteXMLFile(String paramFileName, CommandLine line) {
+        PIACompiler piaCompiler = new PIASimpleCompiler();
+        String piaFileName = line.getOptionValue(PIAConstants.PIA_OUT_FILE_OPTION);
+        ExecutorService xmlWriter = null;
+        Future<?> xmlWritten = null;
 
-            if (line.hasOption(PIAConstants.PEPTIDE_EXPORT_OPTION)) {
-                String[] params = line.getOptionValues(PIAConstants.PEPTIDE_EXPORT_OPTION);
-                processPeptideExport(params, model);
+        try {
+            if (!PIACompiler.compileCommandLineInfiles(line.getOptionValues(PIAConstants.COMPILE_OPTION),
+                    line.getOptionValue(PIAConstants.MAP_FASTA_OPTION),
+                    line.hasOption(PIAConstants.IL_EQUIVALENT_OPTION), piaCompiler)) {
+                LOGGER.error("could not compile the input files");
+                return;
+            }
+            if (piaFileName != null) {
+                piaCompiler.setName(piaFileName);
             }
 
-            if (line.hasOption(PIAConstants.PROTEIN_EXPORT_OPTION)) {
-                String[] params = line.getOptionValues(PIAConstants.PROTEIN_EXPORT_OPTION);
-                processProteinExport(params, model);
+            PIAModeller model = new PIAModeller(piaCompiler, piaFileName);
+
+            if (piaFileName != null) {
+                // the modeller sets the uniqueness of the PSMs while it is created, the file is written afterwards.
+                // The writer runs concurrently with the pipeline and the exports, assuming that these only read
+                // the compiler's intermediate objects (the report items wrap them and hold all changed values).
+                xmlWriter = Executors.newSingleThreadExecutor();
+                xmlWritten = xmlWriter.submit(() -> {
+                    piaCompiler.writeOutXML(piaFileName);
+                    return null;
+                });
             }
+
+            processPipelineAndExports(paramFileName, model, line);
         } catch (Exception e) {
             LOGGER.error("Error while processing XML parameter file", e);
+        } finally {
+            if (xmlWriter != null) {
+                waitForPIAXMLFile(xmlWritten, piaFileName);
+                xmlWriter.shutdown();
+            }
+            piaCompiler.finish();
+        }
+    }
+
+
+    /**
+     * Waits until the PIA XML file is written.
+     */
+    private static void waitForPIAXMLFile(Future<?> xmlWritten, String piaFileName) {
+        try {
+            xmlWritten.get();
+        } catch (ExecutionException e) {
+            LOGGER.error("Error while writing the PIA XML file " + piaFileName, e.getCause());
+        } catch (InterruptedException e) {
+            LOGGER.error("interrupted while writing the PIA XML file " + piaFileName, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Executes the parameter XML file on the model and performs the exports
+     * given on the command line.
+     *
+     * @param paramFileName
+     * @param model
+     * @param line
+     */
+    private static void processPipelineAndExports(String paramFileName, PIAModeller model, CommandLine line) {
+        processPipelineFile(paramFileName, model);
+
+        if (line.hasOption(PIAConstants.WRITE_INFORMATION_OPTION)) {
+            processWriteInformation(line.hasOption(PIAConstants.CALCULATE_INFORMATION_OPTION) ? line.getOptionValue(PIAConstants.CALCULATE_INFORMATION_OPTION) : null,
+                    line.getOptionValue(PIAConstants.WRITE_INFORMATION_OPTION), model);
+        }
+
+        if (line.hasOption(PIAConstants.PSM_EXPORT_OPTION)) {
+            String[] params = line.getOptionValues(PIAConstants.PSM_EXPORT_OPTION);
+            processPSMExport(params, model);
+        }
+
+        if (line.hasOption(PIAConstants.PEPTIDE_EXPORT_OPTION)) {
+            String[] params = line.getOptionValues(PIAConstants.PEPTIDE_EXPORT_OPTION);
+            processPeptideExport(params, model);
+        }
+
+        if (line.hasOption(PIAConstants.PROTEIN_EXPORT_OPTION)) {
+            String[] params = line.getOptionValues(PIAConstants.PROTEIN_EXPORT_OPTION);
+            processProteinExport(params, model);
+        }
+
+        if (line.hasOption(PIAConstants.EXPORT_OPTION)) {
+            String[] params = line.getOptionValues(PIAConstants.EXPORT_OPTION);
+            processMultiFormatExport(params, model);
         }
     }
 
@@ -899,6 +1115,50 @@ public class PIAModeller implements Serializable {
     }
 
 
+    /**
+     * Process the export into multiple formats from the separated command line
+     * params. Each target is given as format:outfile, the level and fileID as
+     * level=... and fileID=...
+     *
+     * @param params
+     * @param model
+     */
+    private static void processMultiFormatExport(String[] params, PIAModeller model) {
+        MultiFormatExporter exporter = new MultiFormatExporter(model);
+        String level = "protein";
+
+        for (String param : params) {
+            if (param.startsWith("level=")) {
+                level = param.substring(6);
+                if (!"protein".equalsIgnoreCase(level) && !"peptide".equalsIgnoreCase(level)
+                        && !"psm".equalsIgnoreCase(level)) {
+                    LOGGER.error("invalid export level " + param + ", should be psm, peptide or protein");
+                    return;
+                }
+            } else if (param.startsWith("fileID=")) {
+                try {
+                    exporter.setFileID(Long.parseLong(param.substring(7)));
+                } catch (NumberFormatException e) {
+                    LOGGER.error("could not parse " + param, e);
+                    return;
+                }
+            } else {
+                int sepIdx = param.indexOf(':');
+                if ((sepIdx < 1) || !exporter.addTarget(param.substring(0, sepIdx), param.substring(sepIdx + 1))) {
+                    LOGGER.error("invalid export target " + param + ", should be format:outfile");
+                    return;
+                }
+            }
+        }
+
+        exporter.setProteinLevel("protein".equalsIgnoreCase(level));
+        exporter.setPeptideLevel("peptide".equalsIgnoreCase(level));
+        exporter.setPSMLevel("psm".equalsIgnoreCase(level));
+
+        exporter.export();
+    }
+
+
     /**
      * Processes the params for export. The first two are mandatory without key, these are the fileName and the format,
      * in this order. All others are added as they are.
@@ -14,20 +14,20 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import de.mpc.pia.modeller.score.*;
 import org.apache.log4j.Logger;
-import org.biojava.nbio.ontology.Term;
-import org.biojava.nbio.ontology.Triple;
 
 import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.xmlhandler.PIAIntermediateJAXBHandler;
+import de.mpc.pia.modeller.ReportChangeEvent.ChangeKind;
 import de.mpc.pia.modeller.psm.PSMExecuteCommands;
 import de.mpc.pia.modeller.psm.PSMReportItem;
 import de.mpc.pia.modeller.psm.PSMReportItemComparator;
@@ -41,10 +41,8 @@ import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
 import de.mpc.pia.modeller.score.FDRData.DecoyStrategy;
 import de.mpc.pia.modeller.score.comparator.RankCalculator;
 import de.mpc.pia.modeller.score.comparator.ScoreComparator;
-import de.mpc.pia.tools.OntologyConstants;
 import de.mpc.pia.tools.PIAConstants;
 import de.mpc.pia.tools.PIATools;
-import de.mpc.pia.tools.obo.OBOMapper;
 
 
 /**
@@ -113,9 +111,6 @@ public class PSMModeller implements Serializable {
     private List<String> preferredFDRScores;
 
 
-    /** the OBO mapper, to get additional data */
-    private transient OBOMapper oboMapper = null;
-
     /** maps from the scoreShort to the scoreName */
     private Map<String, String> scoreShortToScoreName;
 
@@ -142,6 +137,9 @@ public class PSMModeller implements Serializable {
     /** the list of filters applied to the data, mapped by the file ID */
     private Map<Long, List<AbstractFilter>> fileFiltersMap;
 
+    /** the listeners, which are informed about changes of the report */
+    private transient List<ReportChangeListener> changeListeners;
+
 
     /**
      * Basic constructor, creates the {@link ReportPSM}s and
@@ -195,6 +193,7 @@ public class PSMModeller implements Serializable {
      * Applies the general settings and recalculates the PSMSets
      */
     public void applyGeneralSettings(boolean createSets) {
+        fireReportChanged(ChangeKind.GENERAL_SETTINGS, null);
         createPSMSets = createSets;
 
         if (!createPSMSets) {
@@ -457,32 +456,8 @@ public class PSMModeller implements Serializable {
                                                 score.getShortName(),
                                                 ScoreModelEnum.getModelByDescription(score.getShortName()).higherScoreBetter());
                                     } else {
-                                        Boolean higherscorebetter = null;
-
-                                        Term oboTerm = getOBOMapper().getTerm(score.getAccession());
-                                        if (oboTerm != null) {
-                                            // the score is in the OBO file, get the relations etc.
-                                            Set<Triple> tripleSet = getOBOMapper().getTriples(oboTerm, null, null);
-
-                                            for (Triple triple : tripleSet) {
-                                                if (triple.getPredicate().getName().equals(OBOMapper.OBO_IS_A)) {
-                                                    if (triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_PVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_EVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_QVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_QVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_PVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_EVALUE.getPsiAccession())) {
-                                                        higherscorebetter = false;
-                                                    }
-                                                } else if (triple.getPredicate().getName().equals(OBOMapper.OBO_RELATIONSHIP)) {
-                                                    if (triple.getObject().getName().equals(OBOMapper.OBO_HAS_ORDER_HIGHERSCOREBETTER)) {
-                                                        higherscorebetter = true;
-                                                    } else if (triple.getObject().getName().equals(OBOMapper.OBO_HAS_ORDER_LOWERSCOREBETTER)) {
-                                                        higherscorebetter = false;
-                                                    }
-                                                }
-                                            }
-                                        }
+                                        Boolean higherscorebetter =
+                                                ScoreOrderingTable.getSharedInstance().higherScoreBetter(score.getAccession());
 
                                         if (higherscorebetter != null) {
                                             // the status of higherScoreBetter is not to be changed by the user
@@ -575,18 +550,6 @@ public class PSMModeller implements Serializable {
     }
 
 
-    /**
-     * Getter for the oboMapper. Initializes the OBOMapper on the first call.
-     * @return
-     */
-    private OBOMapper getOBOMapper() {
-        if (oboMapper == null) {
-            oboMapper = new OBOMapper();
-        }
-        return oboMapper;
-    }
-
-
     /**
      * Creates the {@link ReportPSMSet}s, given the {@link ReportPSM}s in a
      * mapping from the PSM-identificationKeys
@@ -802,6 +765,7 @@ public class PSMModeller implements Serializable {
     public void setHigherScoreBetter(String scoreShort,
             Boolean higherScoreBetter) {
         if (scoreShortToHigherScoreBetterChangeable.get(scoreShort)) {
+            fireReportChanged(ChangeKind.SCORE_ORDERING, null);
             scoreShortToHigherScoreBetter.put(scoreShort, higherScoreBetter);
 
             scoreShortToComparator.put(scoreShort,
@@ -1099,6 +1063,7 @@ public class PSMModeller implements Serializable {
         FDRData fdrData = fileFDRData.get(fileID);
 
         LOGGER.info("updateDecoyStates " + fileID);
+        fireReportChanged(ChangeKind.DECOY_STATES, fileID);
 
         // select either the PSMs from the given file or all and calculate the fdr
         if (fdrData == null) {
@@ -1148,6 +1113,7 @@ public class PSMModeller implements Serializable {
      * @param fileID
      */
     public void calculateFDR(Long fileID) {
+        fireReportChanged(ChangeKind.FDR, fileID);
         FDRData fdrData = fileFDRData.get(fileID);
 
         // select either the PSMs from the given file or all and calculate the fdr
@@ -1352,6 +1318,7 @@ public class PSMModeller implements Serializable {
      * Calculates the Combined FDR Score for the PSM sets in the overview
      */
     public void calculateCombinedFDRScore() {
+        fireReportChanged(ChangeKind.FDR, null);
         Map<String, List<ReportPSMSet>> fileLists = new HashMap<>();
         String key;
 
@@ -1534,6 +1501,7 @@ public class PSMModeller implements Serializable {
             LOGGER.error("No score SHORT_NAME given for ranking calculation.");
             return;
         }
+        fireReportChanged(ChangeKind.RANKING, fileID);
 
         // first, dump all prior ranking
         List<?> reports;
@@ -1574,7 +1542,11 @@ public class PSMModeller implements Serializable {
      * Add a new filter for the given file
      */
     public boolean addFilter(Long fileID, AbstractFilter newFilter) {
-        return newFilter != null && getFilters(fileID).add(newFilter);
+        if ((newFilter != null) && getFilters(fileID).add(newFilter)) {
+            fireReportChanged(ChangeKind.FILTERS, fileID);
+            return true;
+        }
+        return false;
     }
 
 
@@ -1590,6 +1562,7 @@ public class PSMModeller implements Serializable {
         if ((removingIndex >= 0) &&
                 (filters != null) &&
                 (removingIndex < filters.size())) {
+            fireReportChanged(ChangeKind.FILTERS, fileID);
             return filters.remove(removingIndex);
         }
 
@@ -1597,6 +1570,45 @@ public class PSMModeller implements Serializable {
     }
 
 
+    /**
+     * Registers a listener, which is informed about any changes of the PSM
+     * sets, filters, decoy states, FDR values or ranking in this modeller.
+     *
+     * @param listener
+     */
+    public void addReportChangeListener(ReportChangeListener listener) {
+        if (changeListeners == null) {
+            changeListeners = new CopyOnWriteArrayList<>();
+        }
+        changeListeners.add(listener);
+    }
+
+
+    /**
+     * Removes the given listener.
+     *
+     * @param listener
+     * @return true, if the listener was registered
+     */
+    public boolean removeReportChangeListener(ReportChangeListener listener) {
+        return (changeListeners != null) && changeListeners.remove(listener);
+    }
+
+
+    /**
+     * Informs all registered listeners, that the report changes.
+     *
+     * @param kind the kind of the change
+     * @param fileID the affected file, null for all files
+     */
+    private void fireReportChanged(ChangeKind kind, Long fileID) {
+        if (changeListeners != null) {
+            ReportChangeEvent event = new ReportChangeEvent(this, kind, fileID);
+            changeListeners.forEach(listener -> listener.reportChanged(event));
+        }
+    }
+
+
 
     public double[] getPPMDeviationData(Long fileID, boolean fdrGood) {
         if (fdrGood && !isFDRCalculated(fileID)) {
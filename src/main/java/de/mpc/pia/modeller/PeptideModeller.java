@@ -8,6 +8,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -15,6 +16,7 @@ import java.util.stream.Collectors;
 import org.apache.log4j.Logger;
 
 import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.modeller.ReportChangeEvent.ChangeKind;
 import de.mpc.pia.modeller.peptide.PeptideExecuteCommands;
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import de.mpc.pia.modeller.peptide.ReportPeptideComparatorFactory;
@@ -67,6 +69,9 @@ public class PeptideModeller implements Serializable {
     /** whether to consider the modifications for building peptides or not */
     private boolean considerModifications;
 
+    /** the listeners, which are informed about changes of the report */
+    private transient List<ReportChangeListener> changeListeners;
+
 
     /** the default value for considering the modifications
      *  TODO: default value for considerModifications should be loaded from ini-file
@@ -175,6 +180,7 @@ public class PeptideModeller implements Serializable {
 
         // put this new list into the peptides' list
         fileReportPeptides.put(fileID, repList);
+        fireReportChanged(ChangeKind.REPORT_ITEMS, fileID);
         // this file is set
         inferePeptides.put(fileID, false);
         LOGGER.info("Inferred " + repList.size() + " peptides for " + fileID);
@@ -207,6 +213,7 @@ public class PeptideModeller implements Serializable {
             boolean ok = getFilters(fileID).add(newFilter);
             if (ok) {
                 inferePeptides.put(fileID, true);
+                fireReportChanged(ChangeKind.FILTERS, fileID);
             }
             return ok;
         } else {
@@ -230,6 +237,7 @@ public class PeptideModeller implements Serializable {
             AbstractFilter removed = filters.remove(removingIndex);
             if (removed != null) {
                 inferePeptides.put(fileID, true);
+                fireReportChanged(ChangeKind.FILTERS, fileID);
             }
             return removed;
         }
@@ -246,6 +254,46 @@ public class PeptideModeller implements Serializable {
 
         // everything should be new inferred
         inferePeptides.clear();
+        fireReportChanged(ChangeKind.FILTERS, null);
+    }
+
+
+    /**
+     * Registers a listener, which is informed about any changes of the
+     * peptides, filters, FDR values or ranking in this modeller.
+     *
+     * @param listener
+     */
+    public void addReportChangeListener(ReportChangeListener listener) {
+        if (changeListeners == null) {
+            changeListeners = new CopyOnWriteArrayList<>();
+        }
+        changeListeners.add(listener);
+    }
+
+
+    /**
+     * Removes the given listener.
+     *
+     * @param listener
+     * @return true, if the listener was registered
+     */
+    public boolean removeReportChangeListener(ReportChangeListener listener) {
+        return (changeListeners != null) && changeListeners.remove(listener);
+    }
+
+
+    /**
+     * Informs all registered listeners, that the report changes.
+     *
+     * @param kind the kind of the change
+     * @param fileID the affected file, null for all files
+     */
+    private void fireReportChanged(ChangeKind kind, Long fileID) {
+        if (changeListeners != null) {
+            ReportChangeEvent event = new ReportChangeEvent(this, kind, fileID);
+            changeListeners.forEach(listener -> listener.reportChanged(event));
+        }
     }
 
 
@@ -264,6 +312,7 @@ public class PeptideModeller implements Serializable {
      */
     public void setConsiderModifications(boolean considerMods) {
         this.considerModifications = considerMods;
+        fireReportChanged(ChangeKind.GENERAL_SETTINGS, null);
     }
 
 
@@ -279,6 +328,7 @@ public class PeptideModeller implements Serializable {
             // clearing the values means, the peptides for all files and the
             // overview should be inferred
             inferePeptides.clear();
+            fireReportChanged(ChangeKind.GENERAL_SETTINGS, null);
         }
     }
 
@@ -352,6 +402,7 @@ public class PeptideModeller implements Serializable {
             LOGGER.error("No score SHORT_NAME given for ranking calculation.");
             return;
         }
+        fireReportChanged(ChangeKind.RANKING, fileID);
 
         // first, dump all prior ranking
         List<ReportPeptide> reports = fileReportPeptides.get(fileID);
@@ -420,6 +471,7 @@ public class PeptideModeller implements Serializable {
      * @param fileID
      */
     public void calculateFDR(Long fileID) {
+        fireReportChanged(ChangeKind.FDR, fileID);
         FDRData fdrData = getFDRDataFromPSMLevel(fileID);
         fileFDRData.put(fileID, fdrData);
 
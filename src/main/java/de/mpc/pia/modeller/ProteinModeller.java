@@ -4,10 +4,12 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 
@@ -16,7 +18,9 @@ import de.mpc.pia.modeller.protein.ProteinExecuteCommands;
 import de.mpc.pia.modeller.protein.ReportProtein;
 import de.mpc.pia.modeller.protein.ReportProteinComparatorFactory;
 import de.mpc.pia.modeller.protein.inference.AbstractProteinInference;
+import de.mpc.pia.modeller.protein.inference.InferenceInputCache;
 import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.ProteinScoreValues;
 import de.mpc.pia.modeller.report.SortOrder;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
@@ -74,6 +78,12 @@ public class ProteinModeller  implements Serializable {
     /** the list of filters applied to the protein report */
     private List<AbstractFilter> reportFilters;
 
+    /** caches the filtered inputs of the inferences, invalidated on changes of the PSMs and peptides */
+    private transient InferenceInputCache inferenceInputCache;
+
+    /** the score values extracted from the report proteins, mapped by the scoring settings */
+    private transient Map<String, ProteinScoreValues> proteinScoreValues;
+
 
     // TODO: set these defaults in a file
     private static DecoyStrategy defaultDecoyStrategy = FDRData.DecoyStrategy.ACCESSIONPATTERN;
@@ -198,9 +208,11 @@ public class ProteinModeller  implements Serializable {
      */
     public void infereProteins(AbstractProteinInference proteinInference) {
         reportProteins = new ArrayList<>();
+        clearProteinScoreValues();
 
         if (proteinInference != null) {
             appliedProteinInference = proteinInference;
+            proteinInference.setInferenceInputCache(getInferenceInputCache());
             reportProteins = proteinInference.calculateInference(
                     intermediateGroups,
                     psmModeller.getReportPSMSets(),
@@ -230,6 +242,55 @@ public class ProteinModeller  implements Serializable {
     }
 
 
+    /**
+     * Returns the cache for the filtered inference inputs, which is
+     * registered at the PSM and peptide modeller for invalidation.
+     *
+     * @return
+     */
+    private InferenceInputCache getInferenceInputCache() {
+        if (inferenceInputCache == null) {
+            inferenceInputCache = new InferenceInputCache();
+            psmModeller.addReportChangeListener(inferenceInputCache);
+            peptideModeller.addReportChangeListener(inferenceInputCache);
+        }
+        return inferenceInputCache;
+    }
+
+
+    /**
+     * Returns the score values of the report proteins for the settings of the
+     * given scoring. The values are extracted only once for each score and
+     * PSMs for scoring setting and reused until the proteins or PSMs change.
+     *
+     * @param scoring
+     * @return
+     */
+    private synchronized ProteinScoreValues getProteinScoreValues(AbstractScoring scoring) {
+        if (proteinScoreValues == null) {
+            proteinScoreValues = new HashMap<>();
+
+            ReportChangeListener invalidator = event -> clearProteinScoreValues();
+            psmModeller.addReportChangeListener(invalidator);
+            peptideModeller.addReportChangeListener(invalidator);
+        }
+
+        String key = scoring.getScoreSetting().getValue() + ';'
+                + scoring.getPSMForScoringSetting().getValue();
+        return proteinScoreValues.computeIfAbsent(key, k -> scoring.extractScoreValues(reportProteins));
+    }
+
+
+    /**
+     * Removes all extracted score values of the report proteins.
+     */
+    private synchronized void clearProteinScoreValues() {
+        if (proteinScoreValues != null) {
+            proteinScoreValues.clear();
+        }
+    }
+
+
     /**
      * Returns the last applied inference filter.<br/>
      * If there was no filter or an error occurred during the inference, null
@@ -331,7 +392,7 @@ public class ProteinModeller  implements Serializable {
         }
 
         LOGGER.info("applying scoring method: " + scoring.getName());
-        scoring.calculateProteinScores(reportProteins);
+        scoring.calculateProteinScores(getProteinScoreValues(scoring));
         LOGGER.info("scoring done");
         appliedScoringMethod = scoring;
 
@@ -340,6 +401,46 @@ public class ProteinModeller  implements Serializable {
     }
 
 
+    /**
+     * Calculates the scores of all report proteins (and sub-proteins) with
+     * each of the given scorings, e.g. for comparing them, without setting
+     * them to the proteins. Scorings with the same score and PSMs for scoring
+     * setting are calculated in one pass over the extracted score values.
+     *
+     * @param scorings
+     * @return mapping from the proteins' IDs to the scores, in the order of
+     * the given scorings
+     */
+    public Map<Long, double[]> calculateScorings(List<AbstractScoring> scorings) {
+        Map<Long, double[]> proteinScores = new HashMap<>();
+        if (reportProteins == null) {
+            return proteinScores;
+        }
+
+        Map<ProteinScoreValues, List<Integer>> scoringIndices = new LinkedHashMap<>();
+        for (int idx = 0; idx < scorings.size(); idx++) {
+            scoringIndices.computeIfAbsent(getProteinScoreValues(scorings.get(idx)), k -> new ArrayList<>())
+                    .add(idx);
+        }
+
+        for (Map.Entry<ProteinScoreValues, List<Integer>> valuesIt : scoringIndices.entrySet()) {
+            List<AbstractScoring> valuesScorings = valuesIt.getValue().stream()
+                    .map(scorings::get)
+                    .collect(Collectors.toList());
+
+            for (Map.Entry<Long, double[]> scoresIt : valuesIt.getKey().calculateScores(valuesScorings).entrySet()) {
+                double[] scores = proteinScores.computeIfAbsent(scoresIt.getKey(),
+                        k -> new double[scorings.size()]);
+                for (int idx = 0; idx < valuesIt.getValue().size(); idx++) {
+                    scores[valuesIt.getValue().get(idx)] = scoresIt.getValue()[idx];
+                }
+            }
+        }
+
+        return proteinScores;
+    }
+
+
     /**
      * Getter for the protein FDR data
      * @return
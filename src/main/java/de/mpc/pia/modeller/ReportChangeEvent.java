@@ -0,0 +1,86 @@
+package de.mpc.pia.modeller;
+
+import java.util.EventObject;
+
+
+/**
+ * Event, which is fired by the PSM and peptide modeller, when their report
+ * changes. It holds the kind of the change and the ID of the affected file.
+ *
+ * @author julian
+ *
+ */
+public class ReportChangeEvent extends EventObject {
+
+    private static final long serialVersionUID = -2183518270139843306L;
+
+
+    /** the kind of the change */
+    private final ChangeKind kind;
+
+    /** the ID of the affected file, null if all files are affected */
+    private final Long fileID;
+
+
+    /**
+     * The kinds of changes of a report.
+     */
+    public enum ChangeKind {
+        /** the general settings changed, e.g. the PSM set creation or considering modifications */
+        GENERAL_SETTINGS,
+        /** the score ordering (higher score better) changed */
+        SCORE_ORDERING,
+        /** the report items of a file were newly created */
+        REPORT_ITEMS,
+        /** the filters of a file changed */
+        FILTERS,
+        /** the decoy states of a file changed */
+        DECOY_STATES,
+        /** the FDR values of a file were calculated */
+        FDR,
+        /** the ranking of a file was calculated */
+        RANKING,
+    }
+
+
+    /**
+     * Creates an event for the given modeller, kind and file.
+     *
+     * @param modeller the modeller, which fires the event
+     * @param kind the kind of the change
+     * @param fileID the ID of the affected file, null if all files are
+     * affected
+     */
+    public ReportChangeEvent(Object modeller, ChangeKind kind, Long fileID) {
+        super(modeller);
+        this.kind = kind;
+        this.fileID = fileID;
+    }
+
+
+    public ChangeKind getKind() {
+        return kind;
+    }
+
+
+    public Long getFileID() {
+        return fileID;
+    }
+
+
+    /**
+     * Returns whether the given file is affected by the change.
+     *
+     * @param checkFileID
+     * @return
+     */
+    public boolean affectsFile(Long checkFileID) {
+        return (fileID == null) || fileID.equals(checkFileID);
+    }
+
+
+    @Override
+    public String toString() {
+        return kind + " (fileID=" + fileID + ") in " + getSource().getClass().getSimpleName();
+    }
+}
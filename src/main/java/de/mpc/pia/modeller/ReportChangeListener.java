@@ -0,0 +1,22 @@
+package de.mpc.pia.modeller;
+
+import java.util.EventListener;
+
+
+/**
+ * Listener, which gets informed, when the report of a modeller changes, e.g.
+ * by new PSM sets, filters, decoy states or FDR calculations.
+ *
+ * @author julian
+ *
+ */
+public interface ReportChangeListener extends EventListener {
+
+    /**
+     * Called, when the report of a modeller changes.
+     *
+     * @param event describes the change and holds the modeller, which fired
+     * it, as source
+     */
+    void reportChanged(ReportChangeEvent event);
+}
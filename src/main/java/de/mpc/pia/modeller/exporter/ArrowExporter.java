@@ -0,0 +1,520 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.PSMModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.psm.PSMReportItem;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.score.FDRComputable;
+
+
+/**
+ * Exports the PSM, peptide or protein report into a columnar Apache Arrow IPC
+ * file, which can be read directly by e.g. pandas, polars, R or DuckDB.
+ * <p>
+ * Each row of the report becomes a row of the table, with typed columns for
+ * all values and one column per score. The accessions are stored as a list of
+ * dictionary encoded indices, so each accession string is stored only once
+ * per file.
+ * <p>
+ * On Java 9 and later, the Arrow memory needs the JVM option
+ * <code>--add-opens=java.base/java.nio=ALL-UNNAMED</code>, which is set in the
+ * manifest of the PIA jar and for the tests.
+ *
+ * @author julian
+ *
+ */
+public class ArrowExporter {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ArrowExporter.class);
+
+    /** the maximal number of rows in one record batch */
+    private static final int BATCH_SIZE = 8192;
+
+    /** the ID of the accessions' dictionary */
+    private static final long ACCESSIONS_DICTIONARY_ID = 0L;
+
+    /** the metadata key of a score column for the full score name */
+    private static final String SCORE_NAME_METADATA = "score_name";
+
+
+    /** the modeller, that should be exported */
+    private PIAModeller piaModeller;
+
+
+    public ArrowExporter(PIAModeller modeller) {
+        this.piaModeller = modeller;
+    }
+
+
+    /**
+     * Exports the (filtered) PSMs of the given file into the file. For the
+     * overview (fileID 0) the PSM sets are exported, if they are created.
+     *
+     * @param fileID
+     * @param exportFileName
+     * @param filterExport
+     * @return
+     */
+    public boolean exportPSMs(Long fileID, String exportFileName, boolean filterExport) {
+        return exportToFile(new File(exportFileName), out -> exportPSMs(fileID, out, filterExport));
+    }
+
+
+    /**
+     * Exports the (filtered) PSMs of the given file into the stream, which is
+     * closed afterwards.
+     *
+     * @param fileID
+     * @param exportStream
+     * @param filterExport
+     * @throws IOException
+     */
+    public void exportPSMs(Long fileID, OutputStream exportStream, boolean filterExport)
+            throws IOException {
+        PSMModeller psmModeller = piaModeller.getPSMModeller();
+        boolean psmSets = piaModeller.getCreatePSMSets() && fileID.equals(0L);
+
+        List<AbstractFilter> filters = filterExport ? psmModeller.getFilters(fileID) : null;
+        List<PSMReportItem> reportList = new ArrayList<>();
+        if (psmSets) {
+            reportList.addAll(psmModeller.getFilteredReportPSMSets(filters));
+        } else {
+            reportList.addAll(psmModeller.getFilteredReportPSMs(fileID, filters));
+        }
+
+        boolean fdrCalculated = Boolean.TRUE.equals(psmModeller.isFDRCalculated(fileID))
+                || (psmSets && psmModeller.isCombinedFDRScoreCalculated());
+        Map<String, Boolean> psmSetSettings = psmModeller.getPSMSetSettings();
+
+        AccessionDictionary accessions = new AccessionDictionary();
+        reportList.forEach(psm -> accessions.addAll(psm.getAccessions()));
+
+        List<Column<PSMReportItem>> columns = new ArrayList<>();
+        columns.add(utf8Column("psm_id", psm -> psm.getIdentificationKey(psmSetSettings)));
+        columns.add(utf8Column("sequence", PSMReportItem::getSequence));
+        columns.add(accessionsColumn("accessions", PSMReportItem::getAccessions, accessions));
+        columns.add(utf8Column("modifications", PSMReportItem::getModificationsString));
+        columns.add(intColumn("charge", PSMReportItem::getCharge));
+        columns.add(doubleColumn("mz", PSMReportItem::getMassToCharge));
+        columns.add(doubleColumn("delta_mass", PSMReportItem::getDeltaMass));
+        columns.add(doubleColumn("delta_ppm", PSMReportItem::getDeltaPPM));
+        columns.add(doubleColumn("retention_time", PSMReportItem::getRetentionTime));
+        columns.add(intColumn("missed_cleavages", PSMReportItem::getMissedCleavages));
+        columns.add(utf8Column("source_id", PSMReportItem::getSourceID));
+        columns.add(utf8Column("spectrum_title", PSMReportItem::getSpectrumTitle));
+        columns.add(boolColumn("decoy", PSMReportItem::getIsDecoy));
+        addScoreColumns(columns, psmModeller.getScoreShortNames(fileID));
+        addFDRColumns(columns, fdrCalculated);
+
+        try (BufferAllocator allocator = new RootAllocator()) {
+            writeTable(reportList, columns, accessions, allocator, exportStream);
+        }
+    }
+
+
+    /**
+     * Exports the (filtered) peptides of the given file into the file.
+     *
+     * @param fileID
+     * @param exportFileName
+     * @param filterExport
+     * @return
+     */
+    public boolean exportPeptides(Long fileID, String exportFileName, boolean filterExport) {
+        return exportToFile(new File(exportFileName), out -> exportPeptides(fileID, out, filterExport));
+    }
+
+
+    /**
+     * Exports the (filtered) peptides of the given file into the stream, which
+     * is closed afterwards.
+     *
+     * @param fileID
+     * @param exportStream
+     * @param filterExport
+     * @throws IOException
+     */
+    public void exportPeptides(Long fileID, OutputStream exportStream, boolean filterExport)
+            throws IOException {
+        List<AbstractFilter> filters = filterExport ? piaModeller.getPeptideModeller().getFilters(fileID) : null;
+        List<ReportPeptide> reportList =
+                piaModeller.getPeptideModeller().getFilteredReportPeptides(fileID, filters);
+
+        boolean fdrCalculated = Boolean.TRUE.equals(piaModeller.getPeptideModeller().isFDRCalculated(fileID));
+
+        AccessionDictionary accessions = new AccessionDictionary();
+        reportList.forEach(peptide -> accessions.addAll(peptide.getAccessions()));
+
+        List<Column<ReportPeptide>> columns = new ArrayList<>();
+        columns.add(utf8Column("peptide_id", ReportPeptide::getStringID));
+        columns.add(utf8Column("sequence", ReportPeptide::getSequence));
+        columns.add(accessionsColumn("accessions", ReportPeptide::getAccessions, accessions));
+        if (piaModeller.getConsiderModifications()) {
+            columns.add(utf8Column("modifications", peptide -> peptide.getPSMs().get(0).getModificationsString()));
+        }
+        columns.add(intColumn("nr_spectra", ReportPeptide::getNrSpectra));
+        columns.add(intColumn("nr_psms", ReportPeptide::getNrPSMs));
+        columns.add(intColumn("missed_cleavages", ReportPeptide::getMissedCleavages));
+        columns.add(boolColumn("decoy", ReportPeptide::getIsDecoy));
+        addScoreColumns(columns, piaModeller.getPeptideModeller().getScoreShortNames(fileID));
+        addFDRColumns(columns, fdrCalculated);
+
+        try (BufferAllocator allocator = new RootAllocator()) {
+            writeTable(reportList, columns, accessions, allocator, exportStream);
+        }
+    }
+
+
+    /**
+     * Exports the (filtered) proteins into the file.
+     *
+     * @param exportFileName
+     * @param filterExport
+     * @return
+     */
+    public boolean exportProteins(String exportFileName, boolean filterExport) {
+        return exportToFile(new File(exportFileName), out -> exportProteins(out, filterExport));
+    }
+
+
+    /**
+     * Exports the (filtered) proteins into the stream, which is closed
+     * afterwards.
+     *
+     * @param exportStream
+     * @param filterExport
+     * @throws IOException
+     */
+    public void exportProteins(OutputStream exportStream, boolean filterExport) throws IOException {
+        List<AbstractFilter> filters = filterExport ? piaModeller.getProteinModeller().getReportFilters() : null;
+        List<ReportProtein> reportList = piaModeller.getProteinModeller().getFilteredReportProteins(filters);
+
+        boolean fdrCalculated = piaModeller.getProteinModeller().getFDRData().getNrItems() != null;
+
+        AccessionDictionary accessions = new AccessionDictionary();
+        reportList.forEach(protein -> accessions.addAll(protein.getAccessions()));
+
+        List<Column<ReportProtein>> columns = new ArrayList<>();
+        columns.add(longColumn("protein_id", ReportProtein::getID));
+        columns.add(accessionsColumn("accessions", ReportProtein::getAccessions, accessions));
+        columns.add(doubleColumn("score", ReportProtein::getScore));
+        columns.add(doubleColumn("coverage",
+                protein -> protein.getCoverage(protein.getRepresentative().getAccession())));
+        columns.add(intColumn("nr_peptides", ReportProtein::getNrPeptides));
+        columns.add(intColumn("nr_psms", ReportProtein::getNrPSMs));
+        columns.add(intColumn("nr_spectra", ReportProtein::getNrSpectra));
+        columns.add(longColumn("cluster_id",
+                protein -> protein.getRepresentative().getGroup().getTreeID()));
+        columns.add(boolColumn("decoy", ReportProtein::getIsDecoy));
+        addFDRColumns(columns, fdrCalculated);
+
+        try (BufferAllocator allocator = new RootAllocator()) {
+            writeTable(reportList, columns, accessions, allocator, exportStream);
+        }
+    }
+
+
+    /**
+     * Opens the file and calls the export on its stream.
+     *
+     * @return whether the export was successful
+     */
+    private static boolean exportToFile(File exportFile, StreamExport export) {
+        LOGGER.info("start writing Arrow file " + exportFile.getAbsolutePath());
+        try (FileOutputStream fos = new FileOutputStream(exportFile)) {
+            export.exportTo(fos);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error writing Arrow file to " + exportFile.getAbsolutePath(), e);
+            return false;
+        }
+        LOGGER.info("Arrow export done.");
+        return true;
+    }
+
+
+    /**
+     * Adds one (nullable) column for each of the given scores.
+     */
+    private <T extends FDRComputable> void addScoreColumns(List<Column<T>> columns, List<String> scoreShorts) {
+        Map<String, String> scoreNames = piaModeller.getPSMModeller().getScoreShortsToScoreNames();
+
+        for (String scoreShort : scoreShorts) {
+            Map<String, String> metadata = null;
+            if (scoreNames.containsKey(scoreShort)) {
+                metadata = Collections.singletonMap(SCORE_NAME_METADATA, scoreNames.get(scoreShort));
+            }
+
+            Field field = new Field(scoreShort,
+                    new FieldType(true, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), null, metadata),
+                    null);
+            columns.add(new Column<>(field,
+                    (vector, row, item) -> setDouble((Float8Vector) vector, row, item.getScore(scoreShort))));
+        }
+    }
+
+
+    /**
+     * Adds the columns for the FDR and q-value, which are null, if no FDR was
+     * calculated.
+     */
+    private static <T extends FDRComputable> void addFDRColumns(
+            List<Column<T>> columns, boolean fdrCalculated) {
+        columns.add(doubleColumn("fdr", item -> fdrCalculated ? item.getFDR() : null));
+        columns.add(doubleColumn("q_value", item -> fdrCalculated ? item.getQValue() : null));
+    }
+
+
+    /**
+     * Writes the items as record batches with the given columns into the
+     * stream. The vectors are allocated by the allocator of the export.
+     *
+     * @throws IOException
+     */
+    private static <T> void writeTable(List<T> items, List<Column<T>> columns,
+            AccessionDictionary accessions, BufferAllocator allocator, OutputStream exportStream)
+            throws IOException {
+        List<Field> fields = new ArrayList<>(columns.size());
+        columns.forEach(column -> fields.add(column.field));
+
+        try (VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+                VarCharVector dictionaryVector = accessions.createVector(allocator)) {
+            DictionaryProvider.MapDictionaryProvider provider = new DictionaryProvider.MapDictionaryProvider();
+            provider.put(new Dictionary(dictionaryVector, AccessionDictionary.ENCODING));
+
+            try (ArrowFileWriter writer = new ArrowFileWriter(root, provider, Channels.newChannel(exportStream))) {
+                writer.start();
+
+                for (int from = 0; from < items.size(); from += BATCH_SIZE) {
+                    int to = Math.min(from + BATCH_SIZE, items.size());
+
+                    root.allocateNew();
+                    for (int idx = from; idx < to; idx++) {
+                        T item = items.get(idx);
+                        for (int col = 0; col < columns.size(); col++) {
+                            columns.get(col).setter.set(root.getVector(col), idx - from, item);
+                        }
+                    }
+                    root.setRowCount(to - from);
+
+                    writer.writeBatch();
+                }
+
+                writer.end();
+            }
+        }
+
+        LOGGER.info(items.size() + " rows written");
+    }
+
+
+    private static <T> Column<T> utf8Column(String name, Function<T, String> value) {
+        return new Column<>(Field.nullable(name, new ArrowType.Utf8()),
+                (vector, row, item) -> {
+                    String str = value.apply(item);
+                    if (str == null) {
+                        ((VarCharVector) vector).setNull(row);
+                    } else {
+                        ((VarCharVector) vector).setSafe(row, str.getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+    }
+
+
+    private static <T> Column<T> intColumn(String name, Function<T, Integer> value) {
+        return new Column<>(Field.nullable(name, new ArrowType.Int(32, true)),
+                (vector, row, item) -> {
+                    Integer nr = value.apply(item);
+                    if (nr == null) {
+                        ((IntVector) vector).setNull(row);
+                    } else {
+                        ((IntVector) vector).setSafe(row, nr);
+                    }
+                });
+    }
+
+
+    private static <T> Column<T> longColumn(String name, Function<T, Long> value) {
+        return new Column<>(Field.nullable(name, new ArrowType.Int(64, true)),
+                (vector, row, item) -> {
+                    Long nr = value.apply(item);
+                    if (nr == null) {
+                        ((BigIntVector) vector).setNull(row);
+                    } else {
+                        ((BigIntVector) vector).setSafe(row, nr);
+                    }
+                });
+    }
+
+
+    private static <T> Column<T> doubleColumn(String name, Function<T, Double> value) {
+        return new Column<>(Field.nullable(name, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+                (vector, row, item) -> setDouble((Float8Vector) vector, row, value.apply(item)));
+    }
+
+
+    private static <T> Column<T> boolColumn(String name, Function<T, Boolean> value) {
+        return new Column<>(Field.nullable(name, ArrowType.Bool.INSTANCE),
+                (vector, row, item) -> {
+                    Boolean bool = value.apply(item);
+                    if (bool == null) {
+                        ((BitVector) vector).setNull(row);
+                    } else {
+                        ((BitVector) vector).setSafe(row, bool ? 1 : 0);
+                    }
+                });
+    }
+
+
+    /**
+     * Creates a column with the list of dictionary encoded accessions.
+     */
+    private static <T> Column<T> accessionsColumn(String name, Function<T, List<Accession>> value,
+            AccessionDictionary dictionary) {
+        Field indexField = new Field("accession",
+                new FieldType(true, AccessionDictionary.INDEX_TYPE, AccessionDictionary.ENCODING), null);
+        Field field = new Field(name, FieldType.nullable(ArrowType.List.INSTANCE),
+                Collections.singletonList(indexField));
+
+        return new Column<>(field,
+                (vector, row, item) -> {
+                    ListVector listVector = (ListVector) vector;
+                    IntVector indices = (IntVector) listVector.getDataVector();
+                    List<Accession> accessions = value.apply(item);
+
+                    int start = listVector.startNewValue(row);
+                    for (int idx = 0; idx < accessions.size(); idx++) {
+                        indices.setSafe(start + idx, dictionary.getIndex(accessions.get(idx)));
+                    }
+                    listVector.endValue(row, accessions.size());
+                });
+    }
+
+
+    /**
+     * Sets the double value, NaN and null are stored as null.
+     */
+    private static void setDouble(Float8Vector vector, int row, Double value) {
+        if ((value == null) || value.isNaN()) {
+            vector.setNull(row);
+        } else {
+            vector.setSafe(row, value);
+        }
+    }
+
+
+    /**
+     * Exports into an opened stream.
+     */
+    @FunctionalInterface
+    private interface StreamExport {
+        void exportTo(OutputStream out) throws IOException;
+    }
+
+
+    /**
+     * Sets the value of an item in the vector of the column.
+     */
+    @FunctionalInterface
+    private interface ValueSetter<T> {
+        void set(FieldVector vector, int row, T item);
+    }
+
+
+    /**
+     * A column of the exported table.
+     */
+    private static class Column<T> {
+        private final Field field;
+
+        private final ValueSetter<T> setter;
+
+
+        private Column(Field field, ValueSetter<T> setter) {
+            this.field = field;
+            this.setter = setter;
+        }
+    }
+
+
+    /**
+     * The dictionary of all accessions in an exported table.
+     */
+    private static class AccessionDictionary {
+        /** the type of the indices */
+        private static final ArrowType.Int INDEX_TYPE = new ArrowType.Int(32, true);
+
+        /** the encoding of the accessions */
+        private static final DictionaryEncoding ENCODING =
+                new DictionaryEncoding(ACCESSIONS_DICTIONARY_ID, false, INDEX_TYPE);
+
+        /** the accession strings to their indices */
+        private final Map<String, Integer> indices = new LinkedHashMap<>();
+
+
+        private void addAll(List<Accession> accessions) {
+            for (Accession accession : accessions) {
+                indices.putIfAbsent(accession.getAccession(), indices.size());
+            }
+        }
+
+
+        private int getIndex(Accession accession) {
+            return indices.get(accession.getAccession());
+        }
+
+
+        /**
+         * Creates the vector of the dictionary values, ordered by their index.
+         */
+        private VarCharVector createVector(BufferAllocator allocator) {
+            VarCharVector vector = new VarCharVector("accessions_dictionary", allocator);
+            vector.allocateNew(indices.size());
+
+            int idx = 0;
+            for (String accession : indices.keySet()) {
+                vector.setSafe(idx++, accession.getBytes(StandardCharsets.UTF_8));
+            }
+            vector.setValueCount(indices.size());
+
+            return vector;
+        }
+    }
+}
@@ -7,10 +7,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -68,6 +71,37 @@ public class CSVExporter {
     /** mapping from the schoreShorts to the score names */
     private Map<String, String> scoreShortsToNames;
 
+    /** the score shorts of the exported PSMs (and PSM sets) */
+    private List<String> psmScoreShorts;
+
+    /** the quoted columns of the PSMs' score names and shorts */
+    private String psmScoreColumns;
+
+    /** the score shorts of the exported peptides */
+    private List<String> peptideScoreShorts;
+
+    /** the quoted columns of the peptides' score names and shorts */
+    private String peptideScoreColumns;
+
+    /** caches the descriptions of the accessions, mapped by the accession strings */
+    private Map<String, String> accessionDescriptions;
+
+    /** the peptides, which are exported in more than one protein */
+    private Set<ReportPeptide> sharedPeptides;
+
+    /** caches the rendered rows of the shared peptides (and the levels below), the peptides are compared by identity */
+    private Map<ReportPeptide, String> sharedPeptideBlocks;
+
+    /** the number of threads used to render the protein blocks */
+    private int nrThreads;
+
+
+    /** the number of proteins, which are rendered by a worker at once */
+    private static final int PROTEIN_CHUNK_SIZE = 64;
+
+    /** the size of the row buffer, before it is written out */
+    private static final int FLUSH_SIZE = 65536;
+
     // the column headers
     private static final String HEADER_COLS_PROTEIN = "\"COLS_PROTEIN\"";
     private static final String HEADER_COLS_PEPTIDE = "\"COLS_PEPTIDE\"";
@@ -109,6 +143,28 @@ public class CSVExporter {
      */
     public CSVExporter(PIAModeller modeller) {
         this.piaModeller = modeller;
+        this.nrThreads = 0;
+    }
+
+
+    /**
+     * Sets the number of threads used to render the protein blocks. If set to
+     * anything below 1, all available processors are used.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        nrThreads = threads;
+    }
+
+
+    /**
+     * Getter for the number of threads used to render the protein blocks.
+     *
+     * @return
+     */
+    public int getNrThreads() {
+        return nrThreads;
     }
 
 
@@ -186,12 +242,25 @@ public class CSVExporter {
 
         scoreShortsToNames = piaModeller.getPSMModeller().getScoreShortsToScoreNames();
 
+        accessionDescriptions = new ConcurrentHashMap<>();
+        sharedPeptides = Collections.newSetFromMap(new IdentityHashMap<>());
+        sharedPeptideBlocks = new ConcurrentHashMap<>();
+
         LOGGER.info("start writing CSV file");
         try {
             outWriter = new BufferedWriter(exportWriter);
 
             writeHeader(outWriter);
 
+            if (peptideLevel) {
+                peptideScoreShorts = piaModeller.getPeptideModeller().getScoreShortNames(exportFileID);
+                peptideScoreColumns = createScoreColumns(peptideScoreShorts);
+            }
+            if (includePSMSets || psmLevel) {
+                psmScoreShorts = piaModeller.getPSMModeller().getScoreShortNames(exportFileID);
+                psmScoreColumns = createScoreColumns(psmScoreShorts);
+            }
+
             if (proteinLevel) {
                 writeStartAtProteinLevel();
             } else if (peptideLevel) {
@@ -206,6 +275,10 @@ public class CSVExporter {
             LOGGER.error("Error writing the CSV file", e);
             error = true;
         } finally {
+            sharedPeptides = null;
+            sharedPeptideBlocks = null;
+            accessionDescriptions = null;
+
             try {
                 outWriter.close();
                 LOGGER.info("CSV export done.");
@@ -315,7 +388,10 @@ public class CSVExporter {
 
 
     /**
-     * Writes out the data starting at the protein level
+     * Writes out the data starting at the protein level. The blocks of the
+     * proteins (with the levels below) are independent of each other, so they
+     * are rendered in parallel and written in their order.
+     *
      * @throws IOException
      */
     private void writeStartAtProteinLevel() throws IOException {
@@ -327,40 +403,35 @@ public class CSVExporter {
             return;
         }
 
-        for (ReportProtein protein : reportList) {
-            outWriter.append("PROTEIN").append(SEPARATOR);
-
-            appendQuoted(outWriter, createAccessionsString(protein.getAccessions()));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getScore().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createCoveragesString(protein));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrPeptides().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrPSMs().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrSpectra().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, String.valueOf(protein.getAccessions().get(0).getGroup().getTreeID()));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createDescriptionsString(protein.getAccessions()));
-
-            if (proteinFDR) {
-                outWriter.append(SEPARATOR);
-                appendQuoted(outWriter, String.valueOf(protein.getIsDecoy()));
-                outWriter.append(SEPARATOR);
-                appendQuoted(outWriter, String.valueOf(protein.getFDR()));
-            }
+        // the blocks are rendered concurrently, so the coverages and spectra are resolved beforehand
+        LazyReportValues.resolveProteins(reportList);
 
-            outWriter.append(NEWLINE);
-
-            if (peptideLevel || includePSMSets || psmLevel) {
+        boolean writePeptides = peptideLevel || includePSMSets || psmLevel;
+        if (writePeptides) {
+            // peptides in more than one protein are rendered only once
+            Set<ReportPeptide> seenPeptides = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ReportProtein protein : reportList) {
                 for (ReportPeptide peptide : protein.getPeptides()) {
-                    writePeptide(peptide);
+                    if (!seenPeptides.add(peptide)) {
+                        sharedPeptides.add(peptide);
+                    }
                 }
             }
         }
+
+        OrderedRowWriter.writeRows(outWriter, reportList.size(), PROTEIN_CHUNK_SIZE, nrThreads,
+                (from, to, chunk, rows) -> {
+                    for (int idx = from; idx < to; idx++) {
+                        ReportProtein protein = reportList.get(idx);
+                        appendProtein(protein, rows);
+
+                        if (writePeptides) {
+                            for (ReportPeptide peptide : protein.getPeptides()) {
+                                appendPeptideBlock(peptide, rows);
+                            }
+                        }
+                    }
+                }, (from, to) -> {});
     }
 
 
@@ -378,9 +449,12 @@ public class CSVExporter {
             return;
         }
 
+        StringBuilder rows = new StringBuilder(FLUSH_SIZE);
         for (ReportPeptide peptide : reportList) {
-            writePeptide(peptide);
+            appendPeptideBlock(peptide, rows);
+            flushIfFull(rows);
         }
+        outWriter.append(rows);
     }
 
 
@@ -398,9 +472,12 @@ public class CSVExporter {
             return;
         }
 
+        StringBuilder rows = new StringBuilder(FLUSH_SIZE);
         for (ReportPSMSet psmSet : reportList) {
-            writePSMSet(psmSet);
+            appendPSMSet(psmSet, rows);
+            flushIfFull(rows);
         }
+        outWriter.append(rows);
     }
 
 
@@ -417,254 +494,383 @@ public class CSVExporter {
             return;
         }
 
-        for (ReportPSM psmSet : reportList) {
-            writePSM(psmSet);
+        StringBuilder rows = new StringBuilder(FLUSH_SIZE);
+        for (ReportPSM psm : reportList) {
+            appendPSM(psm, rows);
+            flushIfFull(rows);
         }
+        outWriter.append(rows);
     }
 
 
     /**
-     * Writes the data of a single peptide (and the levels below)
+     * Writes the rows to the writer and clears them, if the buffer is full.
      *
+     * @param rows
      * @throws IOException
      */
-    private void writePeptide(ReportPeptide peptide) throws IOException {
+    private void flushIfFull(StringBuilder rows) throws IOException {
+        if (rows.length() >= FLUSH_SIZE) {
+            outWriter.append(rows);
+            rows.setLength(0);
+        }
+    }
+
+
+    /**
+     * Appends the row of a single protein
+     *
+     * @param protein
+     * @param rows
+     */
+    private void appendProtein(ReportProtein protein, StringBuilder rows) {
+        rows.append("PROTEIN").append(SEPARATOR);
+
+        List<Accession> accessions = protein.getAccessions();
+
+        rows.append('"');
+        appendAccessions(accessions, rows);
+        rows.append('"').append(SEPARATOR);
+        appendQuoted(rows, protein.getScore());
+        rows.append(SEPARATOR);
+        rows.append('"');
+        appendCoverages(protein, rows);
+        rows.append('"').append(SEPARATOR);
+        appendQuoted(rows, protein.getNrPeptides());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, protein.getNrPSMs());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, protein.getNrSpectra());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, accessions.get(0).getGroup().getTreeID());
+        rows.append(SEPARATOR);
+        rows.append('"');
+        appendDescriptions(accessions, rows);
+        rows.append('"');
+
+        if (proteinFDR) {
+            rows.append(SEPARATOR);
+            appendQuoted(rows, protein.getIsDecoy());
+            rows.append(SEPARATOR);
+            appendQuoted(rows, protein.getFDR());
+        }
+
+        rows.append(NEWLINE);
+    }
+
+
+    /**
+     * Appends the rows of a single peptide and the levels below. The rows of
+     * peptides, which are reported in more than one protein, are cached.
+     *
+     * @param peptide
+     * @param rows
+     */
+    private void appendPeptideBlock(ReportPeptide peptide, StringBuilder rows) {
+        if (!sharedPeptides.contains(peptide)) {
+            appendPeptide(peptide, rows);
+            return;
+        }
+
+        rows.append(sharedPeptideBlocks.computeIfAbsent(peptide, sharedPeptide -> {
+            StringBuilder blockSB = new StringBuilder();
+            appendPeptide(sharedPeptide, blockSB);
+            return blockSB.toString();
+        }));
+    }
+
+
+    /**
+     * Appends the data of a single peptide (and the levels below)
+     */
+    private void appendPeptide(ReportPeptide peptide, StringBuilder rows) {
         if (peptideLevel) {
             //the peptide level should be written
-            outWriter.append("PEPTIDE").append(SEPARATOR);
+            rows.append("PEPTIDE").append(SEPARATOR);
 
-            appendQuoted(outWriter, peptide.getSequence());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createAccessionsString(peptide.getAccessions()));
-            outWriter.append(SEPARATOR);
+            appendQuoted(rows, peptide.getSequence());
+            rows.append(SEPARATOR);
+            rows.append('"');
+            appendAccessions(peptide.getAccessions(), rows);
+            rows.append('"').append(SEPARATOR);
 
             if (considerModifications) {
-                appendQuoted(outWriter, peptide.getPSMs().get(0).getModificationsString());
-                outWriter.append(SEPARATOR);
+                appendQuoted(rows, peptide.getPSMs().get(0).getModificationsString());
+                rows.append(SEPARATOR);
             }
 
-            appendQuoted(outWriter, peptide.getNrSpectra().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, peptide.getNrPSMs().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, String.valueOf(peptide.getMissedCleavages()));
-            outWriter.append(SEPARATOR);
-            writeScores(peptide, piaModeller.getPeptideModeller().getScoreShortNames(exportFileID));
+            appendQuoted(rows, peptide.getNrSpectra());
+            rows.append(SEPARATOR);
+            appendQuoted(rows, peptide.getNrPSMs());
+            rows.append(SEPARATOR);
+            appendQuoted(rows, peptide.getMissedCleavages());
+            rows.append(SEPARATOR);
+            appendScores(peptide, peptideScoreShorts, peptideScoreColumns, rows);
 
-            outWriter.append(NEWLINE);
+            rows.append(NEWLINE);
         }
 
-        writePeptidesPSMorSet(peptide);
+        appendPeptidesPSMorSet(peptide, rows);
     }
 
 
     /**
-     * Writes the PSM sets or just the PSMs of the given peptide
+     * Appends the PSM sets or just the PSMs of the given peptide
      *
      * @param peptide
-     * @throws IOException
+     * @param rows
      */
-    private void writePeptidesPSMorSet(ReportPeptide peptide) throws IOException {
-
+    private void appendPeptidesPSMorSet(ReportPeptide peptide, StringBuilder rows) {
         if (includePSMSets) {
             for (PSMReportItem psmSet : peptide.getPSMs()) {
                 if (psmSet instanceof ReportPSMSet) {
-                    writePSMSet((ReportPSMSet)psmSet);
+                    appendPSMSet((ReportPSMSet)psmSet, rows);
                 }
             }
         } else if (psmLevel) {
-            List<ReportPSM> psmList = new ArrayList<>();
             for (PSMReportItem psm : peptide.getPSMs()) {
                 if (psm instanceof ReportPSMSet) {
-                    psmList.addAll(((ReportPSMSet) psm).getPSMs());
+                    for (ReportPSM setPSM : ((ReportPSMSet) psm).getPSMs()) {
+                        appendPSM(setPSM, rows);
+                    }
                 } else if (psm instanceof ReportPSM) {
-                    psmList.add((ReportPSM) psm);
+                    appendPSM((ReportPSM) psm, rows);
                 }
             }
-
-            for (ReportPSM psm : psmList) {
-                writePSM(psm);
-            }
         }
     }
 
 
     /**
-     * Writes the data of a single PSM set (and the levels below)
-     *
-     * @throws IOException
+     * Appends the data of a single PSM set (and the levels below)
      */
-    private void writePSMSet(ReportPSMSet psmSet) throws IOException {
+    private void appendPSMSet(ReportPSMSet psmSet, StringBuilder rows) {
         if (includePSMSets) {
             //psmSets
-            writePSMorPSMSet(psmSet);
+            appendPSMorPSMSet(psmSet, rows);
         }
 
         if (psmLevel) {
             for (ReportPSM psm : psmSet.getPSMs()) {
-                writePSM(psm);
+                appendPSM(psm, rows);
             }
         }
     }
 
+
     /**
-     * Writes the data of a single PSM set (and the levels below)
-     *
-     * @throws IOException
+     * Appends the data of a single PSM
      */
-    private void writePSM(ReportPSM psm) throws IOException {
+    private void appendPSM(ReportPSM psm, StringBuilder rows) {
         if (psmLevel) {
-            writePSMorPSMSet(psm);
+            appendPSMorPSMSet(psm, rows);
         }
     }
 
 
     /**
-     * Writes the data of a single PSM or PSMset
-     *
-     * @throws IOException
+     * Appends the data of a single PSM or PSMset
      */
-    private void writePSMorPSMSet(PSMReportItem psm) throws IOException {
+    private void appendPSMorPSMSet(PSMReportItem psm, StringBuilder rows) {
         boolean isSet;
         if (psm instanceof ReportPSMSet) {
             isSet = true;
-            outWriter.append("PSMSET").append(SEPARATOR);
+            rows.append("PSMSET").append(SEPARATOR);
         } else {
             isSet = false;
-            outWriter.append("PSM").append(SEPARATOR);
+            rows.append("PSM").append(SEPARATOR);
         }
 
-        appendQuoted(outWriter, psm.getSequence());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, createAccessionsString(psm.getAccessions()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, createAccessionsString(psm.getAccessions()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, psm.getModificationsString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getIsDecoy()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getCharge()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getMassToCharge()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getDeltaMass()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getDeltaPPM()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getRetentionTime()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getMissedCleavages()));
-        outWriter.append(SEPARATOR);
+        appendQuoted(rows, psm.getSequence());
+        rows.append(SEPARATOR);
+
+        // the accessions are written twice, render them only once
+        int accessionsStart = rows.length();
+        rows.append('"');
+        appendAccessions(psm.getAccessions(), rows);
+        rows.append('"');
+        rows.append(SEPARATOR);
+        rows.append(rows, accessionsStart, rows.length() - SEPARATOR.length());
+        rows.append(SEPARATOR);
+
+        appendQuoted(rows, psm.getModificationsString());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getIsDecoy());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getCharge());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getMassToCharge());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getDeltaMass());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getDeltaPPM());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getRetentionTime());
+        rows.append(SEPARATOR);
+        appendQuoted(rows, psm.getMissedCleavages());
+        rows.append(SEPARATOR);
 
         if (isSet) {
-            appendQuoted(outWriter, String.valueOf(((ReportPSMSet) psm).getPSMs().size()));
-            outWriter.append(SEPARATOR);
+            appendQuoted(rows, ((ReportPSMSet) psm).getPSMs().size());
+            rows.append(SEPARATOR);
         } else {
-            appendQuoted(outWriter, psm.getSourceID());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, psm.getSpectrumTitle());
-            outWriter.append(SEPARATOR);
+            appendQuoted(rows, psm.getSourceID());
+            rows.append(SEPARATOR);
+            appendQuoted(rows, psm.getSpectrumTitle());
+            rows.append(SEPARATOR);
         }
 
-        writeScores(psm, piaModeller.getPSMModeller().getScoreShortNames(exportFileID));
+        appendScores(psm, psmScoreShorts, psmScoreColumns, rows);
 
-        outWriter.append(NEWLINE);
+        rows.append(NEWLINE);
     }
 
 
     /**
-     * Create a string representation of the given accessions
-     * @return
+     * Appends the accessions separated by {@link #MULTIVALUE_SEPARATOR}
      */
-    private static String createAccessionsString(Collection<Accession> accessions) {
-        StringBuilder accSB = new StringBuilder();
+    private static void appendAccessions(Collection<Accession> accessions, StringBuilder rows) {
+        boolean first = true;
         for (Accession accession : accessions) {
-            if (accSB.length() > 0) {
-                accSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                rows.append(MULTIVALUE_SEPARATOR);
             }
-            accSB.append(accession.getAccession());
+            rows.append(accession.getAccession());
+            first = false;
         }
-
-        return accSB.toString();
     }
 
 
     /**
-     * Create a string representation of the protein's accessions' coverages
-     *
-     * @return
+     * Appends the protein's accessions' coverages
      */
-    private static String createCoveragesString(ReportProtein protein) {
-        StringBuilder coverageSB = new StringBuilder();
-
+    private static void appendCoverages(ReportProtein protein, StringBuilder rows) {
+        boolean first = true;
         for (Accession accession : protein.getAccessions()) {
-            if (coverageSB.length() > 0) {
-                coverageSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                rows.append(MULTIVALUE_SEPARATOR);
             }
 
             Double coverage = protein.getCoverage(accession.getAccession());
             if (coverage.equals(Double.NaN)) {
-                coverageSB.append("NA");
+                rows.append("NA");
             } else {
-                coverageSB.append(coverage);
+                rows.append(coverage.doubleValue());
             }
+            first = false;
         }
-
-        return coverageSB.toString();
     }
 
 
     /**
-     * Create a string representation of the protein's accessions' descriptions
-     *
-     * @return
+     * Appends the protein's accessions' descriptions, which are cached per
+     * accession.
      */
-    private String createDescriptionsString(Collection<Accession> accessions) {
-        StringBuilder accSB = new StringBuilder();
+    private void appendDescriptions(Collection<Accession> accessions, StringBuilder rows) {
+        boolean first = true;
         for (Accession accession : accessions) {
-            if (accSB.length() > 0) {
-                accSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                rows.append(MULTIVALUE_SEPARATOR);
             }
-            accSB.append(accession.getDescription(exportFileID));
+            rows.append(accessionDescriptions.computeIfAbsent(accession.getAccession(),
+                    acc -> String.valueOf(accession.getDescription(exportFileID))));
+            first = false;
         }
+    }
 
-        return accSB.toString();
+
+    /**
+     * Appends the given value quoted to the rows
+     */
+    private static void appendQuoted(StringBuilder rows, String value) {
+        rows.append('"').append(value).append('"');
     }
 
+
     /**
-     * Appends the given String-value to the writer
+     * Appends the given value quoted to the rows
+     */
+    private static void appendQuoted(StringBuilder rows, Object value) {
+        rows.append('"').append(value).append('"');
+    }
+
+
+    /**
+     * Appends the given value quoted to the rows
+     */
+    private static void appendQuoted(StringBuilder rows, long value) {
+        rows.append('"').append(value).append('"');
+    }
+
+
+    /**
+     * Appends the given value quoted to the rows
+     */
+    private static void appendQuoted(StringBuilder rows, double value) {
+        rows.append('"').append(value).append('"');
+    }
+
+
+    /**
+     * Appends the given value quoted to the rows
+     */
+    private static void appendQuoted(StringBuilder rows, boolean value) {
+        rows.append('"').append(value).append('"');
+    }
+
+
+    /**
+     * Appends the scores of the item and the (pre-rendered) columns of the
+     * score names and shorts.
      *
-     * @param writer
-     * @param value
-     * @throws IOException
+     * @param item
+     * @param scoreShorts
+     * @param scoreColumns the quoted columns of the score names and shorts
+     * @param rows
      */
-    private static void appendQuoted(Writer writer, String value) throws IOException {
-        writer.append('"').append(value).append('"');
+    private static void appendScores(Rankable item, List<String> scoreShorts, String scoreColumns,
+            StringBuilder rows) {
+        rows.append('"');
+        boolean first = true;
+        for (String scoreShort : scoreShorts) {
+            if (!first) {
+                rows.append(MULTIVALUE_SEPARATOR);
+            }
+            rows.append(item.getScore(scoreShort));
+            first = false;
+        }
+        rows.append('"');
+
+        rows.append(scoreColumns);
     }
 
-    private void writeScores(Rankable item, List<String> scoreShorts) throws IOException {
-        StringBuilder scoresSB = new StringBuilder();
+
+    /**
+     * Renders the columns of the score names and shorts, which are the same
+     * for all items of a level.
+     *
+     * @param scoreShorts
+     * @return
+     */
+    private String createScoreColumns(List<String> scoreShorts) {
         StringBuilder scoreNamesSB = new StringBuilder();
         StringBuilder scoreShortsSB = new StringBuilder();
 
         for (String scoreShort : scoreShorts) {
-            if (scoresSB.length() > 0) {
-                scoresSB.append(MULTIVALUE_SEPARATOR);
+            if (scoreShortsSB.length() > 0) {
                 scoreNamesSB.append(MULTIVALUE_SEPARATOR);
                 scoreShortsSB.append(MULTIVALUE_SEPARATOR);
             }
 
-            scoresSB.append(item.getScore(scoreShort));
             scoreNamesSB.append(scoreShortsToNames.get(scoreShort));
             scoreShortsSB.append(scoreShort);
         }
 
-        appendQuoted(outWriter, scoresSB.toString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, scoreNamesSB.toString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, scoreShortsSB.toString());
+        StringBuilder columns = new StringBuilder(SEPARATOR);
+        appendQuoted(columns, scoreNamesSB.toString());
+        columns.append(SEPARATOR);
+        appendQuoted(columns, scoreShortsSB.toString());
+        return columns.toString();
     }
 
-}
\ No newline at end of file
+}
@@ -1,18 +1,21 @@
 package de.mpc.pia.modeller.exporter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -60,8 +63,71 @@ public class IdXMLExporter {
 
 
 
+    /** the number of PeptideIdentifications rendered together by one thread */
+    private static final int PEPTIDE_IDENTIFICATIONS_CHUNK_SIZE = 256;
+
+    /** the depth of the PeptideIdentification elements in the XML */
+    private static final int PEPTIDE_IDENTIFICATION_DEPTH = 2;
+
+    /** one step of the indentation, as used by the {@link IndentingXMLStreamWriter} */
+    private static final String INDENT_STEP = "  ";
+
+
+    /** the number of threads used to render the PeptideIdentifications */
+    private int nrThreads;
+
+    /** whether the XML should be indented */
+    private boolean indentation;
+
+
+
     public IdXMLExporter(PIAModeller modeller) {
         this.piaModeller = modeller;
+        this.nrThreads = 0;
+        this.indentation = true;
+    }
+
+
+    /**
+     * Sets the number of threads used to render the PeptideIdentifications.
+     * If set to anything below 1, all available processors are used.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        nrThreads = threads;
+    }
+
+
+    /**
+     * Getter for the number of threads used to render the
+     * PeptideIdentifications.
+     *
+     * @return
+     */
+    public int getNrThreads() {
+        return nrThreads;
+    }
+
+
+    /**
+     * Sets whether the XML should be indented, which is the default. Without
+     * indentation the files get considerably smaller.
+     *
+     * @param indentation
+     */
+    public void setIndentation(boolean indentation) {
+        this.indentation = indentation;
+    }
+
+
+    /**
+     * Getter for whether the XML is indented.
+     *
+     * @return
+     */
+    public boolean getIndentation() {
+        return indentation;
     }
 
 
@@ -80,11 +146,15 @@ public class IdXMLExporter {
             boolean proteinLevel, boolean filterExport) {
         boolean error = false;
 
-        try (OutputStream out = new FileOutputStream(exportFile, false)) {
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(exportFile, false), StandardCharsets.UTF_8))) {
             // create an XMLOutputFactory
             String encoding = StandardCharsets.UTF_8.name();
             XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-            XMLStreamWriter streamWriter = new IndentingXMLStreamWriter(outputFactory.createXMLStreamWriter(out, encoding));
+            XMLStreamWriter streamWriter = outputFactory.createXMLStreamWriter(out);
+            if (indentation) {
+                streamWriter = new IndentingXMLStreamWriter(streamWriter);
+            }
             
             // write common idXML header
             streamWriter.writeStartDocument(encoding, "1.0");
@@ -122,7 +192,7 @@ public class IdXMLExporter {
                         false);
             }
 
-            writeIdentificationRun(streamWriter, fileID, inputFileIDToSearchParameter.get(fileID),
+            writeIdentificationRun(streamWriter, out, fileID, inputFileIDToSearchParameter.get(fileID),
                     proteinLevel, filterExport);
 
             // close the idXML and the XML
@@ -192,16 +262,22 @@ public class IdXMLExporter {
 
 
     /**
-     * Writes the IdentificationRun to the XML file
+     * Writes the IdentificationRun to the XML file. The filtered PSMs are
+     * passed twice: the first pass writes the ProteinHits, the second one
+     * streams the PeptideIdentifications, which are rendered in parallel and
+     * written directly to the outWriter.
+     *
      * @param streamWriter
+     * @param outWriter the writer underlying the streamWriter
      * @param fileID
      * @param spId
      * @param proteinLevel
      * @throws XMLStreamException
+     * @throws IOException
      */
-    private void writeIdentificationRun(XMLStreamWriter streamWriter, Long fileID,
+    private void writeIdentificationRun(XMLStreamWriter streamWriter, Writer outWriter, Long fileID,
             String spId, boolean proteinLevel, boolean filterExport)
-            throws XMLStreamException {
+            throws XMLStreamException, IOException {
         streamWriter.writeStartElement("IdentificationRun");
 
         Date now = Calendar.getInstance().getTime();
@@ -250,9 +326,7 @@ public class IdXMLExporter {
             filters = null;
         }
 
-        // mapping from the spectra to the identifications / PSMs
-        Map<String, List<PSMReportItem>> peptideIdentifications =
-                getPSMsForPeptideIdentifications(proteinLevel, fileID, filters);
+        List<? extends PSMReportItem> psms = getFilteredPSMs(proteinLevel, fileID, filters);
 
 
         // ---- Protein Identifications ----
@@ -295,19 +369,16 @@ public class IdXMLExporter {
             }
         }
         
-        Iterator<List<PSMReportItem>> peptideHitIter = peptideIdentifications.values().iterator();
-        while (peptideHitIter.hasNext()) {
-            for (PSMReportItem psmReportItem : peptideHitIter.next()) {
-                Map<String, Boolean> isDecoyMap = new HashMap<>();
-            	if (isFDRCalculated) {
-	                for (Accession acc : psmReportItem.getAccessions()) {
-	                	isDecoyMap.put(acc.getAccession(), psmReportItem.getIsDecoy());
-	                }
-            	}
-                
-                writeAccessionsToXML(streamWriter, psmReportItem.getAccessions(), 0.0,
-                        null, fileID, accessionToPH, isDecoyMap);
-            }
+        for (PSMReportItem psmReportItem : psms) {
+            Map<String, Boolean> isDecoyMap = new HashMap<>();
+        	if (isFDRCalculated) {
+                for (Accession acc : psmReportItem.getAccessions()) {
+                	isDecoyMap.put(acc.getAccession(), psmReportItem.getIsDecoy());
+                }
+        	}
+            
+            writeAccessionsToXML(streamWriter, psmReportItem.getAccessions(), 0.0,
+                    null, fileID, accessionToPH, isDecoyMap);
         }
 
         // TODO: write PIA inference params
@@ -334,139 +405,117 @@ public class IdXMLExporter {
 
         // ---- Peptide Identifications ----
 
+        PeptideIdentificationRenderer renderer = new PeptideIdentificationRenderer(psms, accessionToPH);
+
         List<String> scoreShortList = piaModeller.getPSMModeller().getScoreShortNames(fileID);
 
-        String mainScore = null;
-        String mainScoreShort = null;
-        Boolean mainScoreHigherBetter = false;
         if (proteinLevel || (fileID < 1)) {
             if (proteinLevel) {
                 AbstractProteinInference protInference = piaModeller.getProteinModeller().getAppliedProteinInference();
                 for (Setting<HashMap<String, String>> setting : protInference.getScoring().getSettings()) {
                     if (setting.getShortName().equals(AbstractScoring.SCORING_SETTING_ID)) {
-                        mainScoreShort = setting.getValue();
-                        mainScore = piaModeller.getPSMModeller().getScoreName(mainScoreShort);
-                        mainScoreHigherBetter = piaModeller.getPSMModeller().getHigherScoreBetter(mainScoreShort);
+                        renderer.mainScoreShort = setting.getValue();
+                        renderer.mainScore = piaModeller.getPSMModeller().getScoreName(renderer.mainScoreShort);
+                        renderer.mainScoreHigherBetter =
+                                piaModeller.getPSMModeller().getHigherScoreBetter(renderer.mainScoreShort);
                     }
                 }
 
             } else {
                 if (piaModeller.getPSMModeller().isCombinedFDRScoreCalculated()) {
-                    mainScore = ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getName();
-                    mainScoreShort = ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName();
-                    mainScoreHigherBetter = false;
+                    renderer.mainScore = ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getName();
+                    renderer.mainScoreShort = ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName();
+                    renderer.mainScoreHigherBetter = false;
                 }
             }
         } else {
             // get the main score of the exported file or overview
             if (Boolean.TRUE.equals(isFDRCalculated)) {
                 // if the FDR is calculated, use PSM_LEVEL_FDR_SCORE
-                mainScore = ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getName();
-                mainScoreShort = ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName();
-                mainScoreHigherBetter = false;
+                renderer.mainScore = ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getName();
+                renderer.mainScoreShort = ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName();
+                renderer.mainScoreHigherBetter = false;
             } else {
                 for (String scoreShort : scoreShortList) {
                     ScoreModelEnum scoreModel = ScoreModelEnum.getModelByDescription(scoreShort);
-                    if ((mainScore == null) ||
+                    if ((renderer.mainScore == null) ||
                             ((scoreModel != null) && scoreModel.isSearchengineMainScore())) {
                         // use the mainScore of the searchengine, or the first one in the list
-                        mainScore = scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE) ? scoreShort : scoreModel.getName();
-                        mainScoreShort = scoreShort;
-                        mainScoreHigherBetter = scoreModel.higherScoreBetter();
+                        renderer.mainScore = scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE) ? scoreShort : scoreModel.getName();
+                        renderer.mainScoreShort = scoreShort;
+                        renderer.mainScoreHigherBetter = scoreModel.higherScoreBetter();
                     }
                 }
             }
         }
 
-        peptideHitIter = peptideIdentifications.values().iterator();
-        while (peptideHitIter.hasNext()) {
-            List<PSMReportItem> peptideHits = peptideHitIter.next();
-
-            streamWriter.writeStartElement("PeptideIdentification");
-
-            streamWriter.writeAttribute("score_type", mainScore);
-            streamWriter.writeAttribute("higher_score_better", (mainScoreHigherBetter != null) ? mainScoreHigherBetter.toString() : null);
-            // TODO: the significance_threshold might be given by a filter
-            streamWriter.writeAttribute("significance_threshold", "0");
-
-
-            ListIterator<PSMReportItem> psmIter = peptideHits.listIterator();
-
-            while (psmIter.hasNext()) {
-                PSMReportItem psm = psmIter.next();
+        // if there is decoy information, write it out
+        if (fileID > 0) {
+            // file has internal decoy info or FDR is calculated for the file
+            renderer.writeDecoyInfo = piaModeller.getPSMModeller().getFileHasInternalDecoy(fileID).booleanValue()
+                    || isFDRCalculated;
+        } else {
+            renderer.writeDecoyInfo = piaModeller.getPSMModeller().isCombinedFDRScoreCalculated();
+        }
 
-                if (psmIter.previousIndex() == 0) {
-                    // this is the first, add RT and MZ to PeptideIdentification
-                    streamWriter.writeAttribute("MZ", Double.toString(psm.getMassToCharge()));
-                    
-                    Double rt = psm.getRetentionTime();
-                    if (rt != null) {
-                        streamWriter.writeAttribute("RT", rt.toString());
-                    }
-                    
-                    if ((psm.getSpectrumTitle() != null)
-                    		&& (!psm.getSpectrumTitle().trim().isEmpty())) {
-                    	streamWriter.writeAttribute("spectrum_reference", psm.getSpectrumTitle().trim());
-                    }
-                }
+        // the additional scores
+        for (String scoreShort : scoreShortList) {
+            if (!scoreShort.equals(renderer.mainScoreShort)) {
+                renderer.scoreShorts.add(scoreShort);
+                renderer.scoreNames.add(piaModeller.getPSMModeller().getScoreName(scoreShort));
+            }
+        }
 
-                streamWriter.writeStartElement("PeptideHit");
+        renderer.groupBySpectrum(piaModeller.getPSMModeller().getPSMSetSettings());
+        writePeptideIdentifications(streamWriter, outWriter, renderer);
 
-                if (mainScoreShort != null) {
-                    streamWriter.writeAttribute("score", psm.getScore(mainScoreShort).toString());
-                }
+        LOGGER.debug("peptides: " + renderer.spectrumFirstPSMs.length);
 
-                streamWriter.writeAttribute("sequence",
-                        exportSequenceWithModifications(psm.getSequence(), psm.getModifications()));
-                streamWriter.writeAttribute("charge", Integer.toString(psm.getCharge()));
-                // TODO: add aa_before and aa_after
-
-                StringBuilder sbProteinRefs = new StringBuilder();
-                psm.getAccessions().stream().filter(acc -> accessionToPH.containsKey(acc.getAccession())).forEach(acc -> {
-                    sbProteinRefs.append(accessionToPH.get(acc.getAccession()));
-                    sbProteinRefs.append(' ');
-                });
-                if (sbProteinRefs.length() > 0) {
-                    streamWriter.writeAttribute("protein_refs", sbProteinRefs.toString().trim());
-                }
+        streamWriter.writeEndElement(); // IdentificationRun
+    }
 
-                // if there is decoy information, write it out
-                boolean writeDecoyInfo = false;
-                if (fileID > 0) {
-                    if (piaModeller.getPSMModeller().getFileHasInternalDecoy(fileID).booleanValue() ||	// file has internal decoy info
-                    		isFDRCalculated) {     														// FDR is calculated for the file
-                        writeDecoyInfo = true;
-                    }
-                } else {
-                    if (piaModeller.getPSMModeller().isCombinedFDRScoreCalculated()) {
-                        writeDecoyInfo = true;
-                    }
-                }
-                if (writeDecoyInfo) {
-                	writeTargetDecoyUserParam(streamWriter, psm.getIsDecoy());
-                }
 
-                // write additional scores
-                for (String scoreShort : scoreShortList) {
-                    if (scoreShort.equals(mainScoreShort)) {
-                        continue;
-                    }
+    /**
+     * Writes the PeptideIdentifications in chunks, which are rendered by a
+     * pool of threads, directly to the outWriter.
+     *
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    private void writePeptideIdentifications(XMLStreamWriter streamWriter, Writer outWriter,
+            PeptideIdentificationRenderer renderer) throws XMLStreamException, IOException {
+        // all prior XML must be written before the rendered chunks
+        streamWriter.flush();
 
-                    String scoreName = piaModeller.getPSMModeller().getScoreName(scoreShort);
-                    writeUserParam(streamWriter, scoreName, "float", psm.getScore(scoreShort).toString(),
-                            null, null, null);
-                }
+        XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
 
-                streamWriter.writeEndElement();
+        try {
+            OrderedRowWriter.writeRows(outWriter, renderer.spectrumFirstPSMs.length, PEPTIDE_IDENTIFICATIONS_CHUNK_SIZE,
+                    nrThreads,
+                    (from, to, chunk, rows) -> {
+                        StringWriter chunkWriter = new StringWriter();
+                        try {
+                            XMLStreamWriter fragmentWriter;
+                            synchronized (outputFactory) {
+                                fragmentWriter = outputFactory.createXMLStreamWriter(chunkWriter);
+                            }
+
+                            for (int spectrum = from; spectrum < to; spectrum++) {
+                                renderer.writePeptideIdentification(fragmentWriter, spectrum, indentation);
+                            }
+                            fragmentWriter.flush();
+                        } catch (XMLStreamException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        rows.append(chunkWriter.getBuffer());
+                    },
+                    (from, to) -> {});
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof XMLStreamException) {
+                throw (XMLStreamException) e.getCause();
             }
-
-            streamWriter.writeEndElement(); // PeptideIdentification
+            throw e;
         }
-
-
-        LOGGER.debug("peptides: " + peptideIdentifications.size());
-
-        streamWriter.writeEndElement(); // IdentificationRun
     }
 
 
@@ -549,46 +598,21 @@ public class IdXMLExporter {
 
 
     /**
-     * sorts the PSMs by their spectra to use them for the export to idXML'x
-     * PeptideIdentifications.
+     * Returns the filtered PSMs (or PSM sets for the overview and protein
+     * level) for the export.
      *
      * @param proteinLevel
      * @param fileID
      * @param filters
      * @return
      */
-    private Map<String, List<PSMReportItem>> getPSMsForPeptideIdentifications(
-            boolean proteinLevel, Long fileID, List<AbstractFilter> filters) {
-        Map<String, List<PSMReportItem>> peptideIdentifications = new HashMap<>();
-
-        Map<String, Boolean> psmSetSettings = piaModeller.getPSMModeller().getPSMSetSettings();
-
-        ListIterator<?> psmIter;
+    private List<? extends PSMReportItem> getFilteredPSMs(boolean proteinLevel, Long fileID,
+            List<AbstractFilter> filters) {
         if (proteinLevel || (fileID < 1)) {
-            psmIter = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters).listIterator();
+            return piaModeller.getPSMModeller().getFilteredReportPSMSets(filters);
         } else {
-            psmIter = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters).listIterator();
+            return piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters);
         }
-
-        while (psmIter.hasNext()) {
-            PSMReportItem psm = (PSMReportItem)psmIter.next();
-
-            // get the identifier of the spectrum (NOT the PSM)
-            String spectrumIdKey = null;
-            if (psm instanceof ReportPSM) {
-                spectrumIdKey = ((ReportPSM) psm).getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
-            } else if (psm instanceof ReportPSMSet) {
-                spectrumIdKey = ((ReportPSMSet) psm).getPSMs().get(0).getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
-            }
-
-            if (!peptideIdentifications.containsKey(spectrumIdKey)) {
-                peptideIdentifications.put(spectrumIdKey, new ArrayList<>());
-            }
-
-            peptideIdentifications.get(spectrumIdKey).add(psm);
-        }
-
-        return peptideIdentifications;
     }
 
 
@@ -735,4 +759,187 @@ public class IdXMLExporter {
 
         return modSequence.toString();
     }
+
+
+    /**
+     * Writes the line break and indentation for an element at the given depth,
+     * if the XML is indented.
+     *
+     * @throws XMLStreamException
+     */
+    private static void writeIndentation(XMLStreamWriter streamWriter, int depth, boolean indentation)
+            throws XMLStreamException {
+        if (indentation) {
+            streamWriter.writeCharacters("\n");
+            for (int i = 0; i < depth; i++) {
+                streamWriter.writeCharacters(INDENT_STEP);
+            }
+        }
+    }
+
+
+    /**
+     * Renders the PeptideIdentifications, i.e. the PSMs grouped by their
+     * spectra. The groups are only stored as linked indices into the list of
+     * PSMs, so no collection is created for each spectrum.
+     */
+    private static class PeptideIdentificationRenderer {
+        /** the exported PSMs */
+        private final List<? extends PSMReportItem> psms;
+
+        /** mapping from PIA accession to idXML's "PH_XXX" */
+        private final Map<String, String> accessionToPH;
+
+        /** the main score, written as the PeptideHits' score */
+        private String mainScore;
+        private String mainScoreShort;
+        private Boolean mainScoreHigherBetter;
+
+        /** whether the target_decoy userParam is written */
+        private boolean writeDecoyInfo;
+
+        /** the shorts and names of the additional scores */
+        private final List<String> scoreShorts;
+        private final List<String> scoreNames;
+
+        /** the index of the first PSM of each spectrum, in order of occurrence */
+        private int[] spectrumFirstPSMs;
+
+        /** the index of the next PSM of the same spectrum, -1 for the last one */
+        private int[] nextSpectrumPSMs;
+
+
+        private PeptideIdentificationRenderer(List<? extends PSMReportItem> psms,
+                Map<String, String> accessionToPH) {
+            this.psms = psms;
+            this.accessionToPH = accessionToPH;
+            this.mainScoreHigherBetter = false;
+            this.scoreShorts = new ArrayList<>();
+            this.scoreNames = new ArrayList<>();
+        }
+
+
+        /**
+         * Groups the PSMs by the identifier of their spectrum (NOT the PSM).
+         *
+         * @param psmSetSettings
+         */
+        private void groupBySpectrum(Map<String, Boolean> psmSetSettings) {
+            Map<String, Integer> lastSpectrumPSMs = new HashMap<>();
+            int[] firstPSMs = new int[psms.size()];
+            int nrSpectra = 0;
+
+            nextSpectrumPSMs = new int[psms.size()];
+            Arrays.fill(nextSpectrumPSMs, -1);
+
+            for (int idx = 0; idx < psms.size(); idx++) {
+                PSMReportItem psm = psms.get(idx);
+
+                String spectrumIdKey = null;
+                if (psm instanceof ReportPSM) {
+                    spectrumIdKey = ((ReportPSM) psm).getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
+                } else if (psm instanceof ReportPSMSet) {
+                    spectrumIdKey = ((ReportPSMSet) psm).getPSMs().get(0).getSpectrum()
+                            .getSpectrumIdentificationKey(psmSetSettings);
+                }
+
+                Integer lastIdx = lastSpectrumPSMs.put(spectrumIdKey, idx);
+                if (lastIdx == null) {
+                    firstPSMs[nrSpectra++] = idx;
+                } else {
+                    nextSpectrumPSMs[lastIdx] = idx;
+                }
+            }
+
+            spectrumFirstPSMs = Arrays.copyOf(firstPSMs, nrSpectra);
+        }
+
+
+        /**
+         * Writes the PeptideIdentification of the spectrum with the given
+         * index with all its PeptideHits.
+         *
+         * @throws XMLStreamException
+         */
+        private void writePeptideIdentification(XMLStreamWriter streamWriter, int spectrum, boolean indentation)
+                throws XMLStreamException {
+            int psmIdx = spectrumFirstPSMs[spectrum];
+            PSMReportItem firstPSM = psms.get(psmIdx);
+
+            writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH, indentation);
+            streamWriter.writeStartElement("PeptideIdentification");
+
+            streamWriter.writeAttribute("score_type", mainScore);
+            streamWriter.writeAttribute("higher_score_better", (mainScoreHigherBetter != null) ? mainScoreHigherBetter.toString() : null);
+            // TODO: the significance_threshold might be given by a filter
+            streamWriter.writeAttribute("significance_threshold", "0");
+
+            // add RT and MZ of the first PSM to PeptideIdentification
+            streamWriter.writeAttribute("MZ", Double.toString(firstPSM.getMassToCharge()));
+
+            Double rt = firstPSM.getRetentionTime();
+            if (rt != null) {
+                streamWriter.writeAttribute("RT", rt.toString());
+            }
+
+            if ((firstPSM.getSpectrumTitle() != null)
+                    && (!firstPSM.getSpectrumTitle().trim().isEmpty())) {
+                streamWriter.writeAttribute("spectrum_reference", firstPSM.getSpectrumTitle().trim());
+            }
+
+            for (; psmIdx >= 0; psmIdx = nextSpectrumPSMs[psmIdx]) {
+                writePeptideHit(streamWriter, psms.get(psmIdx), indentation);
+            }
+
+            writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH, indentation);
+            streamWriter.writeEndElement(); // PeptideIdentification
+        }
+
+
+        /**
+         * Writes a single PeptideHit
+         *
+         * @throws XMLStreamException
+         */
+        private void writePeptideHit(XMLStreamWriter streamWriter, PSMReportItem psm, boolean indentation)
+                throws XMLStreamException {
+            writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH + 1, indentation);
+            streamWriter.writeStartElement("PeptideHit");
+
+            if (mainScoreShort != null) {
+                streamWriter.writeAttribute("score", psm.getScore(mainScoreShort).toString());
+            }
+
+            streamWriter.writeAttribute("sequence",
+                    exportSequenceWithModifications(psm.getSequence(), psm.getModifications()));
+            streamWriter.writeAttribute("charge", Integer.toString(psm.getCharge()));
+            // TODO: add aa_before and aa_after
+
+            StringBuilder sbProteinRefs = new StringBuilder();
+            psm.getAccessions().stream().filter(acc -> accessionToPH.containsKey(acc.getAccession())).forEach(acc -> {
+                sbProteinRefs.append(accessionToPH.get(acc.getAccession()));
+                sbProteinRefs.append(' ');
+            });
+            if (sbProteinRefs.length() > 0) {
+                streamWriter.writeAttribute("protein_refs", sbProteinRefs.toString().trim());
+            }
+
+            if (writeDecoyInfo) {
+                writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH + 2, indentation);
+                writeTargetDecoyUserParam(streamWriter, psm.getIsDecoy());
+            }
+
+            // write additional scores
+            for (int idx = 0; idx < scoreShorts.size(); idx++) {
+                writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH + 2, indentation);
+                writeUserParam(streamWriter, scoreNames.get(idx), "float",
+                        psm.getScore(scoreShorts.get(idx)).toString(), null, null, null);
+            }
+
+            if (writeDecoyInfo || !scoreShorts.isEmpty()) {
+                writeIndentation(streamWriter, PEPTIDE_IDENTIFICATION_DEPTH + 1, indentation);
+            }
+            streamWriter.writeEndElement(); // PeptideHit
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.util.Collection;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+
+
+/**
+ * Resolves the values, which the report items calculate lazily and cache
+ * without any synchronisation: the peptides cache their spectra (and the
+ * identification key settings needed for them), the proteins their
+ * coverages.
+ * <p>
+ * The exporters call this sequentially before rendering the report with
+ * several threads, afterwards the rendering only reads the cached values.
+ *
+ * @author julian
+ *
+ */
+final class LazyReportValues {
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private LazyReportValues() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Resolves the spectra of the given peptides.
+     *
+     * @param peptides
+     */
+    static void resolvePeptides(Collection<ReportPeptide> peptides) {
+        peptides.forEach(ReportPeptide::getNrSpectra);
+    }
+
+
+    /**
+     * Resolves the coverages of all accessions and the spectra of all
+     * peptides of the given proteins. The sub-proteins are not resolved.
+     *
+     * @param proteins
+     */
+    static void resolveProteins(Collection<ReportProtein> proteins) {
+        for (ReportProtein protein : proteins) {
+            for (Accession accession : protein.getAccessions()) {
+                protein.getCoverage(accession.getAccession());
+            }
+            resolvePeptides(protein.getPeptides());
+        }
+    }
+}
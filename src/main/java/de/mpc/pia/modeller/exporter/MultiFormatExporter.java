@@ -0,0 +1,358 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.tools.OrderedPipeline;
+import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.unimod.UnimodParser;
+
+
+/**
+ * Exports the same report into several formats at once.
+ * <p>
+ * Each exporter resolves the lazily computed values it renders concurrently
+ * by itself. As the exporters run concurrently to each other on the same
+ * model, the filtered report is additionally traversed once before the export
+ * to resolve everything any of them computes lazily (the peptide inference,
+ * the peptides' spectra and the protein coverages), and the Unimod
+ * modifications are loaded once for all exporters. Afterwards the exporters
+ * only read the model.
+ *
+ * @author julian
+ *
+ */
+public class MultiFormatExporter {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(MultiFormatExporter.class);
+
+
+    /** the modeller, that should be exported */
+    private PIAModeller piaModeller;
+
+    /** the formats and files to export to */
+    private List<ExportTarget> targets;
+
+    /** the exported fileID (only relevant if not protein level) */
+    private Long fileID;
+
+    /** whether the protein level should be exported */
+    private boolean proteinLevel;
+
+    /** whether the peptide level should be exported */
+    private boolean peptideLevel;
+
+    /** whether the PSM level should be exported */
+    private boolean psmLevel;
+
+    /** whether the export should be filtered */
+    private boolean filterExport;
+
+    /** the number of threads for all exports together */
+    private int nrThreads;
+
+
+    /**
+     * Basic constructor
+     *
+     * @param modeller
+     */
+    public MultiFormatExporter(PIAModeller modeller) {
+        this.piaModeller = modeller;
+        this.targets = new ArrayList<>();
+        this.fileID = 0L;
+        this.proteinLevel = false;
+        this.peptideLevel = false;
+        this.psmLevel = true;
+        this.filterExport = true;
+        this.nrThreads = 0;
+    }
+
+
+    /**
+     * Adds a file, into which the report is exported in the given format.
+     *
+     * @param format
+     * @param fileName
+     */
+    public void addTarget(ExportFormat format, String fileName) {
+        targets.add(new ExportTarget(format, fileName));
+    }
+
+
+    /**
+     * Adds a file, into which the report is exported in the format with the
+     * given name.
+     *
+     * @param formatName
+     * @param fileName
+     * @return false, if the format is not known
+     */
+    public boolean addTarget(String formatName, String fileName) {
+        ExportFormat format = ExportFormat.getByName(formatName);
+        if (format == null) {
+            LOGGER.error("unsupported export format: " + formatName);
+            return false;
+        }
+
+        addTarget(format, fileName);
+        return true;
+    }
+
+
+    public void setFileID(Long fileID) {
+        this.fileID = fileID;
+    }
+
+
+    public void setProteinLevel(boolean proteinLevel) {
+        this.proteinLevel = proteinLevel;
+    }
+
+
+    public void setPeptideLevel(boolean peptideLevel) {
+        this.peptideLevel = peptideLevel;
+    }
+
+
+    public void setPSMLevel(boolean psmLevel) {
+        this.psmLevel = psmLevel;
+    }
+
+
+    public void setFilterExport(boolean filterExport) {
+        this.filterExport = filterExport;
+    }
+
+
+    /**
+     * Sets the number of threads for all exports together. If set to anything
+     * below 1, all available processors are used.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        nrThreads = threads;
+    }
+
+
+    /**
+     * Getter for the number of threads for all exports together.
+     *
+     * @return
+     */
+    public int getNrThreads() {
+        return nrThreads;
+    }
+
+
+    /**
+     * Exports the report into all targets. The targets are written
+     * concurrently, the available threads are shared among them.
+     *
+     * @return false, if any of the exports failed
+     */
+    public boolean export() {
+        if (targets.isEmpty()) {
+            LOGGER.warn("no export targets given");
+            return true;
+        }
+
+        LOGGER.info("start exporting into " + targets.size() + " files");
+
+        prepareReport();
+
+        UnimodParser unimodParser = null;
+        for (ExportTarget target : targets) {
+            if ((target.format == ExportFormat.MZTAB) || (target.format == ExportFormat.MZIDENTML)) {
+                unimodParser = UnimodParser.getSharedInstance();
+                break;
+            }
+        }
+        UnimodParser sharedUnimodParser = unimodParser;
+
+        int nrUsedThreads = PIATools.resolveThreads(nrThreads);
+        int exporterThreads = Math.max(1, nrUsedThreads / targets.size());
+
+        Iterator<ExportTarget> targetIterator = targets.iterator();
+        boolean[] exportOK = {true};
+        try {
+            OrderedPipeline.process(
+                    () -> targetIterator.hasNext() ? targetIterator.next() : null,
+                    target -> exportTargetSafely(target, sharedUnimodParser, exporterThreads),
+                    targetOK -> exportOK[0] &= targetOK,
+                    Math.min(nrUsedThreads, targets.size()), "exporting");
+        } catch (IOException e) {
+            LOGGER.error("error while exporting", e);
+            exportOK[0] = false;
+        }
+
+        LOGGER.info("multi-format export done");
+        return exportOK[0];
+    }
+
+
+    /**
+     * Traverses the filtered report once, resolving the lazily computed
+     * values of the model. This has to be done before the concurrent exports,
+     * as the lazy computations are not thread safe: the peptide inference of
+     * a file fires report changes (which clear the inference input and
+     * protein score caches), the peptides cache their spectra and the
+     * proteins their coverages. The resolution of each exporter alone would
+     * run concurrently to the other exporters reading the same values.
+     */
+    private void prepareReport() {
+        if (proteinLevel) {
+            List<AbstractFilter> filters = filterExport ? piaModeller.getProteinModeller().getReportFilters() : null;
+            List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(filters);
+
+            if (proteins != null) {
+                LazyReportValues.resolveProteins(proteins);
+                for (ReportProtein protein : proteins) {
+                    LazyReportValues.resolveProteins(protein.getSubSets());
+                }
+            }
+        }
+
+        boolean mzTabTarget = targets.stream().anyMatch(target -> target.format == ExportFormat.MZTAB);
+        if (peptideLevel || mzTabTarget) {
+            // all exporters take the peptides of the overview for the protein level
+            Long peptideFileID = proteinLevel ? 0L : fileID;
+
+            // infers the peptides of the file, if not yet done
+            LazyReportValues.resolvePeptides(
+                    piaModeller.getPeptideModeller().getFilteredReportPeptides(peptideFileID, null));
+        }
+    }
+
+
+    /**
+     * Exports into a single target, logging any failure.
+     *
+     * @return whether the export was successful
+     */
+    private boolean exportTargetSafely(ExportTarget target, UnimodParser unimodParser, int exporterThreads) {
+        try {
+            if (exportTarget(target, unimodParser, exporterThreads)) {
+                return true;
+            }
+            LOGGER.error("export to " + target.fileName + " failed");
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while exporting to " + target.fileName, e);
+        }
+        return false;
+    }
+
+
+    /**
+     * Exports into a single target.
+     *
+     * @return whether the export was successful
+     */
+    private boolean exportTarget(ExportTarget target, UnimodParser unimodParser, int exporterThreads) {
+        LOGGER.info("exporting " + target.format + " to " + target.fileName);
+
+        switch (target.format) {
+        case MZTAB:
+            MzTabExporter mzTabExporter = new MzTabExporter(piaModeller);
+            mzTabExporter.setUnimodParser(unimodParser);
+            mzTabExporter.setNrThreads(exporterThreads);
+            return mzTabExporter.exportToMzTab(fileID, target.fileName, proteinLevel, peptideLevel, filterExport);
+
+        case MZIDENTML:
+            MzIdentMLExporter mzIdentMLExporter = new MzIdentMLExporter(piaModeller);
+            mzIdentMLExporter.setUnimodParser(unimodParser);
+            return mzIdentMLExporter.exportToMzIdentML(fileID, target.fileName, proteinLevel, filterExport);
+
+        case IDXML:
+            IdXMLExporter idXMLExporter = new IdXMLExporter(piaModeller);
+            idXMLExporter.setNrThreads(exporterThreads);
+            return idXMLExporter.exportToIdXML(fileID, new File(target.fileName), proteinLevel, filterExport);
+
+        case CSV:
+            CSVExporter csvExporter = new CSVExporter(piaModeller);
+            csvExporter.setNrThreads(exporterThreads);
+            return csvExporter.exportToCSV(fileID, target.fileName, psmLevel, peptideLevel, proteinLevel,
+                    filterExport);
+
+        case ARROW:
+            ArrowExporter arrowExporter = new ArrowExporter(piaModeller);
+            if (proteinLevel) {
+                return arrowExporter.exportProteins(target.fileName, filterExport);
+            } else if (peptideLevel) {
+                return arrowExporter.exportPeptides(fileID, target.fileName, filterExport);
+            } else {
+                return arrowExporter.exportPSMs(fileID, target.fileName, filterExport);
+            }
+
+        default:
+            LOGGER.error("unsupported export format: " + target.format);
+            return false;
+        }
+    }
+
+
+    /**
+     * The formats supported by the {@link MultiFormatExporter}.
+     */
+    public enum ExportFormat {
+        MZTAB("mzTab"),
+        MZIDENTML("mzIdentML", "mzid"),
+        IDXML("idXML"),
+        CSV("csv"),
+        ARROW("arrow"),
+        ;
+
+        /** the names of the format, as used on the command line */
+        private final String[] names;
+
+
+        ExportFormat(String... names) {
+            this.names = names;
+        }
+
+
+        /**
+         * Returns the format with the given name (case insensitive) or null,
+         * if no format has this name.
+         *
+         * @param name
+         * @return
+         */
+        public static ExportFormat getByName(String name) {
+            for (ExportFormat format : values()) {
+                for (String formatName : format.names) {
+                    if (formatName.equalsIgnoreCase(name)) {
+                        return format;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * A file and the format, into which the report is exported.
+     */
+    private static class ExportTarget {
+        private final ExportFormat format;
+
+        private final String fileName;
+
+
+        private ExportTarget(ExportFormat format, String fileName) {
+            this.format = format;
+            this.fileName = fileName;
+        }
+    }
+}
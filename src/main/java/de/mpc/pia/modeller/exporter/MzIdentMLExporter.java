@@ -10,6 +10,8 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -69,7 +71,6 @@ import uk.ac.ebi.jmzidml.model.mzidml.ProteinDetectionList;
 import uk.ac.ebi.jmzidml.model.mzidml.ProteinDetectionProtocol;
 import uk.ac.ebi.jmzidml.model.mzidml.SearchDatabase;
 import uk.ac.ebi.jmzidml.model.mzidml.SearchDatabaseRef;
-import uk.ac.ebi.jmzidml.model.mzidml.SequenceCollection;
 import uk.ac.ebi.jmzidml.model.mzidml.SourceFile;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectraData;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
@@ -113,23 +114,20 @@ public class MzIdentMLExporter {
     /** the exported {@link AnalysisCollection} section */
     private AnalysisCollection analysisCollection;
 
-    /** the actually exported {@link SpectrumIdentificationList} */
+    /** the exported {@link SpectrumIdentificationList}, only used for references, the results are streamed */
     private SpectrumIdentificationList siList;
 
-    /** the actually exported {@link ProteinDetectionList} */
+    /** the exported {@link ProteinDetectionList}, only used for references, the groups are streamed */
     private ProteinDetectionList pdList;
 
-    /** the exported {@link DBSequence}s */
-    private Map<String, DBSequence> sequenceMap;
+    /** the accessions of the already written {@link DBSequence}s */
+    private Set<String> writtenDBSequences;
 
-    /** the exported {@link Peptide}s */
-    private Map<String, Peptide> peptideMap;
+    /** the IDs (without prefix) of the already written {@link Peptide}s */
+    private Set<String> writtenPeptides;
 
-    /** the exported {@link PeptideEvidence}s */
-    private Map<String, PeptideEvidence> pepEvidenceMap;
-
-    /** the exported {@link SpectrumIdentificationResult}s */
-    private Map<String, SpectrumIdentificationResult> sirMap;
+    /** the IDs of the already written {@link PeptideEvidence}s */
+    private Set<String> writtenPeptideEvidences;
 
 
     /** prefix for a protein group in the mzIdentML */
@@ -147,6 +145,12 @@ public class MzIdentMLExporter {
     /** prefix for a DBSequence in the mzIdentML */
     private static final String DBSEQUENCE_PREFIX = "DBSeq_";
 
+    /** the ID of the exported SpectrumIdentificationList */
+    private static final String SPECTRUM_IDENTIFICATION_LIST_ID = "spectrum_identification_list";
+
+    /** the ID of the exported ProteinDetectionList */
+    private static final String PROTEIN_DETECTION_LIST_ID = "protein_report";
+
     /** the PSMSetSettings for the {@link SpectrumIdentificationResult}s in mzIdentML export */
     private static final Map<String, Boolean> SPECTRUM_IDENTIFICATION_RESULT_PSM_SET_SETTINGS;
 
@@ -172,6 +176,17 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Sets the Unimod parser for the modifications. If none is set, the shared
+     * instance is used.
+     *
+     * @param unimodParser
+     */
+    public void setUnimodParser(UnimodParser unimodParser) {
+        this.unimodParser = unimodParser;
+    }
+
+
     public boolean exportToMzIdentML(Long fileID, File exportFile,
             boolean proteinLevel, boolean filterExport) {
         try {
@@ -212,6 +227,10 @@ public class MzIdentMLExporter {
      * relevant if not protein level) to the specified file. If protein level is
      * selected as well, also this will be exported (and accordingly the PSMs of
      * all merged files).
+     * <p>
+     * The SequenceCollection, the {@link SpectrumIdentificationResult}s
+     * and the {@link ProteinAmbiguityGroup}s are marshalled one element at a
+     * time, so only the IDs of the written elements are held in memory.
      *
      * @param filterExport whether the export should be filtered (on any level)
      * @return
@@ -225,7 +244,9 @@ public class MzIdentMLExporter {
         LOGGER.info("start writing mzIdentML file");
 
         outWriter = new BufferedWriter(exportWriter);
-        unimodParser = new UnimodParser();
+        if (unimodParser == null) {
+            unimodParser = UnimodParser.getSharedInstance();
+        }
         mzidMarshaller = new MzIdentMLMarshaller(); // the reading of 1.2 is broken right now... MzIdentMLVersion.Version_1_2);
 
         piaAnalysisSoftware = MzIdentMLTools.getPIAAnalysisSoftware();
@@ -239,9 +260,9 @@ public class MzIdentMLExporter {
             analysisCollection = new AnalysisCollection();
             analysisProtocolCollection = new AnalysisProtocolCollection();
 
-            sequenceMap = new HashMap<>();
-            peptideMap = new HashMap<>();
-            pepEvidenceMap = new HashMap<>();
+            writtenDBSequences = new HashSet<>();
+            writtenPeptides = new HashSet<>();
+            writtenPeptideEvidences = new HashSet<>();
 
             if (exportProteinLevel
                     && (piaModeller.getProteinModeller().getAppliedProteinInference() == null)) {
@@ -255,7 +276,7 @@ public class MzIdentMLExporter {
             }
 
             // write common tags
-            writeCommonMzIdentMLTags(filterExport, exportProteinLevel);
+            List<PSMReportItem> psmItems = writeCommonMzIdentMLTags(filterExport, exportProteinLevel);
 
             // create analysis collection and protocol
             createAnalysisCollectionAndAnalysisProtocolCollection(filterExport);
@@ -283,14 +304,12 @@ public class MzIdentMLExporter {
 
             outWriter.write(mzidMarshaller.createAnalysisDataStartTag() + '\n');
 
-            // write out the spectrum identification lists
-            mzidMarshaller.marshal(siList, outWriter);
-            outWriter.write("\n");
+            // write out the spectrum identification list
+            writeSpectrumIdentificationList(psmItems, filterExport && !exportProteinLevel);
 
             // write out the protein detection list
             if (exportProteinLevel) {
-                mzidMarshaller.marshal(pdList, outWriter);
-                outWriter.write("\n");
+                writeProteinDetectionList(filterExport);
             }
 
             outWriter.write(mzidMarshaller.createAnalysisDataClosingTag() + '\n');
@@ -320,17 +339,16 @@ public class MzIdentMLExporter {
 
     /**
      * Writes (and creates) the MzIdentML tags which are common for an export
-     * with and without the ProteinDetectionList. This includes the
-     * {@link SpectrumIdentificationList}.
-     * <p>
-     * All given parameters need only to be created with "new", they are filled
-     * in this procedure.
+     * with and without the ProteinDetectionList.
      * <p>
-     * The mzIdentML file will be written up to the {@link SequenceCollection}.
+     * The mzIdentML file will be written up to (and including) the
+     * SequenceCollection.
      *
+     * @return the exported PSMs, which are written into the
+     * {@link SpectrumIdentificationList} later
      * @throws IOException
      */
-    private void writeCommonMzIdentMLTags(Boolean filterPSMs, Boolean forProteinExport)
+    private List<PSMReportItem> writeCommonMzIdentMLTags(Boolean filterPSMs, Boolean forProteinExport)
             throws IOException {
         // the CV list
         CvList cvList = new CvList();
@@ -366,32 +384,56 @@ public class MzIdentMLExporter {
         // get the PSMReportItems for the file, but do not filter for protein export
         List<PSMReportItem> psmItems = getExportFilesPSMItems(filterPSMs && !forProteinExport);
 
-        // TODO: get the "representative score" for score ranking (in SIR)
-        String rankScoreShort = null;
+        // the SpectrumIdentificationList is only referenced up to the AnalysisData
+        siList = new SpectrumIdentificationList();
+        siList.setId(SPECTRUM_IDENTIFICATION_LIST_ID);
 
-        // create the SpectrumIdentificationList
-        createSpectrumIdentificationList(psmItems, dbsInFiles, rankScoreShort,
-                filterPSMs && !forProteinExport);
+        writeSequenceCollection(psmItems, dbsInFiles);
+
+        return psmItems;
+    }
 
-        SequenceCollection sequenceCollection = new SequenceCollection();
 
-        // add the DBSequences into their list
-        for (DBSequence dbSequence : sequenceMap.values()) {
-            sequenceCollection.getDBSequence().add(dbSequence);
+    /**
+     * Writes the SequenceCollection for the given PSMs. The schema requires
+     * the order DBSequences, Peptides and PeptideEvidences, so the PSMs are
+     * iterated once per element type and each element is written as soon as
+     * it is created.
+     *
+     * @param psmItems
+     * @param dbsInFiles
+     * @throws IOException
+     */
+    private void writeSequenceCollection(List<PSMReportItem> psmItems,
+            Map<String, Set<Long>> dbsInFiles) throws IOException {
+        outWriter.write("<SequenceCollection>\n");
+
+        for (PSMReportItem psm : psmItems) {
+            for (Accession accession : psm.getAccessions()) {
+                if (writtenDBSequences.add(accession.getAccession())) {
+                    mzidMarshaller.marshal(createDBSequence(accession, dbsInFiles), outWriter);
+                    outWriter.write("\n");
+                }
+            }
         }
 
-        // add the peptides in their list
-        for (Peptide peptide : peptideMap.values()) {
-            sequenceCollection.getPeptide().add(peptide);
+        for (PSMReportItem psm : psmItems) {
+            String pepId = psm.getPeptideStringID(true);
+            if (writtenPeptides.add(pepId)) {
+                mzidMarshaller.marshal(createPeptide(psm, PEPTIDE_PREFIX + pepId), outWriter);
+                outWriter.write("\n");
+            }
         }
 
-        // add the peptideEvidences into their list
-        for (PeptideEvidence pe : pepEvidenceMap.values()) {
-            sequenceCollection.getPeptideEvidence().add(pe);
+        for (PSMReportItem psm : psmItems) {
+            String pepId = psm.getPeptideStringID(true);
+            for (Accession accession : psm.getAccessions()) {
+                writePeptideEvidences(accession, pepId, psm.getIsDecoy(),
+                        psm.getPeptide().getAccessionOccurrences());
+            }
         }
 
-        mzidMarshaller.marshal(sequenceCollection, outWriter);
-        outWriter.write("\n");
+        outWriter.write("</SequenceCollection>\n");
     }
 
 
@@ -506,42 +548,49 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Create the {@link SpectrumIdentificationList} for the export.
+     * Writes the {@link SpectrumIdentificationList} for the export. The PSMs
+     * are grouped by their spectrum first, then each
+     * {@link SpectrumIdentificationResult} is created, written and discarded.
      *
      * @param psmItems
-     * @param dbsInFiles
      * @param filterPSMs
+     * @throws IOException
      */
-    private void createSpectrumIdentificationList(
-            List<PSMReportItem> psmItems,
-            Map<String, Set<Long>> dbsInFiles,
-            String rankScoreShort,
-            Boolean filterPSMs) {
-
-        siList = new SpectrumIdentificationList();
+    private void writeSpectrumIdentificationList(List<PSMReportItem> psmItems,
+            Boolean filterPSMs) throws IOException {
+        // TODO: get the "representative score" for score ranking (in SIR)
+        String rankScoreShort = null;
 
-        siList.setId("spectrum_identification_list");
+        Map<String, List<PSMReportItem>> sirPSMs = new LinkedHashMap<>();
+        for (PSMReportItem psm : psmItems) {
+            sirPSMs.computeIfAbsent(getSIRIdentificationKey(psm), k -> new ArrayList<>()).add(psm);
+        }
 
-        sirMap = new HashMap<>();
+        outWriter.write("<SpectrumIdentificationList id=\"" + siList.getId() + "\">\n");
 
-        // each PSM is one SpectrumIdentificationItem, iterate over the PSMs
-        for (PSMReportItem psm : psmItems) {
+        Iterator<Map.Entry<String, List<PSMReportItem>>> sirIt = sirPSMs.entrySet().iterator();
+        while (sirIt.hasNext()) {
+            Map.Entry<String, List<PSMReportItem>> sirEntry = sirIt.next();
+            SpectrumIdentificationResult sir = null;
 
-            // first build or get the peptide of the PSM
-            String pepId = psm.getPeptideStringID(true);
-            Peptide peptide = peptideMap.computeIfAbsent(pepId, k -> createPeptide(psm, PEPTIDE_PREFIX + pepId));
+            // each PSM is one SpectrumIdentificationItem
+            for (PSMReportItem psm : sirEntry.getValue()) {
+                if (sir == null) {
+                    sir = createSIR(sirEntry.getKey(), psm);
+                } else {
+                    enhanceSIR(sir, psm);
+                }
 
-            // then build the peptide evidences
-            for (Accession accession : psm.getAccessions()) {
-                putIntoPeptideEvidenceMap(accession, peptide, pepId, psm.getIsDecoy(),
-                        psm.getPeptide().getAccessionOccurrences(), dbsInFiles);
+                putPsmInSpectrumIdentificationResult(sir, psm, psm.getPeptideStringID(true),
+                        rankScoreShort, filterPSMs);
             }
 
-
-            putPsmInSpectrumIdentificationResultMap(psm, pepId, rankScoreShort, filterPSMs);
+            mzidMarshaller.marshal(sir, outWriter);
+            outWriter.write("\n");
+            sirIt.remove();
         }
 
-        siList.getSpectrumIdentificationResult().addAll(sirMap.values());
+        outWriter.write("</SpectrumIdentificationList>\n");
     }
 
 
@@ -627,18 +676,18 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates a {@link PeptideEvidence} for the given accession and PSM.
+     * Writes the {@link PeptideEvidence}s for the given accession and PSM, if
+     * they were not yet written.
      *
      * @param accession
-     * @param peptide
      * @param peptideId
      * @param isDecoy
      * @param accessionOccurrences
-     * @param dbsInFiles
+     * @throws IOException
      */
-    private void putIntoPeptideEvidenceMap(Accession accession, Peptide peptide,
-            String peptideId, Boolean isDecoy, Set<AccessionOccurrence> accessionOccurrences,
-            Map<String, Set<Long>> dbsInFiles) {
+    private void writePeptideEvidences(Accession accession, String peptideId,
+            Boolean isDecoy, Set<AccessionOccurrence> accessionOccurrences)
+            throws IOException {
         boolean foundOccurrence = false;
 
         for (AccessionOccurrence occurrence : accessionOccurrences) {
@@ -650,16 +699,14 @@ public class MzIdentMLExporter {
                         occurrence.getEnd(),
                         accession);
 
-                if (!pepEvidenceMap.containsKey(evidenceID)) {
-                    PeptideEvidence pepEvi = createPeptideEvidence(evidenceID,
+                if (writtenPeptideEvidences.add(evidenceID)) {
+                    mzidMarshaller.marshal(createPeptideEvidence(evidenceID,
                             occurrence.getStart(),
                             occurrence.getEnd(),
                             isDecoy,
-                            peptide,
-                            accession,
-                            dbsInFiles);
-
-                    pepEvidenceMap.put(evidenceID, pepEvi);
+                            peptideId,
+                            accession), outWriter);
+                    outWriter.write("\n");
                 }
                 foundOccurrence = true;
             }
@@ -669,15 +716,13 @@ public class MzIdentMLExporter {
             // no occurrence given for this accessione, so create peptideEvidence without position
             String evidenceID = createPeptideEvidenceID(peptideId, null, null, accession);
 
-            if (!pepEvidenceMap.containsKey(evidenceID)) {
-                PeptideEvidence pepEvi = createPeptideEvidence(evidenceID,
+            if (writtenPeptideEvidences.add(evidenceID)) {
+                mzidMarshaller.marshal(createPeptideEvidence(evidenceID,
                         null, null,
                         isDecoy,
-                        peptide,
-                        accession,
-                        dbsInFiles);
-
-                pepEvidenceMap.put(evidenceID, pepEvi);
+                        peptideId,
+                        accession), outWriter);
+                outWriter.write("\n");
             }
         }
     }
@@ -718,27 +763,21 @@ public class MzIdentMLExporter {
      * @param start
      * @param end
      * @param isDecoy
-     * @param peptide
+     * @param peptideId
      * @param accession
-     * @param dbsInFiles
      * @return
      */
-    private PeptideEvidence createPeptideEvidence(String evidenceID,
-            Integer start, Integer end, Boolean isDecoy, Peptide peptide,
-            Accession accession, Map<String, Set<Long>> dbsInFiles) {
+    private static PeptideEvidence createPeptideEvidence(String evidenceID,
+            Integer start, Integer end, Boolean isDecoy, String peptideId,
+            Accession accession) {
         PeptideEvidence pepEvi = new PeptideEvidence();
 
-        DBSequence dbSequence = sequenceMap.get(accession.getAccession());
-        if (dbSequence == null) {
-            // create the dbSequence entry, if it is not yet created
-            dbSequence = createDBSequence(accession, dbsInFiles);
-        }
-        pepEvi.setDBSequence(dbSequence);
+        pepEvi.setDBSequence(createDBSequenceReference(accession.getAccession()));
 
         pepEvi.setId(evidenceID);
 
         pepEvi.setIsDecoy(isDecoy);
-        pepEvi.setPeptide(peptide);
+        pepEvi.setPeptide(createPeptideReference(peptideId));
         if (start != null) {
             pepEvi.setStart(start);
         }
@@ -751,8 +790,35 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Create the DBSEquence for the given Accession and put it into the
-     * DBSequences Map.
+     * Creates a {@link Peptide}, which only carries the ID of an already
+     * written peptide and is used to set the references.
+     *
+     * @param peptideId the ID without prefix
+     * @return
+     */
+    private static Peptide createPeptideReference(String peptideId) {
+        Peptide peptide = new Peptide();
+        peptide.setId(PEPTIDE_PREFIX + peptideId);
+        return peptide;
+    }
+
+
+    /**
+     * Creates a {@link DBSequence}, which only carries the ID of an already
+     * written sequence and is used to set the references.
+     *
+     * @param accession
+     * @return
+     */
+    private static DBSequence createDBSequenceReference(String accession) {
+        DBSequence dbSequence = new DBSequence();
+        dbSequence.setId(DBSEQUENCE_PREFIX + accession);
+        return dbSequence;
+    }
+
+
+    /**
+     * Create the DBSequence for the given Accession.
      *
      * @param accession
      * @param dbsInFiles
@@ -788,8 +854,6 @@ public class MzIdentMLExporter {
 
         dbSequence.setSearchDatabase(piaModeller.getSearchDatabases().get(dbRef));
 
-        sequenceMap.put(accession.getAccession(), dbSequence);
-
         return dbSequence;
     }
 
@@ -831,22 +895,20 @@ public class MzIdentMLExporter {
 
     /**
      * Creates a {@link SpectrumIdentificationItem} for the given PSM and puts
-     * it into its {@link SpectrumIdentificationResult}, which will be created
-     * if necessary.
+     * it into the given {@link SpectrumIdentificationResult}.
      *
+     * @param sir
      * @param psm
      * @param rankScoreShort
      * @param filterPSM
      * @return
      */
-    private SpectrumIdentificationItem putPsmInSpectrumIdentificationResultMap(
+    private SpectrumIdentificationItem putPsmInSpectrumIdentificationResult(
+            SpectrumIdentificationResult sir,
             PSMReportItem psm,
             String peptideId,
             String rankScoreShort,
             Boolean filterPSM) {
-
-        SpectrumIdentificationResult sir = createOrGetSIR(psm);
-
         String psmIdentificationKey = psm.getIdentificationKey(piaModeller.getPSMSetSettings());
 
         SpectrumIdentificationItem sii = sirContainsSII(sir, psmIdentificationKey);
@@ -870,7 +932,7 @@ public class MzIdentMLExporter {
             sii.setPassThreshold(true);
         }
 
-        sii.setPeptide(peptideMap.get(peptideId));
+        sii.setPeptide(createPeptideReference(peptideId));
         if ((rankScoreShort == null) || (psm instanceof ReportPSMSet)) {
             sii.setRank(0);
         } else {
@@ -896,68 +958,82 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates the {@link SpectrumIdentificationResult} for the PSM or gets it
-     * from the map, if it was already created before.
+     * Creates the key, which identifies the {@link SpectrumIdentificationResult}
+     * of the PSM.
      *
      * @param psm
      * @return
      */
-    private SpectrumIdentificationResult createOrGetSIR(PSMReportItem psm) {
-        // build the SpectrumIdentificationItem into its result
-        String psmIdentificationKey = PeptideSpectrumMatch.getIdentificationKey(
+    private String getSIRIdentificationKey(PSMReportItem psm) {
+        return PeptideSpectrumMatch.getIdentificationKey(
                 SPECTRUM_IDENTIFICATION_RESULT_PSM_SET_SETTINGS,
                 psm.getSequence(), psm.getModificationsString(),
                 psm.getCharge(), psm.getMassToCharge(),
                 psm.getRetentionTime(), psm.getSourceID(),
                 psm.getSpectrumTitle(), exportFileID);
+    }
 
-        SpectrumIdentificationResult specIdRes = sirMap.get(psmIdentificationKey);
-        if (specIdRes == null) {
-            // this spectrum has no identification yet
-            specIdRes = new SpectrumIdentificationResult();
-
-            specIdRes.setId(psmIdentificationKey);
-            specIdRes.setSpectrumID(psm.getSourceID());
-            specIdRes.setSpectraData(getRepresentingSpectraData(psm));
 
-            if (psm.getSpectrumTitle() != null) {
-               specIdRes.getCvParam().add(
-                       MzIdentMLTools.createPSICvParam(OntologyConstants.SPECTRUM_TITLE,
-                               psm.getSpectrumTitle()));
-            }
+    /**
+     * Creates the {@link SpectrumIdentificationResult} for the first PSM of
+     * the spectrum.
+     *
+     * @param sirKey
+     * @param psm
+     * @return
+     */
+    private SpectrumIdentificationResult createSIR(String sirKey, PSMReportItem psm) {
+        SpectrumIdentificationResult specIdRes = new SpectrumIdentificationResult();
 
-            if (psm.getRetentionTime() != null) {
-                CvParam tempCvParam = MzIdentMLTools.createPSICvParam(
-                        OntologyConstants.SCAN_START_TIME, psm.getRetentionTime().toString());
+        specIdRes.setId(sirKey);
+        specIdRes.setSpectrumID(psm.getSourceID());
+        specIdRes.setSpectraData(getRepresentingSpectraData(psm));
 
-                tempCvParam.setUnitCv(MzIdentMLTools.getUnitOntology());
-                tempCvParam.setUnitName("second");
-                tempCvParam.setUnitAccession("UO:0000010");
+        if (psm.getSpectrumTitle() != null) {
+           specIdRes.getCvParam().add(
+                   MzIdentMLTools.createPSICvParam(OntologyConstants.SPECTRUM_TITLE,
+                           psm.getSpectrumTitle()));
+        }
 
-                specIdRes.getCvParam().add(tempCvParam);
-            }
+        if (psm.getRetentionTime() != null) {
+            CvParam tempCvParam = MzIdentMLTools.createPSICvParam(
+                    OntologyConstants.SCAN_START_TIME, psm.getRetentionTime().toString());
 
-            sirMap.put(psmIdentificationKey, specIdRes);
-        } else {
-            // enhance the spectrum with the spectrumID, if available
-            if ((specIdRes.getSpectrumID() == null)
-                    && (psm.getSourceID() != null)) {
-                specIdRes.setSpectrumID(psm.getSourceID());
-            }
+            tempCvParam.setUnitCv(MzIdentMLTools.getUnitOntology());
+            tempCvParam.setUnitName("second");
+            tempCvParam.setUnitAccession("UO:0000010");
 
-            // enhance with spectraData, if available
-            if (specIdRes.getSpectraData() == null) {
-                SpectraData specData = getRepresentingSpectraData(psm);
-                if (specData != null) {
-                    specIdRes.setSpectraData(specData);
-                }
-            }
+            specIdRes.getCvParam().add(tempCvParam);
         }
 
         return specIdRes;
     }
 
 
+    /**
+     * Enhances the {@link SpectrumIdentificationResult} with information of a
+     * further PSM of the spectrum.
+     *
+     * @param specIdRes
+     * @param psm
+     */
+    private void enhanceSIR(SpectrumIdentificationResult specIdRes, PSMReportItem psm) {
+        // enhance the spectrum with the spectrumID, if available
+        if ((specIdRes.getSpectrumID() == null)
+                && (psm.getSourceID() != null)) {
+            specIdRes.setSpectrumID(psm.getSourceID());
+        }
+
+        // enhance with spectraData, if available
+        if (specIdRes.getSpectraData() == null) {
+            SpectraData specData = getRepresentingSpectraData(psm);
+            if (specData != null) {
+                specIdRes.setSpectraData(specData);
+            }
+        }
+    }
+
+
     /**
      * Checks whether the given {@link SpectrumIdentificationResult} contains
      * a {@link SpectrumIdentificationItem} with the given Id and returns it, if
@@ -1016,15 +1092,15 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Adds the {@link PeptideEvidence} (which was entered into the map before)
-     * to the {@link SpectrumIdentificationItem}.
+     * Adds the references to the {@link PeptideEvidence}s (which were written
+     * before) to the {@link SpectrumIdentificationItem}.
      *
      * @param sii
      * @param accession
      * @param accessionOccurrences
      * @param peptideId
      */
-    private void addPeptideEvidenceToSII(SpectrumIdentificationItem sii, Accession accession,
+    private static void addPeptideEvidenceToSII(SpectrumIdentificationItem sii, Accession accession,
             Set<AccessionOccurrence> accessionOccurrences, String peptideId) {
         boolean foundOccurrence = false;
 
@@ -1037,7 +1113,7 @@ public class MzIdentMLExporter {
                         accession);
 
                 PeptideEvidenceRef pepEvidenceRef = new PeptideEvidenceRef();
-                pepEvidenceRef.setPeptideEvidence(pepEvidenceMap.get(evidenceID));
+                pepEvidenceRef.setPeptideEvidence(createPeptideEvidenceReference(evidenceID));
 
                 sii.getPeptideEvidenceRef().add(pepEvidenceRef);
                 foundOccurrence = true;
@@ -1049,13 +1125,27 @@ public class MzIdentMLExporter {
             String evidenceID = createPeptideEvidenceID(peptideId, null, null, accession);
 
             PeptideEvidenceRef pepEvidenceRef = new PeptideEvidenceRef();
-            pepEvidenceRef.setPeptideEvidence(pepEvidenceMap.get(evidenceID));
+            pepEvidenceRef.setPeptideEvidence(createPeptideEvidenceReference(evidenceID));
 
             sii.getPeptideEvidenceRef().add(pepEvidenceRef);
         }
     }
 
 
+    /**
+     * Creates a {@link PeptideEvidence}, which only carries the ID of an
+     * already written evidence and is used to set the references.
+     *
+     * @param evidenceID
+     * @return
+     */
+    private static PeptideEvidence createPeptideEvidenceReference(String evidenceID) {
+        PeptideEvidence pepEvi = new PeptideEvidence();
+        pepEvi.setId(evidenceID);
+        return pepEvi;
+    }
+
+
     /**
      * Adds the scores of the PSM to the SpectrumIdentificationItem.
      *
@@ -1479,8 +1569,9 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates all protein level relevant information, including the
-     * {@link ProteinDetectionList}.
+     * Creates all protein level relevant information, except for the
+     * {@link ProteinAmbiguityGroup}s, which are written in
+     * {@link #writeProteinDetectionList(boolean)}.
      *
      * @param filterExport
      */
@@ -1488,25 +1579,9 @@ public class MzIdentMLExporter {
         // first create the protocol
         ProteinDetectionProtocol proteinDetectionProtocol = createProteinDetectionProtocol(filterExport);
 
-        // create the proteinDetectionList
+        // the proteinDetectionList is only referenced up to the AnalysisData
         pdList = new ProteinDetectionList();
-        pdList.setId("protein_report");
-
-        List<AbstractFilter> proteinFilters = null;
-        if (filterExport) {
-            proteinFilters = piaModeller.getProteinModeller().getReportFilters();
-        }
-
-        Integer thresholdPassingPAGcount = 0;
-        for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(null)) {
-            if (putProteinIntoDetectionList(protein, filterExport, proteinFilters)) {
-                thresholdPassingPAGcount++;
-            }
-        }
-
-        pdList.getCvParam().add(MzIdentMLTools.createPSICvParam(
-                OntologyConstants.COUNT_OF_IDENTIFIED_PROTEINS,
-                thresholdPassingPAGcount.toString()));
+        pdList.setId(PROTEIN_DETECTION_LIST_ID);
 
         // create the ProteinDetection for PIAs protein inference
         ProteinDetection proteinDetection = new ProteinDetection();
@@ -1606,20 +1681,58 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates a {@link ProteinAmbiguityGroup} for the given protein and puts it
-     * into the {@link ProteinDetectionList}.
+     * Writes the {@link ProteinDetectionList} with one
+     * {@link ProteinAmbiguityGroup} per reported protein, each group is written
+     * as soon as it is created. The count of the identified proteins follows
+     * the groups, as the schema requires.
+     *
+     * @param filterExport
+     * @throws IOException
+     */
+    private void writeProteinDetectionList(boolean filterExport) throws IOException {
+        outWriter.write("<ProteinDetectionList id=\"" + pdList.getId() + "\">\n");
+
+        List<AbstractFilter> proteinFilters = null;
+        if (filterExport) {
+            proteinFilters = piaModeller.getProteinModeller().getReportFilters();
+        }
+
+        Integer thresholdPassingPAGcount = 0;
+        for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(null)) {
+            ProteinAmbiguityGroup pag = new ProteinAmbiguityGroup();
+            pag.setId(PROTEIN_AMBIGUITY_GROUP_PREFIX + protein.getID());
+
+            if (fillProteinAmbiguityGroup(pag, protein, filterExport, proteinFilters)) {
+                thresholdPassingPAGcount++;
+            }
+
+            mzidMarshaller.marshal(pag, outWriter);
+            outWriter.write("\n");
+        }
+
+        CvParam countParam = MzIdentMLTools.createPSICvParam(
+                OntologyConstants.COUNT_OF_IDENTIFIED_PROTEINS,
+                thresholdPassingPAGcount.toString());
+        outWriter.write("<cvParam cvRef=\"" + countParam.getCvRef()
+                + "\" accession=\"" + countParam.getAccession()
+                + "\" name=\"" + countParam.getName()
+                + "\" value=\"" + countParam.getValue() + "\"/>\n");
+
+        outWriter.write("</ProteinDetectionList>\n");
+    }
+
+
+    /**
+     * Fills the {@link ProteinAmbiguityGroup} for the given protein.
      *
+     * @param pag
      * @param protein
      * @param filterExport
      * @param filters
-     * @return
+     * @return whether the group passes the threshold
      */
-    private boolean putProteinIntoDetectionList(ReportProtein protein, boolean filterExport,
-            List<AbstractFilter> filters) {
-        ProteinAmbiguityGroup pag = new ProteinAmbiguityGroup();
-
-        pag.setId(PROTEIN_AMBIGUITY_GROUP_PREFIX + protein.getID());
-        pdList.getProteinAmbiguityGroup().add(pag);
+    private boolean fillProteinAmbiguityGroup(ProteinAmbiguityGroup pag, ReportProtein protein,
+            boolean filterExport, List<AbstractFilter> filters) {
 
         boolean passThreshold = true;
         if (filterExport) {
@@ -1733,9 +1846,8 @@ public class MzIdentMLExporter {
 
         pdh.setId(PROTEIN_DETECTION_HYPOTHESIS_PREFIX + acc.getAccession() + '_' + pagId);
 
-        DBSequence dbSequence = sequenceMap.get(acc.getAccession());
-        if (dbSequence != null) {
-            pdh.setDBSequence(dbSequence);
+        if (writtenDBSequences.contains(acc.getAccession())) {
+            pdh.setDBSequence(createDBSequenceReference(acc.getAccession()));
         }
 
         pdh.setPassThreshold(passThreshold);
@@ -1818,15 +1930,15 @@ public class MzIdentMLExporter {
         PeptideHypothesis ph = peptideHypotheses.get(pepEvidenceId);
 
         if (ph == null) {
-            ph = new PeptideHypothesis();
-            ph.setPeptideEvidence(pepEvidenceMap.get(pepEvidenceId));
-
-            if (ph.getPeptideEvidence() == null) {
+            if (!writtenPeptideEvidences.contains(pepEvidenceId)) {
                 LOGGER.error("could not find peptideEvidence for '" + pepEvidenceId + "'! "
                         + "This may happen, if you use different accessions in your databases/search engines.");
                 return false;
             }
 
+            ph = new PeptideHypothesis();
+            ph.setPeptideEvidence(createPeptideEvidenceReference(pepEvidenceId));
+
             peptideHypotheses.put(pepEvidenceId, ph);
             pdh.getPeptideHypothesis().add(ph);
         }
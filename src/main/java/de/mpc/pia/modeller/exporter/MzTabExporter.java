@@ -10,12 +10,16 @@ import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
@@ -119,7 +123,10 @@ public class MzTabExporter {
     private Map<String, ModT> accessionsToModifications;
 
     /** caching the modifications by their residues and masses */
-    private Map<String, Map<Double, Set<ModT>>> resAndMassToModifications;
+    private Map<String, ResidueModifications> resAndMassToModifications;
+
+    /** the modifications of the exported PSMs, resolved before the rows are rendered (null if not in UniMod) */
+    private Map<Modification, ModT> resolvedModifications;
 
     /** mapping from the peptide sequence to the accessions and occurrences [pre, post, start, stop]*/
     private Map<String, Map<String, String[]>> peptideOccurrences;
@@ -136,6 +143,40 @@ public class MzTabExporter {
     /** column parameter for amino acid sequence column */
     private CVParam aminoAcidSequenceColumnParam;
 
+    /** caches the databaseRefs to an array with name and version */
+    private Map<String, String[]> dbRefToDbNameAndVersion;
+
+    /** the column factory of the PSM section */
+    private MZTabColumnFactory psmColumnFactory;
+
+    /** column parameter for the decoy column */
+    private CVParam decoyColumnParam;
+
+    /** whether the reliability column is written in the PSM section */
+    private boolean psmReliabilityColumn;
+
+    /** the name of the peptide ID column, null if not written */
+    private String peptideIdColumnName;
+
+    /** column parameter for the peptide level q-value column, null if not written */
+    private CVParam peptideQValueColumnParam;
+
+    /** column parameter for the peptide level FDR score column, null if not written */
+    private CVParam peptideFDRScoreColumnParam;
+
+    /** maps from the peptide's stringID to the peptide, if peptide level statistics are exported */
+    private Map<String, ReportPeptide> reportPeptides;
+
+    /** caches the softwareRefs to the Params */
+    private Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams;
+
+    /** the number of threads used to render the rows */
+    private int nrThreads;
+
+
+    /** the number of rows, which are rendered by a worker at once */
+    private static final int RENDER_CHUNK_SIZE = 512;
+
 
     /**
      * Basic constructor to export the
@@ -147,7 +188,43 @@ public class MzTabExporter {
 
         accessionsToModifications = new HashMap<>();
         resAndMassToModifications = new HashMap<>();
-        peptideOccurrences = new HashMap<>();
+        resolvedModifications = new HashMap<>();
+        peptideOccurrences = new ConcurrentHashMap<>();
+        nrThreads = 0;
+    }
+
+
+    /**
+     * Sets the number of threads used to render the rows of the protein and
+     * PSM sections. If set to anything below 1, all available processors are
+     * used.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        nrThreads = threads;
+    }
+
+
+    /**
+     * Getter for the number of threads used to render the rows.
+     *
+     * @return
+     */
+    public int getNrThreads() {
+        return nrThreads;
+    }
+
+
+    /**
+     * Sets the Unimod parser used for the modifications, e.g. to share an
+     * already loaded one between several exports. If none is set, the
+     * {@link UnimodParser#getSharedInstance()} is used.
+     *
+     * @param unimodParser
+     */
+    public void setUnimodParser(UnimodParser unimodParser) {
+        this.unimodParser = unimodParser;
     }
 
 
@@ -242,7 +319,9 @@ public class MzTabExporter {
         try (BufferedWriter writer = new BufferedWriter(exportWriter)) {
             outWriter = writer;
 
-            unimodParser = new UnimodParser();
+            if (unimodParser == null) {
+                unimodParser = UnimodParser.getSharedInstance();
+            }
 
             piaParam = new CVParam(OntologyConstants.CV_PSI_MS_LABEL,
                     OntologyConstants.PIA.getPsiAccession(),
@@ -272,6 +351,7 @@ public class MzTabExporter {
 
             specIdRefToMsRuns = new HashMap<>();
             psmScoreShortToId = new HashMap<>();
+            dbRefToDbNameAndVersion = new ConcurrentHashMap<>();
             metadata = createMetadataForMzTab(exportFileID, proteinLevel, filterExport,
                     tabDescription);
 
@@ -982,41 +1062,38 @@ public class MzTabExporter {
         LOGGER.info("writePSMs called with " + report.size() + " PSMs");
 
         // initialize the columns
-        MZTabColumnFactory columnFactory =
-                MZTabColumnFactory.getInstance(Section.PSM_Header);
+        psmColumnFactory = MZTabColumnFactory.getInstance(Section.PSM_Header);
 
-        columnFactory.addDefaultStableColumns();
+        psmColumnFactory.addDefaultStableColumns();
 
         // add the score columns
         for (Integer scoreID : psmScoreShortToId.values()) {
-            columnFactory.addSearchEngineScoreOptionalColumn(PSMColumn.SEARCH_ENGINE_SCORE, scoreID, null);
+            psmColumnFactory.addSearchEngineScoreOptionalColumn(PSMColumn.SEARCH_ENGINE_SCORE, scoreID, null);
         }
 
         // add custom column for missed cleavages
-        columnFactory.addOptionalColumn(PIAConstants.MZTAB_MISSED_CLEAVAGES_COLUMN_NAME, Integer.class);
+        psmColumnFactory.addOptionalColumn(PIAConstants.MZTAB_MISSED_CLEAVAGES_COLUMN_NAME, Integer.class);
 
         // add optional column for decoys
-        CVParam decoyColumnParam =
+        decoyColumnParam =
                 new CVParam(OntologyConstants.CV_PSI_MS_LABEL,
                         OntologyConstants.DECOY_PEPTIDE.getPsiAccession(),
                         OntologyConstants.DECOY_PEPTIDE.getPsiName(),
                         null);
-        columnFactory.addOptionalColumn(decoyColumnParam, String.class);
+        psmColumnFactory.addOptionalColumn(decoyColumnParam, String.class);
 
-        // maps from the peptide's stringID to the peptide
-        Map<String, ReportPeptide> reportPeptides = null;
-
-        String peptideIdColumnName = null;
-        CVParam peptideQValueColumn = null;
-        CVParam peptideFDRScoreColumn = null;
+        reportPeptides = null;
+        peptideIdColumnName = null;
+        peptideQValueColumnParam = null;
+        peptideFDRScoreColumnParam = null;
         if (peptideLevelStatistics) {
             // TODO add other params, if they are calculated
             peptideIdColumnName = "peptide_id";
-            columnFactory.addOptionalColumn(peptideIdColumnName, String.class);
+            psmColumnFactory.addOptionalColumn(peptideIdColumnName, String.class);
 
-            peptideQValueColumn = createPeptideQValueColumnIfAppropriate(columnFactory);
+            peptideQValueColumnParam = createPeptideQValueColumnIfAppropriate(psmColumnFactory);
 
-            peptideFDRScoreColumn = createPeptideFDRSCoreColumnIfAppropriate(columnFactory);
+            peptideFDRScoreColumnParam = createPeptideFDRSCoreColumnIfAppropriate(psmColumnFactory);
 
             List<AbstractFilter> peptideFilters = null;
             if (filterExport) {
@@ -1032,238 +1109,277 @@ public class MzTabExporter {
         }
 
         // if it is set, write the reliability column
+        psmReliabilityColumn = reliabilityCol;
         if (reliabilityCol) {
             // there seems to be a bug in the setting of the correct column for the reliability, therefore put it to the end
-            columnFactory.addReliabilityOptionalColumn("9999");
+            psmColumnFactory.addReliabilityOptionalColumn("9999");
         }
 
-        outWriter.append(columnFactory.toString());
+        outWriter.append(psmColumnFactory.toString());
         outWriter.append(MZTabConstants.NEW_LINE);
 
-        // cache the databaseRefs to an array with name and version
-        Map<String, String[]> dbRefToDbNameAndVersion =
-                new HashMap<>();
+        // the rows are rendered concurrently, so the software params are cached beforehand
+        softwareParams = createSoftwareParams();
 
-        // cache the softwareRefs to the Params
-        Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams =
-                new HashMap<>();
+        // the matches in the caches depend on their filling order, so the
+        // modifications are resolved in the order of the report beforehand
+        resolveModifications(report);
 
-        // the ID of the currently processed PSM
+        // the IDs of the PSMs, in PSM sets the ID does NOT represent the ID
+        // from the PIA file but is an incremental value
+        int[] mzTabPSMids = new int[report.size()];
         int mzTabPSMid = 0;
+        for (int idx = 0; idx < mzTabPSMids.length; idx++) {
+            PSMReportItem psmItem = report.get(idx);
+            if (psmItem instanceof ReportPSM) {
+                mzTabPSMid = ((ReportPSM) psmItem).getId().intValue();
+            } else if (psmItem instanceof ReportPSMSet) {
+                mzTabPSMid++;
+            }
+            mzTabPSMids[idx] = mzTabPSMid;
+        }
 
         LOGGER.info("going to write " + report.size() + " PSMs");
 
         // now write the PSMs
         int nrPSMsExport = report.size();
-        int count = 0;
-        for (PSMReportItem psmItem : report) {
-            PSM mztabPsm = new PSM(columnFactory, metadata);
+        OrderedRowWriter.writeRows(outWriter, nrPSMsExport, RENDER_CHUNK_SIZE, nrThreads, (from, to, chunk, rows) -> {
+            for (int idx = from; idx < to; idx++) {
+                appendPSMRows(report.get(idx), mzTabPSMids[idx], rows);
+            }
+        }, (from, to) -> {
+            if (to / 10000 > from / 10000) {
+                LOGGER.debug("exported " + to + " / " + nrPSMsExport + " PSMs "
+                        + '(' + (100.0 * to / nrPSMsExport) + "%)");
+            }
+        });
+    }
 
-            mztabPsm.setSequence(psmItem.getSequence());
 
-            List<ReportPSM> reportPSMs = new ArrayList<>();
+    /**
+     * Creates the mzTab PSM for the given item and appends its rows (one per
+     * accession) to the rows.
+     *
+     * @param psmItem
+     * @param mzTabPSMid
+     * @param rows
+     */
+    private void appendPSMRows(PSMReportItem psmItem, int mzTabPSMid, StringBuilder rows) {
+        PSM mztabPsm = new PSM(psmColumnFactory, metadata);
 
-            if (psmItem instanceof ReportPSM) {
-                reportPSMs.add((ReportPSM) psmItem);
+        mztabPsm.setSequence(psmItem.getSequence());
 
-                mzTabPSMid = ((ReportPSM) psmItem).getId().intValue();
-            } else if (psmItem instanceof ReportPSMSet) {
-                reportPSMs.addAll(((ReportPSMSet) psmItem).getPSMs());
+        List<ReportPSM> reportPSMs = new ArrayList<>();
 
-                // in PSM sets, the ID does NOT represent the ID from the PIA
-                // file but is an incremental value
-                mzTabPSMid++;
-            }
+        if (psmItem instanceof ReportPSM) {
+            reportPSMs.add((ReportPSM) psmItem);
+        } else if (psmItem instanceof ReportPSMSet) {
+            reportPSMs.addAll(((ReportPSMSet) psmItem).getPSMs());
+        }
 
-            mztabPsm.setPSM_ID(mzTabPSMid);
+        mztabPsm.setPSM_ID(mzTabPSMid);
 
-            // collect the SpectrumIdRefs and softwareRefs from the ReportPSMs
-            Set<String> softwareRefs = new HashSet<>();
-            for (ReportPSM reportPSM : reportPSMs) {
-                addSpecRefForPSM(mztabPsm, reportPSM.getSourceID(),
-                        reportPSM.getSpectrum().getSpectrumIdentification().getId());
+        // collect the SpectrumIdRefs and softwareRefs from the ReportPSMs
+        Set<String> softwareRefs = new HashSet<>();
+        for (ReportPSM reportPSM : reportPSMs) {
+            addSpecRefForPSM(mztabPsm, reportPSM.getSourceID(),
+                    reportPSM.getSpectrum().getSpectrumIdentification().getId());
 
-                softwareRefs.add(reportPSM.getFile().getAnalysisProtocolCollection().
-                        getSpectrumIdentificationProtocol().get(0).getAnalysisSoftwareRef());
-            }
+            softwareRefs.add(reportPSM.getFile().getAnalysisProtocolCollection().
+                    getSpectrumIdentificationProtocol().get(0).getAnalysisSoftwareRef());
+        }
 
-            if (psmItem.getAccessions().size() > 1) {
-                mztabPsm.setUnique(MZBoolean.False);
-            } else {
-                mztabPsm.setUnique(MZBoolean.True);
-            }
+        if (psmItem.getAccessions().size() > 1) {
+            mztabPsm.setUnique(MZBoolean.False);
+        } else {
+            mztabPsm.setUnique(MZBoolean.True);
+        }
 
-            for (Map.Entry<Integer, Modification> modIt : psmItem.getModifications().entrySet()) {
-                uk.ac.ebi.pride.jmztab.model.Modification mod;
-                mod = getUnimodModification(modIt.getValue());
+        for (Map.Entry<Integer, Modification> modIt : psmItem.getModifications().entrySet()) {
+            uk.ac.ebi.pride.jmztab.model.Modification mod;
+            mod = getUnimodModification(modIt.getValue());
 
-                mod.addPosition(modIt.getKey(), null);
-                mztabPsm.addModification(mod);
-            }
+            mod.addPosition(modIt.getKey(), null);
+            mztabPsm.addModification(mod);
+        }
 
-            if (psmItem.getRetentionTime() != null) {
-                mztabPsm.setRetentionTime(
-                        psmItem.getRetentionTime().toString());
-            }
+        if (psmItem.getRetentionTime() != null) {
+            mztabPsm.setRetentionTime(
+                    psmItem.getRetentionTime().toString());
+        }
 
-            mztabPsm.setCharge(psmItem.getCharge());
-            mztabPsm.setExpMassToCharge(psmItem.getMassToCharge());
-            mztabPsm.setCalcMassToCharge(
-                    psmItem.getMassToCharge() - psmItem.getDeltaMass());
+        mztabPsm.setCharge(psmItem.getCharge());
+        mztabPsm.setExpMassToCharge(psmItem.getMassToCharge());
+        mztabPsm.setCalcMassToCharge(
+                psmItem.getMassToCharge() - psmItem.getDeltaMass());
 
-            // add the scores
-            boolean calculatedPIAScore = false;
-            Reliability reliability = null;
-            for (Map.Entry<String, Integer> scoreIt : psmScoreShortToId.entrySet()) {
-                Double scoreValue;
+        // add the scores
+        boolean calculatedPIAScore = false;
+        Reliability reliability = null;
+        for (Map.Entry<String, Integer> scoreIt : psmScoreShortToId.entrySet()) {
+            Double scoreValue;
 
-                if (psmItem instanceof ReportPSM) {
-                    scoreValue = psmItem.getScore(scoreIt.getKey());
-                } else {
-                    // psmItem is a ReportPSMSet
-                    scoreValue = ((ReportPSMSet) psmItem).getBestScore(scoreIt.getKey());
-                    if (scoreValue.equals(Double.NaN)) {
-                        scoreValue = psmItem.getScore(scoreIt.getKey());
-                    }
-                }
+            if (psmItem instanceof ReportPSM) {
+                scoreValue = psmItem.getScore(scoreIt.getKey());
+            } else {
+                // psmItem is a ReportPSMSet
+                scoreValue = ((ReportPSMSet) psmItem).getBestScore(scoreIt.getKey());
                 if (scoreValue.equals(Double.NaN)) {
-                    scoreValue = null;
+                    scoreValue = psmItem.getScore(scoreIt.getKey());
                 }
-                mztabPsm.setSearchEngineScore(scoreIt.getValue(), scoreValue);
-
-                ScoreModelEnum model = ScoreModelEnum.getModelByDescription(scoreIt.getKey());
-                if (model.equals(ScoreModelEnum.PSM_LEVEL_FDR_SCORE)
-                        || model.equals(ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE)) {
-                    calculatedPIAScore = true;
-
-                    if (reliabilityCol) {
-                        if ((scoreValue != null) && (scoreValue <= 0.01)) {
-                            reliability = Reliability.High;
-                        } else if ((scoreValue != null) && (scoreValue <= 0.05)) {
-                            reliability = Reliability.Medium;
-                        } else {
-                            reliability = Reliability.Poor;
-                        }
+            }
+            if (scoreValue.equals(Double.NaN)) {
+                scoreValue = null;
+            }
+            mztabPsm.setSearchEngineScore(scoreIt.getValue(), scoreValue);
+
+            ScoreModelEnum model = ScoreModelEnum.getModelByDescription(scoreIt.getKey());
+            if (model.equals(ScoreModelEnum.PSM_LEVEL_FDR_SCORE)
+                    || model.equals(ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE)) {
+                calculatedPIAScore = true;
+
+                if (psmReliabilityColumn) {
+                    if ((scoreValue != null) && (scoreValue <= 0.01)) {
+                        reliability = Reliability.High;
+                    } else if ((scoreValue != null) && (scoreValue <= 0.05)) {
+                        reliability = Reliability.Medium;
+                    } else {
+                        reliability = Reliability.Poor;
                     }
                 }
             }
+        }
 
-            // add PIA, if a score was calculated by it
-            if (calculatedPIAScore) {
-                mztabPsm.addSearchEngineParam(piaParam);
-            }
+        // add PIA, if a score was calculated by it
+        if (calculatedPIAScore) {
+            mztabPsm.addSearchEngineParam(piaParam);
+        }
 
-            // add the search engines (i.e. analysisSoftwares)
-            for (String softwareRef : softwareRefs) {
-                uk.ac.ebi.pride.jmztab.model.Param softwareParam =
-                        softwareParams.get(softwareRef);
+        // add the search engines (i.e. analysisSoftwares)
+        for (String softwareRef : softwareRefs) {
+            mztabPsm.addSearchEngineParam(softwareParams.get(softwareRef));
+        }
 
-                if (softwareParam == null) {
-                    AnalysisSoftware software = piaModeller.getAnalysisSoftwares().get(softwareRef);
+        // if the (combined) FDRScore is calculated, give the reliability
+        // 1: high reliability     (combined) FDRScore <= 0.01
+        // 2: medium reliability   (combined) FDRScore <= 0.05
+        // 3: poor reliability     (combined) FDRScore >  0.05
+        if (reliability != null) {
+            mztabPsm.setReliability(reliability);
+        }
 
-                    Param softwareName = software.getSoftwareName();
-                    if (softwareName != null) {
-                        if (softwareName.getCvParam() != null) {
-                            CvParam param = softwareName.getCvParam();
 
-                            softwareParam = new CVParam(param.getCvRef(),
-                                    param.getAccession(), param.getName(),
-                                    software.getVersion());
-                        } else if (softwareName.getUserParam() != null) {
-                            UserParam param = softwareName.getUserParam();
+        mztabPsm.setOptionColumnValue(
+                PIAConstants.MZTAB_MISSED_CLEAVAGES_COLUMN_NAME,
+                psmItem.getMissedCleavages());
 
-                            softwareParam =
-                                    new uk.ac.ebi.pride.jmztab.model.UserParam(
-                                            param.getName(), software.getVersion());
-                        }
-                    }
+        mztabPsm.setOptionColumnValue(decoyColumnParam,
+                psmItem.getIsDecoy() ? "1" : "0");
 
-                    softwareParams.put(softwareRef, softwareParam);
-                }
+        // one line and some special info per accession
+        for (Accession accession : psmItem.getAccessions()) {
+            mztabPsm.setAccession(accession.getAccession());
+
+            // set the first available dbName and dbVersion
+            for (String dbRef : accession.getSearchDatabaseRefs()) {
+                String[] nameAndVersion = getDatabaseNameAndVersion(dbRef);
 
-                mztabPsm.addSearchEngineParam(softwareParam);
+                if (nameAndVersion[0] != null) {
+                    mztabPsm.setDatabase(nameAndVersion[0]);
+                    mztabPsm.setDatabaseVersion(nameAndVersion[1]);
+                }
             }
 
-            // if the (combined) FDRScore is calculated, give the reliability
-            // 1: high reliability     (combined) FDRScore <= 0.01
-            // 2: medium reliability   (combined) FDRScore <= 0.05
-            // 3: poor reliability     (combined) FDRScore >  0.05
-            if (reliability != null) {
-                mztabPsm.setReliability(reliability);
+            String[] occData = getPeptideOccurrences(psmItem.getPeptide(), accession.getAccession());
+            if (occData != null) {
+                mztabPsm.setPre(occData[0]);
+                mztabPsm.setPost(occData[1]);
+                mztabPsm.setStart(occData[2]);
+                mztabPsm.setEnd(occData[3]);
             }
 
+            if (reportPeptides != null) {
+                addPeptideLevelColumns(mztabPsm, psmItem, reportPeptides,
+                        peptideIdColumnName, peptideQValueColumnParam, peptideFDRScoreColumnParam);
+            }
 
-            mztabPsm.setOptionColumnValue(
-                    PIAConstants.MZTAB_MISSED_CLEAVAGES_COLUMN_NAME,
-                    psmItem.getMissedCleavages());
-
-            mztabPsm.setOptionColumnValue(decoyColumnParam,
-                    psmItem.getIsDecoy() ? "1" : "0");
-
-            // one line and some special info per accession
-            for (Accession accession : psmItem.getAccessions()) {
-                mztabPsm.setAccession(accession.getAccession());
-
-                // set the first available dbName and dbVersion
-                for (String dbRef : accession.getSearchDatabaseRefs()) {
-                    String[] nameAndVersion =
-                            dbRefToDbNameAndVersion.get(dbRef);
-                    // cache the name and version of databases
-                    if (nameAndVersion == null) {
-                        SearchDatabase sDB = piaModeller.getSearchDatabases().get(dbRef);
-
-                        if (sDB.getDatabaseName() != null) {
-                            nameAndVersion = new String[2];
-                            if (sDB.getDatabaseName().getCvParam() != null) {
-                                nameAndVersion[0] =
-                                        sDB.getDatabaseName().getCvParam().getName();
-                            } else if (sDB.getDatabaseName().getUserParam() != null) {
-                                nameAndVersion[0] =
-                                        sDB.getDatabaseName().getUserParam().getName();
-                            }
-                            nameAndVersion[1] = sDB.getVersion();
-
-                        } else if (sDB.getName() != null) {
-                            nameAndVersion = new String[2];
-                            nameAndVersion[0] = sDB.getName();
-                            nameAndVersion[1] = sDB.getVersion();
-                        } else {
-                            nameAndVersion = new String[1];
-                            nameAndVersion[0] = null;
-                        }
+            rows.append(mztabPsm.toString());
+            rows.append(MZTabConstants.NEW_LINE);
+        }
+    }
 
-                        dbRefToDbNameAndVersion.put(dbRef, nameAndVersion);
-                    }
 
-                    if (nameAndVersion[0] != null) {
-                        mztabPsm.setDatabase(nameAndVersion[0]);
-                        mztabPsm.setDatabaseVersion(nameAndVersion[1]);
-                    }
+    /**
+     * Creates the mzTab params for all analysis softwares of the modeller.
+     *
+     * @return mapping from the softwareRef to the param (which may be null)
+     */
+    private Map<String, uk.ac.ebi.pride.jmztab.model.Param> createSoftwareParams() {
+        Map<String, uk.ac.ebi.pride.jmztab.model.Param> params = new HashMap<>();
+
+        for (Map.Entry<String, AnalysisSoftware> softwareIt : piaModeller.getAnalysisSoftwares().entrySet()) {
+            AnalysisSoftware software = softwareIt.getValue();
+            uk.ac.ebi.pride.jmztab.model.Param softwareParam = null;
+
+            Param softwareName = software.getSoftwareName();
+            if (softwareName != null) {
+                if (softwareName.getCvParam() != null) {
+                    CvParam param = softwareName.getCvParam();
+
+                    softwareParam = new CVParam(param.getCvRef(),
+                            param.getAccession(), param.getName(),
+                            software.getVersion());
+                } else if (softwareName.getUserParam() != null) {
+                    UserParam param = softwareName.getUserParam();
+
+                    softwareParam =
+                            new uk.ac.ebi.pride.jmztab.model.UserParam(
+                                    param.getName(), software.getVersion());
                 }
+            }
+
+            params.put(softwareIt.getKey(), softwareParam);
+        }
+
+        return params;
+    }
 
-                String[] occData = getPeptideOccurrences(psmItem.getPeptide(), accession.getAccession());
-                if (occData != null) {
-                    mztabPsm.setPre(occData[0]);
-                    mztabPsm.setPost(occData[1]);
-                    mztabPsm.setStart(occData[2]);
-                    mztabPsm.setEnd(occData[3]);
-                }
 
-                if (peptideLevelStatistics) {
-                    addPeptideLevelColumns(mztabPsm, psmItem, reportPeptides,
-                            peptideIdColumnName, peptideQValueColumn, peptideFDRScoreColumn);
+    /**
+     * Returns the name and version (if available) of the given search
+     * database. The values are cached.
+     *
+     * @param dbRef
+     * @return an array with the name (or null) and, if the name is given, the
+     * version
+     */
+    private String[] getDatabaseNameAndVersion(String dbRef) {
+        return dbRefToDbNameAndVersion.computeIfAbsent(dbRef, ref -> {
+            SearchDatabase sDB = piaModeller.getSearchDatabases().get(ref);
+            String[] nameAndVersion;
+
+            if (sDB.getDatabaseName() != null) {
+                nameAndVersion = new String[2];
+                if (sDB.getDatabaseName().getCvParam() != null) {
+                    nameAndVersion[0] =
+                            sDB.getDatabaseName().getCvParam().getName();
+                } else if (sDB.getDatabaseName().getUserParam() != null) {
+                    nameAndVersion[0] =
+                            sDB.getDatabaseName().getUserParam().getName();
                 }
+                nameAndVersion[1] = sDB.getVersion();
 
-                outWriter.append(mztabPsm.toString());
-                outWriter.append(MZTabConstants.NEW_LINE);
+            } else if (sDB.getName() != null) {
+                nameAndVersion = new String[2];
+                nameAndVersion[0] = sDB.getName();
+                nameAndVersion[1] = sDB.getVersion();
+            } else {
+                nameAndVersion = new String[1];
+                nameAndVersion[0] = null;
             }
 
-            count++;
-            if (count % 10000 == 0) {
-                LOGGER.debug("exported " + count + " / " + nrPSMsExport + " PSMs "
-                        + '(' + (100.0 * count / nrPSMsExport) + "%)");
-            }
-        }
+            return nameAndVersion;
+        });
     }
 
 
@@ -1428,15 +1544,30 @@ public class MzTabExporter {
         outWriter.append(columnFactory.toString());
         outWriter.append(MZTabConstants.NEW_LINE);
 
-        // cache the databaseRefs to an array with name and version
-        Map<String, String[]> dbRefToDbNameAndVersion = new HashMap<>();
+        // the rows are rendered concurrently, so the coverages and spectra are resolved beforehand
+        LazyReportValues.resolveProteins(report);
+
+        // each chunk collects its PSMs, these are merged in the order of the proteins
+        int nrChunks = OrderedRowWriter.getNumberOfChunks(report.size(), RENDER_CHUNK_SIZE);
+        List<Map<String, PSMReportItem>> chunksPSMs = new ArrayList<>(nrChunks);
+        for (int chunk = 0; chunk < nrChunks; chunk++) {
+            chunksPSMs.add(new LinkedHashMap<>());
+        }
 
-        for (ReportProtein reportProtein : report) {
-            Protein mzTabProtein = createMzTabProtein(reportProtein, columnFactory, dbRefToDbNameAndVersion,
-                    reportPSMs, psmSetSettings, msRunMap);
+        OrderedRowWriter.writeRows(outWriter, report.size(), RENDER_CHUNK_SIZE, nrThreads, (from, to, chunk, rows) -> {
+            for (int idx = from; idx < to; idx++) {
+                Protein mzTabProtein = createMzTabProtein(report.get(idx), columnFactory,
+                        chunksPSMs.get(chunk), psmSetSettings, msRunMap);
 
-            outWriter.append(mzTabProtein.toString());
-            outWriter.append(MZTabConstants.NEW_LINE);
+                rows.append(mzTabProtein.toString());
+                rows.append(MZTabConstants.NEW_LINE);
+            }
+        }, (from, to) -> {});
+
+        for (Map<String, PSMReportItem> chunkPSMs : chunksPSMs) {
+            for (Map.Entry<String, PSMReportItem> psmIt : chunkPSMs.entrySet()) {
+                reportPSMs.putIfAbsent(psmIt.getKey(), psmIt.getValue());
+            }
         }
     }
 
@@ -1446,14 +1577,13 @@ public class MzTabExporter {
      *
      * @param reportProtein
      * @param proteinColumnFactory
-     * @param dbRefToDbNameAndVersion
      * @param reportPSMs
      * @param psmSetSettings
      * @param msRunMap
      * @return
      */
     private Protein createMzTabProtein(ReportProtein reportProtein, MZTabColumnFactory proteinColumnFactory,
-            Map<String, String[]> dbRefToDbNameAndVersion, Map<String, PSMReportItem> reportPSMs,
+            Map<String, PSMReportItem> reportPSMs,
             Map<String, Boolean> psmSetSettings, Map<Integer, MsRun> msRunMap) {
         Protein mzTabProtein = new Protein(proteinColumnFactory);
 
@@ -1471,33 +1601,7 @@ public class MzTabExporter {
 
         // set the first available dbName and dbVersion of the representative
         for (String dbRef : representative.getSearchDatabaseRefs()) {
-            String[] nameAndVersion = dbRefToDbNameAndVersion.get(dbRef);
-            // cache the name and version of databases
-            if (nameAndVersion == null) {
-                SearchDatabase sDB = piaModeller.getSearchDatabases().get(dbRef);
-
-                if (sDB.getDatabaseName() != null) {
-                    nameAndVersion = new String[2];
-                    if (sDB.getDatabaseName().getCvParam() != null) {
-                        nameAndVersion[0] =
-                                sDB.getDatabaseName().getCvParam().getName();
-                    } else if (sDB.getDatabaseName().getUserParam() != null) {
-                        nameAndVersion[0] =
-                                sDB.getDatabaseName().getUserParam().getName();
-                    }
-                    nameAndVersion[1] = sDB.getVersion();
-
-                } else if (sDB.getName() != null) {
-                    nameAndVersion = new String[2];
-                    nameAndVersion[0] = sDB.getName();
-                    nameAndVersion[1] = sDB.getVersion();
-                } else {
-                    nameAndVersion = new String[1];
-                    nameAndVersion[0] = null;
-                }
-
-                dbRefToDbNameAndVersion.put(dbRef, nameAndVersion);
-            }
+            String[] nameAndVersion = getDatabaseNameAndVersion(dbRef);
 
             if (nameAndVersion[0] != null) {
                 mzTabProtein.setDatabase(nameAndVersion[0]);
@@ -1624,9 +1728,27 @@ public class MzTabExporter {
 
 
     /**
-     * Get the Unimod modification for the Modification. If this is not yet in
-     * the caches, create it. If there is no UniMod modification for the
-     * residue, mass and possible name, create a simple ChemMod modification.
+     * Resolves the UniMod modifications of all modifications in the given
+     * report sequentially and stores them in the resolved modifications.
+     *
+     * @param report
+     */
+    private void resolveModifications(List<PSMReportItem> report) {
+        for (PSMReportItem psmItem : report) {
+            for (Modification modification : psmItem.getModifications().values()) {
+                if (!resolvedModifications.containsKey(modification)) {
+                    resolvedModifications.put(modification, getOrCreateCachedModification(modification));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Get the Unimod modification for the Modification, which must have been
+     * resolved by {@link #resolveModifications(List)} before. If there is no
+     * UniMod modification for the residue, mass and possible name, create a
+     * simple ChemMod modification.
      *
      * @param modification
      * @return
@@ -1634,12 +1756,7 @@ public class MzTabExporter {
     private uk.ac.ebi.pride.jmztab.model.Modification getUnimodModification(Modification modification) {
         uk.ac.ebi.pride.jmztab.model.Modification mod;
 
-        ModT uniMod = getCachedModification(modification);
-
-        if (uniMod == null) {
-            // modification was not yet cached
-            uniMod = createNewCachedModification(modification);
-        }
+        ModT uniMod = resolvedModifications.get(modification);
 
         if (uniMod != null) {
             mod = new uk.ac.ebi.pride.jmztab.model.Modification(
@@ -1658,6 +1775,25 @@ public class MzTabExporter {
     }
 
 
+    /**
+     * Gets the ModT type modification of the given Modification from the
+     * caches or creates it.
+     *
+     * @param modification
+     * @return
+     */
+    private ModT getOrCreateCachedModification(Modification modification) {
+        ModT uniMod = getCachedModification(modification);
+
+        if (uniMod == null) {
+            // modification was not yet cached
+            uniMod = createNewCachedModification(modification);
+        }
+
+        return uniMod;
+    }
+
+
     /**
      * Check in the caches for a ModT type modification of the given
      * Modification and return it, if it was found.
@@ -1696,10 +1832,11 @@ public class MzTabExporter {
     private ModT getModInResAndMassCache(Modification modification) {
         String residue = modification.getResidue().toString();
 
-        Set<ModT> possibleMods = new HashSet<>();
-        Map<Double, Set<ModT>> massToMods = resAndMassToModifications.get(residue);
-        if (massToMods != null) {
-            massToMods.entrySet().stream().filter(massModsIt -> Math.abs(massModsIt.getKey() - modification.getMass()) <= UnimodParser.UNIMOD_MASS_TOLERANCE).forEach(massModsIt -> possibleMods.addAll(massModsIt.getValue()));
+        Set<ModT> possibleMods = new LinkedHashSet<>();
+        ResidueModifications residueMods = resAndMassToModifications.get(residue);
+        if (residueMods != null) {
+            residueMods.addModificationsInTolerance(modification.getMass(),
+                    UnimodParser.UNIMOD_MASS_TOLERANCE, possibleMods);
         }
 
         ModT uniMod = null;
@@ -1740,9 +1877,8 @@ public class MzTabExporter {
             accessionsToModifications.put(uniMod.getRecordId().toString(), uniMod);
 
             String residue = modification.getResidue().toString();
-            Map<Double, Set<ModT>> massToMods = resAndMassToModifications.computeIfAbsent(residue, k -> new HashMap<>());
-            Set<ModT> massMods = massToMods.computeIfAbsent(uniMod.getDelta().getMonoMass(), k -> new HashSet<>());
-            massMods.add(uniMod);
+            resAndMassToModifications.computeIfAbsent(residue, k -> new ResidueModifications())
+                    .add(uniMod.getDelta().getMonoMass(), uniMod);
         }
 
         return uniMod;
@@ -1836,4 +1972,52 @@ public class MzTabExporter {
         // TODO: implement
         // this must still be able to edit the modifications, therefore the metadata must not be ready yet...
     }
+
+
+    /**
+     * The cached modifications of one residue, sorted by their mono delta
+     * masses, so that the modifications in a tolerance can be found by a
+     * binary search.
+     */
+    private static class ResidueModifications {
+        /** the sorted distinct masses */
+        private double[] masses = new double[0];
+
+        /** the modifications for each mass */
+        private final List<Set<ModT>> modifications = new ArrayList<>();
+
+
+        private void add(double mass, ModT mod) {
+            int idx = Arrays.binarySearch(masses, mass);
+            if (idx >= 0) {
+                modifications.get(idx).add(mod);
+                return;
+            }
+
+            idx = -idx - 1;
+            double[] newMasses = new double[masses.length + 1];
+            System.arraycopy(masses, 0, newMasses, 0, idx);
+            newMasses[idx] = mass;
+            System.arraycopy(masses, idx, newMasses, idx + 1, masses.length - idx);
+            masses = newMasses;
+
+            Set<ModT> mods = new HashSet<>();
+            mods.add(mod);
+            modifications.add(idx, mods);
+        }
+
+
+        private void addModificationsInTolerance(double mass, double tolerance,
+                Set<ModT> possibleMods) {
+            int idx = Arrays.binarySearch(masses, mass - tolerance);
+            if (idx < 0) {
+                idx = -idx - 1;
+            }
+
+            while ((idx < masses.length) && (masses[idx] <= mass + tolerance)) {
+                possibleMods.addAll(modifications.get(idx));
+                idx++;
+            }
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import de.mpc.pia.tools.OrderedPipeline;
+import de.mpc.pia.tools.PIATools;
+
+
+/**
+ * Renders the rows of an export in chunks by a pool of worker threads and
+ * writes the chunks in their original order, so the output does not depend on
+ * the number of threads.
+ *
+ * @author julian
+ *
+ */
+final class OrderedRowWriter {
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private OrderedRowWriter() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Returns the number of chunks for the given number of items.
+     *
+     * @param nrItems
+     * @param chunkSize
+     * @return
+     */
+    static int getNumberOfChunks(int nrItems, int chunkSize) {
+        return (nrItems + chunkSize - 1) / chunkSize;
+    }
+
+
+    /**
+     * Renders the rows of the items in chunks of the given size and writes
+     * them in their original order. The chunks are rendered by a pool of
+     * worker threads, while the calling thread writes the finished chunks.
+     *
+     * @param writer the writer for the rows
+     * @param nrItems the number of items to render
+     * @param chunkSize the number of items in one chunk
+     * @param nrThreads the number of worker threads, all available processors
+     * are used, if this is smaller than 1
+     * @param renderer renders the rows of one chunk
+     * @param progress called after each written chunk
+     * @throws IOException
+     */
+    static void writeRows(Writer writer, int nrItems, int chunkSize, int nrThreads,
+            ChunkRenderer renderer, ChunkProgress progress) throws IOException {
+        int nrUsedThreads = PIATools.resolveThreads(nrThreads);
+
+        if ((nrUsedThreads < 2) || (nrItems <= chunkSize)) {
+            // render in the calling thread, reusing the buffer
+            StringBuilder rows = new StringBuilder();
+            int chunk = 0;
+            for (int from = 0; from < nrItems; from += chunkSize) {
+                int to = Math.min(from + chunkSize, nrItems);
+                rows.setLength(0);
+                renderer.render(from, to, chunk++, rows);
+                writer.append(rows);
+                progress.written(from, to);
+            }
+            return;
+        }
+
+        int[] nextChunk = {0};
+        OrderedPipeline.process(
+                () -> {
+                    int from = nextChunk[0] * chunkSize;
+                    return (from < nrItems) ? nextChunk[0]++ : null;
+                },
+                chunk -> {
+                    int from = chunk * chunkSize;
+                    int to = Math.min(from + chunkSize, nrItems);
+                    StringBuilder rows = new StringBuilder();
+                    renderer.render(from, to, chunk, rows);
+                    return new RenderedChunk(from, to, rows);
+                },
+                rendered -> {
+                    writer.append(rendered.rows);
+                    progress.written(rendered.from, rendered.to);
+                },
+                nrUsedThreads, "rendering rows");
+    }
+
+
+    /**
+     * The rendered rows of a chunk.
+     */
+    private static class RenderedChunk {
+        private final int from;
+        private final int to;
+        private final StringBuilder rows;
+
+
+        private RenderedChunk(int from, int to, StringBuilder rows) {
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
+    }
+
+
+    /**
+     * Renders the rows of a chunk of items.
+     */
+    @FunctionalInterface
+    interface ChunkRenderer {
+        /**
+         * Renders the items from (inclusive) to (exclusive) into the rows.
+         *
+         * @param from
+         * @param to
+         * @param chunk the index of the chunk
+         * @param rows
+         */
+        void render(int from, int to, int chunk, StringBuilder rows);
+    }
+
+
+    /**
+     * Called after the rows of a chunk were written.
+     */
+    @FunctionalInterface
+    interface ChunkProgress {
+        void written(int from, int to);
+    }
+}
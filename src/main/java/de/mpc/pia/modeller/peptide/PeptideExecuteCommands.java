@@ -15,6 +15,7 @@ import de.mpc.pia.modeller.execute.ExecuteModelCommands;
 import de.mpc.pia.modeller.execute.xmlparams.ITEMType;
 import de.mpc.pia.modeller.execute.xmlparams.NODEType;
 import de.mpc.pia.modeller.execute.xmlparams.PossibleITEMType;
+import de.mpc.pia.modeller.exporter.ArrowExporter;
 import de.mpc.pia.modeller.exporter.CSVExporter;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
 import de.mpc.pia.modeller.report.filter.FilterComparator;
@@ -275,6 +276,9 @@ public enum PeptideExecuteCommands implements ExecuteModelCommands<PeptideModell
                 exportOK = exporter.exportToCSV(fileID, fileName,
                         exportPSMs, true, false,
                         true);
+            } else if ("arrow".equalsIgnoreCase(format)) {
+                ArrowExporter exporter = new ArrowExporter(piaModeller);
+                exportOK = exporter.exportPeptides(fileID, fileName, true);
             } else {
                 LOGGER.error("unsupported format: " + format);
                 exportOK = false;
@@ -289,10 +293,10 @@ public enum PeptideExecuteCommands implements ExecuteModelCommands<PeptideModell
                     "Additional parameters may be passed semicolon " +
                     "separated with the syntax param=arg[;arg2;...]." +
                     "valid parameters are:" +
-                    "\nformat: csv [default]" +
+                    "\nformat: csv [default], arrow" +
                     "\nfileID: default 0 (overview)" +
                     "\nfileName: the report file name [report.peptide.csv]" +
-                    "\nexportPSMs: defaults to false";
+                    "\nexportPSMs (CSV): defaults to false";
         }
 
         @Override
@@ -115,6 +115,31 @@ public class ReportPeptide implements Rankable, Filterable, FDRComputable, FDRSc
     }
 
 
+    /**
+     * Copy constructor, the copy has its own lists of PSMs and non-scoring
+     * PSMs and spectra, but shares the PSMs themselves.
+     *
+     * @param other
+     */
+    public ReportPeptide(ReportPeptide other) {
+        this.sequence = other.sequence;
+        this.stringID = other.stringID;
+        this.peptide = other.peptide;
+        rank = other.rank;
+        psmList = new ArrayList<>(other.psmList);
+        nonScoringPSMIDs = new HashSet<>(other.nonScoringPSMIDs);
+        nonScoringSpectraIDKeys = new HashSet<>(other.nonScoringSpectraIDKeys);
+        allSpectraKeySet = null;
+        maximalSpectraIdentificationSettings = null;
+        maximalNonRedundantSpectraIdentificationSettings = null;
+        isDecoy = other.isDecoy;
+        fdrValue = other.fdrValue;
+        qValue = other.qValue;
+        isFDRGood = other.isFDRGood;
+        fdrScore = other.fdrScore;
+    }
+
+
     /**
      * Returns the identifier for this peptide.<br/>
      * This would either simply be the sequence or the sequence and
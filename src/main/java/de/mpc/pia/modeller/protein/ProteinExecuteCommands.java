@@ -16,6 +16,7 @@ import de.mpc.pia.modeller.execute.ExecuteModelCommands;
 import de.mpc.pia.modeller.execute.xmlparams.ITEMType;
 import de.mpc.pia.modeller.execute.xmlparams.NODEType;
 import de.mpc.pia.modeller.execute.xmlparams.PossibleITEMType;
+import de.mpc.pia.modeller.exporter.ArrowExporter;
 import de.mpc.pia.modeller.exporter.CSVExporter;
 import de.mpc.pia.modeller.exporter.MzIdentMLExporter;
 import de.mpc.pia.modeller.exporter.MzTabExporter;
@@ -486,6 +487,9 @@ public enum ProteinExecuteCommands implements ExecuteModelCommands<ProteinModell
                 exportOK = exporter.exportToCSV(0L, fileName,
                         exportPSMs, exportPeptides, true,
                         true);
+            } else if ("arrow".equalsIgnoreCase(format)) {
+                ArrowExporter exporter = new ArrowExporter(piaModeller);
+                exportOK = exporter.exportProteins(fileName, true);
             }
 
             return exportOK;
@@ -498,7 +502,7 @@ public enum ProteinExecuteCommands implements ExecuteModelCommands<ProteinModell
                     + "Additional parameters may be passed semicolon "
                     + "separated with the syntax param=arg[;arg2;...]."
                     + "valid parameters are:"
-                    + "\nformat: csv [default], mzIdentML, mzTab"
+                    + "\nformat: csv [default], mzIdentML, mzTab, arrow"
                     + "\nfileName: the report file name [report.peptide.csv]"
                     + "\noneAccessionPerLine (CSV): write one accession per line (useful for spectral counting), defaults to false"
                     + "\nexportPeptides (CSV, mzTab): defaults to false"
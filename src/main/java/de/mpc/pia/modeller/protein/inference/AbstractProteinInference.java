@@ -2,6 +2,11 @@ package de.mpc.pia.modeller.protein.inference;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
@@ -22,6 +27,7 @@ import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
 import de.mpc.pia.modeller.report.filter.impl.PeptideScoreFilter;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.tools.LabelValueContainer;
+import de.mpc.pia.tools.PIATools;
 
 
 /**
@@ -48,6 +54,24 @@ public abstract class AbstractProteinInference implements Serializable {
     /** the number of allowed threads (smaller 1 = all available)*/
     private int allowedThreads;
 
+    /** the cache of the filtered inference inputs, may be null */
+    private transient InferenceInputCache inputCache;
+
+    /** the pool executing the parallel tasks of the currently running inference */
+    private transient ForkJoinPool executorPool;
+
+    /** the progress in percent, which was reached before the currently running parallel tasks */
+    private volatile double progress;
+
+    /** the progress in percent, which is reached, when the currently running parallel tasks are finished */
+    private volatile double parallelProgressEnd;
+
+    /** the number of work items of the currently running parallel tasks */
+    private volatile int nrParallelItems;
+
+    /** the number of finished work items of the currently running parallel tasks */
+    private final AtomicInteger nrFinishedParallelItems;
+
     /** the logger for this class */
     private static final Logger LOGGER = Logger.getLogger(AbstractProteinInference.class);
 
@@ -56,6 +80,11 @@ public abstract class AbstractProteinInference implements Serializable {
         filters = new ArrayList<>();
         currentScoring = null;
         allowedThreads = 0;
+        inputCache = null;
+        executorPool = null;
+        progress = 0.0;
+        nrParallelItems = 0;
+        nrFinishedParallelItems = new AtomicInteger(0);
     }
 
 
@@ -283,6 +312,38 @@ public abstract class AbstractProteinInference implements Serializable {
     }
 
 
+    /**
+     * Sets the cache for the filtered inference inputs. If set, the filtered
+     * peptides and components are reused by further inferences with the same
+     * PSM and peptide level filters.
+     *
+     * @param cache the cache or null, if no caching should be used
+     */
+    public void setInferenceInputCache(InferenceInputCache cache) {
+        this.inputCache = cache;
+    }
+
+
+    /**
+     * Getter for the cache of the filtered inference inputs.
+     */
+    public InferenceInputCache getInferenceInputCache() {
+        return inputCache;
+    }
+
+
+    /**
+     * Returns the number of threads, which are actually used for the
+     * inference, i.e. the allowed number of threads or all available
+     * processors, if the allowed threads are smaller 1.
+     *
+     * @return
+     */
+    protected int getNumberOfUsedThreads() {
+        return PIATools.resolveThreads(getAllowedThreads());
+    }
+
+
     /**
      * This method creates a Map from the groups' IDs to the associated
      * {@link ReportPeptide}s, which can be build and satisfy the currently set
@@ -459,6 +520,288 @@ public abstract class AbstractProteinInference implements Serializable {
     }
 
 
+    /**
+     * Processes the given work items in parallel with the number of allowed
+     * threads. Each work item is given to the task together with the result
+     * buffer of the executing worker, into which the task may put its results.
+     * The buffers of all workers are merged after all items are processed.
+     * <p>
+     * The workers take the items in the given order, so larger items should
+     * be put first for a good load balancing. While the items are processed,
+     * the progress goes linearly from the current value to progressEnd.
+     * <p>
+     * If a task fails, no further items are started and its exception is
+     * rethrown after the running tasks are finished, independent of the number
+     * of threads.
+     * <p>
+     * The executing threads are kept until {@link #shutdownParallelExecution()}
+     * is called, so this method can be called frequently during an inference.
+     *
+     * @param workItems the items to process
+     * @param task the task processing one item and putting its results into
+     * the given buffer
+     * @param progressEnd the progress, when all items are processed
+     * @return the merged results of all workers
+     */
+    protected <T, R> List<R> runInParallel(List<T> workItems, BiConsumer<T, List<R>> task,
+            double progressEnd) {
+        int nrWorkers = Math.min(getNumberOfUsedThreads(), workItems.size());
+
+        nrFinishedParallelItems.set(0);
+        parallelProgressEnd = progressEnd;
+        nrParallelItems = workItems.size();
+
+        List<List<R>> workerBuffers = new ArrayList<>(nrWorkers);
+        if (nrWorkers < 2) {
+            // no need for any overhead, process the item(s) in this thread
+            List<R> buffer = new ArrayList<>();
+            workerBuffers.add(buffer);
+            for (T item : workItems) {
+                task.accept(item, buffer);
+                nrFinishedParallelItems.incrementAndGet();
+            }
+        } else {
+            if (executorPool == null) {
+                executorPool = new ForkJoinPool(getNumberOfUsedThreads());
+            }
+
+            AtomicInteger nextItem = new AtomicInteger(0);
+            List<Future<?>> futures = new ArrayList<>(nrWorkers);
+            for (int i = 0; i < nrWorkers; i++) {
+                List<R> buffer = new ArrayList<>();
+                workerBuffers.add(buffer);
+
+                futures.add(executorPool.submit(() -> {
+                    int idx;
+                    while ((idx = nextItem.getAndIncrement()) < workItems.size()) {
+                        try {
+                            task.accept(workItems.get(idx), buffer);
+                        } catch (RuntimeException | Error e) {
+                            // the other workers take no further items
+                            nextItem.set(workItems.size());
+                            throw e;
+                        }
+                        nrFinishedParallelItems.incrementAndGet();
+                    }
+                }));
+            }
+
+            // wait for all workers, so that no task is running after a failure
+            Throwable failure = null;
+            try {
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.error("thread got interrupted!", e);
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                LOGGER.error("error while executing the inference in parallel", failure);
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw new IllegalStateException(failure);
+            }
+        }
+
+        List<R> results = new ArrayList<>(workerBuffers.stream().mapToInt(List::size).sum());
+        workerBuffers.forEach(results::addAll);
+
+        setProgress(progressEnd);
+        return results;
+    }
+
+
+    /**
+     * Shuts down the threads used by {@link #runInParallel(List, BiConsumer, double)}.
+     * This should be called at the end of each inference.
+     */
+    protected void shutdownParallelExecution() {
+        if (executorPool != null) {
+            executorPool.shutdown();
+            executorPool = null;
+        }
+    }
+
+
+    /**
+     * Creates the same Map as
+     * {@link #createFilteredReportPeptides(Map, Map, boolean, Map, Map)}, but
+     * processes the PIA trees of the groupMap in parallel with the number of
+     * allowed threads.
+     *
+     * @param groupMap
+     * @param considerModifications
+     * @param progressEnd the progress, when the filtering is finished
+     * @return
+     */
+    protected Map<Long, List<ReportPeptide>> createFilteredReportPeptidesByTrees(Map<Long, Group> groupMap,
+            Map<String, ReportPSMSet> reportPSMSetMap, boolean considerModifications,
+            Map<String, Boolean> psmSetSettings, Map<String, ReportPeptide> reportPeptideMap,
+            double progressEnd) {
+        Map<Long, Map<Long, Group>> treeGroupMap = new HashMap<>();
+        for (Map.Entry<Long, Group> groupIt : groupMap.entrySet()) {
+            treeGroupMap.computeIfAbsent(groupIt.getValue().getTreeID(), k -> new HashMap<>())
+                    .put(groupIt.getKey(), groupIt.getValue());
+        }
+
+        List<Map<Long, Group>> trees = new ArrayList<>(treeGroupMap.values());
+        trees.sort((t1, t2) -> Integer.compare(t2.size(), t1.size()));
+
+        List<Map<Long, List<ReportPeptide>>> treePeptideMaps = runInParallel(trees,
+                (Map<Long, Group> treeGroups, List<Map<Long, List<ReportPeptide>>> buffer) ->
+                        buffer.add(createFilteredReportPeptides(treeGroups, reportPSMSetMap,
+                                considerModifications, psmSetSettings, reportPeptideMap)),
+                progressEnd);
+
+        Map<Long, List<ReportPeptide>> peptidesMap = new HashMap<>(groupMap.size() / 2);
+        treePeptideMaps.forEach(peptidesMap::putAll);
+        return peptidesMap;
+    }
+
+
+    /**
+     * Splits the given groups into the connected components of the graph
+     * spanned by the groups and the filtered {@link ReportPeptide}s, i.e. two
+     * groups are in the same component, if they are (transitively) connected
+     * by any peptide, which passed the filters. Groups without any filtered
+     * peptides (direct or in their peptide children) are not returned.
+     * <p>
+     * A PIA tree often falls apart into several of these components after
+     * the filtering, which can then be inferred independently. The components
+     * are returned ordered by their size, the largest first.
+     *
+     * @param groupMap all groups, which should be used for the inference
+     * @param reportPeptidesMap the filtered peptides, mapping from the groups'
+     * IDs, as created by {@link #createFilteredReportPeptides(Map, Map, boolean, Map, Map)}
+     * @return
+     */
+    public List<Map<Long, Group>> createFilteredComponents(Map<Long, Group> groupMap,
+            Map<Long, List<ReportPeptide>> reportPeptidesMap) {
+        long[] groupIDs = new long[groupMap.size()];
+        int idx = 0;
+        for (Long groupID : groupMap.keySet()) {
+            groupIDs[idx++] = groupID;
+        }
+        UnionFind components = new UnionFind(groupIDs);
+
+        // mark the groups with filtered peptides and all their ancestors
+        boolean[] hasPeptides = new boolean[components.size()];
+        Deque<Group> toMark = new ArrayDeque<>();
+        for (Long groupID : reportPeptidesMap.keySet()) {
+            Group group = groupMap.get(groupID);
+            if (group != null) {
+                toMark.push(group);
+            }
+        }
+        while (!toMark.isEmpty()) {
+            Group group = toMark.pop();
+            int index = components.indexOf(group.getID());
+            if ((index >= 0) && !hasPeptides[index]) {
+                hasPeptides[index] = true;
+                toMark.addAll(group.getParents().values());
+            }
+        }
+
+        // connect the marked groups with their marked children
+        for (int index = 0; index < components.size(); index++) {
+            if (hasPeptides[index]) {
+                for (Group child : groupMap.get(components.getID(index)).getChildren().values()) {
+                    int childIndex = components.indexOf(child.getID());
+                    if ((childIndex >= 0) && hasPeptides[childIndex]) {
+                        components.union(index, childIndex);
+                    }
+                }
+            }
+        }
+
+        Map<Integer, Map<Long, Group>> rootComponents = new HashMap<>();
+        for (int index = 0; index < components.size(); index++) {
+            if (hasPeptides[index]) {
+                Long groupID = components.getID(index);
+                int componentSize = components.getSetSize(index);
+                rootComponents.computeIfAbsent(components.find(index),
+                        k -> new HashMap<>(componentSize))
+                        .put(groupID, groupMap.get(groupID));
+            }
+        }
+
+        List<Map<Long, Group>> componentList = new ArrayList<>(rootComponents.values());
+        componentList.sort((c1, c2) -> Integer.compare(c2.size(), c1.size()));
+
+        LOGGER.debug("groups split into " + componentList.size() + " filtered components");
+        return componentList;
+    }
+
+
+    /**
+     * Returns the filtered input of the inference, i.e. the filtered
+     * {@link ReportPeptide}s as created by
+     * {@link #createFilteredReportPeptidesByTrees(Map, Map, boolean, Map, Map, double)}
+     * and the components of the filtered PIA trees as created by
+     * {@link #createFilteredComponents(Map, Map)}. If an
+     * {@link InferenceInputCache} is set, the input is taken from the cache if
+     * possible and stored into it otherwise.
+     *
+     * @param groupMap
+     * @param reportPSMSetMap
+     * @param considerModifications
+     * @param psmSetSettings
+     * @param reportPeptides
+     * @param progressEnd the progress, when the input is created
+     * @return
+     */
+    protected InferenceInputCache.CachedInput getFilteredInferenceInput(Map<Long, Group> groupMap,
+            Map<String, ReportPSMSet> reportPSMSetMap, boolean considerModifications,
+            Map<String, Boolean> psmSetSettings, Collection<ReportPeptide> reportPeptides,
+            double progressEnd) {
+        InferenceInputCache cache = inputCache;
+        String key = null;
+
+        if (cache != null) {
+            List<RegisteredFilters> inputFilters = new ArrayList<>(getAvailablePSMFilters());
+            inputFilters.addAll(getAvailablePeptideFilters());
+
+            key = InferenceInputCache.createKey(
+                    filters.stream()
+                            .filter(filter -> inputFilters.contains(filter.getRegisteredFilter()))
+                            .collect(Collectors.toList()),
+                    considerModifications, psmSetSettings);
+
+            InferenceInputCache.CachedInput input = cache.getInput(key, groupMap, reportPSMSetMap);
+            if (input != null) {
+                LOGGER.info("using the cached filtered report peptides");
+                setProgress(progressEnd);
+                return input;
+            }
+        }
+
+        Map<Long, List<ReportPeptide>> filteredPeptides = createFilteredReportPeptidesByTrees(groupMap,
+                reportPSMSetMap, considerModifications, psmSetSettings,
+                sortPeptidesInMap(reportPeptides), progressEnd);
+        List<Map<Long, Group>> components = createFilteredComponents(groupMap, filteredPeptides);
+
+        if (cache != null) {
+            return cache.putInput(key, groupMap, reportPSMSetMap, filteredPeptides, components,
+                    reportPeptides);
+        } else {
+            return new InferenceInputCache.CachedInput(groupMap, reportPSMSetMap, filteredPeptides, components,
+                    reportPeptides);
+        }
+    }
+
+
     /**
      * Sorts the peptides from a collection into the Map needed by
      * {@link #createFilteredReportPeptides(Map, Map, boolean, Map, Map)}.
@@ -608,12 +951,30 @@ public abstract class AbstractProteinInference implements Serializable {
     }
 
 
+    /**
+     * Sets the current progress of the inference (between 0 and 100 percent).
+     *
+     * @param progress
+     */
+    protected void setProgress(double progress) {
+        nrParallelItems = 0;
+        this.progress = progress;
+    }
+
+
     /**
      * If polling of inference is enabled, return the current state of the
-     * progress (between 0 and 100 percent).
+     * progress (between 0 and 100 percent). This may be called from any
+     * thread while the inference is running.
      * @return
      */
     public Long getProgressValue() {
-        return 101L;
+        double currentProgress = progress;
+        int nrItems = nrParallelItems;
+        if (nrItems > 0) {
+            currentProgress += (parallelProgressEnd - currentProgress)
+                    * nrFinishedParallelItems.get() / nrItems;
+        }
+        return (long) currentProgress;
     }
 }
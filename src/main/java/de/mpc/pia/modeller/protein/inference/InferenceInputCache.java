@@ -0,0 +1,240 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.modeller.PeptideModeller;
+import de.mpc.pia.modeller.ReportChangeEvent;
+import de.mpc.pia.modeller.ReportChangeListener;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+
+
+/**
+ * Caches the filtered input of the protein inference, i.e. the filtered
+ * {@link ReportPeptide}s of the groups and the components of the filtered PIA
+ * trees. The input only depends on the PSM and peptide level filters of the
+ * inference, the considerModifications flag and the PSM set settings, so
+ * switching the inference method or the scoring can reuse it.
+ * <p>
+ * The cache is registered as {@link ReportChangeListener} at the PSM and
+ * peptide modeller and invalidated on any change of their reports, which may
+ * affect the inference (i.e. all but changes of single files' peptides).
+ * <p>
+ * The inference may alter the filtered peptides, therefore each run gets its
+ * own copies of the peptides created for the input by
+ * {@link CachedInput#getFilteredPeptides()}.
+ *
+ * @author julian
+ *
+ */
+public class InferenceInputCache implements ReportChangeListener {
+
+    /** the maximal number of cached inputs (for different filter settings) */
+    private static final int MAX_CACHED_INPUTS = 4;
+
+    /** the cached inputs, mapped by their keys, the eldest first */
+    private final Map<String, CachedInput> inputs;
+
+    /** the logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(InferenceInputCache.class);
+
+
+    public InferenceInputCache() {
+        inputs = new LinkedHashMap<>(MAX_CACHED_INPUTS + 1, 0.75f, true);
+    }
+
+
+    /**
+     * Creates the key of an inference input from the given settings.
+     *
+     * @param filters the PSM and peptide level filters of the inference
+     * @param considerModifications
+     * @param psmSetSettings
+     * @return
+     */
+    public static String createKey(List<AbstractFilter> filters, boolean considerModifications,
+            Map<String, Boolean> psmSetSettings) {
+        StringBuilder key = new StringBuilder();
+
+        for (AbstractFilter filter : filters) {
+            key.append(filter.getFilteringListName())
+                    .append(':')
+                    .append(filter)
+                    .append(';');
+        }
+
+        key.append("considerModifications=").append(considerModifications)
+                .append(";psmSetSettings=").append(new TreeMap<>(psmSetSettings));
+
+        return key.toString();
+    }
+
+
+    /**
+     * Returns the cached input for the given key, if it was created from the
+     * same groups and PSM sets. Otherwise null is returned.
+     *
+     * @param key
+     * @param groupMap
+     * @param reportPSMSetMap
+     * @return
+     */
+    public synchronized CachedInput getInput(String key, Map<Long, Group> groupMap,
+            Map<String, ReportPSMSet> reportPSMSetMap) {
+        CachedInput input = inputs.get(key);
+
+        if ((input != null) &&
+                ((input.groupMap != groupMap) || (input.reportPSMSetMap != reportPSMSetMap))) {
+            inputs.remove(key);
+            input = null;
+        }
+
+        return input;
+    }
+
+
+    /**
+     * Puts a newly created input into the cache.
+     *
+     * @param key
+     * @param groupMap
+     * @param reportPSMSetMap
+     * @param filteredPeptides
+     * @param components
+     * @param reportPeptides the peptides of the peptide modeller, which are
+     * not copied for the inference runs
+     * @return the cached input
+     */
+    public synchronized CachedInput putInput(String key, Map<Long, Group> groupMap,
+            Map<String, ReportPSMSet> reportPSMSetMap,
+            Map<Long, List<ReportPeptide>> filteredPeptides, List<Map<Long, Group>> components,
+            Collection<ReportPeptide> reportPeptides) {
+        CachedInput input = new CachedInput(groupMap, reportPSMSetMap, filteredPeptides, components,
+                reportPeptides);
+        inputs.put(key, input);
+
+        Iterator<String> keyIt = inputs.keySet().iterator();
+        while (inputs.size() > MAX_CACHED_INPUTS) {
+            keyIt.next();
+            keyIt.remove();
+        }
+
+        return input;
+    }
+
+
+    /**
+     * Removes all cached inputs.
+     */
+    public synchronized void invalidate() {
+        if (!inputs.isEmpty()) {
+            LOGGER.debug("invalidating " + inputs.size() + " cached inference inputs");
+            inputs.clear();
+        }
+    }
+
+
+    @Override
+    public void reportChanged(ReportChangeEvent event) {
+        if ((event.getSource() instanceof PeptideModeller) && !event.affectsFile(0L)) {
+            // the inference only uses the peptides of the overview
+            return;
+        }
+
+        LOGGER.debug("report changed: " + event);
+        invalidate();
+    }
+
+
+    /**
+     * The filtered input of one inference setting.
+     *
+     * @author julian
+     *
+     */
+    public static class CachedInput {
+
+        /** the groups, from which the input was created */
+        private final Map<Long, Group> groupMap;
+
+        /** the PSM sets, from which the input was created */
+        private final Map<String, ReportPSMSet> reportPSMSetMap;
+
+        /** the filtered peptides, mapping from the groups' IDs, these are never passed to an inference */
+        private final Map<Long, List<ReportPeptide>> filteredPeptides;
+
+        /** the components of the filtered PIA trees, the largest first */
+        private final List<Map<Long, Group>> components;
+
+        /** the filtered peptides, which are taken from the peptide modeller and not copied */
+        private final Set<ReportPeptide> modellerPeptides;
+
+
+        CachedInput(Map<Long, Group> groupMap, Map<String, ReportPSMSet> reportPSMSetMap,
+                Map<Long, List<ReportPeptide>> filteredPeptides, List<Map<Long, Group>> components,
+                Collection<ReportPeptide> reportPeptides) {
+            this.groupMap = groupMap;
+            this.reportPSMSetMap = reportPSMSetMap;
+            this.components = components;
+
+            modellerPeptides = Collections.newSetFromMap(new IdentityHashMap<>());
+            modellerPeptides.addAll(reportPeptides);
+
+            // keep an unaltered copy of the peptides, which were created for the input
+            this.filteredPeptides = copyFilteredPeptides(filteredPeptides);
+        }
+
+
+        /**
+         * Returns the filtered peptides, mapping from the groups' IDs. Each
+         * call returns new lists and copies of the peptides, which were created
+         * for the input, so that an inference run can alter them without
+         * changing the cached input. The peptides of the peptide modeller are
+         * passed as they are.
+         *
+         * @return
+         */
+        public Map<Long, List<ReportPeptide>> getFilteredPeptides() {
+            return copyFilteredPeptides(filteredPeptides);
+        }
+
+
+        /**
+         * Copies the lists of the given map and all peptides in it, which are
+         * not from the peptide modeller.
+         */
+        private Map<Long, List<ReportPeptide>> copyFilteredPeptides(
+                Map<Long, List<ReportPeptide>> peptidesMap) {
+            Map<Long, List<ReportPeptide>> copy = new HashMap<>(peptidesMap.size());
+
+            for (Map.Entry<Long, List<ReportPeptide>> peptidesIt : peptidesMap.entrySet()) {
+                List<ReportPeptide> peptides = new ArrayList<>(peptidesIt.getValue().size());
+                for (ReportPeptide peptide : peptidesIt.getValue()) {
+                    peptides.add(modellerPeptides.contains(peptide) ? peptide : new ReportPeptide(peptide));
+                }
+                copy.put(peptidesIt.getKey(), peptides);
+            }
+
+            return copy;
+        }
+
+
+        public List<Map<Long, Group>> getComponents() {
+            return components;
+        }
+    }
+}
@@ -2,8 +2,6 @@ package de.mpc.pia.modeller.protein.inference;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -45,16 +43,6 @@ public class OccamsRazorInference extends AbstractProteinInference {
     /** the machine readable name of the filter */
     protected static final String SHORT_NAME= "inference_occams_razor";
 
-    /** the progress of the inference */
-    private Double progress;
-
-
-    /** this iterator iterates over the mapping from the tree ID to its groups*/
-    private transient Iterator<Map.Entry<Long,Map<Long,Group>>> treeGroupsIterator = null;
-
-    /** this list holds the reported proteins */
-    private List<ReportProtein> reportProteins;
-
     /** the logger for this class */
     private static final Logger LOGGER = Logger.getLogger(OccamsRazorInference.class);
 
@@ -111,97 +99,36 @@ public class OccamsRazorInference extends AbstractProteinInference {
             boolean considerModifications,
             Map<String, Boolean> psmSetSettings,
             Collection<ReportPeptide> reportPeptides) {
-        progress = 0.0;
+        setProgress(0.0);
         LOGGER.info(NAME + " calculateInference started...");
         LOGGER.info("scoring: " + getScoring().getName() + " with " +
                 getScoring().getScoreSetting().getValue() + ", " +
                 getScoring().getPSMForScoringSetting().getValue() +
                 "\n\tpsmSetSettings: " + psmSetSettings);
-
-        Map<Long, Map<Long, Group>> treeGroupMap =
-                new HashMap<>();
-        // get the clusters/trees
-        for (Map.Entry<Long, Group> groupIt : groupMap.entrySet()) {
-            Map<Long, Group> treeGroups =
-                    treeGroupMap.computeIfAbsent(groupIt.getValue().getTreeID(), k -> new HashMap<>());
-
-            treeGroups.put(groupIt.getKey(), groupIt.getValue());
-        }
-        treeGroupsIterator = treeGroupMap.entrySet().iterator();
-        LOGGER.info("PIA trees sorted, " + treeGroupMap.size() + " trees");
-
-        // sort the peptides
-        Map<String, ReportPeptide> reportPeptidesMap = sortPeptidesInMap(reportPeptides);
-
-        // initialize the reported list
-        reportProteins = new ArrayList<>();
-
-        // the number of threads used for the inference
-        int nrThreads = getAllowedThreads();
-        if (nrThreads < 1) {
-            nrThreads = Runtime.getRuntime().availableProcessors();
-        }
-        LOGGER.debug("used threads: " + nrThreads);
-
-        List<OccamsRazorWorkerThread> threads =
-                new ArrayList<>(nrThreads);
-
-        // initialize and start  the worker threads
-        threads.clear();
-        for (int i=0; i < nrThreads; i++) {
-            OccamsRazorWorkerThread workerThread =
-                    new OccamsRazorWorkerThread(i+1,
-                            this,
-                            getFilters(),
-                            reportPSMSetMap,
-                            considerModifications,
-                            psmSetSettings,
-                            reportPeptidesMap);
-            threads.add(workerThread);
-            workerThread.start();
-        }
-
-        // wait for the threads to finish
-        for (OccamsRazorWorkerThread workerThread : threads) {
-            try {
-                workerThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error("thread got interrupted!", e);
-                Thread.currentThread().interrupt();
-            }
+        LOGGER.debug("used threads: " + getNumberOfUsedThreads());
+
+        List<ReportProtein> reportProteins;
+        try {
+            // get the filtered report peptides mapping from the groups' IDs and
+            // the components, as the trees may fall apart after filtering
+            InferenceInputCache.CachedInput input = getFilteredInferenceInput(groupMap,
+                    reportPSMSetMap, considerModifications, psmSetSettings, reportPeptides, 10.0);
+            Map<Long, List<ReportPeptide>> filteredPeptidesMap = input.getFilteredPeptides();
+            List<Map<Long, Group>> components = input.getComponents();
+            LOGGER.info("report peptides filtered");
+            LOGGER.info("PIA trees split into " + components.size() + " components");
+
+            OccamsRazorWorker worker = new OccamsRazorWorker(this, getFilters(), filteredPeptidesMap);
+            reportProteins = runInParallel(components, worker::processTree, 100.0);
+        } finally {
+            shutdownParallelExecution();
         }
 
-        progress = 100.0;
         LOGGER.info(NAME + " calculateInference done, " + reportProteins.size() + " groups inferred");
         return reportProteins;
     }
 
 
-    /**
-     * Returns the next tree in the map or null, if no more tree is available.
-     *
-     * @return
-     */
-    public synchronized Map.Entry<Long, Map<Long, Group>> getNextTree() {
-        if ((treeGroupsIterator != null)
-                && treeGroupsIterator.hasNext()) {
-            return treeGroupsIterator.next();
-        }
-
-        return null;
-    }
-
-
-    /**
-     * Adds the newProteins to the list of reported {@link ReportProtein}s.
-     *
-     * @param newProteins
-     */
-    public synchronized void addToReports(List<ReportProtein> newProteins) {
-        reportProteins.addAll(newProteins);
-    }
-
-
     @Override
     public String getName() {
         return NAME;
@@ -212,10 +139,4 @@ public class OccamsRazorInference extends AbstractProteinInference {
     public String getShortName() {
         return SHORT_NAME;
     }
-
-
-    @Override
-    public Long getProgressValue() {
-        return progress.longValue();
-    }
 }
@@ -7,82 +7,55 @@ import org.apache.log4j.Logger;
 import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import de.mpc.pia.modeller.protein.ReportProtein;
-import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
 
 
 
-public class OccamsRazorWorkerThread extends Thread {
+/**
+ * The worker of the {@link OccamsRazorInference}, which infers the proteins of
+ * one component of the filtered PIA trees. The worker holds no state of a
+ * single component, so it can be used by several threads at once.
+ *
+ * @author julian
+ *
+ */
+class OccamsRazorWorker {
 
-    /** the ID of this worker thread */
-    private int ID;
-
-    /** the caller of this thread */
+    /** the calling inference */
     private OccamsRazorInference parent;
 
     /** the applied inference filters */
     private List<AbstractFilter> filters;
 
-    /** maps of the ReportPSMSets (build by the PSM Viewer) */
-    private Map<String, ReportPSMSet> reportPSMSetMap;
-
-    /** whether modifications are considered while inferring the peptides */
-    private boolean considerModifications;
-
-    /** settings for PSMSet creation */
-    private Map<String, Boolean> psmSetSettings;
-
-    /** the inferred peptides, may contain peptide level scores and FDR values */
-    private Map<String, ReportPeptide> inferredReportPeptides;
+    /** the filtered report peptides, mapping from the groups' IDs */
+    private Map<Long, List<ReportPeptide>> reportPeptidesMap;
 
     /** logger for this class */
-    private static final Logger LOGGER = Logger.getLogger(OccamsRazorWorkerThread.class);
+    private static final Logger LOGGER = Logger.getLogger(OccamsRazorWorker.class);
 
 
-    public OccamsRazorWorkerThread(int ID,
-            OccamsRazorInference parent,
+    public OccamsRazorWorker(OccamsRazorInference parent,
             List<AbstractFilter> filters,
-            Map<String, ReportPSMSet> reportPSMSetMap,
-            boolean considerModifications,
-            Map<String, Boolean> psmSetSettings,
-            Map<String, ReportPeptide> reportPeptidesMap) {
-        this.ID = ID;
+            Map<Long, List<ReportPeptide>> reportPeptidesMap) {
         this.parent = parent;
         this.filters = filters;
-        this.reportPSMSetMap = reportPSMSetMap;
-        this.considerModifications = considerModifications;
-        this.psmSetSettings = psmSetSettings;
-        this.inferredReportPeptides = reportPeptidesMap;
-
-        this.setName("OccamsRazorWorkerThread-" + this.ID);
-    }
-
-
-    @Override
-    public void run() {
-        int treeCount = 0;
-        Map.Entry<Long, Map<Long, Group>> treeEntry;
-
-        while (null != (treeEntry = parent.getNextTree())) {
-            processTree(treeEntry.getValue());
-            treeCount++;
-        }
-
-        LOGGER.debug("worker " + ID + " finished after " + treeCount);
+        this.reportPeptidesMap = reportPeptidesMap;
     }
 
 
-
-    private void processTree(Map<Long, Group> groupMap) {
-        // get the filtered report peptides mapping from the groups' IDs
-        Map<Long, List<ReportPeptide>> reportPeptidesMap =
-                parent.createFilteredReportPeptides(groupMap, reportPSMSetMap,
-                        considerModifications, psmSetSettings, inferredReportPeptides);
-
+    /**
+     * Infers the proteins of the given component of a PIA tree and puts the
+     * reported proteins into the given list.
+     *
+     * @param groupMap the groups of the component
+     * @param reportProteins the list of reported proteins of the executing
+     * worker
+     */
+    public void processTree(Map<Long, Group> groupMap, List<ReportProtein> reportProteins) {
         // the map of actually reported proteins
         Map<Long, ReportProtein> proteins =
-                new HashMap<>(reportPeptidesMap.size());
+                new HashMap<>(groupMap.size());
 
         // maps from the protein/group IDs to the peptide keys
         Map<Long, Set<String>> peptideKeysMap =
@@ -90,7 +63,7 @@ public class OccamsRazorWorkerThread extends Thread {
 
         // maps from the groups ID to the IDs, which have the same peptides
         Map<Long, Set<Long>> sameSetMap =
-                new HashMap<>(reportPeptidesMap.size());
+                new HashMap<>(groupMap.size());
 
         // create for each group, which has at least one peptide and accession, a ReportProtein
         for (Map.Entry<Long, Group> groupIt : groupMap.entrySet()) {
@@ -183,17 +156,14 @@ public class OccamsRazorWorkerThread extends Thread {
             peptideKeysMap.remove(rID);
         }
 
-        // this will be the list of reported proteins
-        List<ReportProtein> reportProteins = new ArrayList<>();
-
         // the still unreported proteins
         HashMap<Long, ReportProtein> unreportedProteins =
                 new HashMap<>(proteins);
 
         // check proteins for sub-proteins and intersections. this cannot be
         // done before, because all proteins have to be built beforehand
-        Map<Long, Set<Long>> subProteinMap = new HashMap<>(reportPeptidesMap.size());
-        Map<Long, Set<Long>> intersectingProteinMap = new HashMap<>(reportPeptidesMap.size());
+        Map<Long, Set<Long>> subProteinMap = new HashMap<>(proteins.size());
+        Map<Long, Set<Long>> intersectingProteinMap = new HashMap<>(proteins.size());
         Set<Long> isSubProtein = new HashSet<>();
         Set<String> reportedPeptides = new HashSet<>();
         for (Map.Entry<Long, ReportProtein> longReportProteinEntry : proteins.entrySet()) {
@@ -288,9 +258,5 @@ public class OccamsRazorWorkerThread extends Thread {
                 }
             }
         }
-
-        if (reportProteins.size() > 0) {
-            parent.addToReports(reportProteins);
-        }
     }
 }
@@ -32,9 +32,6 @@ public class ReportAllInference extends AbstractProteinInference {
     /** the machine readable name of the filter */
     protected static final String SHORT_NAME = "inference_report_all";
 
-    /** the progress of the inference */
-    private Double progress;
-
 
     /** the logger for this class */
     private static final Logger LOGGER = Logger.getLogger(ReportAllInference.class);
@@ -72,36 +69,59 @@ public class ReportAllInference extends AbstractProteinInference {
             boolean considerModifications,
             Map<String, Boolean> psmSetSettings,
             Collection<ReportPeptide> reportPeptides) {
-        progress = 0.0;
+        setProgress(0.0);
         LOGGER.info("calculateInference started...");
         LOGGER.info("scoring: " + getScoring().getName() + " with " +
                 getScoring().getScoreSetting().getValue() + ", " +
                 getScoring().getPSMForScoringSetting().getValue());
 
-        // sort the peptides
-        Map<String, ReportPeptide> peptidesMap = sortPeptidesInMap(reportPeptides);
+        List<ReportProtein> reportProteinList;
+        try {
+            InferenceInputCache.CachedInput input = getFilteredInferenceInput(groupMap,
+                    reportPSMSetMap, considerModifications, psmSetSettings, reportPeptides, 10.0);
+
+            // maps from the groups' IDs to the reportPeptides
+            Map<Long, List<ReportPeptide>> reportPeptidesMap = input.getFilteredPeptides();
+
+            // only groups in the same component can have the same peptides, so the components are processed independently
+            List<Map<Long, Group>> components = input.getComponents();
+
+            reportProteinList = runInParallel(components,
+                    (Map<Long, Group> component, List<ReportProtein> reportProteins) ->
+                            processComponent(component, groupMap, reportPeptidesMap, reportProteins),
+                    100.0);
+        } finally {
+            shutdownParallelExecution();
+        }
+
+        LOGGER.info("calculateInference done.");
+        return reportProteinList;
+    }
 
-        // maps from the groups' IDs to the reportPeptides
-        Map<Long, List<ReportPeptide>> reportPeptidesMap =
-                createFilteredReportPeptides(groupMap, reportPSMSetMap,
-                        considerModifications, psmSetSettings, peptidesMap);
 
+    /**
+     * Creates the proteins of one component of the filtered PIA trees and
+     * puts the ones satisfying the filters into the given list.
+     *
+     * @param component the groups of the component
+     * @param groupMap all groups, which should be used for the inference
+     * @param reportPeptidesMap maps from the groups' IDs to the reportPeptides
+     * @param reportProteinList the list of reported proteins of the executing
+     * worker
+     */
+    private void processComponent(Map<Long, Group> component, Map<Long, Group> groupMap,
+            Map<Long, List<ReportPeptide>> reportPeptidesMap, List<ReportProtein> reportProteinList) {
         // groups with the IDs in this set should be reported
         Set<Long> reportGroupsIDs = new HashSet<>();
 
         // all the PSMs of the groups, including the PSMs in groups' children
-        Map<Long, Set<String>> groupsAllPeptides = new HashMap<>(groupMap.size());
-
-        // maps from the tree ID to the groupIDs
-        Map<Long, Set<Long>> treeMap = new HashMap<>();
+        Map<Long, Set<String>> groupsAllPeptides = new HashMap<>(component.size());
 
         // maps from the groups' IDs to the groups' IDs with equal PSMs after filtering
         Map<Long, Set<Long>> sameSets = null;
 
         // put every group with accessions into the map
-        // TODO: this COULD be parallelized for speedup, if it is too slow...
-        Double progressStep = 80.0 / groupMap.size();
-        for (Map.Entry<Long, Group> gIt : groupMap.entrySet()) {
+        for (Map.Entry<Long, Group> gIt : component.entrySet()) {
 
             if ((gIt.getValue().getAccessions().size() > 0) &&
                     groupHasReportPeptides(gIt.getValue(), reportPeptidesMap)) {
@@ -117,14 +137,7 @@ public class ReportAllInference extends AbstractProteinInference {
                 }
 
                 gIt.getValue().getAllPeptideChildren().values().stream().filter(pepGroupIt -> reportPeptidesMap.containsKey(pepGroupIt.getID())).forEach(pepGroupIt -> allPeptidesSet.addAll(reportPeptidesMap.get(pepGroupIt.getID()).stream().map(ReportPeptide::getStringID).collect(Collectors.toList())));
-
-                // fill the treeMap
-                Set<Long> treeSet = treeMap.computeIfAbsent(gIt.getValue().getTreeID(), k -> new HashSet<>());
-                treeSet.add(gIt.getKey());
-
             }
-
-            progress += progressStep;
         }
 
         // check for sameSets (if there were active filters)
@@ -132,15 +145,12 @@ public class ReportAllInference extends AbstractProteinInference {
             sameSets = new HashMap<>(groupsAllPeptides.size());
             Set<Long> newReportGroups = new HashSet<>(reportGroupsIDs.size());
 
-            progressStep = 10.0 / groupsAllPeptides.size();
             for (Map.Entry<Long, Set<String>> gIt : groupsAllPeptides.entrySet()) {
-                Long treeID = groupMap.get(gIt.getKey()).getTreeID();
-
                 // every group gets a sameSet
                 Set<Long> sameSet = sameSets.computeIfAbsent(gIt.getKey(), k -> new HashSet<>());
 
-                // check against the groups in the tree
-                for (Long checkID : treeMap.get(treeID)) {
+                // check against the groups in the component
+                for (Long checkID : groupsAllPeptides.keySet()) {
                     if (Objects.equals(gIt.getKey(), checkID)) {
                         // don't check against self
                         continue;
@@ -174,23 +184,15 @@ public class ReportAllInference extends AbstractProteinInference {
                     // no sameGroup in reportGroups yet, put this one in
                     newReportGroups.add(gIt.getKey());
                 }
-
-                progress += progressStep;
             }
 
             reportGroupsIDs = newReportGroups;
         }
 
-        progress = 90.0;
-
         // now create the proteins from the groups, which are still in reportGroupsIDs
-        // the list, that will be returned
-        List<ReportProtein> reportProteinList = new ArrayList<>(reportGroupsIDs.size());
-
         // caching the proteins, especially the subSet proteins
         Map<Long, ReportProtein> proteins = new HashMap<>(reportGroupsIDs.size());
 
-        progressStep = 10.0 / reportGroupsIDs.size();
         for (Long gID : reportGroupsIDs) {
             ReportProtein protein = createProtein(gID, proteins,
                     reportPeptidesMap, groupMap, sameSets, null);
@@ -199,13 +201,7 @@ public class ReportAllInference extends AbstractProteinInference {
                 // if all the filters are satisfied, add the protein to the reportProteinList
                 reportProteinList.add(protein);
             }
-
-            progress += progressStep;
         }
-
-        LOGGER.info("calculateInference done.");
-        progress = 100.0;
-        return reportProteinList;
     }
 
 
@@ -219,9 +215,4 @@ public class ReportAllInference extends AbstractProteinInference {
     public String getShortName() {
         return SHORT_NAME;
     }
-
-    @Override
-    public Long getProgressValue() {
-        return progress.longValue();
-    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package de.mpc.pia.modeller.protein.inference;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,7 +10,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -113,27 +113,20 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
     /** the machine readable name of the filter */
     protected static final String SHORT_NAME = "inference_spectrum_extractor";
 
-    /** the list iterator used to give the reportProteins to the working threads */
-    private transient ListIterator<ReportProtein> proteinListIt = null;
-
     /** the number of all spectra */
-    private int nrSpectra;
+    private volatile int nrSpectra;
 
     /** the currently processed spectra */
-    private int nrUsedSpectra;
+    private volatile int nrUsedSpectra;
 
     /** the number of disjoint splits */
-    private int nrSplits;
+    private volatile int nrSplits;
 
     /** the number of finished splits */
-    private int nrFinishedSplits;
-
-
-    /** the accessions' IDs, which may have changed by the spectra used during the last iteration */
-    private Set<Long> changedAccessions;
+    private volatile int nrFinishedSplits;
 
     /** to return 101, when everything is done */
-    private boolean inferenceDone;
+    private volatile boolean inferenceDone;
 
     /** the logger for this class */
     private static final Logger LOGGER = Logger.getLogger(SpectrumExtractorInference.class);
@@ -254,421 +247,381 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
 
         LOGGER.info("creating disjoint splits");
 
-        Long splitIDcounter = 0L;
-        Map<Long, Set<Long>> splitIdReportPSMid = new HashMap<>();
-        Map<Long, Set<Long>> splitIdAccessions = new HashMap<>();
-
-        Map<String, Long> psmIDsplitID = new HashMap<>();
-        Map<Long, Set<String>> splitIdSpectraID = new HashMap<>();
+        // accessions sharing any spectrum are in the same split
+        long[] accessionIDs = spectraAccessions.values().stream()
+                .flatMap(Set::stream)
+                .distinct()
+                .mapToLong(Long::longValue)
+                .toArray();
+        UnionFind accessionSplits = new UnionFind(accessionIDs);
+        for (Set<Long> accessions : spectraAccessions.values()) {
+            Iterator<Long> accIt = accessions.iterator();
+            if (accIt.hasNext()) {
+                Long firstAccID = accIt.next();
+                while (accIt.hasNext()) {
+                    accessionSplits.unionIDs(firstAccID, accIt.next());
+                }
+            }
+        }
 
+        // maps from the split (the root accession's index) to the reportPSM IDs
+        Map<Integer, Set<Long>> splitIdReportPSMid = new HashMap<>();
         for (Map.Entry<Long, ReportPSM> reportPSMIt : reportPSMMap.entrySet()) {
             String psmIdKey = reportPSMIt.getValue().getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
-            Long splitID = psmIDsplitID.get(psmIdKey);
-
-            if (splitID != null) {
-                splitIdReportPSMid.get(splitID).add(reportPSMIt.getKey());
-            } else {
-                // find split with any accessions
-                Set<Long> mergeToReportPSMs = null;
-                Set<Long> mergeToAccessions = null;
-                Set<String> mergeToSplitIDs = null;
-
-                Iterator<Entry<Long, Set<Long>>> it = splitIdAccessions.entrySet().iterator();
-                while (it.hasNext()) {
-                    Map.Entry<Long, Set<Long>> splitIt = it.next();
-                    Set<Long> accessions = new HashSet<>(spectraAccessions.get(psmIdKey));
-
-                    if (accessions.removeAll(splitIdAccessions.get(splitIt.getKey()))) {
-                        // overlap in accessions
-                        if (splitID == null) {
-                            // any further split will be merged to this one
-                            splitID = splitIt.getKey();
-                            mergeToReportPSMs = splitIdReportPSMid.get(splitID);
-                            mergeToAccessions = splitIt.getValue();
-                            mergeToSplitIDs = splitIdSpectraID.get(splitID);
-                        } else {
-                            // need to merge
-                            mergeToReportPSMs.addAll(splitIdReportPSMid.get(splitIt.getKey()));
-                            splitIdReportPSMid.remove(splitIt.getKey());
-
-                            mergeToAccessions.addAll(splitIt.getValue());
-                            it.remove();
-
-                            // the psmIDs need to be re-linked
-                            Set<String> psmIDs = splitIdSpectraID.get(splitIt.getKey());
-                            for (String psmID : psmIDs) {
-                                psmIDsplitID.put(psmID, splitID);
-                            }
-
-                            mergeToSplitIDs.addAll(psmIDs);
-                            splitIdSpectraID.remove(splitIt.getKey());
-                        }
-                    }
-                }
+            Set<Long> accessions = spectraAccessions.get(psmIdKey);
 
-                // add the accessions and reportPSMid to the corresponding split or create new
-                if (splitID == null) {
-                    // a new split
-                    splitIDcounter++;
-                    splitID = splitIDcounter;
-                    mergeToReportPSMs = new HashSet<>();
-                    splitIdReportPSMid.put(splitID, mergeToReportPSMs);
-
-                    mergeToAccessions = new HashSet<>();
-                    splitIdAccessions.put(splitID, mergeToAccessions);
+            if (!accessions.isEmpty()) {
+                int splitID = accessionSplits.find(accessionSplits.indexOf(accessions.iterator().next()));
+                splitIdReportPSMid.computeIfAbsent(splitID, k -> new HashSet<>()).add(reportPSMIt.getKey());
+            }
+        }
 
-                    mergeToSplitIDs = new HashSet<>();
-                    splitIdSpectraID.put(splitID, mergeToSplitIDs);
+        // maps from the split to the groups with accessions, a group belongs to the split of its first accession
+        Map<Integer, List<Group>> splitIdGroups = new HashMap<>();
+        for (Group group : groupMap.values()) {
+            if (!group.getAccessions().isEmpty()) {
+                int accIndex = accessionSplits.indexOf(group.getAccessions().values().iterator().next().getID());
+                if (accIndex >= 0) {
+                    splitIdGroups.computeIfAbsent(accessionSplits.find(accIndex), k -> new ArrayList<>()).add(group);
                 }
-
-
-                mergeToReportPSMs.add(reportPSMIt.getKey());
-                mergeToAccessions.addAll(spectraAccessions.get(psmIdKey));
-
-                psmIDsplitID.put(psmIdKey, splitID);
-                mergeToSplitIDs.add(psmIdKey);
             }
         }
 
-        nrSplits = splitIdAccessions.size();
+        // process the largest splits first
+        List<Integer> splitIDs = new ArrayList<>(splitIdReportPSMid.keySet());
+        splitIDs.sort((s1, s2) -> Integer.compare(splitIdReportPSMid.get(s2).size(), splitIdReportPSMid.get(s1).size()));
 
-        LOGGER.debug("number of splits: " + nrSplits);
+        nrSplits = splitIDs.size();
 
-        // get the number of threads used for the inference
-        int nrThreads = getAllowedThreads();
-        if (nrThreads < 1) {
-            nrThreads = Runtime.getRuntime().availableProcessors();
-        }
-        LOGGER.debug("used threads: " + nrThreads);
+        LOGGER.debug("number of splits: " + nrSplits);
 
-        List<SpectrumExtractorWorkerThread> threads = new ArrayList<>(nrThreads);
+        LOGGER.debug("used threads: " + getNumberOfUsedThreads());
 
         // the proteins of all splits
         List<ReportProtein> completeReportProteinList = new ArrayList<>(groupMap.size());
 
-        // the remaining group IDs, which were not yet processed
-        Set<Long> leftGroupIDs = new HashSet<>(groupMap.keySet());
-
-        for (Map.Entry<Long, Set<Long>> splitIt : splitIdReportPSMid.entrySet()) {
-            // maps from groupID / proteinID to the peptides, for rescoring / scoring
-            Map<Long, Set<Peptide>> groupsPeptides =
-                    new HashMap<>(groupMap.size());
-
-            // the (remaining) proteins
-            List<ReportProtein> proteinList =
-                    new ArrayList<>(groupMap.size());
+        try {
+            for (Integer splitID : splitIDs) {
+                completeReportProteinList.addAll(
+                        processSplit(splitIdReportPSMid.get(splitID),
+                                splitIdGroups.getOrDefault(splitID, Collections.emptyList()),
+                                reportPSMSetMap, reportPSMMap, spectraAccessions,
+                                scoreShort, considerModifications, psmSetSettings));
+                nrFinishedSplits++;
+
+                if (nrFinishedSplits % 250 == 0) {
+                    LOGGER.debug("Finished split " + nrFinishedSplits + " / " + nrSplits
+                            + " (" +((double)nrFinishedSplits / nrSplits * 100) +"%)" );
+                }
+            }
+        } finally {
+            shutdownParallelExecution();
+        }
 
-            Set<Long> splitAccessions = splitIdAccessions.get(splitIt.getKey());
+        LOGGER.info(NAME + " calculateInference done, " + completeReportProteinList.size() + " groups inferred");
+        inferenceDone = true;
+        return completeReportProteinList;
+    }
 
-            Iterator<Long> groupIt = leftGroupIDs.iterator();
-            while (groupIt.hasNext()) {
-                Long grID = groupIt.next();
-                Group group = groupMap.get(grID);
 
-                // only groups with accessions in the split are interesting
-                if (group.getAccessions().size() > 0) {
-                    // create protein, with same ID as groupID
-                    ReportProtein repProtein = new ReportProtein(group.getID());
+    /**
+     * Infers the proteins of one disjoint split of the spectra and accessions.
+     *
+     * @param splitReportPSMids the IDs of the reportPSMs in this split
+     * @param splitGroups the groups with accessions in this split
+     * @param reportPSMSetMap the already created PSM sets
+     * @param reportPSMMap maps from the spectrum ID to the filtered reportPSMs
+     * @param spectraAccessions maps from the spectra to the associated
+     * accessions' IDs
+     * @param scoreShort shortName of the used protein scoring
+     * @param considerModifications whether to consider modifications when
+     * infering peptides
+     * @param psmSetSettings settings to create PSM sets
+     * @return the reported proteins of this split
+     */
+    private List<ReportProtein> processSplit(Set<Long> splitReportPSMids, List<Group> splitGroups,
+            Map<String, ReportPSMSet> reportPSMSetMap, Map<Long, ReportPSM> reportPSMMap,
+            Map<String, Set<Long>> spectraAccessions, String scoreShort,
+            boolean considerModifications, Map<String, Boolean> psmSetSettings) {
+        // maps from groupID / proteinID to the peptides, for rescoring / scoring
+        Map<Long, Set<Peptide>> groupsPeptides =
+                new HashMap<>(splitGroups.size());
+
+        // the (remaining) proteins
+        List<ReportProtein> proteinList =
+                new ArrayList<>(splitGroups.size());
+
+        for (Group group : splitGroups) {
+            // create protein, with same ID as groupID
+            ReportProtein repProtein = new ReportProtein(group.getID());
+
+            // add the accessions
+            group.getAccessions().values().forEach(repProtein::addAccession);
+
+            // put this stub-protein in the protein list
+            proteinList.add(repProtein);
+
+            // prepare peptide cache for protein and put peptides into it
+            Set<Peptide> pepSet = new HashSet<>(group.getAllPeptides().values());
+            groupsPeptides.put(repProtein.getID(), pepSet);
+        }
 
-                    // add the accessions
-                    Boolean notInSplit = null;
-                    for (Accession acc : group.getAccessions().values()) {
-                        if (notInSplit == null) {
-                            notInSplit = !splitAccessions.contains(acc.getID());
-                        }
+        Map<Long, ReportPSM> splitReportPSMMap = new HashMap<>(splitReportPSMids.size());
+        for (Long psmID : splitReportPSMids) {
+            splitReportPSMMap.put(psmID, reportPSMMap.get(psmID));
+        }
 
-                        repProtein.addAccession(acc);
-                    }
-                    if (notInSplit) {
-                        continue;
-                    }
+        // the PSMSets used by an already used reportPeptide (this map gets filled while reporting proteins)
+        Map<String, Set<ReportPSMSet>> peptidesSpectra =
+                new HashMap<>();
 
-                    // put this stub-protein in the protein list
-                    proteinList.add(repProtein);
+        // this is the list, that is going to be returned
+        List<ReportProtein> reportProteinList =
+                new ArrayList<>(proteinList.size());
 
-                    // prepare peptide cache for protein
-                    Set<Peptide> pepSet =
-                            new HashSet<>(group.getAllPeptides().size());
-                    groupsPeptides.put(repProtein.getID(), pepSet);
+        // the used spectra of this split
+        Set<String> usedSpectra = new HashSet<>();
 
-                    // put peptide into cache
-                    pepSet.addAll(group.getAllPeptides().values());
+        // the accessions' IDs, which may have changed by the spectra used during the last iteration
+        Set<Long> changedAccessions = new HashSet<>();
+
+        SpectrumExtractorWorker worker = new SpectrumExtractorWorker(
+                getScoring(), getFilters(), groupsPeptides,
+                reportPSMSetMap, splitReportPSMMap, peptidesSpectra,
+                usedSpectra, scoreShort, considerModifications,
+                psmSetSettings);
+
+        boolean iterate = true;
+        while (iterate) {
+            // now the (remaining) proteins get rebuild (with usable spectra) and scored
+            runInParallel(getProteinsForRebuild(proteinList, changedAccessions),
+                    (ReportProtein protein, List<Void> buffer) -> worker.rebuildProtein(protein),
+                    0.0);
+
+            // remove "empty" proteins
+            ListIterator<ReportProtein> proteinListIt = proteinList.listIterator();
+            while (proteinListIt.hasNext()) {
+                if (proteinListIt.next().getNrPeptides() < 1) {
+                    proteinListIt.remove();
                 }
-
-                // remove group ID of group without accession or added to split
-                groupIt.remove();
-            }
-
-            Map<Long, ReportPSM> splitReportPSMMap = new HashMap<>(splitIt.getValue().size());
-            for (Long psmID : splitIt.getValue()) {
-                splitReportPSMMap.put(psmID, reportPSMMap.get(psmID));
             }
 
-            // the PSMSets used by an already used reportPeptide (this map gets filled while reporting proteins)
-            Map<String, Set<ReportPSMSet>> peptidesSpectra =
-                    new HashMap<>();
-
-            // this is the list, that is going to be returned
-            List<ReportProtein> reportProteinList =
-                    new ArrayList<>(proteinList.size());
-
-            // reset the used spectra
-            usedSpectra = new HashSet<>();
-
-            changedAccessions = new HashSet<>();
-            boolean iterate = true;
-            while (iterate) {
-                // now the (remaining) proteins get rebuild (with usable spectra) and scored
-                proteinListIt = proteinList.listIterator();
-
-                // initialize and start  the worker threads
-                threads.clear();
-                for (int i=0; i < nrThreads; i++) {
-                    SpectrumExtractorWorkerThread workerThread =
-                            new SpectrumExtractorWorkerThread(i+1, this,
-                                    getScoring(), getFilters(), groupsPeptides,
-                                    reportPSMSetMap, splitReportPSMMap, peptidesSpectra,
-                                    usedSpectra, scoreShort, considerModifications,
-                                    psmSetSettings);
-                    threads.add(workerThread);
-                    workerThread.start();
+            // order the protein list
+            Comparator<ReportProtein> comparator =
+                    ReportProteinComparatorFactory.CompareType.SCORE_SORT.getNewInstance();
+            proteinList.sort(comparator);
+
+            // take the next protein from the list, that can be reported
+            proteinListIt = null;
+
+            Double reportScore = null;
+            changedAccessions.clear();
+            iterate = false;
+            while (!proteinList.isEmpty()) {
+                ReportProtein protein = proteinList.get(0) /*proteinListIt.next()*/;
+
+                // there was a protein reported and the next has another score -> do the next scoring
+                if ((reportScore != null) &&
+                        !reportScore.equals(protein.getScore())) {
+                    // start next scoring
+                    break;
                 }
 
-                // wait for the threads to finish
-                for (SpectrumExtractorWorkerThread workerThread : threads) {
-                    try {
-                        workerThread.join();
-                    } catch (InterruptedException e) {
-                        LOGGER.error("thread got interrupted!", e);
-                        Thread.currentThread().interrupt();
-                    }
-                }
+                // count the new peptides in this protein
+                int newPeptides = 0;
+                // IDs of the peptides of this protein
+                Set<String> proteinsPeptides = null;
+                // IDs of the spectra of this protein
+                Set<String> proteinsSpectra = null;
 
-                // remove "empty" proteins
+                // combine all high-scoring proteins with the same peptides and spectra as the current protein
                 proteinListIt = proteinList.listIterator();
-                while (proteinListIt.hasNext()) {
-                    if (proteinListIt.next().getNrPeptides() < 1) {
-                        proteinListIt.remove();
-                    }
+                if (proteinListIt.hasNext()) {
+                    proteinListIt.next();
                 }
+                while (proteinListIt.hasNext()) {
+                    ReportProtein nextProt = proteinListIt.next();
 
-                // order the protein list
-                Comparator<ReportProtein> comparator =
-                        ReportProteinComparatorFactory.CompareType.SCORE_SORT.getNewInstance();
-                proteinList.sort(comparator);
-
-                // take the next protein from the list, that can be reported
-                proteinListIt = null;
-
-                Double reportScore = null;
-                changedAccessions.clear();
-                iterate = false;
-                while (!proteinList.isEmpty()) {
-                    ReportProtein protein = proteinList.get(0) /*proteinListIt.next()*/;
-
-                    // there was a protein reported and the next has another score -> do the next scoring
-                    if ((reportScore != null) &&
-                            !reportScore.equals(protein.getScore())) {
-                        // start next scoring
+                    if (!protein.getScore().equals(nextProt.getScore())) {
+                        // different score -> no further check needed, leave the loop
                         break;
-                    }
-
-                    // count the new peptides in this protein
-                    int newPeptides = 0;
-                    // IDs of the peptides of this protein
-                    Set<String> proteinsPeptides = null;
-                    // IDs of the spectra of this protein
-                    Set<String> proteinsSpectra = null;
-
-                    // combine all high-scoring proteins with the same peptides and spectra as the current protein
-                    proteinListIt = proteinList.listIterator();
-                    if (proteinListIt.hasNext()) {
-                        proteinListIt.next();
-                    }
-                    while (proteinListIt.hasNext()) {
-                        ReportProtein nextProt = proteinListIt.next();
-
-                        if (!protein.getScore().equals(nextProt.getScore())) {
-                            // different score -> no further check needed, leave the loop
-                            break;
-                        } else {
-                            if (proteinsPeptides == null) {
-                                // get proteins peptides (if not yet  done)
-                                proteinsPeptides = new HashSet<>(protein.getPeptides().size());
-                                proteinsSpectra = new HashSet<>(proteinsPeptides.size());
-                                for (ReportPeptide peptide : protein.getPeptides()) {
-                                    if (!peptidesSpectra.containsKey(peptide.getStringID())) {
-                                        newPeptides++;
-                                    }
-                                    proteinsPeptides.add(peptide.getStringID());
-                                    proteinsSpectra.addAll(peptide.getSpectraIdentificationKeys());
-                                }
-                            }
-
-                            // get the protein's peptides and spectra
-                            Set<String> nextProteinsPeptides = new HashSet<>();
-                            Set<String> nextProteinsSpectra = new HashSet<>();
-                            for (ReportPeptide peptide : nextProt.getPeptides()) {
-                                nextProteinsPeptides.add(peptide.getStringID());
-                                nextProteinsSpectra.addAll(peptide.getScoringSpectraIdentificationKeys());
-                            }
-
-                            if (nextProteinsPeptides.equals(proteinsPeptides) &&
-                                    nextProteinsSpectra.equals(proteinsSpectra)) {
-                                // add the accessions to lastIt
-                                nextProt.getAccessions().forEach(protein::addAccession);
-
-                                // remove the next protein from the list
-                                proteinListIt.remove();
-                            }
-                        }
-                    }
-
-                    // remove the protein from the proteinList (either it is ok for report now, or it never will be)
-                    proteinList.remove(0);
-
-
-                    if (FilterFactory.satisfiesFilterList(protein, 0L, getFilters())) {
-                        // TODO: insert something like "needs X new spectra/PSMs/Peptides per protein". for now it is set to 1 new peptide
-
-                        // check for subprotein
+                    } else {
                         if (proteinsPeptides == null) {
                             // get proteins peptides (if not yet  done)
                             proteinsPeptides = new HashSet<>(protein.getPeptides().size());
+                            proteinsSpectra = new HashSet<>(proteinsPeptides.size());
                             for (ReportPeptide peptide : protein.getPeptides()) {
                                 if (!peptidesSpectra.containsKey(peptide.getStringID())) {
                                     newPeptides++;
                                 }
                                 proteinsPeptides.add(peptide.getStringID());
+                                proteinsSpectra.addAll(peptide.getSpectraIdentificationKeys());
                             }
                         }
 
-                        if (newPeptides > 0) {
-                            // at least one new peptide, so the protein may be reported
-                            // store the used peptides and spectra
-                            for (ReportPeptide peptide : protein.getPeptides()) {
-                                String peptideKey = peptide.getStringID();
+                        // get the protein's peptides and spectra
+                        Set<String> nextProteinsPeptides = new HashSet<>();
+                        Set<String> nextProteinsSpectra = new HashSet<>();
+                        for (ReportPeptide peptide : nextProt.getPeptides()) {
+                            nextProteinsPeptides.add(peptide.getStringID());
+                            nextProteinsSpectra.addAll(peptide.getScoringSpectraIdentificationKeys());
+                        }
 
-                                if (!peptidesSpectra.containsKey(peptideKey)) {
-                                    // peptide is not yet stored
-                                    Set<ReportPSMSet> psms = new HashSet<>();
+                        if (nextProteinsPeptides.equals(proteinsPeptides) &&
+                                nextProteinsSpectra.equals(proteinsSpectra)) {
+                            // add the accessions to lastIt
+                            nextProt.getAccessions().forEach(protein::addAccession);
 
-                                    for (PSMReportItem psmSet : peptide.getPSMs()) {
-                                        if (psmSet instanceof ReportPSMSet) {
-                                            psms.add((ReportPSMSet) psmSet);
-                                            Set<Long> psmIDs = new HashSet<>();
+                            // remove the next protein from the list
+                            proteinListIt.remove();
+                        }
+                    }
+                }
 
-                                            // add the used spectra to the set
-                                            for (ReportPSM psm : ((ReportPSMSet) psmSet).getPSMs()) {
-                                                String specIdKey = psm.getSpectrum().
-                                                        getSpectrumIdentificationKey(psmSetSettings);
+                // remove the protein from the proteinList (either it is ok for report now, or it never will be)
+                proteinList.remove(0);
 
-                                                // it is not relevant to check, whether the spectrum is scoring,
-                                                // because the spectrum is scoring in any of the used peptides
-                                                usedSpectra.add(specIdKey);
 
-                                                Set<Long> accIDs = spectraAccessions.get(specIdKey);
-                                                if (accIDs != null) {
-                                                    changedAccessions.addAll(accIDs);
-                                                }
+                if (FilterFactory.satisfiesFilterList(protein, 0L, getFilters())) {
+                    // TODO: insert something like "needs X new spectra/PSMs/Peptides per protein". for now it is set to 1 new peptide
+
+                    // check for subprotein
+                    if (proteinsPeptides == null) {
+                        // get proteins peptides (if not yet  done)
+                        proteinsPeptides = new HashSet<>(protein.getPeptides().size());
+                        for (ReportPeptide peptide : protein.getPeptides()) {
+                            if (!peptidesSpectra.containsKey(peptide.getStringID())) {
+                                newPeptides++;
+                            }
+                            proteinsPeptides.add(peptide.getStringID());
+                        }
+                    }
 
-                                                psmIDs.add(psm.getSpectrum().getID());
+                    if (newPeptides > 0) {
+                        // at least one new peptide, so the protein may be reported
+                        // store the used peptides and spectra
+                        for (ReportPeptide peptide : protein.getPeptides()) {
+                            String peptideKey = peptide.getStringID();
+
+                            if (!peptidesSpectra.containsKey(peptideKey)) {
+                                // peptide is not yet stored
+                                Set<ReportPSMSet> psms = new HashSet<>();
+
+                                for (PSMReportItem psmSet : peptide.getPSMs()) {
+                                    if (psmSet instanceof ReportPSMSet) {
+                                        psms.add((ReportPSMSet) psmSet);
+                                        Set<Long> psmIDs = new HashSet<>();
+
+                                        // add the used spectra to the set
+                                        for (ReportPSM psm : ((ReportPSMSet) psmSet).getPSMs()) {
+                                            String specIdKey = psm.getSpectrum().
+                                                    getSpectrumIdentificationKey(psmSetSettings);
+
+                                            // it is not relevant to check, whether the spectrum is scoring,
+                                            // because the spectrum is scoring in any of the used peptides
+                                            usedSpectra.add(specIdKey);
+
+                                            Set<Long> accIDs = spectraAccessions.get(specIdKey);
+                                            if (accIDs != null) {
+                                                changedAccessions.addAll(accIDs);
                                             }
 
-                                            // try to get info/scores on the PSMSet (only possible, if Set is equal to one in reportPSMSetMap)
-                                            String key = psmSet.getIdentificationKey(psmSetSettings);
-                                            ReportPSMSet givenSet = reportPSMSetMap.get(key);
-                                            if ((givenSet != null) &&
-                                                    (givenSet.getFDRScore() != null)) {
-                                                Set<Long> givenPSMids = givenSet.getPSMs().stream().map(psm -> psm.getSpectrum().getID()).collect(Collectors.toSet());
-
-                                                if (psmIDs.equals(givenPSMids)) {
-                                                    psmSet.setFDRScore(givenSet.getFDRScore().getValue());
-                                                    psmSet.setFDR(givenSet.getFDR());
-                                                }
+                                            psmIDs.add(psm.getSpectrum().getID());
+                                        }
+
+                                        // try to get info/scores on the PSMSet (only possible, if Set is equal to one in reportPSMSetMap)
+                                        String key = psmSet.getIdentificationKey(psmSetSettings);
+                                        ReportPSMSet givenSet = reportPSMSetMap.get(key);
+                                        if ((givenSet != null) &&
+                                                (givenSet.getFDRScore() != null)) {
+                                            Set<Long> givenPSMids = givenSet.getPSMs().stream().map(psm -> psm.getSpectrum().getID()).collect(Collectors.toSet());
+
+                                            if (psmIDs.equals(givenPSMids)) {
+                                                psmSet.setFDRScore(givenSet.getFDRScore().getValue());
+                                                psmSet.setFDR(givenSet.getFDR());
                                             }
-                                        } else {
-                                            LOGGER.error("not reportPSMSet PSM in peptide");
                                         }
+                                    } else {
+                                        LOGGER.error("not reportPSMSet PSM in peptide");
                                     }
-
-                                    nrUsedSpectra = usedSpectra.size();
-                                    peptidesSpectra.put(peptideKey, psms);
                                 }
+
+                                nrUsedSpectra = usedSpectra.size();
+                                peptidesSpectra.put(peptideKey, psms);
                             }
+                        }
 
-                            // insert the protein in the "to be reported"-list
-                            reportProteinList.add(protein);
+                        // insert the protein in the "to be reported"-list
+                        reportProteinList.add(protein);
 
-                            // found a protein to report, get its score
-                            reportScore = protein.getScore();
+                        // found a protein to report, get its score
+                        reportScore = protein.getScore();
 
-                            if (!proteinList.isEmpty()) {
-                                iterate = true;
-                            }
-                        } else {
-                            // no new peptides, so this protein may be a subSet or same protein as an already reported protein
-
-                            // get all the protein's spectra
-                            if (proteinsSpectra == null) {
-                                proteinsSpectra = new HashSet<>(proteinsPeptides.size());
-                                for (ReportPeptide peptide : protein.getPeptides()) {
-                                    proteinsSpectra.addAll(
-                                            peptide.getSpectraIdentificationKeys());
-                                }
+                        if (!proteinList.isEmpty()) {
+                            iterate = true;
+                        }
+                    } else {
+                        // no new peptides, so this protein may be a subSet or same protein as an already reported protein
+
+                        // get all the protein's spectra
+                        if (proteinsSpectra == null) {
+                            proteinsSpectra = new HashSet<>(proteinsPeptides.size());
+                            for (ReportPeptide peptide : protein.getPeptides()) {
+                                proteinsSpectra.addAll(
+                                        peptide.getSpectraIdentificationKeys());
                             }
+                        }
 
-                            for (ReportProtein reportProtein : reportProteinList) {
-                                // get the spectra and peptides of the reported protein
-                                Set<String> reportProteinsSpectra = new HashSet<>();
-                                Set<String> reportProteinsPeptides = new HashSet<>();
-                                for (ReportPeptide peptide : reportProtein.getPeptides()) {
-                                    reportProteinsSpectra.addAll(
-                                            peptide.getSpectraIdentificationKeys());
-                                    reportProteinsPeptides.add(
-                                            peptide.getStringID());
-                                }
+                        for (ReportProtein reportProtein : reportProteinList) {
+                            // get the spectra and peptides of the reported protein
+                            Set<String> reportProteinsSpectra = new HashSet<>();
+                            Set<String> reportProteinsPeptides = new HashSet<>();
+                            for (ReportPeptide peptide : reportProtein.getPeptides()) {
+                                reportProteinsSpectra.addAll(
+                                        peptide.getSpectraIdentificationKeys());
+                                reportProteinsPeptides.add(
+                                        peptide.getStringID());
+                            }
 
-                                if (reportProteinsSpectra.containsAll(proteinsSpectra)) {
-                                    // the protein is completely explained by the reportProtein
-                                    if (proteinsSpectra.size() ==
-                                            reportProteinsSpectra.size()) {
-                                        // the protein has the same spectra as another protein
-                                        // as it has no new peptides, there must be
-                                        // another protein with same peptides
-                                        if ((reportProteinsPeptides.size() == proteinsPeptides.size()) &&
-                                                reportProteinsPeptides.containsAll(proteinsPeptides)) {
-                                            // TODO: this check should be irrelevant, as it is checked before
-                                            // also the peptides are the same -> add the accession(s)
-                                            protein.getAccessions().forEach(reportProtein::addAccession);
+                            if (reportProteinsSpectra.containsAll(proteinsSpectra)) {
+                                // the protein is completely explained by the reportProtein
+                                if (proteinsSpectra.size() ==
+                                        reportProteinsSpectra.size()) {
+                                    // the protein has the same spectra as another protein
+                                    // as it has no new peptides, there must be
+                                    // another protein with same peptides
+                                    if ((reportProteinsPeptides.size() == proteinsPeptides.size()) &&
+                                            reportProteinsPeptides.containsAll(proteinsPeptides)) {
+                                        // TODO: this check should be irrelevant, as it is checked before
+                                        // also the peptides are the same -> add the accession(s)
+                                        protein.getAccessions().forEach(reportProtein::addAccession);
+                                    }
+                                } else {
+                                    boolean subSetAlreadyThere = false;
+                                    // check, if the protein is a sameSet of another subSet
+                                    for (ReportProtein subSet : reportProtein.getSubSets()) {
+                                        reportProteinsSpectra = new HashSet<>();
+                                        reportProteinsPeptides = new HashSet<>();
+                                        for (ReportPeptide peptide : subSet.getPeptides()) {
+                                            reportProteinsSpectra.addAll(
+                                                    peptide.getSpectraIdentificationKeys());
+                                            reportProteinsPeptides.add(
+                                                    peptide.getStringID());
                                         }
-                                    } else {
-                                        boolean subSetAlreadyThere = false;
-                                        // check, if the protein is a sameSet of another subSet
-                                        for (ReportProtein subSet : reportProtein.getSubSets()) {
-                                            reportProteinsSpectra = new HashSet<>();
-                                            reportProteinsPeptides = new HashSet<>();
-                                            for (ReportPeptide peptide : subSet.getPeptides()) {
-                                                reportProteinsSpectra.addAll(
-                                                        peptide.getSpectraIdentificationKeys());
-                                                reportProteinsPeptides.add(
-                                                        peptide.getStringID());
-                                            }
 
-                                            if (proteinsPeptides.equals(reportProteinsPeptides) &&
-                                                    proteinsSpectra.equals(reportProteinsSpectra)) {
-                                                // protein is same as subSet, add the accessions
-                                                protein.getAccessions().forEach(subSet::addAccession);
+                                        if (proteinsPeptides.equals(reportProteinsPeptides) &&
+                                                proteinsSpectra.equals(reportProteinsSpectra)) {
+                                            // protein is same as subSet, add the accessions
+                                            protein.getAccessions().forEach(subSet::addAccession);
 
-                                                subSetAlreadyThere = true;
-                                                break;
-                                            }
+                                            subSetAlreadyThere = true;
+                                            break;
                                         }
+                                    }
 
-                                        if (!subSetAlreadyThere) {
-                                            // the protein is a new subset of the reportProtein
-                                            reportProtein.addToSubsets(protein);
-                                        }
+                                    if (!subSetAlreadyThere) {
+                                        // the protein is a new subset of the reportProtein
+                                        reportProtein.addToSubsets(protein);
                                     }
                                 }
                             }
@@ -676,62 +629,43 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                     }
                 }
             }
-
-            completeReportProteinList.addAll(reportProteinList);
-            nrFinishedSplits++;
-
-            if (nrFinishedSplits % 250 == 0) {
-                LOGGER.debug("Finished split " + nrFinishedSplits + " / " + nrSplits
-                        + " (" +((double)nrFinishedSplits / nrSplits * 100) +"%)" );
-            }
         }
 
-        proteinListIt = null;
-        changedAccessions = null;
-        threads.clear();
-
-        LOGGER.info(NAME + " calculateInference done, " + completeReportProteinList.size() + " groups inferred");
-        inferenceDone = true;
-        return completeReportProteinList;
+        return reportProteinList;
     }
 
 
     /**
-     * Returns the next protein in the protein list.
+     * Returns the proteins, which need to be (re-)build, i.e. the proteins,
+     * which are not build yet, and the proteins with any accession, which
+     * might have been changed during the last iteration.
      *
+     * @param proteinList the (remaining) proteins
+     * @param changedAccessions the accessions' IDs, which may have changed by
+     * the spectra used during the last iteration
      * @return
      */
-    public synchronized ReportProtein getNextProteinForRebuild() {
-        synchronized (proteinListIt) {
-            if (proteinListIt != null) {
-
-                while (proteinListIt.hasNext()) {
-                    ReportProtein prot = proteinListIt.next();
-
-                    if (prot.getNrPeptides() > 0) {
-                        // protein is already build, check for possible changes in last iteration
-
-                        for (Accession acc : prot.getAccessions()) {
-                            if (changedAccessions.contains(acc.getID())) {
-                                // protein might have been changed, rebuild it
-                                return prot;
-                            }
-                        }
-                    } else {
-                        // protein is not yet build, build it
-                        return prot;
+    private static List<ReportProtein> getProteinsForRebuild(List<ReportProtein> proteinList,
+            Set<Long> changedAccessions) {
+        List<ReportProtein> rebuildProteins = new ArrayList<>(proteinList.size());
+
+        for (ReportProtein prot : proteinList) {
+            if (prot.getNrPeptides() > 0) {
+                // protein is already build, check for possible changes in last iteration
+                for (Accession acc : prot.getAccessions()) {
+                    if (changedAccessions.contains(acc.getID())) {
+                        // protein might have been changed, rebuild it
+                        rebuildProteins.add(prot);
+                        break;
                     }
-
-                    // the protein is not changed but build, no rebuild necessary
                 }
-
-                return null;
             } else {
-                // TODO: throw exception or something
-                LOGGER.error("The protein iterator is not yet initialized!");
-                return null;
+                // protein is not yet build, build it
+                rebuildProteins.add(prot);
             }
         }
+
+        return rebuildProteins;
     }
 
 
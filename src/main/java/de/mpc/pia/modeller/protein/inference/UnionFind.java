@@ -0,0 +1,157 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import java.util.Arrays;
+
+
+/**
+ * A simple disjoint-set (union-find) structure over primitive IDs, used to
+ * calculate the connected components of the filtered PIA graph before the
+ * inference.
+ * <p>
+ * The IDs are given at construction time and are mapped internally to array
+ * indices, so no boxing is needed while merging.
+ *
+ * @author julian
+ *
+ */
+class UnionFind {
+
+    /** the sorted IDs, the index of an ID is its node */
+    private final long[] ids;
+
+    /** the parent node of each node, a root is its own parent */
+    private final int[] parents;
+
+    /** the size of the set, only valid for root nodes */
+    private final int[] sizes;
+
+
+    /**
+     * Creates a new union-find structure, in which each of the given IDs is
+     * in its own set.
+     *
+     * @param ids the IDs of the nodes, must not contain duplicates
+     */
+    public UnionFind(long[] ids) {
+        this.ids = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(this.ids);
+
+        parents = new int[this.ids.length];
+        sizes = new int[this.ids.length];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+            sizes[i] = 1;
+        }
+    }
+
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return
+     */
+    public int size() {
+        return ids.length;
+    }
+
+
+    /**
+     * Returns the node index of the given ID or a negative value, if the ID
+     * is not known.
+     *
+     * @param id
+     * @return
+     */
+    public int indexOf(long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+
+    /**
+     * Returns the ID of the node with the given index.
+     *
+     * @param index
+     * @return
+     */
+    public long getID(int index) {
+        return ids[index];
+    }
+
+
+    /**
+     * Returns the root node of the set containing the given node.
+     *
+     * @param index
+     * @return
+     */
+    public int find(int index) {
+        int root = index;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+
+        // path compression
+        int node = index;
+        while (parents[node] != root) {
+            int next = parents[node];
+            parents[node] = root;
+            node = next;
+        }
+
+        return root;
+    }
+
+
+    /**
+     * Merges the sets of the two given nodes.
+     *
+     * @param indexA
+     * @param indexB
+     * @return true, if the nodes were in different sets before
+     */
+    public boolean union(int indexA, int indexB) {
+        int rootA = find(indexA);
+        int rootB = find(indexB);
+
+        if (rootA == rootB) {
+            return false;
+        }
+
+        // union by size
+        if (sizes[rootA] < sizes[rootB]) {
+            int tmp = rootA;
+            rootA = rootB;
+            rootB = tmp;
+        }
+
+        parents[rootB] = rootA;
+        sizes[rootA] += sizes[rootB];
+        return true;
+    }
+
+
+    /**
+     * Merges the sets of the two given IDs. Unknown IDs are ignored.
+     *
+     * @param idA
+     * @param idB
+     * @return true, if the IDs were in different sets before
+     */
+    public boolean unionIDs(long idA, long idB) {
+        int indexA = indexOf(idA);
+        int indexB = indexOf(idB);
+
+        return (indexA >= 0) && (indexB >= 0) && union(indexA, indexB);
+    }
+
+
+    /**
+     * Returns the size of the set containing the given node.
+     *
+     * @param index
+     * @return
+     */
+    public int getSetSize(int index) {
+        return sizes[find(index)];
+    }
+}
@@ -10,6 +10,7 @@ import de.mpc.pia.modeller.protein.ReportProtein;
 import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
 import de.mpc.pia.modeller.report.settings.Setting;
 import de.mpc.pia.modeller.report.settings.SettingType;
+import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
 
 
@@ -172,13 +173,47 @@ public abstract class AbstractScoring implements Serializable {
     }
 
 
+    /**
+     * Calculates the protein score from the extracted score values of the
+     * protein.
+     *
+     * @param scoreValues the not NaN score values of the protein, as given by
+     * the {@link PSMForScoring} setting
+     * @param lowerScoreBetter for each of the values, whether a lower value of
+     * its score is better
+     * @return the protein score or NaN, if no scoring is possible
+     */
+    public abstract double calculateScore(double[] scoreValues, boolean[] lowerScoreBetter);
+
+
     /**
      * Calculates the score for the {@link ReportProtein} with the current
      * settings.
      *
      * @param protein
      */
-    public abstract Double calculateProteinScore(ReportProtein protein);
+    public Double calculateProteinScore(ReportProtein protein) {
+        List<ScoreModel> scores = PSMForScoring.getProteinsScores(
+                getPSMForScoringSetting().getValue(), protein,
+                getScoreSetting().getValue());
+
+        return calculateScore(ProteinScoreValues.extractValues(scores),
+                ProteinScoreValues.extractLowerScoreBetter(scores));
+    }
+
+
+    /**
+     * Extracts the score values used by this scoring's settings from the given
+     * proteins and their subProteins. The returned values can be used for all
+     * scorings with the same settings.
+     *
+     * @param proteinList
+     * @return
+     */
+    public final ProteinScoreValues extractScoreValues(List<ReportProtein> proteinList) {
+        return new ProteinScoreValues(proteinList, getPSMForScoringSetting().getValue(),
+                getScoreSetting().getValue());
+    }
 
 
     /**
@@ -189,20 +224,18 @@ public abstract class AbstractScoring implements Serializable {
      * @param proteinList
      */
     public final void calculateProteinScores(List<ReportProtein> proteinList) {
-        Map<Long, ReportProtein> subProteins = new HashMap<>();
+        extractScoreValues(proteinList).applyScores(this);
+    }
 
-        // calculate scores for the reported proteins
-        for (ReportProtein protein : proteinList) {
-            protein.setScore(calculateProteinScore(protein));
 
-            // get the subset proteins
-            protein.getSubSets().stream().filter(subProtein -> !subProteins.containsKey(subProtein.getID())).forEach(subProtein -> subProteins.put(subProtein.getID(), subProtein));
-        }
-
-        // and the scores for the subset proteins
-        for (ReportProtein subProtein : subProteins.values()) {
-            subProtein.setScore(calculateProteinScore(subProtein));
-        }
+    /**
+     * Calculates the scores for all proteins of the given, already extracted
+     * values and set them to the proteins.
+     *
+     * @param scoreValues values extracted with the settings of this scoring
+     */
+    public final void calculateProteinScores(ProteinScoreValues scoreValues) {
+        scoreValues.applyScores(this);
     }
 
     /**
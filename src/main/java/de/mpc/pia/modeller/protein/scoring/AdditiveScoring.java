@@ -1,12 +1,7 @@
 package de.mpc.pia.modeller.protein.scoring;
 
-import java.util.List;
 import java.util.Map;
 
-import de.mpc.pia.modeller.protein.ReportProtein;
-import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
-import de.mpc.pia.modeller.score.ScoreModel;
-
 
 public class AdditiveScoring extends AbstractScoring {
 
@@ -41,26 +36,15 @@ public class AdditiveScoring extends AbstractScoring {
      * Calculate the protein score by adding the scores.
      */
     @Override
-    public Double calculateProteinScore(ReportProtein protein) {
-        List<ScoreModel> scores = PSMForScoring.getProteinsScores(
-                getPSMForScoringSetting().getValue(), protein,
-                getScoreSetting().getValue());
-
-        if (scores.isEmpty()) {
+    public double calculateScore(double[] scoreValues, boolean[] lowerScoreBetter) {
+        if (scoreValues.length == 0) {
             // no scores found -> no scoring possible
             return Double.NaN;
         }
 
-        Double proteinScore = Double.NaN;
-
-        for (ScoreModel score : scores) {
-            if ((score != null) && !score.getValue().equals(Double.NaN)) {
-                if (!proteinScore.equals(Double.NaN)) {
-                    proteinScore += score.getValue();
-                } else {
-                    proteinScore = score.getValue();
-                }
-            }
+        double proteinScore = 0.0;
+        for (double value : scoreValues) {
+            proteinScore += value;
         }
 
         return proteinScore;
@@ -0,0 +1,212 @@
+package de.mpc.pia.modeller.protein.scoring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.score.ScoreModel;
+
+
+/**
+ * The score values used by the protein scorings, extracted once from the
+ * {@link ReportProtein}s (including their sub-proteins) into primitive arrays.
+ * <p>
+ * The values are extracted for one score and one {@link PSMForScoring}
+ * setting. Any {@link AbstractScoring} with these settings can then be
+ * calculated from the arrays without walking the peptides and PSMs again.
+ *
+ * @author julian
+ *
+ */
+public class ProteinScoreValues {
+
+    /** the shortName of the {@link PSMForScoring}, for which the values were extracted */
+    private final String psmForScoring;
+
+    /** the shortName of the score, which was extracted */
+    private final String scoreShortName;
+
+    /** the proteins and sub-proteins, each one only once */
+    private final List<ReportProtein> proteins;
+
+    /** the (not NaN) score values of each protein */
+    private final double[][] values;
+
+    /** whether a lower score is better for each of the values of each protein */
+    private final boolean[][] lowerScoreBetter;
+
+
+    /**
+     * Extracts the score values for the given proteins and their sub-proteins
+     * in parallel.
+     *
+     * @param proteinList the reported proteins
+     * @param psmForScoring the shortName of the {@link PSMForScoring}
+     * @param scoreShortName the shortName of the score
+     */
+    public ProteinScoreValues(List<ReportProtein> proteinList, String psmForScoring,
+            String scoreShortName) {
+        this.psmForScoring = psmForScoring;
+        this.scoreShortName = scoreShortName;
+
+        proteins = new ArrayList<>(proteinList);
+        Set<Long> subProteinIDs = new HashSet<>();
+        for (ReportProtein protein : proteinList) {
+            protein.getSubSets().stream()
+                    .filter(subProtein -> subProteinIDs.add(subProtein.getID()))
+                    .forEach(proteins::add);
+        }
+
+        values = new double[proteins.size()][];
+        lowerScoreBetter = new boolean[proteins.size()][];
+
+        IntStream.range(0, proteins.size()).parallel().forEach(idx -> {
+            List<ScoreModel> scores = PSMForScoring.getProteinsScores(psmForScoring,
+                    proteins.get(idx), scoreShortName);
+            values[idx] = extractValues(scores);
+            lowerScoreBetter[idx] = extractLowerScoreBetter(scores);
+        });
+    }
+
+
+    /**
+     * Returns the not NaN values of the given scores.
+     *
+     * @param scores
+     * @return
+     */
+    static double[] extractValues(List<ScoreModel> scores) {
+        double[] scoreValues = new double[scores.size()];
+        int nrValues = 0;
+
+        for (ScoreModel score : scores) {
+            if ((score != null) && !score.getValue().isNaN()) {
+                scoreValues[nrValues++] = score.getValue();
+            }
+        }
+
+        if (nrValues < scoreValues.length) {
+            double[] trimmed = new double[nrValues];
+            System.arraycopy(scoreValues, 0, trimmed, 0, nrValues);
+            scoreValues = trimmed;
+        }
+        return scoreValues;
+    }
+
+
+    /**
+     * Returns for each of the not NaN values of the given scores (i.e. in the
+     * order of {@link #extractValues(List)}), whether a lower score is better.
+     * The direction is resolved for each score by its type, scores without a
+     * known direction are treated as higher score better.
+     *
+     * @param scores
+     * @return
+     */
+    static boolean[] extractLowerScoreBetter(List<ScoreModel> scores) {
+        boolean[] lowerBetter = new boolean[scores.size()];
+        int nrValues = 0;
+
+        for (ScoreModel score : scores) {
+            if ((score != null) && !score.getValue().isNaN()) {
+                Boolean higherScoreBetter = score.getType().higherScoreBetter();
+                lowerBetter[nrValues++] = (higherScoreBetter != null) && !higherScoreBetter;
+            }
+        }
+
+        if (nrValues < lowerBetter.length) {
+            boolean[] trimmed = new boolean[nrValues];
+            System.arraycopy(lowerBetter, 0, trimmed, 0, nrValues);
+            lowerBetter = trimmed;
+        }
+        return lowerBetter;
+    }
+
+
+    /**
+     * Returns true, if the values were extracted with the same settings as
+     * used by the given scoring.
+     *
+     * @param scoring
+     * @return
+     */
+    public boolean isExtractedFor(AbstractScoring scoring) {
+        return psmForScoring.equals(scoring.getPSMForScoringSetting().getValue())
+                && scoreShortName.equals(scoring.getScoreSetting().getValue());
+    }
+
+
+    /**
+     * Returns the proteins and sub-proteins, for which the values were
+     * extracted.
+     *
+     * @return
+     */
+    public List<ReportProtein> getProteins() {
+        return proteins;
+    }
+
+
+    /**
+     * Calculates the scores of all proteins with the given scoring and sets
+     * them to the proteins.
+     *
+     * @param scoring a scoring with the same settings as the values
+     */
+    public void applyScores(AbstractScoring scoring) {
+        checkSettings(scoring);
+
+        IntStream.range(0, proteins.size()).parallel().forEach(idx ->
+                proteins.get(idx).setScore(scoring.calculateScore(values[idx], lowerScoreBetter[idx])));
+    }
+
+
+    /**
+     * Calculates the scores of all proteins with each of the given scorings in
+     * one pass over the proteins, without setting them to the proteins.
+     *
+     * @param scorings scorings with the same settings as the values
+     * @return mapping from the proteins' IDs to the scores, in the order of
+     * the given scorings
+     */
+    public Map<Long, double[]> calculateScores(List<AbstractScoring> scorings) {
+        scorings.forEach(this::checkSettings);
+
+        double[][] proteinScores = new double[proteins.size()][];
+        IntStream.range(0, proteins.size()).parallel().forEach(idx -> {
+            double[] scores = new double[scorings.size()];
+            for (int scoringIdx = 0; scoringIdx < scores.length; scoringIdx++) {
+                scores[scoringIdx] = scorings.get(scoringIdx).calculateScore(values[idx], lowerScoreBetter[idx]);
+            }
+            proteinScores[idx] = scores;
+        });
+
+        Map<Long, double[]> scoresMap = new HashMap<>(proteins.size());
+        for (int idx = 0; idx < proteinScores.length; idx++) {
+            scoresMap.put(proteins.get(idx).getID(), proteinScores[idx]);
+        }
+        return scoresMap;
+    }
+
+
+    /**
+     * Checks, whether the values were extracted for the settings of the given
+     * scoring.
+     *
+     * @param scoring
+     */
+    private void checkSettings(AbstractScoring scoring) {
+        if (!isExtractedFor(scoring)) {
+            throw new IllegalArgumentException("The score values were extracted for "
+                    + scoreShortName + " (" + psmForScoring + "), but the scoring "
+                    + scoring.getName() + " uses " + scoring.getScoreSetting().getValue()
+                    + " (" + scoring.getPSMForScoringSetting().getValue() + ")");
+        }
+    }
+}
@@ -15,6 +15,7 @@ import de.mpc.pia.modeller.execute.ExecuteModelCommands;
 import de.mpc.pia.modeller.execute.xmlparams.ITEMType;
 import de.mpc.pia.modeller.execute.xmlparams.NODEType;
 import de.mpc.pia.modeller.execute.xmlparams.PossibleITEMType;
+import de.mpc.pia.modeller.exporter.ArrowExporter;
 import de.mpc.pia.modeller.exporter.CSVExporter;
 import de.mpc.pia.modeller.exporter.MzIdentMLExporter;
 import de.mpc.pia.modeller.exporter.MzTabExporter;
@@ -508,6 +509,9 @@ public enum PSMExecuteCommands implements ExecuteModelCommands<PSMModeller> {
                 exportOK = exporter.exportToCSV(fileID, fileName,
                         true, false, false,
                         true);
+            } else if ("arrow".equalsIgnoreCase(format)) {
+                ArrowExporter exporter = new ArrowExporter(piaModeller);
+                exportOK = exporter.exportPSMs(fileID, fileName, true);
             }
 
             return exportOK;
@@ -520,7 +524,7 @@ public enum PSMExecuteCommands implements ExecuteModelCommands<PSMModeller> {
                     "Additional parameters may be passed semicolon " +
                     "separated with the syntax param=arg[;arg2;...]." +
                     "valid parameters are:" +
-                    "\nformat: mzid [default], mztab, csv" +
+                    "\nformat: mzid [default], mztab, csv, arrow" +
                     "\nfileID: default 0 (overview)" +
                     "\nfileName: the report file name [report.mzid]" +
                     "\nspectral_count: defaults to no";
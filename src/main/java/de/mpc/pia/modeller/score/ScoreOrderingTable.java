@@ -0,0 +1,290 @@
+package de.mpc.pia.modeller.score;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.ReferenceDataCache;
+import de.mpc.pia.tools.obo.OBOMapper;
+
+
+/**
+ * Table of the PSI-MS scores with their ordering (whether a higher score is
+ * better) and whether they are p-, e- or q-values.
+ * <p>
+ * The table is read directly from the stanzas of the PSI-MS OBO file, without
+ * building the whole ontology, and merged with the {@link ScoreModelEnum},
+ * whose settings take precedence. Only the direct relations of a term are
+ * used, just like the former scan of its OBO triples.
+ *
+ * @author julian
+ *
+ */
+public class ScoreOrderingTable {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ScoreOrderingTable.class);
+
+    /** the terms, which mark a score as a p-value */
+    private static final List<String> P_VALUE_PARENTS = Arrays.asList(
+            OntologyConstants.PSM_LEVEL_PVALUE.getPsiAccession(), OntologyConstants.PEPTIDE_LEVEL_PVALUE.getPsiAccession());
+
+    /** the terms, which mark a score as an e-value */
+    private static final List<String> E_VALUE_PARENTS = Arrays.asList(
+            OntologyConstants.PSM_LEVEL_EVALUE.getPsiAccession(), OntologyConstants.PEPTIDE_LEVEL_EVALUE.getPsiAccession());
+
+    /** the terms, which mark a score as a q-value */
+    private static final List<String> Q_VALUE_PARENTS = Arrays.asList(
+            OntologyConstants.PSM_LEVEL_QVALUE.getPsiAccession(), OntologyConstants.PEPTIDE_LEVEL_QVALUE.getPsiAccession());
+
+    /** the relationship of scores, for which a higher value is better */
+    private static final String HAS_ORDER_HIGHERSCOREBETTER = OBOMapper.OBO_HAS_ORDER_HIGHERSCOREBETTER;
+
+    /** the relationship of scores, for which a lower value is better */
+    private static final String HAS_ORDER_LOWERSCOREBETTER = OBOMapper.OBO_HAS_ORDER_LOWERSCOREBETTER;
+
+
+    /** the scores by their accessions */
+    private final Map<String, ScoreOrdering> orderings;
+
+    /** the shared instance, which is created on the first request */
+    private static ScoreOrderingTable sharedInstance;
+
+
+    /**
+     * The statistical type of a score.
+     */
+    public enum ValueType {
+        P_VALUE,
+        E_VALUE,
+        Q_VALUE,
+        /** any other score */
+        SCORE,
+    }
+
+
+    /**
+     * Creates the table from the PSI-MS OBO in the given cache.
+     *
+     * @param cache
+     */
+    public ScoreOrderingTable(ReferenceDataCache cache) {
+        orderings = new HashMap<>();
+
+        try (BufferedReader oboReader = new BufferedReader(new InputStreamReader(
+                cache.openStream(ReferenceDataCache.Dataset.PSI_MS), StandardCharsets.UTF_8))) {
+            readOBO(oboReader);
+        } catch (IOException e) {
+            LOGGER.error("could not read the scores from the PSI-MS OBO", e);
+        }
+
+        addScoreModels();
+
+        LOGGER.debug("score ordering table with " + orderings.size() + " scores created");
+    }
+
+
+    /**
+     * Returns the shared table, which is created from the
+     * {@link ReferenceDataCache} on the first call.
+     *
+     * @return
+     */
+    public static synchronized ScoreOrderingTable getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new ScoreOrderingTable(ReferenceDataCache.getDefault());
+        }
+        return sharedInstance;
+    }
+
+
+    /**
+     * Returns whether a higher score is better for the score with the given
+     * accession, or null if this is not known.
+     *
+     * @param accession
+     * @return
+     */
+    public Boolean higherScoreBetter(String accession) {
+        ScoreOrdering ordering = (accession != null) ? orderings.get(accession) : null;
+        return (ordering != null) ? ordering.higherScoreBetter : null;
+    }
+
+
+    /**
+     * Returns the statistical type of the score with the given accession, or
+     * null if the accession is no known score.
+     *
+     * @param accession
+     * @return
+     */
+    public ValueType getValueType(String accession) {
+        ScoreOrdering ordering = (accession != null) ? orderings.get(accession) : null;
+        return (ordering != null) ? ordering.valueType : null;
+    }
+
+
+    /**
+     * Returns whether the accession is a known score.
+     *
+     * @param accession
+     * @return
+     */
+    public boolean contains(String accession) {
+        return (accession != null) && orderings.containsKey(accession);
+    }
+
+
+    /**
+     * Returns the number of known scores.
+     *
+     * @return
+     */
+    public int size() {
+        return orderings.size();
+    }
+
+
+    /**
+     * Reads the terms of the OBO file stanza by stanza and stores those with
+     * an ordering or a statistical type.
+     *
+     * @param oboReader
+     * @throws IOException
+     */
+    private void readOBO(BufferedReader oboReader) throws IOException {
+        String line;
+        boolean inTerm = false;
+        String accession = null;
+        Boolean higherScoreBetter = null;
+        ValueType valueType = ValueType.SCORE;
+        boolean isScore = false;
+
+        while ((line = oboReader.readLine()) != null) {
+            if (line.startsWith("[")) {
+                addOrdering(accession, higherScoreBetter, valueType, isScore);
+
+                inTerm = "[Term]".equals(line.trim());
+                accession = null;
+                higherScoreBetter = null;
+                valueType = ValueType.SCORE;
+                isScore = false;
+            } else if (inTerm) {
+                if (line.startsWith("id:")) {
+                    accession = getTagValue(line);
+                } else if (line.startsWith("is_a:")) {
+                    String parent = getTagValue(line);
+                    if (P_VALUE_PARENTS.contains(parent)) {
+                        valueType = ValueType.P_VALUE;
+                    } else if (E_VALUE_PARENTS.contains(parent)) {
+                        valueType = ValueType.E_VALUE;
+                    } else if (Q_VALUE_PARENTS.contains(parent)) {
+                        valueType = ValueType.Q_VALUE;
+                    } else if (OntologyConstants.SEARCH_ENGINE_PSM_SCORE.getPsiAccession().equals(parent)) {
+                        isScore = true;
+                    }
+                } else if (line.startsWith("relationship:")) {
+                    String relationship = getTagValue(line);
+                    if (HAS_ORDER_HIGHERSCOREBETTER.equals(relationship)) {
+                        higherScoreBetter = true;
+                    } else if (HAS_ORDER_LOWERSCOREBETTER.equals(relationship)) {
+                        higherScoreBetter = false;
+                    }
+                }
+            }
+        }
+
+        addOrdering(accession, higherScoreBetter, valueType, isScore);
+    }
+
+
+    /**
+     * Returns the value of a tag line, without trailing comments and
+     * modifiers.
+     */
+    private static String getTagValue(String line) {
+        String value = line.substring(line.indexOf(':') + 1);
+
+        int pos = value.indexOf(" !");
+        if (pos > -1) {
+            value = value.substring(0, pos);
+        }
+        pos = value.indexOf(" {");
+        if (pos > -1) {
+            value = value.substring(0, pos);
+        }
+
+        return value.trim();
+    }
+
+
+    /**
+     * Adds the term to the table, if anything is known about its ordering.
+     * P-, e- and q-values are always ordered ascending, unless the term states
+     * otherwise.
+     */
+    private void addOrdering(String accession, Boolean higherScoreBetter, ValueType valueType,
+            boolean isScore) {
+        if (accession == null) {
+            return;
+        }
+
+        Boolean higherBetter = higherScoreBetter;
+        if ((higherBetter == null) && (valueType != ValueType.SCORE)) {
+            higherBetter = false;
+        }
+
+        if ((higherBetter != null) || isScore) {
+            orderings.put(accession, new ScoreOrdering(higherBetter, valueType));
+        }
+    }
+
+
+    /**
+     * Adds the scores of the {@link ScoreModelEnum}, overriding the ordering
+     * given in the OBO.
+     */
+    private void addScoreModels() {
+        for (ScoreModelEnum model : ScoreModelEnum.values()) {
+            if ((model == ScoreModelEnum.UNKNOWN_SCORE) || (model.higherScoreBetter() == null)) {
+                continue;
+            }
+
+            List<String> accessions = new ArrayList<>(model.getAdditionalAccessions());
+            accessions.add(0, model.getCvAccession());
+
+            for (String accession : accessions) {
+                if (accession != null) {
+                    ScoreOrdering oboOrdering = orderings.get(accession);
+                    ValueType valueType = (oboOrdering != null) ? oboOrdering.valueType : ValueType.SCORE;
+                    orderings.put(accession, new ScoreOrdering(model.higherScoreBetter(), valueType));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The ordering and type of a single score.
+     */
+    private static class ScoreOrdering {
+        private final Boolean higherScoreBetter;
+
+        private final ValueType valueType;
+
+
+        private ScoreOrdering(Boolean higherScoreBetter, ValueType valueType) {
+            this.higherScoreBetter = higherScoreBetter;
+            this.valueType = valueType;
+        }
+    }
+}
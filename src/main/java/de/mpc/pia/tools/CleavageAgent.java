@@ -290,6 +290,10 @@ public enum CleavageAgent {
     ;
 
 
+    /** the scanner for the cleavage sites, created on first use */
+    private CleavageSiteScanner siteScanner = null;
+
+
     /**
      * Returns the name in the CV
      * @return
@@ -312,6 +316,18 @@ public enum CleavageAgent {
     public abstract String getSiteRegexp();
 
 
+    /**
+     * Returns the precompiled scanner for the cleavage sites of this agent.
+     * @return
+     */
+    public CleavageSiteScanner getSiteScanner() {
+        if (siteScanner == null) {
+            siteScanner = new CleavageSiteScanner(getSiteRegexp());
+        }
+        return siteScanner;
+    }
+
+
     /**
      * Returns a list of all alternative names of the enzyme, including the
      * original name.
@@ -0,0 +1,313 @@
+package de.mpc.pia.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Counts the cleavage sites of a cleavage agent in a peptide sequence, e.g.
+ * for the missed cleavages.
+ * <p>
+ * The site regular expressions of the {@link CleavageAgent}s (and most of the
+ * ones created by the parsers) are combinations of look-behinds and
+ * look-aheads on single residues, like <code>(?&lt;=[KR])(?!P)</code>. These
+ * are compiled into lookup tables of the residues before and after a site,
+ * so a sequence can be scanned without any regular expression matching. Other
+ * regular expressions fall back to splitting the sequence with the
+ * precompiled {@link Pattern}.
+ *
+ * @author julian
+ *
+ */
+public class CleavageSiteScanner {
+
+    /** the alternatives of the site, a site matches, if any alternative matches */
+    private final SiteRule[] rules;
+
+    /** the pattern, if the regular expression could not be compiled into rules */
+    private final Pattern fallbackPattern;
+
+
+    /** the size of the lookup tables (ASCII) */
+    private static final int TABLE_SIZE = 128;
+
+
+    /**
+     * Creates a scanner for the given site regular expression.
+     *
+     * @param siteRegexp
+     */
+    public CleavageSiteScanner(String siteRegexp) {
+        SiteRule[] parsedRules = parseRules(siteRegexp);
+
+        if (parsedRules != null) {
+            this.rules = parsedRules;
+            this.fallbackPattern = null;
+        } else {
+            this.rules = null;
+            this.fallbackPattern = Pattern.compile(siteRegexp);
+        }
+    }
+
+
+    /**
+     * Counts the cleavage sites inside the given sequence, i.e. the missed
+     * cleavages of a peptide. This equals
+     * <code>sequence.split(siteRegexp).length - 1</code>.
+     *
+     * @param sequence
+     * @return
+     */
+    public int countSites(CharSequence sequence) {
+        if (rules == null) {
+            return fallbackPattern.split(sequence).length - 1;
+        }
+
+        int count = 0;
+        for (int pos = 1; pos < sequence.length(); pos++) {
+            char before = sequence.charAt(pos - 1);
+            char after = sequence.charAt(pos);
+
+            for (SiteRule rule : rules) {
+                if (rule.matches(before, after)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Splits the sequence at the cleavage sites, i.e. digests the protein
+     * sequence into the peptides without missed cleavages. This equals
+     * <code>sequence.split(siteRegexp)</code>.
+     *
+     * @param sequence
+     * @return
+     */
+    public String[] split(String sequence) {
+        if (rules == null) {
+            return fallbackPattern.split(sequence);
+        }
+
+        List<String> peptides = new ArrayList<>();
+        int start = 0;
+        for (int pos = 1; pos < sequence.length(); pos++) {
+            char before = sequence.charAt(pos - 1);
+            char after = sequence.charAt(pos);
+
+            for (SiteRule rule : rules) {
+                if (rule.matches(before, after)) {
+                    peptides.add(sequence.substring(start, pos));
+                    start = pos;
+                    break;
+                }
+            }
+        }
+        peptides.add(sequence.substring(start));
+
+        return peptides.toArray(new String[peptides.size()]);
+    }
+
+
+    /**
+     * Parses the alternatives (separated by "|") of the regular expression
+     * into rules. Returns null, if the expression is not a simple combination
+     * of look-arounds.
+     *
+     * @param siteRegexp
+     * @return
+     */
+    private static SiteRule[] parseRules(String siteRegexp) {
+        if ((siteRegexp == null) || siteRegexp.isEmpty()) {
+            return null;
+        }
+
+        List<SiteRule> parsed = new ArrayList<>();
+        for (String alternative : splitAlternatives(siteRegexp)) {
+            SiteRule rule = parseRule(alternative);
+            if (rule == null) {
+                return null;
+            }
+            parsed.add(rule);
+        }
+
+        return parsed.toArray(new SiteRule[parsed.size()]);
+    }
+
+
+    /**
+     * Splits the expression at the top level "|"
+     *
+     * @param regexp
+     * @return
+     */
+    private static List<String> splitAlternatives(String regexp) {
+        List<String> alternatives = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+
+        for (int idx = 0; idx < regexp.length(); idx++) {
+            char c = regexp.charAt(idx);
+            if (c == '\\') {
+                idx++;
+            } else if ((c == '(') || (c == '[')) {
+                depth++;
+            } else if ((c == ')') || (c == ']')) {
+                depth--;
+            } else if ((c == '|') && (depth == 0)) {
+                alternatives.add(regexp.substring(start, idx));
+                start = idx + 1;
+            }
+        }
+        alternatives.add(regexp.substring(start));
+
+        return alternatives;
+    }
+
+
+    /**
+     * Parses one alternative, which consists of look-arounds, optionally
+     * enclosed in plain groups.
+     *
+     * @param alternative
+     * @return the rule or null, if it cannot be parsed
+     */
+    private static SiteRule parseRule(String alternative) {
+        SiteRule rule = new SiteRule();
+        int idx = 0;
+
+        while (idx < alternative.length()) {
+            if (alternative.startsWith("(?<=", idx) || alternative.startsWith("(?<!", idx)) {
+                boolean negative = alternative.charAt(idx + 3) == '!';
+                idx = parseLookaround(alternative, idx + 4, rule, true, negative);
+            } else if (alternative.startsWith("(?=", idx) || alternative.startsWith("(?!", idx)) {
+                boolean negative = alternative.charAt(idx + 2) == '!';
+                idx = parseLookaround(alternative, idx + 3, rule, false, negative);
+            } else if ((alternative.charAt(idx) == '(') || (alternative.charAt(idx) == ')')) {
+                // plain grouping
+                idx++;
+            } else {
+                return null;
+            }
+
+            if (idx < 0) {
+                return null;
+            }
+        }
+
+        return rule;
+    }
+
+
+    /**
+     * Parses the residues of a look-around starting at the given index and
+     * adds them to the rule.
+     *
+     * @return the index after the look-around or -1, if it cannot be parsed
+     */
+    private static int parseLookaround(String regexp, int idx, SiteRule rule,
+            boolean before, boolean negative) {
+        boolean[] residues = new boolean[TABLE_SIZE];
+        int end;
+
+        if (idx >= regexp.length()) {
+            return -1;
+        } else if (regexp.charAt(idx) == '[') {
+            end = regexp.indexOf(']', idx);
+            if ((end < 0) || (regexp.charAt(idx + 1) == '^')) {
+                return -1;
+            }
+            for (int pos = idx + 1; pos < end; pos++) {
+                if (!addResidue(regexp.charAt(pos), residues)) {
+                    return -1;
+                }
+            }
+            end++;
+        } else if (regexp.startsWith("\\S", idx)) {
+            // any residue
+            for (int pos = 0; pos < TABLE_SIZE; pos++) {
+                residues[pos] = !Character.isWhitespace((char) pos);
+            }
+            end = idx + 2;
+        } else {
+            if (!addResidue(regexp.charAt(idx), residues)) {
+                return -1;
+            }
+            end = idx + 1;
+        }
+
+        if ((end >= regexp.length()) || (regexp.charAt(end) != ')')) {
+            return -1;
+        }
+
+        rule.addCondition(before, negative, residues);
+        return end + 1;
+    }
+
+
+    /**
+     * Adds the given residue to the table, if it is a letter.
+     *
+     * @return false, if the character is no residue
+     */
+    private static boolean addResidue(char residue, boolean[] residues) {
+        if ((residue >= TABLE_SIZE) || !Character.isLetter(residue)) {
+            return false;
+        }
+        residues[residue] = true;
+        return true;
+    }
+
+
+    /**
+     * One alternative of a cleavage site: conditions on the residues before
+     * and after the site.
+     */
+    private static class SiteRule {
+        /** the residues allowed before the site, null for any */
+        private boolean[] before;
+
+        /** the residues allowed after the site, null for any */
+        private boolean[] after;
+
+
+        private void addCondition(boolean isBefore, boolean negative, boolean[] residues) {
+            boolean[] allowed = new boolean[TABLE_SIZE];
+            for (int idx = 0; idx < TABLE_SIZE; idx++) {
+                allowed[idx] = negative != residues[idx];
+            }
+
+            boolean[] current = isBefore ? before : after;
+            if (current != null) {
+                // both conditions must hold
+                for (int idx = 0; idx < TABLE_SIZE; idx++) {
+                    allowed[idx] &= current[idx];
+                }
+            }
+
+            if (isBefore) {
+                before = allowed;
+            } else {
+                after = allowed;
+            }
+        }
+
+
+        private boolean matches(char residueBefore, char residueAfter) {
+            return matches(before, residueBefore) && matches(after, residueAfter);
+        }
+
+
+        private static boolean matches(boolean[] allowed, char residue) {
+            if (allowed == null) {
+                return true;
+            }
+            return (residue < TABLE_SIZE) && allowed[residue];
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package de.mpc.pia.tools;
+
+import java.util.Arrays;
+
+
+/**
+ * A simple hash map from primitive int keys to primitive double values, using
+ * open addressing with linear probing. No boxing is needed for the keys or
+ * values, which keeps large mappings (e.g. spectrum IDs to retention times)
+ * small.
+ *
+ * @author julian
+ *
+ */
+public class IntToDoubleMap {
+
+    /** the keys, only valid where used is set */
+    private int[] keys;
+
+    /** the values, only valid where used is set */
+    private double[] values;
+
+    /** whether the slot is used */
+    private boolean[] used;
+
+    /** the number of mappings */
+    private int size;
+
+    /** the maximal load of the table, before it grows */
+    private static final double MAX_LOAD = 0.5;
+
+    /** the default capacity */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+
+    public IntToDoubleMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Creates a map for the given expected number of mappings.
+     *
+     * @param expectedSize
+     */
+    public IntToDoubleMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        keys = new int[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
+
+    /**
+     * Puts the value for the given key, a previous value is replaced.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(int key, double value) {
+        if (size + 1 > keys.length * MAX_LOAD) {
+            grow();
+        }
+
+        int slot = findSlot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+
+    /**
+     * Returns the value for the given key or the defaultValue, if no value is
+     * mapped.
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public double get(int key, double defaultValue) {
+        int slot = findSlot(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+
+    /**
+     * Returns true, if a value is mapped for the given key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(int key) {
+        return used[findSlot(key)];
+    }
+
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+
+    /**
+     * Returns the slot of the given key or the free slot, where it should be
+     * inserted.
+     *
+     * @param key
+     * @return
+     */
+    private int findSlot(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot] && (keys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Doubles the capacity and re-inserts all mappings.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        keys = new int[oldKeys.length * 2];
+        values = new double[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+
+        for (int idx = 0; idx < oldKeys.length; idx++) {
+            if (oldUsed[idx]) {
+                int slot = findSlot(oldKeys[idx]);
+                used[slot] = true;
+                keys[slot] = oldKeys[idx];
+                values[slot] = oldValues[idx];
+            }
+        }
+    }
+
+
+    /**
+     * Spreads the bits of the key, as consecutive IDs are common.
+     *
+     * @param key
+     * @return
+     */
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
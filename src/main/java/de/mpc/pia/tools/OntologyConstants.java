@@ -187,6 +187,8 @@ public enum OntologyConstants {
     public static final String PSI_MS_OBO_URL = "https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo";
     /** URL to the current psi-mod.obo file */
     public static final String PSI_MOD_OBO_URL = "https://raw.githubusercontent.com/HUPO-PSI/psi-mod-CV/master/PSI-MOD.obo";
+    /** URL to the current unimod.xml file */
+    public static final String UNIMOD_XML_URL = "http://www.unimod.org/xml/unimod.xml";
     /** the label for the PSI-MS ontology */
     public static final String CV_PSI_MS_LABEL = "MS";
     /** current version of psi-ms.obo */
@@ -0,0 +1,134 @@
+package de.mpc.pia.tools;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+
+/**
+ * Processes a sequence of items by a pool of worker threads and passes the
+ * results in the original order to a consumer. The items are supplied and the
+ * results consumed only by the calling thread, so neither needs to be thread
+ * safe, only the processor does.
+ * <p>
+ * At most a few items per thread are processed ahead of the consumer, which
+ * bounds the memory needed for the results. The results do not depend on the
+ * number of threads.
+ *
+ * @author julian
+ *
+ */
+public final class OrderedPipeline {
+
+    /** the number of items per thread, which may be processed ahead of the consumer */
+    private static final int ITEMS_AHEAD_PER_THREAD = 2;
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private OrderedPipeline() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Processes all items of the supplier and passes the results in the
+     * supplied order to the consumer. If less than two threads are given, all
+     * is done in the calling thread.
+     * <p>
+     * A {@link RuntimeException} or {@link Error} of the processor is
+     * rethrown, any other exception is wrapped into an {@link IOException}.
+     * All pending items are cancelled on a failure.
+     *
+     * @param supplier supplies the items, returns null at the end
+     * @param processor processes one item, must be thread safe
+     * @param consumer consumes the results in order
+     * @param nrThreads the number of worker threads
+     * @param description describes the processing for the error messages
+     * @throws IOException
+     */
+    public static <I, R> void process(ItemSupplier<I> supplier, Function<I, R> processor,
+            ResultConsumer<R> consumer, int nrThreads, String description) throws IOException {
+        I item;
+
+        if (nrThreads < 2) {
+            while ((item = supplier.next()) != null) {
+                consumer.accept(processor.apply(item));
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        Deque<Future<R>> pending = new ArrayDeque<>();
+
+        try {
+            while ((item = supplier.next()) != null) {
+                I processItem = item;
+                pending.add(executor.submit(() -> processor.apply(processItem)));
+
+                if (pending.size() >= nrThreads * ITEMS_AHEAD_PER_THREAD) {
+                    consumer.accept(getResult(pending.poll(), description));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                consumer.accept(getResult(pending.poll(), description));
+            }
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Waits for the result of the future, unwrapping the exceptions.
+     *
+     * @throws IOException
+     */
+    private static <R> R getResult(Future<R> future, String description) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while " + description, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("error while " + description, e.getCause());
+        }
+    }
+
+
+    /**
+     * Supplies the items of a pipeline.
+     */
+    @FunctionalInterface
+    public interface ItemSupplier<I> {
+        /**
+         * Returns the next item or null, if all items are supplied.
+         *
+         * @return
+         * @throws IOException
+         */
+        I next() throws IOException;
+    }
+
+
+    /**
+     * Consumes the results of a pipeline in order.
+     */
+    @FunctionalInterface
+    public interface ResultConsumer<R> {
+        void accept(R result) throws IOException;
+    }
+}
@@ -70,6 +70,11 @@ public class PIAConstants {
     public static final String PSM_EXPORT_OPTION = "psmExport";
     public static final String PEPTIDE_EXPORT_OPTION = "peptideExport";
     public static final String PROTEIN_EXPORT_OPTION = "proteinExport";
+    public static final String EXPORT_OPTION = "export";
+    public static final String COMPILE_OPTION = "compile";
+    public static final String PIA_OUT_FILE_OPTION = "piaOutfile";
+    public static final String MAP_FASTA_OPTION = "mapFasta";
+    public static final String IL_EQUIVALENT_OPTION = "ilEquivalent";
 
     /** helper description */
     public static final String HELP_DESCRIPTION =
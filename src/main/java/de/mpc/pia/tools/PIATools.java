@@ -23,6 +23,19 @@ public class PIATools {
     }
 
 
+    /**
+     * Returns the number of threads, which are actually used, if the given
+     * number of threads is set: all available processors, if it is smaller
+     * than 1.
+     *
+     * @param nrThreads
+     * @return
+     */
+    public static int resolveThreads(int nrThreads) {
+        return (nrThreads < 1) ? Runtime.getRuntime().availableProcessors() : nrThreads;
+    }
+
+
     /**
      * Checks whether both objects are null or are equal.
      */
@@ -0,0 +1,645 @@
+package de.mpc.pia.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+
+import org.apache.log4j.Logger;
+import org.biojava.nbio.ontology.Ontology;
+import org.biojava.nbio.ontology.io.OboParser;
+
+import de.mpc.pia.tools.unimod.jaxb.UnimodT;
+
+
+/**
+ * Local cache for the reference data (PSI-MS, PSI-MOD and Unimod), which
+ * works offline first.
+ * <p>
+ * The data is always read from a snapshot in the cache directory or, if there
+ * is none yet, from the file shipped with PIA. Newer versions are only fetched
+ * in the background (if the online refresh is enabled) and are used by the
+ * next parser, which reads the data.
+ * <p>
+ * A snapshot is a compressed binary file holding the version and SHA-256
+ * checksum of the data, which are checked on reading. Fetched data is only
+ * cached, if it can be parsed. The parsed ontologies themselves cannot be
+ * serialized, so the parsing is done only once per process by the shared
+ * instances of the parsers, which fall back to the shipped file, if a snapshot
+ * still cannot be parsed by them.
+ *
+ * @author julian
+ *
+ */
+public class ReferenceDataCache {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ReferenceDataCache.class);
+
+    /** the system property for the cache directory */
+    public static final String CACHE_DIRECTORY_PROPERTY = "pia.referencedata.cache";
+
+    /** the system property to enable or disable the online refresh */
+    public static final String ONLINE_REFRESH_PROPERTY = "pia.referencedata.online";
+
+    /** the default timeout (in ms) for connecting to and reading from the remote sources */
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    /** identifies the snapshot files */
+    private static final int SNAPSHOT_MAGIC = 0x50494152;
+
+    /** the version of the snapshot file format */
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+
+    /** the file ending of the snapshots */
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    /** the number of bytes in the head of the data, which are searched for the version */
+    private static final int VERSION_HEADER_LENGTH = 4096;
+
+
+    /** the directory of the snapshots, null if no cache can be used */
+    private final File cacheDirectory;
+
+    /** the remote sources of the data */
+    private final Map<Dataset, URL> sources;
+
+    /** whether newer data should be fetched in the background */
+    private boolean onlineRefresh;
+
+    /** the timeout of the connections to the remote sources */
+    private int timeout;
+
+    /** the background refreshes, which were started */
+    private final Map<Dataset, Future<Boolean>> refreshes;
+
+    /** executes the refreshes in the background */
+    private ExecutorService refreshExecutor;
+
+    /** the cache used by the shared parsers */
+    private static ReferenceDataCache defaultCache;
+
+
+    /**
+     * Parses the data of a dataset.
+     *
+     * @param <T> the parsed data
+     */
+    @FunctionalInterface
+    public interface DataParser<T> {
+        /**
+         * Parses the data from the stream.
+         *
+         * @param inStream
+         * @return the parsed data
+         * @throws Exception if the data cannot be parsed
+         */
+        T parse(InputStream inStream) throws Exception;
+    }
+
+
+    /**
+     * The reference data, which can be cached.
+     */
+    public enum Dataset {
+        PSI_MS("psi-ms.obo", "/de/mpc/pia/psi-ms.obo", OntologyConstants.PSI_MS_OBO_URL, "format-version:",
+                "^data-version:\\s*(\\S+)", ReferenceDataCache::parseOntology),
+        PSI_MOD("PSI-MOD.obo", "/de/mpc/pia/PSI-MOD.obo", OntologyConstants.PSI_MOD_OBO_URL, "format-version:",
+                "^(?:data-version|date):\\s*(\\S.*?)\\s*$", ReferenceDataCache::parseOntology),
+        UNIMOD("unimod.xml", "/de/mpc/pia/unimod.xml", OntologyConstants.UNIMOD_XML_URL, "<?xml",
+                "majorVersion=\"(\\d+)\"\\s+minorVersion=\"(\\d+)\"", ReferenceDataCache::parseUnimod),
+        ;
+
+        /** the name of the data file */
+        private final String fileName;
+
+        /** the path to the shipped file */
+        private final String shippedPath;
+
+        /** the URL of the current remote version */
+        private final String defaultSource;
+
+        /** the start of any valid data */
+        private final String expectedStart;
+
+        /** finds the version in the head of the data */
+        private final Pattern versionPattern;
+
+        /** parses the fetched data, before it is cached */
+        private final DataParser<?> validationParser;
+
+
+        Dataset(String fileName, String shippedPath, String defaultSource, String expectedStart,
+                String versionRegex, DataParser<?> validationParser) {
+            this.fileName = fileName;
+            this.shippedPath = shippedPath;
+            this.defaultSource = defaultSource;
+            this.expectedStart = expectedStart;
+            this.versionPattern = Pattern.compile(versionRegex, Pattern.MULTILINE);
+            this.validationParser = validationParser;
+        }
+
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+
+    /**
+     * Creates a cache in the given directory, with the online refresh
+     * disabled. If the directory is null, only the shipped data is used.
+     *
+     * @param cacheDirectory
+     */
+    public ReferenceDataCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        this.sources = new EnumMap<>(Dataset.class);
+        this.onlineRefresh = false;
+        this.timeout = DEFAULT_TIMEOUT;
+        this.refreshes = new EnumMap<>(Dataset.class);
+        this.refreshExecutor = null;
+
+        for (Dataset dataset : Dataset.values()) {
+            try {
+                sources.put(dataset, new URL(dataset.defaultSource));
+            } catch (MalformedURLException e) {
+                LOGGER.error("invalid URL for " + dataset.fileName, e);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the cache used by the shared parsers. On the first call, it is
+     * created in the directory given by the system property
+     * {@value #CACHE_DIRECTORY_PROPERTY} (defaults to ".pia/referencedata" in
+     * the user's home). The online refresh is enabled, unless the system
+     * property {@value #ONLINE_REFRESH_PROPERTY} is set to false.
+     *
+     * @return
+     */
+    public static synchronized ReferenceDataCache getDefault() {
+        if (defaultCache == null) {
+            String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+            if (directory == null) {
+                directory = System.getProperty("user.home") + File.separator + ".pia" + File.separator
+                        + "referencedata";
+            }
+
+            defaultCache = new ReferenceDataCache(new File(directory));
+            defaultCache.setOnlineRefresh(
+                    Boolean.parseBoolean(System.getProperty(ONLINE_REFRESH_PROPERTY, "true")));
+        }
+        return defaultCache;
+    }
+
+
+    /**
+     * Sets the cache used by the shared parsers. This must be called before
+     * any of them is created.
+     *
+     * @param cache
+     */
+    public static synchronized void setDefault(ReferenceDataCache cache) {
+        defaultCache = cache;
+    }
+
+
+    /**
+     * Sets whether newer data should be fetched in the background, when the
+     * data is opened.
+     *
+     * @param onlineRefresh
+     */
+    public synchronized void setOnlineRefresh(boolean onlineRefresh) {
+        this.onlineRefresh = onlineRefresh;
+    }
+
+
+    public synchronized boolean getOnlineRefresh() {
+        return onlineRefresh;
+    }
+
+
+    /**
+     * Sets the timeout (in ms) for connecting to and reading from the remote
+     * sources.
+     *
+     * @param timeout
+     */
+    public synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * Sets the remote source of the dataset, e.g. a local file for testing or
+     * a mirror.
+     *
+     * @param dataset
+     * @param source
+     */
+    public synchronized void setSource(Dataset dataset, URL source) {
+        sources.put(dataset, source);
+    }
+
+
+    /**
+     * Opens the cached snapshot of the dataset or, if there is no valid
+     * snapshot, the shipped file. If the online refresh is enabled, newer data
+     * is fetched in the background on the first call for each dataset.
+     *
+     * @param dataset
+     * @return
+     */
+    public InputStream openStream(Dataset dataset) {
+        if (getOnlineRefresh()) {
+            refreshInBackground(dataset);
+        }
+
+        byte[] data = readSnapshot(dataset);
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+
+        LOGGER.debug("using shipped " + dataset.fileName);
+        return ReferenceDataCache.class.getResourceAsStream(dataset.shippedPath);
+    }
+
+
+    /**
+     * Parses the cached snapshot of the dataset with the given parser. If
+     * there is no valid snapshot or it cannot be parsed, the shipped file is
+     * parsed instead. If the online refresh is enabled, newer data is fetched
+     * in the background on the first call for each dataset.
+     *
+     * @param dataset
+     * @param parser
+     * @return the parsed data
+     * @throws IOException if also the shipped file cannot be parsed
+     */
+    public <T> T read(Dataset dataset, DataParser<T> parser) throws IOException {
+        if (getOnlineRefresh()) {
+            refreshInBackground(dataset);
+        }
+
+        byte[] data = readSnapshot(dataset);
+        if (data != null) {
+            try {
+                return parser.parse(new ByteArrayInputStream(data));
+            } catch (Exception e) {
+                LOGGER.warn("could not parse cached " + dataset.fileName + ", using the shipped file", e);
+            }
+        }
+
+        LOGGER.debug("using shipped " + dataset.fileName);
+        try (InputStream inStream = ReferenceDataCache.class.getResourceAsStream(dataset.shippedPath)) {
+            if (inStream == null) {
+                throw new IOException("shipped " + dataset.shippedPath + " not found");
+            }
+            return parser.parse(inStream);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("could not parse shipped " + dataset.fileName, e);
+        }
+    }
+
+
+    /**
+     * Returns the version of the currently cached snapshot of the dataset or
+     * null, if there is no snapshot.
+     *
+     * @param dataset
+     * @return
+     */
+    public String getCachedVersion(Dataset dataset) {
+        File snapshot = getSnapshotFile(dataset);
+        if ((snapshot == null) || !snapshot.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot.toPath()))) {
+            return readHeader(in)[0];
+        } catch (IOException e) {
+            LOGGER.warn("could not read snapshot " + snapshot, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Starts fetching the remote data of the dataset in the background, if
+     * this was not done before. The returned future is true, if the snapshot
+     * was updated.
+     *
+     * @param dataset
+     * @return
+     */
+    public synchronized Future<Boolean> refreshInBackground(Dataset dataset) {
+        Future<Boolean> refresh = refreshes.get(dataset);
+        if (refresh == null) {
+            if (cacheDirectory == null) {
+                refresh = CompletableFuture.completedFuture(false);
+            } else {
+                if (refreshExecutor == null) {
+                    refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "PIA reference data refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                refresh = refreshExecutor.submit(() -> refresh(dataset));
+            }
+            refreshes.put(dataset, refresh);
+        }
+        return refresh;
+    }
+
+
+    /**
+     * Fetches the remote data of the dataset and stores it as snapshot, if
+     * it differs from the cached one.
+     *
+     * @param dataset
+     * @return true, if the snapshot was updated
+     */
+    public boolean refresh(Dataset dataset) {
+        URL source;
+        int connectionTimeout;
+        synchronized (this) {
+            source = sources.get(dataset);
+            connectionTimeout = timeout;
+        }
+
+        if ((cacheDirectory == null) || (source == null)) {
+            return false;
+        }
+
+        byte[] data;
+        try {
+            URLConnection connection = source.openConnection();
+            connection.setConnectTimeout(connectionTimeout);
+            connection.setReadTimeout(connectionTimeout);
+            try (InputStream in = connection.getInputStream()) {
+                data = readFully(in);
+            }
+        } catch (IOException e) {
+            LOGGER.info("could not fetch " + dataset.fileName + " from " + source + ", using the local version");
+            LOGGER.debug("fetching " + dataset.fileName + " failed", e);
+            return false;
+        }
+
+        if (!isValid(dataset, data)) {
+            LOGGER.warn("the data from " + source + " is no valid " + dataset.fileName);
+            return false;
+        }
+
+        try {
+            dataset.validationParser.parse(new ByteArrayInputStream(data));
+        } catch (Exception e) {
+            LOGGER.warn("the data from " + source + " cannot be parsed as " + dataset.fileName, e);
+            return false;
+        }
+
+        try {
+            return writeSnapshot(dataset, data);
+        } catch (IOException e) {
+            LOGGER.warn("could not write snapshot of " + dataset.fileName, e);
+            return false;
+        }
+    }
+
+
+    /**
+     * Reads the data from the snapshot, if it exists and is valid.
+     *
+     * @return the data or null
+     */
+    private byte[] readSnapshot(Dataset dataset) {
+        File snapshot = getSnapshotFile(dataset);
+        if ((snapshot == null) || !snapshot.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot.toPath()))) {
+            String[] versionAndChecksum = readHeader(in);
+            byte[] data;
+            try (GZIPInputStream gzipIn = new GZIPInputStream(in)) {
+                data = readFully(gzipIn);
+            }
+
+            if (!versionAndChecksum[1].equals(checksum(data))) {
+                LOGGER.warn("checksum of snapshot " + snapshot + " does not match, ignoring it");
+                return null;
+            }
+
+            LOGGER.debug("using cached " + dataset.fileName + " version " + versionAndChecksum[0]);
+            return data;
+        } catch (IOException e) {
+            LOGGER.warn("could not read snapshot " + snapshot + ", ignoring it", e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Reads the header of a snapshot.
+     *
+     * @return the version and the checksum of the data
+     * @throws IOException
+     */
+    private static String[] readHeader(DataInputStream in) throws IOException {
+        if ((in.readInt() != SNAPSHOT_MAGIC) || (in.readInt() != SNAPSHOT_FORMAT_VERSION)) {
+            throw new IOException("not a snapshot of this format");
+        }
+        return new String[] {in.readUTF(), in.readUTF()};
+    }
+
+
+    /**
+     * Writes the data as new snapshot, unless the cached snapshot has the same
+     * checksum. The snapshot is written to a temporary file first and moved
+     * afterwards, so readers never see a partial snapshot.
+     *
+     * @return true, if the snapshot was updated
+     * @throws IOException
+     */
+    private synchronized boolean writeSnapshot(Dataset dataset, byte[] data) throws IOException {
+        String checksum = checksum(data);
+        File snapshot = getSnapshotFile(dataset);
+
+        if (snapshot.isFile()) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot.toPath()))) {
+                if (checksum.equals(readHeader(in)[1])) {
+                    LOGGER.debug("cached " + dataset.fileName + " is up to date");
+                    return false;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("replacing unreadable snapshot " + snapshot, e);
+            }
+        }
+
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("could not create cache directory " + cacheDirectory);
+        }
+
+        String version = getVersion(dataset, data);
+        File tmpFile = File.createTempFile(dataset.fileName, ".tmp", cacheDirectory);
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmpFile.toPath()))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_FORMAT_VERSION);
+                out.writeUTF(version);
+                out.writeUTF(checksum);
+
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    gzipOut.write(data);
+                }
+            }
+
+            Files.move(tmpFile.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        LOGGER.info("cached " + dataset.fileName + " version " + version);
+        return true;
+    }
+
+
+    /**
+     * Returns the snapshot file of the dataset, or null if no cache is used.
+     */
+    private File getSnapshotFile(Dataset dataset) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        return new File(cacheDirectory, dataset.fileName + SNAPSHOT_EXTENSION);
+    }
+
+
+    /**
+     * Checks, whether the data looks like a file of the dataset, e.g. not an
+     * error page of a proxy. This is checked before the data is parsed.
+     */
+    private static boolean isValid(Dataset dataset, byte[] data) {
+        byte[] start = dataset.expectedStart.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        // skip a UTF-8 byte order mark
+        if ((data.length >= 3) && ((data[0] & 0xFF) == 0xEF) && ((data[1] & 0xFF) == 0xBB)
+                && ((data[2] & 0xFF) == 0xBF)) {
+            offset = 3;
+        }
+
+        return (data.length >= offset + start.length)
+                && Arrays.equals(start, Arrays.copyOfRange(data, offset, offset + start.length));
+    }
+
+
+    /**
+     * Parses an OBO ontology, which must contain terms.
+     */
+    private static Ontology parseOntology(InputStream inStream) throws Exception {
+        BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream, StandardCharsets.UTF_8));
+        Ontology ontology = new OboParser().parseOBO(oboFile, "ontology", "validated ontology");
+        if (ontology.getTerms().isEmpty()) {
+            throw new IOException("the ontology contains no terms");
+        }
+        return ontology;
+    }
+
+
+    /**
+     * Parses the unimod.xml, which must contain modifications.
+     */
+    private static UnimodT parseUnimod(InputStream inStream) throws Exception {
+        JAXBContext context = JAXBContext.newInstance(UnimodT.class.getPackage().getName());
+        @SuppressWarnings("unchecked")
+        JAXBElement<UnimodT> doc = (JAXBElement<UnimodT>) context.createUnmarshaller().unmarshal(inStream);
+        if ((doc.getValue().getModifications() == null)
+                || doc.getValue().getModifications().getMod().isEmpty()) {
+            throw new IOException("the unimod.xml contains no modifications");
+        }
+        return doc.getValue();
+    }
+
+
+    /**
+     * Returns the version given in the head of the data. If none is given, the
+     * start of the checksum is used.
+     */
+    private static String getVersion(Dataset dataset, byte[] data) {
+        String header = new String(data, 0, Math.min(data.length, VERSION_HEADER_LENGTH), StandardCharsets.UTF_8);
+        Matcher matcher = dataset.versionPattern.matcher(header);
+        if (matcher.find()) {
+            StringBuilder version = new StringBuilder(matcher.group(1));
+            for (int group = 2; group <= matcher.groupCount(); group++) {
+                version.append('.').append(matcher.group(group));
+            }
+            return version.toString();
+        }
+        return checksum(data).substring(0, 12);
+    }
+
+
+    /**
+     * Calculates the SHA-256 checksum of the data as hex string.
+     */
+    private static String checksum(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+
+    /**
+     * Reads the complete stream.
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
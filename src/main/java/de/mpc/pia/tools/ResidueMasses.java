@@ -0,0 +1,143 @@
+package de.mpc.pia.tools;
+
+import java.util.Arrays;
+
+
+/**
+ * Monoisotopic masses of the amino acid residues in a lookup table, which can
+ * be used for fast calculations of unmodified peptide masses.
+ *
+ * @author julian
+ *
+ */
+public class ResidueMasses {
+
+    /** the monoisotopic residue masses, indexed by the (ASCII) one letter code, NaN for characters, which are no residues */
+    private static final double[] MONOISOTOPIC_MASSES = new double[128];
+
+    /** the mass of water, which is added to the residues of a peptide */
+    private static final double WATER_MASS = PIAConstants.DEHYDRATION_MASS.doubleValue();
+
+    /** the mass of a proton */
+    private static final double PROTON_MASS = PIAConstants.H_MASS.doubleValue();
+
+    /** the mass of an unknown residue (X), the average residue mass like used by Mascot */
+    public static final double UNKNOWN_RESIDUE_MASS = 111.0;
+
+    static {
+        Arrays.fill(MONOISOTOPIC_MASSES, Double.NaN);
+
+        setMass('G', 57.021464);
+        setMass('A', 71.037114);
+        setMass('S', 87.032028);
+        setMass('P', 97.052764);
+        setMass('V', 99.068414);
+        setMass('T', 101.047679);
+        setMass('C', 103.009185);
+        setMass('L', 113.084064);
+        setMass('I', 113.084064);
+        setMass('N', 114.042927);
+        setMass('D', 115.026943);
+        setMass('Q', 128.058578);
+        setMass('K', 128.094963);
+        setMass('E', 129.042593);
+        setMass('M', 131.040485);
+        setMass('H', 137.058912);
+        setMass('F', 147.068414);
+        setMass('R', 156.101111);
+        setMass('Y', 163.063329);
+        setMass('W', 186.079313);
+        setMass('U', 150.953636);
+        setMass('O', 237.147727);
+
+        // the ambiguous residues get the average of their possible residues
+        setMass('B', (getResidueMass('D') + getResidueMass('N')) / 2.0);
+        setMass('Z', (getResidueMass('E') + getResidueMass('Q')) / 2.0);
+        setMass('J', getResidueMass('L'));
+        setMass('X', UNKNOWN_RESIDUE_MASS);
+    }
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private ResidueMasses() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Sets the mass for the upper and lower case residue
+     */
+    private static void setMass(char residue, double mass) {
+        MONOISOTOPIC_MASSES[residue] = mass;
+        MONOISOTOPIC_MASSES[Character.toLowerCase(residue)] = mass;
+    }
+
+
+    /**
+     * Returns the monoisotopic mass of the given residue or NaN, if the
+     * character is no residue. The ambiguous residues B, Z and J get the
+     * average mass of their possible residues, X gets the
+     * {@link #UNKNOWN_RESIDUE_MASS}.
+     *
+     * @param residue
+     * @return
+     */
+    public static double getResidueMass(char residue) {
+        return (residue < MONOISOTOPIC_MASSES.length) ? MONOISOTOPIC_MASSES[residue] : Double.NaN;
+    }
+
+
+    /**
+     * Checks, whether every character of the sequence is a residue with a
+     * mass in the table, i.e. whether
+     * {@link #calculatePeptideMass(CharSequence)} can be called for it.
+     *
+     * @param sequence
+     * @return
+     */
+    public static boolean hasResidueMasses(CharSequence sequence) {
+        for (int idx = 0; idx < sequence.length(); idx++) {
+            if (Double.isNaN(getResidueMass(sequence.charAt(idx)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Calculates the monoisotopic mass of the unmodified peptide given by the
+     * sequence.
+     *
+     * @param sequence
+     * @return
+     * @throws IllegalArgumentException if the sequence contains a character,
+     * which is no residue (e.g. a stop codon '*')
+     */
+    public static double calculatePeptideMass(CharSequence sequence) {
+        double mass = WATER_MASS;
+        for (int idx = 0; idx < sequence.length(); idx++) {
+            double residueMass = getResidueMass(sequence.charAt(idx));
+            if (Double.isNaN(residueMass)) {
+                throw new IllegalArgumentException("'" + sequence.charAt(idx) + "' at position " + (idx + 1)
+                        + " of " + sequence + " is no residue");
+            }
+            mass += residueMass;
+        }
+        return mass;
+    }
+
+
+    /**
+     * Calculates the m/z of the given (uncharged) mass at the given charge.
+     *
+     * @param mass
+     * @param charge
+     * @return
+     */
+    public static double calculateMassToCharge(double mass, int charge) {
+        return (mass + charge * PROTON_MASS) / charge;
+    }
+}
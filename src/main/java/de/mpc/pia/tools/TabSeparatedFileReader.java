@@ -0,0 +1,517 @@
+package de.mpc.pia.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Reader for tab separated files, which maps the file into memory and slices
+ * the rows into their fields on the byte level. The fields are only decoded,
+ * when they are requested from the {@link Row}.
+ * <p>
+ * The rows can be processed sequentially by {@link #forEachRow(Consumer)} or
+ * converted in parallel by {@link #convertRows(Function, Consumer, int)},
+ * which still passes the converted rows in the file's order to the consumer.
+ * Empty lines are skipped.
+ *
+ * @author julian
+ *
+ */
+public class TabSeparatedFileReader implements AutoCloseable {
+
+    /** the channel of the read file */
+    private final FileChannel channel;
+
+    /** the size of the file */
+    private final long fileSize;
+
+    /** the maximal number of bytes mapped at once, no line may be longer */
+    private final int chunkSize;
+
+    /** the currently mapped chunk of the file */
+    private ByteBuffer chunk;
+
+    /** the position of the current chunk in the file */
+    private long chunkStart;
+
+    /** the position of the next unread byte in the current chunk */
+    private int chunkPosition;
+
+    /** the number of the last read line (counting also empty lines) */
+    private long lineNr;
+
+    /** the headers, if the file has a header line */
+    private String[] headers;
+
+
+    /** the default maximal number of bytes mapped at once */
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /** the number of rows converted together in one task */
+    private static final int BATCH_SIZE = 1024;
+
+    private static final byte TAB = '\t';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+
+    /**
+     * Opens the given file. If the file has a header, it is read immediately
+     * and given by {@link #getHeaders()}.
+     *
+     * @param fileName
+     * @param hasHeader whether the first (not empty) line contains the headers
+     * @throws IOException
+     */
+    public TabSeparatedFileReader(String fileName, boolean hasHeader) throws IOException {
+        this(fileName, hasHeader, DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Opens the given file, mapping at most chunkSize bytes at once.
+     *
+     * @param fileName
+     * @param hasHeader whether the first (not empty) line contains the headers
+     * @param chunkSize the maximal number of bytes mapped at once, no line may
+     * be longer
+     * @throws IOException
+     */
+    public TabSeparatedFileReader(String fileName, boolean hasHeader, int chunkSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.chunkSize = chunkSize;
+        this.chunk = null;
+        this.chunkStart = 0;
+        this.chunkPosition = 0;
+        this.lineNr = 0;
+        this.headers = null;
+
+        if (hasHeader) {
+            RowBatch batch = nextBatch(1);
+            if (batch != null) {
+                Row headerRow = batch.getRow(0);
+                headers = new String[headerRow.getFieldCount()];
+                for (int idx = 0; idx < headers.length; idx++) {
+                    headers[idx] = headerRow.getString(idx);
+                }
+            } else {
+                headers = new String[0];
+            }
+        }
+    }
+
+
+    /**
+     * Returns the headers of the file, or null, if it was opened without
+     * headers.
+     *
+     * @return
+     */
+    public String[] getHeaders() {
+        return headers;
+    }
+
+
+    /**
+     * Passes all (remaining) rows sequentially to the given consumer.
+     *
+     * @param consumer
+     * @return the number of processed rows
+     * @throws IOException
+     */
+    public long forEachRow(Consumer<Row> consumer) throws IOException {
+        long nrRows = 0;
+
+        RowBatch batch;
+        while ((batch = nextBatch(BATCH_SIZE)) != null) {
+            for (int idx = 0; idx < batch.size(); idx++) {
+                consumer.accept(batch.getRow(idx));
+            }
+            nrRows += batch.size();
+        }
+
+        return nrRows;
+    }
+
+
+    /**
+     * Converts all (remaining) rows with the given converter in parallel and
+     * passes the results in the order of the rows to the consumer. The
+     * consumer is called only from the calling thread, the converter must be
+     * thread safe. Rows, which are converted to null, are not passed to the
+     * consumer.
+     *
+     * @param converter converts a row into the consumed object
+     * @param consumer consumes the converted rows in order
+     * @param nrThreads the number of threads used for the conversion
+     * @return the number of processed rows
+     * @throws IOException
+     */
+    public <T> long convertRows(Function<Row, T> converter, Consumer<T> consumer, int nrThreads)
+            throws IOException {
+        long[] nrRows = {0};
+        OrderedPipeline.process(
+                () -> {
+                    RowBatch batch = nextBatch(BATCH_SIZE);
+                    if (batch != null) {
+                        nrRows[0] += batch.size();
+                    }
+                    return batch;
+                },
+                batch -> batch.convert(converter),
+                converted -> converted.forEach(consumer),
+                nrThreads, "converting rows");
+
+        return nrRows[0];
+    }
+
+
+    /**
+     * Reads the next batch of at most maxRows (not empty) rows.
+     *
+     * @param maxRows
+     * @return the batch or null, if the end of the file is reached
+     * @throws IOException
+     */
+    private RowBatch nextBatch(int maxRows) throws IOException {
+        int[] lineStarts = new int[maxRows];
+        int[] lineEnds = new int[maxRows];
+        long[] lineNrs = new long[maxRows];
+        int nrRows = 0;
+
+        while (nrRows < maxRows) {
+            if ((chunk == null) || (chunkPosition >= chunk.limit())) {
+                // the rows of a batch must be in the same chunk
+                if ((nrRows > 0) || !mapNextChunk()) {
+                    break;
+                }
+            }
+
+            int lineEnd = findLineEnd(chunkPosition);
+            if (lineEnd < 0) {
+                // the line continues in the next chunk
+                if (nrRows > 0) {
+                    // first return the rows of this chunk
+                    break;
+                }
+                if (!mapNextChunk()) {
+                    break;
+                }
+                continue;
+            }
+
+            int lineStart = chunkPosition;
+            chunkPosition = lineEnd + 1;
+            lineNr++;
+
+            int contentEnd = lineEnd;
+            if ((contentEnd > lineStart) && (chunk.get(contentEnd - 1) == CR)) {
+                contentEnd--;
+            }
+
+            if (contentEnd > lineStart) {
+                lineStarts[nrRows] = lineStart;
+                lineEnds[nrRows] = contentEnd;
+                lineNrs[nrRows] = lineNr;
+                nrRows++;
+            }
+        }
+
+        if (nrRows == 0) {
+            return null;
+        }
+        return new RowBatch(chunk, lineStarts, lineEnds, lineNrs, nrRows);
+    }
+
+
+    /**
+     * Returns the index of the line feed ending the line at the given position
+     * in the current chunk. If the chunk reaches the end of the file, the end
+     * of the chunk is returned for the last line. Otherwise -1 is returned, if
+     * the line is not complete in this chunk.
+     *
+     * @param position
+     * @return
+     */
+    private int findLineEnd(int position) {
+        int limit = chunk.limit();
+        for (int idx = position; idx < limit; idx++) {
+            if (chunk.get(idx) == LF) {
+                return idx;
+            }
+        }
+
+        if (chunkStart + limit >= fileSize) {
+            return limit;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Maps the next chunk of the file, starting at the current position.
+     *
+     * @return false, if the end of the file is reached
+     * @throws IOException
+     */
+    private boolean mapNextChunk() throws IOException {
+        long start = (chunk == null) ? 0 : chunkStart + chunkPosition;
+        if (start >= fileSize) {
+            return false;
+        }
+
+        long size = Math.min(chunkSize, fileSize - start);
+        if ((chunk != null) && (start == chunkStart) && (size <= chunk.limit())) {
+            throw new IOException("line " + (lineNr + 1) + " is longer than " + chunkSize + " bytes");
+        }
+
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        chunkStart = start;
+        chunkPosition = 0;
+        return true;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        channel.close();
+    }
+
+
+    /**
+     * A batch of rows in one chunk of the file.
+     */
+    private static class RowBatch {
+        private final ByteBuffer buffer;
+        private final int[] lineStarts;
+        private final int[] lineEnds;
+        private final long[] lineNrs;
+        private final int size;
+
+
+        private RowBatch(ByteBuffer buffer, int[] lineStarts, int[] lineEnds, long[] lineNrs, int size) {
+            this.buffer = buffer;
+            this.lineStarts = lineStarts;
+            this.lineEnds = lineEnds;
+            this.lineNrs = lineNrs;
+            this.size = size;
+        }
+
+
+        private int size() {
+            return size;
+        }
+
+
+        private Row getRow(int idx) {
+            return new Row(buffer, lineStarts[idx], lineEnds[idx], lineNrs[idx]);
+        }
+
+
+        private <T> List<T> convert(Function<Row, T> converter) {
+            List<T> converted = new ArrayList<>(size);
+            for (int idx = 0; idx < size; idx++) {
+                T value = converter.apply(getRow(idx));
+                if (value != null) {
+                    converted.add(value);
+                }
+            }
+            return converted;
+        }
+    }
+
+
+    /**
+     * One row of the file. The fields are sliced on first access and only
+     * decoded, when they are requested.
+     */
+    public static final class Row {
+        /** the mapped chunk, only accessed with absolute positions */
+        private final ByteBuffer buffer;
+
+        /** the start of the row in the buffer */
+        private final int start;
+
+        /** the end (exclusive) of the row in the buffer */
+        private final int end;
+
+        /** the line number in the file */
+        private final long lineNr;
+
+        /** the starts of the fields, followed by the end of the row plus one */
+        private int[] fieldStarts;
+
+
+        private Row(ByteBuffer buffer, int start, int end, long lineNr) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.lineNr = lineNr;
+            this.fieldStarts = null;
+        }
+
+
+        /**
+         * Returns the line number of this row in the file, starting at 1.
+         *
+         * @return
+         */
+        public long getLineNumber() {
+            return lineNr;
+        }
+
+
+        /**
+         * Returns the number of fields of this row.
+         *
+         * @return
+         */
+        public int getFieldCount() {
+            sliceFields();
+            return fieldStarts.length - 1;
+        }
+
+
+        /**
+         * Returns the decoded field or null, if the row has no such field.
+         *
+         * @param column
+         * @return
+         */
+        public String getString(int column) {
+            sliceFields();
+            if ((column < 0) || (column >= fieldStarts.length - 1)) {
+                return null;
+            }
+
+            int fieldStart = fieldStarts[column];
+            int length = fieldStarts[column + 1] - 1 - fieldStart;
+            byte[] bytes = new byte[length];
+            for (int idx = 0; idx < length; idx++) {
+                bytes[idx] = buffer.get(fieldStart + idx);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+
+        /**
+         * Returns true, if the row has no such field or the field is empty.
+         *
+         * @param column
+         * @return
+         */
+        public boolean isEmpty(int column) {
+            sliceFields();
+            return (column < 0) || (column >= fieldStarts.length - 1)
+                    || (fieldStarts[column + 1] - 1 == fieldStarts[column]);
+        }
+
+
+        /**
+         * Parses the field as integer directly from the bytes.
+         *
+         * @param column
+         * @return
+         * @throws NumberFormatException if the field is missing or no integer
+         */
+        public int getInt(int column) {
+            sliceFields();
+            if ((column < 0) || (column >= fieldStarts.length - 1)) {
+                throw new NumberFormatException("no column " + column + " in line " + lineNr);
+            }
+
+            int pos = fieldStarts[column];
+            int fieldEnd = fieldStarts[column + 1] - 1;
+
+            // trim
+            while ((pos < fieldEnd) && (buffer.get(pos) == ' ')) {
+                pos++;
+            }
+            while ((fieldEnd > pos) && (buffer.get(fieldEnd - 1) == ' ')) {
+                fieldEnd--;
+            }
+
+            boolean negative = false;
+            if ((pos < fieldEnd) && ((buffer.get(pos) == '-') || (buffer.get(pos) == '+'))) {
+                negative = buffer.get(pos) == '-';
+                pos++;
+            }
+            if (pos >= fieldEnd) {
+                throw new NumberFormatException("no integer in column " + column + " in line " + lineNr);
+            }
+
+            long value = 0;
+            for (; pos < fieldEnd; pos++) {
+                byte digit = buffer.get(pos);
+                if ((digit < '0') || (digit > '9')) {
+                    throw new NumberFormatException(getString(column));
+                }
+                value = value * 10 + (digit - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw new NumberFormatException(getString(column));
+                }
+            }
+
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException(getString(column));
+            }
+            return (int) value;
+        }
+
+
+        /**
+         * Parses the field as double.
+         *
+         * @param column
+         * @return
+         * @throws NumberFormatException if the field is missing or no number
+         */
+        public double getDouble(int column) {
+            String field = getString(column);
+            if (field == null) {
+                throw new NumberFormatException("no column " + column + " in line " + lineNr);
+            }
+            return Double.parseDouble(field);
+        }
+
+
+        /**
+         * Slices the row into the fields, if not yet done.
+         */
+        private void sliceFields() {
+            if (fieldStarts != null) {
+                return;
+            }
+
+            int nrFields = 1;
+            for (int idx = start; idx < end; idx++) {
+                if (buffer.get(idx) == TAB) {
+                    nrFields++;
+                }
+            }
+
+            int[] starts = new int[nrFields + 1];
+            int field = 0;
+            starts[field++] = start;
+            for (int idx = start; idx < end; idx++) {
+                if (buffer.get(idx) == TAB) {
+                    starts[field++] = idx + 1;
+                }
+            }
+            starts[field] = end + 1;
+
+            fieldStarts = starts;
+        }
+    }
+}
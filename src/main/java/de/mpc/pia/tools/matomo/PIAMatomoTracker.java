@@ -5,12 +5,13 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.security.SecureRandom;
 import java.util.Properties;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.log4j.Logger;
 
@@ -19,6 +20,9 @@ import de.mpc.pia.tools.PIAConstants;
 
 /**
  * This class handles everything needed for the recording of usage statistics of PIA calls using Matomo.
+ * <p>
+ * The events are sent by a daemon thread, so tracking never blocks the caller. If the queue of unsent events is full,
+ * further events are dropped. On shutdown of the JVM, the unsent events get a short deadline to be sent.
  *
  * @author julian
  *
@@ -55,6 +59,33 @@ public class PIAMatomoTracker {
     /** the ID for Matomo tracking */
     private static final int PIA_MATOMO_TRACKING_SITE_ID = 4;
 
+    /** the URL, to which the events are actually sent */
+    private static volatile String trackingURL = PIA_MATOMO_TRACKING_URL;
+
+    /** the maximal number of unsent events, further events are dropped */
+    static final int QUEUE_CAPACITY = 32;
+
+    /** the timeout (in ms) for connecting to the tracking page */
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    /** the timeout (in ms) for reading the response of the tracking page */
+    private static final int READ_TIMEOUT = 2000;
+
+    /** the maximal time (in ms), the shutdown of the JVM waits for unsent events */
+    private static final long SHUTDOWN_FLUSH_DEADLINE = 1000;
+
+    /** the requests of the unsent events */
+    private static final BlockingQueue<String> PENDING_REQUESTS = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** guards the number of unsent requests, notified after each sent request */
+    private static final Object SEND_LOCK = new Object();
+
+    /** the number of queued or currently sent requests */
+    private static int unsentRequests = 0;
+
+    /** the thread sending the requests, started with the first event */
+    private static Thread senderThread = null;
+
 
     /** event category for command line call */
     public static final String PIA_TRACKING_COMMAND_LINE_CATEGORY = "PIA_cli";
@@ -179,6 +210,7 @@ public class PIAMatomoTracker {
     /**
      * Function used to track a PIA event of any kind. If the visitorCid was not set before (or is null), it will be
      * fetched from the configuration file or newly created and stored in a config file in the user's home directory.
+     * The event is only queued, it is sent in the background.
      *
      * @param eventCategory the category, like e.g. "PIA_cli" or "PIA_KNIME"
      * @param eventName name of the event, like "compiler", "analysis", "export"
@@ -219,11 +251,7 @@ public class PIAMatomoTracker {
                             + '}', UTF8);
             getRequest += customVariablesString;
 
-            // make the actual request via GET
-            HttpsURLConnection connection = (HttpsURLConnection) new URL(PIA_MATOMO_TRACKING_URL + '?' +
-                    getRequest).openConnection();
-            connection.setRequestMethod("GET");
-            connection.getResponseCode();
+            queueRequest(getRequest);
         } catch (Exception e) {
             // silently ignore any exception
             LOGGER.debug("problem during matomo tracking", e);
@@ -231,6 +259,105 @@ public class PIAMatomoTracker {
     }
 
 
+    /**
+     * Queues the request for the sender thread. If the queue is full, the request is dropped.
+     *
+     * @param getRequest
+     */
+    private static void queueRequest(String getRequest) {
+        synchronized (SEND_LOCK) {
+            if (!PENDING_REQUESTS.offer(getRequest)) {
+                LOGGER.debug("too many unsent matomo events, dropping event");
+                return;
+            }
+            unsentRequests++;
+
+            if (senderThread == null) {
+                senderThread = new Thread(PIAMatomoTracker::sendRequests, "PIA usage tracking");
+                senderThread.setDaemon(true);
+                senderThread.start();
+
+                Runtime.getRuntime().addShutdownHook(
+                        new Thread(() -> flush(SHUTDOWN_FLUSH_DEADLINE), "PIA usage tracking flush"));
+            }
+        }
+    }
+
+
+    /**
+     * Sends the queued requests, runs in the sender thread.
+     */
+    private static void sendRequests() {
+        while (true) {
+            String getRequest;
+            try {
+                getRequest = PENDING_REQUESTS.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                // make the actual request via GET
+                HttpURLConnection connection = (HttpURLConnection) new URL(trackingURL + '?' + getRequest)
+                        .openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+                connection.setRequestMethod("GET");
+                connection.getResponseCode();
+                connection.disconnect();
+            } catch (Exception e) {
+                // silently ignore any exception
+                LOGGER.debug("problem during matomo tracking", e);
+            } finally {
+                synchronized (SEND_LOCK) {
+                    unsentRequests--;
+                    SEND_LOCK.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Waits until all queued events are sent, but at most for the given time.
+     *
+     * @param timeout the maximal time to wait in ms
+     * @return true, if all events were sent
+     */
+    public static boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (SEND_LOCK) {
+            while (unsentRequests > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    LOGGER.debug(unsentRequests + " matomo events were not sent");
+                    return false;
+                }
+
+                try {
+                    SEND_LOCK.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Sets the URL of the tracking page, e.g. to a local server for testing.
+     *
+     * @param url
+     */
+    static void setTrackingURL(String url) {
+        trackingURL = url;
+    }
+
+
     /**
      * Function used to track a PIA event of any kind with the given visitorCid.
      *
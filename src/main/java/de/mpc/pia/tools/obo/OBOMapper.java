@@ -11,6 +11,7 @@ import org.biojava.nbio.ontology.Ontology;
 import org.biojava.nbio.ontology.io.OboParser;
 
 import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.ReferenceDataCache;
 
 
 /**
@@ -36,13 +37,40 @@ public class OBOMapper extends AbstractOBOMapper {
     public static final String OBO_HAS_ORDER_LOWERSCOREBETTER = "has_order MS:1002109";
 
 
+    /** the shared instance, which is loaded on the first request */
+    private static OBOMapper sharedInstance;
+
+
     /**
-     * Constructor for the OBOMapper. Uses the online OBO file (if accessible)
-     * or a locally shipped file.
+     * Constructor for the OBOMapper. Uses the cached OBO file or, if none was
+     * cached yet, the locally shipped file. Newer versions are only fetched in
+     * the background by the {@link ReferenceDataCache}.
      *
      */
     public OBOMapper() {
-        this(true);
+        this(ReferenceDataCache.getDefault());
+    }
+
+
+    /**
+     * Creates a new OBOMapper, using the OBO file in the given cache, or the
+     * shipped one, if the cached one cannot be parsed.
+     *
+     * @param cache
+     */
+    public OBOMapper(ReferenceDataCache cache) {
+        try {
+            shippedOntology = cache.read(ReferenceDataCache.Dataset.PSI_MS, inStream -> {
+                OboParser parser = new OboParser();
+                BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream));
+
+                return parser.parseOBO(oboFile, "PSI-MS", "MS ontology of the HUPO-PSI");
+            });
+            onlineOntology = null;
+        } catch (IOException e) {
+            LOGGER.error(e);
+            throw new AssertionError(e);
+        }
     }
 
 
@@ -82,6 +110,20 @@ public class OBOMapper extends AbstractOBOMapper {
     }
 
 
+    /**
+     * Returns a shared instance of the mapper, which is loaded from the
+     * {@link ReferenceDataCache} on the first call.
+     *
+     * @return
+     */
+    public static synchronized OBOMapper getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new OBOMapper();
+        }
+        return sharedInstance;
+    }
+
+
     @Override
     public Ontology getCurrentOntology() {
         if (onlineOntology != null) {
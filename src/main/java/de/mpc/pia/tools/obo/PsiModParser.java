@@ -22,6 +22,7 @@ import org.biojava.nbio.ontology.utils.Annotation;
 
 import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.ReferenceDataCache;
 import de.mpc.pia.tools.unimod.UnimodParser;
 import de.mpc.pia.tools.unimod.jaxb.ModT;
 import de.mpc.pia.tools.unimod.jaxb.PositionT;
@@ -42,13 +43,38 @@ public class PsiModParser extends AbstractOBOMapper {
     private static Pattern unimodInDescription = Pattern.compile(".+\\[.*Unimod:([^, ]+).*\\].*$");
 
 
+    /** the shared instance, which is loaded on the first request */
+    private static PsiModParser sharedInstance;
+
+
     /**
-     * Constructor for the PsiModParser. Uses the online OBO file (if accessible)
-     * or a locally shipped file otherwise.
+     * Constructor for the PsiModParser. Uses the cached OBO file or the
+     * locally shipped file, if none was cached yet.
      *
      */
     public PsiModParser() {
-        this(true);
+        this(ReferenceDataCache.getDefault());
+    }
+
+
+    /**
+     * Creates a new PsiModParser, using the OBO file in the given cache, or
+     * the shipped one, if the cached one cannot be parsed.
+     *
+     * @param cache
+     */
+    public PsiModParser(ReferenceDataCache cache) {
+        try {
+            ontology = cache.read(ReferenceDataCache.Dataset.PSI_MOD, inStream -> {
+                OboParser parser = new OboParser();
+                BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream));
+
+                return parser.parseOBO(oboFile, "PSI-MOD", "modifications defined by the HUPO-PSI");
+            });
+        } catch (IOException e) {
+            LOGGER.error(e);
+            throw new AssertionError("Could not read ontology file.", e);
+        }
     }
 
 
@@ -96,6 +122,20 @@ public class PsiModParser extends AbstractOBOMapper {
     }
 
 
+    /**
+     * Returns a shared instance of the parser, which is loaded from the
+     * {@link ReferenceDataCache} on the first call.
+     *
+     * @return
+     */
+    public static synchronized PsiModParser getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new PsiModParser();
+        }
+        return sharedInstance;
+    }
+
+
     @Override
     public Ontology getCurrentOntology() {
         return ontology;
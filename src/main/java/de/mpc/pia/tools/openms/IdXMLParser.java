@@ -1,62 +1,247 @@
 package de.mpc.pia.tools.openms;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
 
 import org.apache.log4j.Logger;
 
 import de.mpc.pia.tools.openms.jaxb.IdXML;
 import de.mpc.pia.tools.openms.jaxb.IdentificationRun;
+import de.mpc.pia.tools.openms.jaxb.PeptideHit;
+import de.mpc.pia.tools.openms.jaxb.PeptideIdentification;
+import de.mpc.pia.tools.openms.jaxb.ProteinHit;
+import de.mpc.pia.tools.openms.jaxb.ProteinIdentification;
 import de.mpc.pia.tools.openms.jaxb.SearchParameters;
 
 /**
  * This is a very basic parser for IdXML.
  * <p>
  * It is mainly build using JAXB and the provided schema file of OpenMS's
- * IdXML format.
+ * IdXML format. The file is not unmarshalled as a whole, but read with a StAX
+ * reader: the constructor reads the {@link SearchParameters} and the
+ * {@link IdentificationRun}s with their {@link ProteinIdentification}s, the
+ * {@link PeptideIdentification}s are unmarshalled one at a time by
+ * {@link #streamPeptideIdentifications(BiConsumer)}.
  *
  * @author julian
  *
  */
 public class IdXMLParser {
 
-    /** the {@link IdentificationRun} from the IdXML file */
+    /** the name of the idXML file */
+    private String fileName;
+
+    /** the {@link IdentificationRun} from the IdXML file, without their PeptideIdentifications */
     private List<IdentificationRun> identificationRuns;
 
     /** the {@link SearchParameters} from the IdXML file*/
     private List<SearchParameters> searchParameters;
 
+    /** the ProteinHits of each identification run, mapped by their IDs */
+    private List<Map<String, ProteinHit>> runsProteinHits;
+
+
+    /** the JAXB context for the idXML classes, shared by all parsers */
+    private static JAXBContext jaxbContext = null;
+
 
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(IdXMLParser.class);
 
 
+    private static final String XML_TAG_ID_XML = "IdXML";
+    private static final String XML_TAG_SEARCH_PARAMETERS = "SearchParameters";
+    private static final String XML_TAG_IDENTIFICATION_RUN = "IdentificationRun";
+    private static final String XML_TAG_PROTEIN_IDENTIFICATION = "ProteinIdentification";
+    private static final String XML_TAG_PEPTIDE_IDENTIFICATION = "PeptideIdentification";
+    private static final String XML_TAG_PEPTIDE_HIT = "PeptideHit";
+
+    private static final String XML_ATTRIBUTE_PROTEIN_REFS = "protein_refs";
+
+
     /**
-     * Basic constructor, reads in the IdXML file
+     * Basic constructor, reads in the search parameters and identification
+     * runs with their protein identifications of the IdXML file.
      *
      * @param idXMLFileName
      * @throws JAXBException
-     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws XMLStreamException
      */
     public IdXMLParser(String idXMLFileName)
-            throws JAXBException, FileNotFoundException {
-        JAXBContext context = JAXBContext.newInstance(IdXML.class);
-        Unmarshaller um = context.createUnmarshaller();
+            throws JAXBException, IOException, XMLStreamException {
+        this.fileName = idXMLFileName;
+        this.searchParameters = new ArrayList<>();
+        this.identificationRuns = new ArrayList<>();
+        this.runsProteinHits = new ArrayList<>();
+
+        Unmarshaller um = getJAXBContext().createUnmarshaller();
+        Map<String, SearchParameters> searchParametersMap = new HashMap<>();
+
+        try (InputStream inputStream = new FileInputStream(idXMLFileName)) {
+            XMLStreamReader xmlr = createXMLInputFactory().createXMLStreamReader(inputStream);
+
+            IdentificationRun idRun = null;
+            while (xmlr.hasNext()) {
+                if (xmlr.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    xmlr.next();
+                    continue;
+                }
+
+                switch (xmlr.getLocalName()) {
+                case XML_TAG_ID_XML:
+                    checkVersion(xmlr.getAttributeValue(null, "version"));
+                    xmlr.next();
+                    break;
+
+                case XML_TAG_SEARCH_PARAMETERS:
+                    SearchParameters params = um.unmarshal(xmlr, SearchParameters.class).getValue();
+                    searchParameters.add(params);
+                    searchParametersMap.put(params.getId(), params);
+                    break;
+
+                case XML_TAG_IDENTIFICATION_RUN:
+                    idRun = createIdentificationRun(xmlr, searchParametersMap);
+                    identificationRuns.add(idRun);
+                    runsProteinHits.add(new HashMap<>());
+                    xmlr.next();
+                    break;
+
+                case XML_TAG_PROTEIN_IDENTIFICATION:
+                    ProteinIdentification protID = um.unmarshal(xmlr, ProteinIdentification.class).getValue();
+                    if (idRun != null) {
+                        idRun.setProteinIdentification(protID);
+
+                        Map<String, ProteinHit> proteinHits = runsProteinHits.get(runsProteinHits.size() - 1);
+                        for (ProteinHit protHit : protID.getProteinHit()) {
+                            proteinHits.put(protHit.getId(), protHit);
+                        }
+                    }
+                    break;
+
+                case XML_TAG_PEPTIDE_IDENTIFICATION:
+                    // these are read later
+                    skipElement(xmlr);
+                    break;
+
+                default:
+                    xmlr.next();
+                    break;
+                }
+            }
+
+            xmlr.close();
+        }
+    }
+
+
+    /**
+     * Returns the JAXB context for the idXML classes, which is created only
+     * once.
+     *
+     * @return
+     * @throws JAXBException
+     */
+    private static synchronized JAXBContext getJAXBContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(IdXML.class);
+        }
+        return jaxbContext;
+    }
+
+
+    /**
+     * Creates the factory for the StAX readers.
+     *
+     * @return
+     */
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory xmlif = XMLInputFactory.newInstance();
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return xmlif;
+    }
 
-        IdXML idXML = (IdXML)um.unmarshal(new FileReader(idXMLFileName));
 
-        if (idXML.getVersion() < 1.2) {
-            LOGGER.error("Reading in probable incompatible idXML version " +
-                    idXML.getVersion());
+    /**
+     * Logs an error, if the given version is probably incompatible.
+     *
+     * @param version
+     */
+    private static void checkVersion(String version) {
+        try {
+            if ((version != null) && (Float.parseFloat(version) < 1.2)) {
+                LOGGER.error("Reading in probable incompatible idXML version " + version);
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.error("Could not parse idXML version " + version, e);
         }
+    }
+
+
+    /**
+     * Creates the {@link IdentificationRun} (without any children) from the
+     * attributes of the current start element.
+     *
+     * @param xmlr
+     * @param searchParametersMap
+     * @return
+     */
+    private static IdentificationRun createIdentificationRun(XMLStreamReader xmlr,
+            Map<String, SearchParameters> searchParametersMap) {
+        IdentificationRun idRun = new IdentificationRun();
+
+        idRun.setSearchEngine(xmlr.getAttributeValue(null, "search_engine"));
+        idRun.setSearchEngineVersion(xmlr.getAttributeValue(null, "search_engine_version"));
+        idRun.setSearchParametersRef(searchParametersMap.get(xmlr.getAttributeValue(null, "search_parameters_ref")));
+
+        String date = xmlr.getAttributeValue(null, "date");
+        if (date != null) {
+            try {
+                idRun.setDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(date.trim()));
+            } catch (DatatypeConfigurationException | IllegalArgumentException e) {
+                LOGGER.warn("Could not parse date of identification run: " + date, e);
+            }
+        }
+
+        return idRun;
+    }
 
-        searchParameters =  idXML.getSearchParameters();
-        identificationRuns = idXML.getIdentificationRun();
+
+    /**
+     * Skips the element at the current start element, including all its
+     * children.
+     *
+     * @param xmlr
+     * @throws XMLStreamException
+     */
+    private static void skipElement(XMLStreamReader xmlr) throws XMLStreamException {
+        int depth = 0;
+        do {
+            int event = xmlr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        } while (depth >= 0);
     }
 
 
@@ -70,10 +255,240 @@ public class IdXMLParser {
 
 
     /**
-     * Returns the List of {@link IdentificationRun}s
+     * Returns the List of {@link IdentificationRun}s. The runs contain their
+     * {@link ProteinIdentification}, but not the
+     * {@link PeptideIdentification}s, which are given by
+     * {@link #streamPeptideIdentifications(BiConsumer)}.
+     *
      * @return
      */
     public List<IdentificationRun> getIdentificationRuns() {
         return identificationRuns;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Reads the {@link PeptideIdentification}s of the file one by one and
+     * passes each together with its {@link IdentificationRun} to the given
+     * consumer. Only one PeptideIdentification is held in memory at a time.
+     * The protein references of the {@link PeptideHit}s are resolved to the
+     * {@link ProteinHit}s of the run.
+     *
+     * @param consumer
+     * @throws JAXBException
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void streamPeptideIdentifications(BiConsumer<IdentificationRun, PeptideIdentification> consumer)
+            throws JAXBException, IOException, XMLStreamException {
+        Unmarshaller um = getJAXBContext().createUnmarshaller();
+
+        try (InputStream inputStream = new FileInputStream(fileName)) {
+            ProteinRefsRecordingReader xmlr =
+                    new ProteinRefsRecordingReader(createXMLInputFactory().createXMLStreamReader(inputStream));
+
+            int runIdx = -1;
+            while (xmlr.hasNext()) {
+                if (xmlr.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    xmlr.next();
+                    continue;
+                }
+
+                switch (xmlr.getLocalName()) {
+                case XML_TAG_IDENTIFICATION_RUN:
+                    runIdx++;
+                    xmlr.next();
+                    break;
+
+                case XML_TAG_SEARCH_PARAMETERS:
+                case XML_TAG_PROTEIN_IDENTIFICATION:
+                    // these were read before
+                    skipElement(xmlr);
+                    break;
+
+                case XML_TAG_PEPTIDE_IDENTIFICATION:
+                    xmlr.clearProteinRefs();
+                    PeptideIdentification pepID =
+                            um.unmarshal(xmlr, PeptideIdentification.class).getValue();
+
+                    if (runIdx >= 0) {
+                        resolveProteinRefs(pepID, xmlr.getProteinRefs(), runsProteinHits.get(runIdx));
+                        consumer.accept(identificationRuns.get(runIdx), pepID);
+                    }
+                    break;
+
+                default:
+                    xmlr.next();
+                    break;
+                }
+            }
+
+            xmlr.close();
+        }
+    }
+
+
+    /**
+     * Sets the references to the {@link ProteinHit}s of the PeptideHits.
+     *
+     * @param pepID
+     * @param proteinRefs the (space separated) references of each PeptideHit
+     * @param proteinHits the proteinHits of the run, mapped by their IDs
+     */
+    private static void resolveProteinRefs(PeptideIdentification pepID, List<String> proteinRefs,
+            Map<String, ProteinHit> proteinHits) {
+        List<PeptideHit> pepHits = pepID.getPeptideHit();
+
+        for (int idx = 0; (idx < pepHits.size()) && (idx < proteinRefs.size()); idx++) {
+            String refs = proteinRefs.get(idx);
+            if (refs == null) {
+                continue;
+            }
+
+            List<Object> hitRefs = pepHits.get(idx).getProteinRefs();
+            for (String ref : refs.trim().split("\\s+")) {
+                ProteinHit protHit = proteinHits.get(ref);
+                if (protHit != null) {
+                    hitRefs.add(protHit);
+                } else if (!ref.isEmpty()) {
+                    LOGGER.warn("Could not resolve protein reference " + ref);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A reader, which records the protein references of the PeptideHits and
+     * hides them from the JAXB unmarshaller, as these IDREFs point outside of
+     * the unmarshalled PeptideIdentification and could not be resolved.
+     */
+    private static class ProteinRefsRecordingReader extends StreamReaderDelegate {
+
+        /** the protein references of the PeptideHits since the last clear */
+        private final List<String> proteinRefs;
+
+        /** the index of the hidden attribute of the current element, or -1 */
+        private int hiddenIdx;
+
+
+        private ProteinRefsRecordingReader(XMLStreamReader reader) {
+            super(reader);
+            this.proteinRefs = new ArrayList<>();
+            this.hiddenIdx = -1;
+        }
+
+
+        @Override
+        public int next() throws XMLStreamException {
+            int event = super.next();
+
+            hiddenIdx = -1;
+            if ((event == XMLStreamConstants.START_ELEMENT)
+                    && XML_TAG_PEPTIDE_HIT.equals(super.getLocalName())) {
+                String refs = null;
+                for (int idx = 0; idx < super.getAttributeCount(); idx++) {
+                    if (XML_ATTRIBUTE_PROTEIN_REFS.equals(super.getAttributeLocalName(idx))) {
+                        hiddenIdx = idx;
+                        refs = super.getAttributeValue(idx);
+                        break;
+                    }
+                }
+                proteinRefs.add(refs);
+            }
+
+            return event;
+        }
+
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int event = next();
+            while (((event == XMLStreamConstants.CHARACTERS) && isWhiteSpace())
+                    || (event == XMLStreamConstants.SPACE)
+                    || (event == XMLStreamConstants.COMMENT)
+                    || (event == XMLStreamConstants.PROCESSING_INSTRUCTION)) {
+                event = next();
+            }
+            if ((event != XMLStreamConstants.START_ELEMENT) && (event != XMLStreamConstants.END_ELEMENT)) {
+                throw new XMLStreamException("expected start or end tag", getLocation());
+            }
+            return event;
+        }
+
+
+        public List<String> getProteinRefs() {
+            return proteinRefs;
+        }
+
+
+        public void clearProteinRefs() {
+            proteinRefs.clear();
+        }
+
+
+        /**
+         * Maps the index of the visible attributes to the underlying reader.
+         */
+        private int mapIndex(int index) {
+            return ((hiddenIdx > -1) && (index >= hiddenIdx)) ? index + 1 : index;
+        }
+
+
+        @Override
+        public int getAttributeCount() {
+            return (hiddenIdx > -1) ? super.getAttributeCount() - 1 : super.getAttributeCount();
+        }
+
+
+        @Override
+        public String getAttributeValue(String namespaceUri, String localName) {
+            if ((hiddenIdx > -1) && XML_ATTRIBUTE_PROTEIN_REFS.equals(localName)) {
+                return null;
+            }
+            return super.getAttributeValue(namespaceUri, localName);
+        }
+
+
+        @Override
+        public QName getAttributeName(int index) {
+            return super.getAttributeName(mapIndex(index));
+        }
+
+
+        @Override
+        public String getAttributeNamespace(int index) {
+            return super.getAttributeNamespace(mapIndex(index));
+        }
+
+
+        @Override
+        public String getAttributeLocalName(int index) {
+            return super.getAttributeLocalName(mapIndex(index));
+        }
+
+
+        @Override
+        public String getAttributePrefix(int index) {
+            return super.getAttributePrefix(mapIndex(index));
+        }
+
+
+        @Override
+        public String getAttributeType(int index) {
+            return super.getAttributeType(mapIndex(index));
+        }
+
+
+        @Override
+        public String getAttributeValue(int index) {
+            return super.getAttributeValue(mapIndex(index));
+        }
+
+
+        @Override
+        public boolean isAttributeSpecified(int index) {
+            return super.isAttributeSpecified(mapIndex(index));
+        }
+    }
+}
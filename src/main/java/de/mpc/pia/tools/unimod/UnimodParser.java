@@ -4,12 +4,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
 import org.apache.log4j.Logger;
@@ -18,6 +24,8 @@ import uk.ac.ebi.jmzidml.model.mzidml.Cv;
 import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
 import uk.ac.ebi.jmzidml.model.mzidml.Modification;
 
+import de.mpc.pia.tools.OntologyConstants;
+import de.mpc.pia.tools.ReferenceDataCache;
 import de.mpc.pia.tools.unimod.jaxb.ModT;
 import de.mpc.pia.tools.unimod.jaxb.SpecificityT;
 import de.mpc.pia.tools.unimod.jaxb.UnimodT;
@@ -55,25 +63,152 @@ public class UnimodParser {
     }
 
     /** the modifications from the unimod */
-    private List<ModT> modifications;
+    private final List<ModT> modifications;
+
+    /** the modifications by their record ID */
+    private final Map<Long, ModT> recordIdToModification;
+
+    /** the lower case titles, full names and alternative names to the indices of the modifications */
+    private final Map<String, int[]> nameToModifications;
+
+    /** the monoisotopic mass shifts of the modifications in ascending order */
+    private final double[] sortedMasses;
+
+    /** the indices of the modifications, in the order of the sortedMasses */
+    private final int[] massSortedModifications;
+
+    /** the residues (A-Z) allowed by each modification as bitmask */
+    private final int[] residueMasks;
+
+    /** whether any specificity of the modification is at a terminus */
+    private final boolean[] terminalSpecificities;
+
+    /** the shared instance, which is loaded on the first request */
+    private static UnimodParser sharedInstance;
 
 
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(UnimodParser.class);
 
 
+    /**
+     * Creates the parser from the cached unimod.xml (or the shipped one, if
+     * none was cached yet), without connecting to the Unimod server on the
+     * way.
+     */
     public UnimodParser() {
-        this(true);
+        this(ReferenceDataCache.getDefault());
+    }
+
+
+    /**
+     * Creates the parser from the unimod.xml in the given cache.
+     *
+     * @param cache
+     */
+    public UnimodParser(ReferenceDataCache cache) {
+        this(readModifications(cache));
     }
 
 
     public UnimodParser(boolean useOnline) {
+        this(readModifications(useOnline));
+    }
+
+
+    /**
+     * Creates the parser for the given modifications and builds the indexes
+     * for the lookup by record ID, name and mass. All lookups return the first
+     * matching modification in the order of the Unimod file.
+     *
+     * @param modifications
+     */
+    private UnimodParser(List<ModT> modifications) {
+        this.modifications = Collections.unmodifiableList(modifications);
+
+        Map<Long, ModT> recordIds = new HashMap<>(modifications.size());
+        Map<String, List<Integer>> names = new HashMap<>();
+        residueMasks = new int[modifications.size()];
+        terminalSpecificities = new boolean[modifications.size()];
+
+        List<Integer> massIndices = new ArrayList<>(modifications.size());
+
+        for (int idx = 0; idx < modifications.size(); idx++) {
+            ModT mod = modifications.get(idx);
+
+            recordIds.putIfAbsent(mod.getRecordId(), mod);
+
+            Set<String> modNames = new HashSet<>();
+            addName(mod.getTitle(), modNames);
+            addName(mod.getFullName(), modNames);
+            mod.getAltName().forEach(altName -> addName(altName, modNames));
+            for (String name : modNames) {
+                names.computeIfAbsent(name, k -> new ArrayList<>(1)).add(idx);
+            }
+
+            for (SpecificityT spec : mod.getSpecificity()) {
+                String site = spec.getSite();
+                if ("N-term".equalsIgnoreCase(site) || "C-Term".equalsIgnoreCase(site)) {
+                    terminalSpecificities[idx] = true;
+                } else if (site != null) {
+                    residueMasks[idx] |= getResidueBit(site);
+                }
+            }
+
+            if ((mod.getDelta() != null) && (mod.getDelta().getMonoMass() != null)) {
+                massIndices.add(idx);
+            }
+        }
+        recordIdToModification = Collections.unmodifiableMap(recordIds);
+
+        Map<String, int[]> nameIndices = new HashMap<>(names.size());
+        for (Map.Entry<String, List<Integer>> nameIt : names.entrySet()) {
+            nameIndices.put(nameIt.getKey(),
+                    nameIt.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        nameToModifications = Collections.unmodifiableMap(nameIndices);
+
+        massIndices.sort((idx1, idx2) -> Double.compare(
+                modifications.get(idx1).getDelta().getMonoMass(), modifications.get(idx2).getDelta().getMonoMass()));
+        massSortedModifications = massIndices.stream().mapToInt(Integer::intValue).toArray();
+        sortedMasses = new double[massSortedModifications.length];
+        for (int idx = 0; idx < massSortedModifications.length; idx++) {
+            sortedMasses[idx] = modifications.get(massSortedModifications[idx]).getDelta().getMonoMass();
+        }
+    }
+
+
+    /**
+     * Reads the modifications from the unimod.xml in the given cache, or from
+     * the shipped one, if the cached one cannot be parsed.
+     *
+     * @param cache
+     * @return
+     */
+    private static List<ModT> readModifications(ReferenceDataCache cache) {
+        try {
+            return cache.read(ReferenceDataCache.Dataset.UNIMOD, UnimodParser::unmarshalModifications);
+        } catch (IOException e) {
+            LOGGER.error("could not read unimod.xml", e);
+            throw new AssertionError(e);
+        }
+    }
+
+
+    /**
+     * Reads the modifications from the remote unimod.xml, if useOnline is set
+     * and the server is reachable, otherwise from the shipped one.
+     *
+     * @param useOnline
+     * @return
+     */
+    private static List<ModT> readModifications(boolean useOnline) {
         InputStream inStream = null;
 
         try {
             if (useOnline) {
                 try {
-                    inStream = new URL("http://www.unimod.org/xml/unimod.xml").openStream();
+                    inStream = new URL(OntologyConstants.UNIMOD_XML_URL).openStream();
                 } catch (IOException e) {
                     LOGGER.warn("could not use remote unimod.xml file, check internet connection", e);
                 }
@@ -81,18 +216,10 @@ public class UnimodParser {
 
             if (inStream == null) {
                 // try shipped version
-                inStream = this.getClass().getResourceAsStream(PATH_TO_SHIPPED_UNIMOD);
+                inStream = UnimodParser.class.getResourceAsStream(PATH_TO_SHIPPED_UNIMOD);
             }
 
-            JAXBContext context = JAXBContext.newInstance(UnimodT.class.getPackage().getName());
-            Unmarshaller um = context.createUnmarshaller();
-            @SuppressWarnings("unchecked")
-            JAXBElement<UnimodT> doc = (JAXBElement<UnimodT>)um.unmarshal(inStream);
-
-            modifications = doc.getValue().getModifications().getMod();
-        } catch (Exception e) {
-            LOGGER.error("could not parse unimod.xml file", e);
-            throw new AssertionError(e);
+            return parseModifications(inStream);
         } finally {
             try {
                 if (inStream != null) {
@@ -105,6 +232,87 @@ public class UnimodParser {
     }
 
 
+    /**
+     * Parses the modifications from the stream.
+     *
+     * @param inStream
+     * @return
+     */
+    private static List<ModT> parseModifications(InputStream inStream) {
+        try {
+            return unmarshalModifications(inStream);
+        } catch (Exception e) {
+            LOGGER.error("could not parse unimod.xml file", e);
+            throw new AssertionError(e);
+        }
+    }
+
+
+    /**
+     * Unmarshals the modifications from the stream.
+     *
+     * @param inStream
+     * @return
+     * @throws JAXBException
+     */
+    private static List<ModT> unmarshalModifications(InputStream inStream) throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(UnimodT.class.getPackage().getName());
+        Unmarshaller um = context.createUnmarshaller();
+        @SuppressWarnings("unchecked")
+        JAXBElement<UnimodT> doc = (JAXBElement<UnimodT>)um.unmarshal(inStream);
+
+        return doc.getValue().getModifications().getMod();
+    }
+
+
+    /**
+     * Returns a shared instance of the parser, which is loaded from the
+     * {@link ReferenceDataCache} on the first call. As the parser is not
+     * changed after its creation, it can be used by several threads.
+     *
+     * @return
+     */
+    public static synchronized UnimodParser getSharedInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new UnimodParser();
+        }
+        return sharedInstance;
+    }
+
+
+    /**
+     * Returns the (unmodifiable) modifications in the order of the Unimod
+     * file.
+     *
+     * @return
+     */
+    List<ModT> getModifications() {
+        return modifications;
+    }
+
+
+    /**
+     * Adds the lower case name to the names, if it is not null.
+     */
+    private static void addName(String name, Set<String> names) {
+        if (name != null) {
+            names.add(name.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+
+    /**
+     * Returns the bit of the residue in the residue masks, or 0 if the residue
+     * is no single upper case letter.
+     */
+    private static int getResidueBit(String residue) {
+        if ((residue.length() == 1) && (residue.charAt(0) >= 'A') && (residue.charAt(0) <= 'Z')) {
+            return 1 << (residue.charAt(0) - 'A');
+        }
+        return 0;
+    }
+
+
     /**
      * Returns the Cv definition for unimod
      * @return
@@ -187,12 +395,7 @@ public class UnimodParser {
         }
 
         try {
-            Long id = Long.parseLong(idStr);
-            for (ModT mod : modifications) {
-                if (mod.getRecordId().equals(id)) {
-                    return mod;
-                }
-            }
+            return recordIdToModification.get(Long.parseLong(idStr));
         } catch (NumberFormatException e) {
             LOGGER.error("Could not parse accession in UniMod: " + idStr, e);
         }
@@ -208,12 +411,9 @@ public class UnimodParser {
      * @return
      */
     public ModT getModificationByName(String query, List<String> residues) {
-
-        for (ModT mod : modifications) {
-            boolean nameFound = isAnyName(query, mod);
-
-            if (nameFound && checkResidues(mod, residues)) {
-                return mod;
+        for (int idx : getModificationsByName(query)) {
+            if (residuesAllowed(idx, residues)) {
+                return modifications.get(idx);
             }
         }
 
@@ -246,13 +446,11 @@ public class UnimodParser {
      */
     public ModT getModificationByNameAndMass(String query, Double massdelta,
             List<String> residues) {
+        for (int idx : getModificationsByName(query)) {
+            ModT mod = modifications.get(idx);
 
-        for (ModT mod : modifications) {
-            boolean nameFound = isAnyName(query, mod);
-
-            if (nameFound &&
-                    (Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UNIMOD_MASS_TOLERANCE) &&
-                    checkResidues(mod, residues)) {
+            if ((Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UNIMOD_MASS_TOLERANCE) &&
+                    residuesAllowed(idx, residues)) {
                 return mod;
             }
         }
@@ -261,6 +459,24 @@ public class UnimodParser {
     }
 
 
+    /**
+     * Returns the indices of the modifications, which have the query as
+     * title, full name or alternative name (ignoring the case), in the order
+     * of the Unimod file.
+     *
+     * @param query
+     * @return
+     */
+    private int[] getModificationsByName(String query) {
+        if (query == null) {
+            return new int[0];
+        }
+
+        int[] indices = nameToModifications.get(query.toLowerCase(Locale.ENGLISH));
+        return (indices != null) ? indices : new int[0];
+    }
+
+
     /**
      * Checks whether the query is either title, full name or alternative name
      * of the mod.
@@ -319,14 +535,59 @@ public class UnimodParser {
      * @return
      */
     public ModT getModificationByMass(Double massdelta, List<String> residues) {
-        for (ModT mod : modifications) {
-            if ((Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UNIMOD_MASS_TOLERANCE)
-                    && checkResidues(mod, residues)) {
-                return mod;
+        // the range is widened, the exact tolerance is checked for each candidate
+        double lowerMass = massdelta - 2 * UNIMOD_MASS_TOLERANCE;
+        double upperMass = massdelta + 2 * UNIMOD_MASS_TOLERANCE;
+
+        int pos = Arrays.binarySearch(sortedMasses, lowerMass);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        while ((pos > 0) && (sortedMasses[pos - 1] >= lowerMass)) {
+            // binarySearch may find any of several equal masses
+            pos--;
+        }
+
+        int firstIdx = -1;
+        for (; (pos < sortedMasses.length) && (sortedMasses[pos] <= upperMass); pos++) {
+            int idx = massSortedModifications[pos];
+            if (((firstIdx < 0) || (idx < firstIdx))
+                    && (Math.abs(sortedMasses[pos] - massdelta) <= UNIMOD_MASS_TOLERANCE)
+                    && residuesAllowed(idx, residues)) {
+                firstIdx = idx;
             }
         }
 
-        return null;
+        return (firstIdx < 0) ? null : modifications.get(firstIdx);
+    }
+
+
+    /**
+     * Checks for the given residues whether all of them are allowed for the
+     * modification with the given index, using the residue masks.
+     *
+     * @param modIdx
+     * @param residues
+     * @return
+     */
+    private boolean residuesAllowed(int modIdx, List<String> residues) {
+        if (terminalSpecificities[modIdx]) {
+            return true;
+        }
+
+        for (String residue : residues) {
+            if (!".".equals(residue)) {
+                int bit = getResidueBit(residue);
+                if (bit == 0) {
+                    // no simple residue, check the sites
+                    return checkResidues(modifications.get(modIdx), residues);
+                } else if ((residueMasks[modIdx] & bit) == 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
     }
 
 
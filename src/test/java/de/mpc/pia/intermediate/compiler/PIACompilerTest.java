@@ -6,9 +6,12 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import org.junit.Before;
@@ -21,10 +24,13 @@ import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
 import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
 import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
 import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
 import de.mpc.pia.modeller.report.filter.FilterComparator;
 import de.mpc.pia.modeller.report.filter.RegisteredFilters;
 import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
 import de.mpc.pia.modeller.score.FDRData.DecoyStrategy;
 
@@ -175,6 +181,202 @@ public class PIACompilerTest {
     }
 
 
+    @Test
+    public void testPIACompilerInMemoryAnalysis() throws IOException {
+        PIACompiler piaCompiler = new PIASimpleCompiler();
+
+        assertTrue(piaCompiler.getDataFromFile("tandem", idXMLtandemFile.getAbsolutePath(), null, null));
+        assertTrue(piaCompiler.getDataFromFile("msgf", idXMLmsgfFile.getAbsolutePath(), null, null));
+
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+
+        piaCompiler.setName("testFile");
+
+        // analyse the compilation directly and write it out afterwards
+        PIAModeller memoryModeller = new PIAModeller(piaCompiler, null);
+
+        File piaIntermediateFile = File.createTempFile(piaIntermediateFileName, null);
+        piaCompiler.writeOutXML(piaIntermediateFile);
+        piaCompiler.finish();
+
+        PIAModeller fileModeller = new PIAModeller(piaIntermediateFile.getAbsolutePath());
+
+        assertEquals("testFile", memoryModeller.getProjectName());
+        assertEquals(fileModeller.getFiles().size(), memoryModeller.getFiles().size());
+        assertEquals(fileModeller.getGroups().size(), memoryModeller.getGroups().size());
+        assertEquals(fileModeller.getSpectraData().size(), memoryModeller.getSpectraData().size());
+        assertEquals(fileModeller.getPSMSetSettingsWarnings(), memoryModeller.getPSMSetSettingsWarnings());
+
+        analyse(memoryModeller);
+        analyse(fileModeller);
+
+        List<AbstractFilter> filters = new ArrayList<>();
+        filters.add(new PSMScoreFilter(FilterComparator.less_equal, false, 0.01, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+        assertEquals("Wrong number of peptides in the returned list", 2611,
+                memoryModeller.getPeptideModeller().getFilteredReportPeptides(0L, filters).size());
+        assertEquals("Wrong number of peptides in the returned list", 2611,
+                fileModeller.getPeptideModeller().getFilteredReportPeptides(0L, filters).size());
+
+        // the unfiltered PSMs, PSM sets, peptides and proteins with their scores are the same
+        for (Long fileID : fileModeller.getFiles().keySet()) {
+            if (fileID > 0) {
+                assertSameValues("PSMs of file " + fileID, getPSMValues(fileModeller, fileID),
+                        getPSMValues(memoryModeller, fileID));
+            }
+        }
+        assertSameValues("PSM sets", getPSMSetValues(fileModeller), getPSMSetValues(memoryModeller));
+        assertSameValues("peptides", getPeptideValues(fileModeller), getPeptideValues(memoryModeller));
+        assertSameValues("proteins", getProteinValues(fileModeller), getProteinValues(memoryModeller));
+
+        piaIntermediateFile.delete();
+    }
+
+
+    /**
+     * Calculates the PSM FDRs and infers the proteins, like
+     * {@link #testPIACompilerCompilationAndAnalysis()}.
+     */
+    private static void analyse(PIAModeller piaModeller) {
+        piaModeller.setCreatePSMSets(true);
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("s.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        piaModeller.setConsiderModifications(false);
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+
+        seInference.addFilter(
+                new PSMScoreFilter(FilterComparator.less_equal, false, 0.01, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        piaModeller.getProteinModeller().updateFDRData(DecoyStrategy.ACCESSIONPATTERN, "s.*", 0.01);
+        piaModeller.getProteinModeller().updateDecoyStates();
+        piaModeller.getProteinModeller().calculateFDR();
+    }
+
+
+    private void assertSameValues(String level, Map<String, double[]> expected, Map<String, double[]> actual) {
+        assertFalse(level, expected.isEmpty());
+        assertEquals(level, expected.keySet(), actual.keySet());
+        for (Map.Entry<String, double[]> valuesIt : expected.entrySet()) {
+            assertArrayEquals(level + " " + valuesIt.getKey(), valuesIt.getValue(),
+                    actual.get(valuesIt.getKey()), scoreDelta);
+        }
+    }
+
+
+    /**
+     * Maps the PSMs of the file by their identification keys and score names
+     * to their scores, FDR, q-value and decoy state.
+     */
+    private static Map<String, double[]> getPSMValues(PIAModeller piaModeller, Long fileID) {
+        Map<String, Boolean> psmSetSettings = piaModeller.getPSMModeller().getPSMSetSettings();
+        Map<String, double[]> values = new TreeMap<>();
+
+        for (ReportPSM psm : piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, null)) {
+            Map<String, Double> scores = new TreeMap<>();
+            for (ScoreModel score : psm.getScores()) {
+                scores.put(score.getShortName(), score.getValue());
+            }
+
+            List<Double> psmValues = new ArrayList<>(scores.values());
+            psmValues.add(psm.getFDR());
+            psmValues.add(psm.getQValue());
+            psmValues.add(psm.getIsDecoy() ? 1.0 : 0.0);
+
+            values.put(psm.getIdentificationKey(psmSetSettings) + " " + scores.keySet(), toArray(psmValues));
+        }
+        return values;
+    }
+
+
+    /**
+     * Maps the PSM sets by their identification keys to their number of PSMs,
+     * combined FDR score, FDR, q-value and decoy state.
+     */
+    private static Map<String, double[]> getPSMSetValues(PIAModeller piaModeller) {
+        Map<String, Boolean> psmSetSettings = piaModeller.getPSMModeller().getPSMSetSettings();
+        Map<String, double[]> values = new TreeMap<>();
+
+        for (ReportPSMSet psmSet : piaModeller.getPSMModeller().getFilteredReportPSMSets(null)) {
+            values.put(psmSet.getIdentificationKey(psmSetSettings), toArray(Arrays.asList(
+                    (double) psmSet.getPSMs().size(),
+                    psmSet.getFDRScore() == null ? null : psmSet.getFDRScore().getValue(),
+                    psmSet.getFDR(),
+                    psmSet.getQValue(),
+                    psmSet.getIsDecoy() ? 1.0 : 0.0)));
+        }
+        return values;
+    }
+
+
+    /**
+     * Maps the peptides of the overview by their IDs to their numbers of
+     * spectra and PSMs, FDR score, q-value and decoy state.
+     */
+    private static Map<String, double[]> getPeptideValues(PIAModeller piaModeller) {
+        Map<String, double[]> values = new TreeMap<>();
+
+        for (ReportPeptide peptide : piaModeller.getPeptideModeller().getFilteredReportPeptides(0L, null)) {
+            values.put(peptide.getStringID(), toArray(Arrays.asList(
+                    peptide.getNrSpectra().doubleValue(),
+                    peptide.getNrPSMs().doubleValue(),
+                    peptide.getFDRScore() == null ? null : peptide.getFDRScore().getValue(),
+                    peptide.getQValue(),
+                    peptide.getIsDecoy() ? 1.0 : 0.0)));
+        }
+        return values;
+    }
+
+
+    /**
+     * Maps the inferred proteins by their accessions to their scores, numbers
+     * of peptides, PSMs and spectra, FDR, q-value and decoy state.
+     */
+    private static Map<String, double[]> getProteinValues(PIAModeller piaModeller) {
+        Map<String, double[]> values = new TreeMap<>();
+
+        for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(null)) {
+            String accessions = protein.getAccessions().stream()
+                    .map(Accession::getAccession)
+                    .sorted()
+                    .collect(Collectors.joining(","));
+
+            values.put(accessions, toArray(Arrays.asList(
+                    protein.getScore(),
+                    protein.getNrPeptides().doubleValue(),
+                    protein.getNrPSMs().doubleValue(),
+                    protein.getNrSpectra().doubleValue(),
+                    protein.getFDR(),
+                    protein.getQValue(),
+                    protein.getIsDecoy() ? 1.0 : 0.0)));
+        }
+        return values;
+    }
+
+
+    /**
+     * Converts the values into an array, with null as NaN.
+     */
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int idx = 0; idx < array.length; idx++) {
+            array[idx] = (values.get(idx) == null) ? Double.NaN : values.get(idx);
+        }
+        return array;
+    }
+
+
     @Test
     public void testPIACompilerMzidFiles() throws IOException {
         PIACompiler piaCompiler = new PIASimpleCompiler();
@@ -0,0 +1,67 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.tools.ResidueMasses;
+
+
+public class FastaFileParserTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String TRYPSIN_PATTERN = "(?<=[KR])(?!P)";
+
+
+    @Test
+    public void testDigestionWithAmbiguousResidues() throws IOException {
+        File fastaFile = tempFolder.newFile("test.fasta");
+        Files.write(fastaFile.toPath(), Arrays.asList(
+                ">sp|P00001|TEST1_HUMAN Test protein one",
+                "MSPEPTIDEKAXBZ",
+                "GRLLLLK",
+                ">sp|P00002|TEST2_HUMAN Test protein two",
+                "KPEPTIDRLLLLK"), StandardCharsets.UTF_8);
+
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(FastaFileParser.getDataFromFastaFile("fasta", fastaFile.getAbsolutePath(), compiler,
+                TRYPSIN_PATTERN, 5, 50, 1));
+
+        // the proline after the K prevents the cleavage in the second protein
+        String[] expectedPeptides = {"MSPEPTIDEK", "AXBZGR", "LLLLK", "MSPEPTIDEKAXBZGR", "AXBZGRLLLLK",
+                "KPEPTIDR", "KPEPTIDRLLLLK"};
+        assertEquals(2, compiler.getNrAccessions());
+        assertEquals(expectedPeptides.length, compiler.getNrPeptides());
+
+        for (String sequence : expectedPeptides) {
+            Peptide peptide = compiler.getPeptide(sequence);
+            assertNotNull(sequence, peptide);
+            assertEquals(sequence, 1, peptide.getSpectra().size());
+
+            PeptideSpectrumMatch psm = peptide.getSpectra().get(0);
+            assertTrue(sequence, Double.isFinite(psm.getMassToCharge()));
+            assertEquals(sequence,
+                    ResidueMasses.calculateMassToCharge(ResidueMasses.calculatePeptideMass(sequence), 2),
+                    psm.getMassToCharge(), 0.000001);
+        }
+
+        // LLLLK is found in both proteins, but inserted only once
+        assertEquals(2, compiler.getAccessionsFromConnectionMap("LLLLK").size());
+    }
+}
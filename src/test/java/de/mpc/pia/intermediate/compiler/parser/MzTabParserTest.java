@@ -0,0 +1,162 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import uk.ac.ebi.pride.jmztab.model.PSM;
+import uk.ac.ebi.pride.jmztab.model.Protein;
+import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
+
+
+public class MzTabParserTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String[] MZTAB_RESOURCES = {
+            "/PRIDE_Exp_Complete_Ac_16649.mzTab",
+            "/control_exo_rep1_high_mol_weight.dat-pride.mztab",
+            "/snip-fdrtest.mztab",
+            "/submission/JKGF-01-DTASelect-filter.pride.mztab",
+            "/submission/JKGF-02-DTASelect-filter.pride.mztab"};
+
+
+    /**
+     * Checks the streamed import against the complete mzTab model, which was
+     * used for the import before: all accessions are from the PSMs and get the
+     * descriptions of the PRT lines.
+     */
+    @Test
+    public void testImportEqualsMzTabModel() throws IOException {
+        for (String resource : MZTAB_RESOURCES) {
+            File mzTabFile = new File(MzTabParserTest.class.getResource(resource).getPath());
+
+            PIACompiler compiler = new PIASimpleCompiler();
+            assertTrue(resource, MzTabParser.getDataFromMzTabFile("mzTab", mzTabFile.getAbsolutePath(), compiler));
+
+            MZTabFileParser tabParser = new MZTabFileParser(mzTabFile, new ByteArrayOutputStream());
+            Set<String> psmAccessions = new HashSet<>();
+            Set<String> psmSequences = new HashSet<>();
+            for (PSM psm : tabParser.getMZTabFile().getPSMs()) {
+                psmAccessions.add(psm.getAccession());
+                psmSequences.add(psm.getSequence());
+            }
+            Map<String, String> proteinDescriptions = new HashMap<>();
+            for (Protein protein : tabParser.getMZTabFile().getProteins()) {
+                proteinDescriptions.put(protein.getAccession(), protein.getDescription());
+            }
+
+            assertFalse(resource, compiler.getAllAccessionIDs().isEmpty());
+            int nrDescribed = 0;
+            for (Long accID : compiler.getAllAccessionIDs()) {
+                Accession acc = compiler.getAccession(accID);
+                assertTrue(resource + " " + acc.getAccession(), psmAccessions.contains(acc.getAccession()));
+
+                if (proteinDescriptions.containsKey(acc.getAccession())) {
+                    for (Long fileID : acc.getFiles()) {
+                        assertEquals(resource + " " + acc.getAccession(),
+                                proteinDescriptions.get(acc.getAccession()), acc.getDescription(fileID));
+                    }
+                    nrDescribed++;
+                }
+            }
+            assertEquals(resource, proteinDescriptions.keySet().stream().filter(psmAccessions::contains).count(),
+                    nrDescribed);
+
+            for (Long pepID : compiler.getAllPeptideIDs()) {
+                assertTrue(resource, psmSequences.contains(compiler.getPeptide(pepID).getSequence()));
+            }
+        }
+    }
+
+
+    /**
+     * Compares the PSMs, their scores and modifications with the import by
+     * the previous parser.
+     */
+    @Test
+    public void testImportEqualsLegacyParser() {
+        for (String resource : MZTAB_RESOURCES) {
+            File mzTabFile = new File(MzTabParserTest.class.getResource(resource).getPath());
+
+            PIACompiler compiler = new PIASimpleCompiler();
+            assertTrue(resource, MzTabParser.getDataFromMzTabFile("mzTab", mzTabFile.getAbsolutePath(), compiler));
+
+            PIACompiler legacyCompiler = new PIASimpleCompiler();
+            assertTrue(resource, LegacyMzTabParser.getDataFromMzTabFile("mzTab", mzTabFile.getAbsolutePath(),
+                    legacyCompiler));
+
+            assertTrue(resource, compiler.getNrPeptideSpectrumMatches() > 0);
+            ParsedPSMsAssert.assertEqualPSMs(legacyCompiler, compiler, true);
+        }
+    }
+
+
+    @Test
+    public void testProteinsAfterPSMs() throws IOException {
+        File mzTabFile = new File(MzTabParserTest.class.getResource("/snip-fdrtest.mztab").getPath());
+
+        // move the protein section behind the PSM section
+        List<String> lines = Files.readAllLines(mzTabFile.toPath(), StandardCharsets.UTF_8);
+        List<String> reordered = new ArrayList<>();
+        List<String> proteinLines = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith("PRH") || line.startsWith("PRT")) {
+                proteinLines.add(line);
+            } else {
+                reordered.add(line);
+            }
+        }
+        reordered.addAll(proteinLines);
+
+        File reorderedFile = tempFolder.newFile("proteins-last.mztab");
+        Files.write(reorderedFile.toPath(), reordered, StandardCharsets.UTF_8);
+
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(MzTabParser.getDataFromMzTabFile("mzTab", mzTabFile.getAbsolutePath(), compiler));
+
+        PIACompiler reorderedCompiler = new PIASimpleCompiler();
+        assertTrue(MzTabParser.getDataFromMzTabFile("mzTab", reorderedFile.getAbsolutePath(), reorderedCompiler));
+
+        assertEquals(compiler.getNrPeptideSpectrumMatches(), reorderedCompiler.getNrPeptideSpectrumMatches());
+        assertEquals(compiler.getNrPeptides(), reorderedCompiler.getNrPeptides());
+
+        Map<String, String> proteins = getAccessionInformation(compiler);
+        assertTrue(proteins.values().stream().anyMatch(info -> !info.contains("{}")));
+        assertEquals(proteins, getAccessionInformation(reorderedCompiler));
+    }
+
+
+    /**
+     * Maps the accessions to their sequences and descriptions.
+     */
+    private static Map<String, String> getAccessionInformation(PIACompiler compiler) {
+        Map<String, String> information = new TreeMap<>();
+        for (Long accID : compiler.getAllAccessionIDs()) {
+            Accession acc = compiler.getAccession(accID);
+            information.put(acc.getAccession(), acc.getDbSequence() + " " + new TreeMap<>(acc.getDescriptions()));
+        }
+        return information;
+    }
+}
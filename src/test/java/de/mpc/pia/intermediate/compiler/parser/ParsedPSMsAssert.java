@@ -0,0 +1,178 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import de.mpc.pia.intermediate.AccessionOccurrence;
+import de.mpc.pia.intermediate.Modification;
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.modeller.score.ScoreModel;
+
+
+/**
+ * Compares the PSMs, peptides and accessions, which were parsed into two
+ * compilers, e.g. by a parser and the previous implementation of it.
+ *
+ * @author julian
+ *
+ */
+public final class ParsedPSMsAssert {
+
+    private static final double DELTA = 0.000001;
+
+
+    private ParsedPSMsAssert() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Asserts, that both compilers contain the same PSMs with the same
+     * masses, retention times, scores, modifications and accessions. Returns
+     * the PSMs of the actual compiler, mapped by their keys.
+     *
+     * @param expected the compiler filled by the reference parser
+     * @param actual the compiler filled by the tested parser
+     * @param compareModificationDescriptions whether the descriptions and
+     * accessions of the modifications are compared, or only their positions,
+     * residues and masses
+     * @param scoreShortNames the short names of the compared scores, if none
+     * are given, all scores of the expected PSMs are compared
+     * @return
+     */
+    public static Map<String, PeptideSpectrumMatch> assertEqualPSMs(PIACompiler expected,
+            PIACompiler actual, boolean compareModificationDescriptions, String... scoreShortNames) {
+        assertEquals(expected.getFiles().size(), actual.getFiles().size());
+        assertEquals(expected.getNrPeptideSpectrumMatches(), actual.getNrPeptideSpectrumMatches());
+        assertEquals(expected.getNrPeptides(), actual.getNrPeptides());
+        assertEquals(expected.getNrAccessions(), actual.getNrAccessions());
+
+        Map<String, PeptideSpectrumMatch> expectedPSMs = getPSMsByKey(expected);
+        Map<String, PeptideSpectrumMatch> actualPSMs = getPSMsByKey(actual);
+        assertEquals(expectedPSMs.keySet(), actualPSMs.keySet());
+
+        for (Map.Entry<String, PeptideSpectrumMatch> psmIt : actualPSMs.entrySet()) {
+            String key = psmIt.getKey();
+            PeptideSpectrumMatch actualPSM = psmIt.getValue();
+            PeptideSpectrumMatch expectedPSM = expectedPSMs.get(key);
+
+            assertEquals(key, expectedPSM.getMassToCharge(), actualPSM.getMassToCharge(), DELTA);
+            assertEquals(key, expectedPSM.getDeltaMass(), actualPSM.getDeltaMass(), DELTA);
+            assertEqualValues(key + " RT", expectedPSM.getRetentionTime(), actualPSM.getRetentionTime());
+            assertEquals(key, expectedPSM.getMissedCleavages(), actualPSM.getMissedCleavages());
+
+            assertEquals(key, expectedPSM.getScores().size(), actualPSM.getScores().size());
+            List<String> comparedScores = Arrays.asList(scoreShortNames);
+            if (comparedScores.isEmpty()) {
+                comparedScores = expectedPSM.getScores().stream()
+                        .map(ScoreModel::getShortName)
+                        .collect(Collectors.toList());
+            }
+
+            for (String scoreShortName : comparedScores) {
+                ScoreModel expectedScore = expectedPSM.getScore(scoreShortName);
+                ScoreModel actualScore = actualPSM.getScore(scoreShortName);
+                if (expectedScore == null) {
+                    assertNull(key + " " + scoreShortName, actualScore);
+                } else {
+                    assertNotNull(key + " " + scoreShortName, actualScore);
+                    assertEqualValues(key + " " + scoreShortName, expectedScore.getValue(), actualScore.getValue());
+                }
+            }
+
+            assertEquals(key, getModificationStrings(expectedPSM, compareModificationDescriptions),
+                    getModificationStrings(actualPSM, compareModificationDescriptions));
+            assertEquals(key, getAccessionStrings(expected, expectedPSM), getAccessionStrings(actual, actualPSM));
+        }
+
+        return actualPSMs;
+    }
+
+
+    /**
+     * Maps the PSMs of the compiler by source ID, spectrum title, charge,
+     * sequence, decoy state and modifications. If a key is repeated, the
+     * number of its occurrence in the order of the PSMs' IDs is appended.
+     *
+     * @param compiler
+     * @return
+     */
+    public static Map<String, PeptideSpectrumMatch> getPSMsByKey(PIACompiler compiler) {
+        Map<String, PeptideSpectrumMatch> psms = new TreeMap<>();
+
+        for (Long psmID : new TreeSet<>(compiler.getAllPeptideSpectrumMatcheIDs())) {
+            PeptideSpectrumMatch psm = compiler.getPeptideSpectrumMatch(psmID);
+
+            StringBuilder key = new StringBuilder();
+            key.append(psm.getSourceID()).append('|')
+                    .append(psm.getSpectrumTitle()).append('|')
+                    .append(psm.getCharge()).append('|')
+                    .append(psm.getSequence()).append('|')
+                    .append(psm.getIsDecoy()).append('|');
+            for (Map.Entry<Integer, Modification> modIt : new TreeMap<>(psm.getModifications()).entrySet()) {
+                key.append(modIt.getValue().getResidue()).append('(').append(modIt.getKey()).append(')');
+            }
+
+            String baseKey = key.toString();
+            int occurrence = 1;
+            while (psms.containsKey(key.toString())) {
+                occurrence++;
+                key.setLength(baseKey.length());
+                key.append('#').append(occurrence);
+            }
+
+            psms.put(key.toString(), psm);
+        }
+
+        return psms;
+    }
+
+
+    private static void assertEqualValues(String message, Double expected, Double actual) {
+        if ((expected == null) || (actual == null) || expected.isNaN()) {
+            assertEquals(message, expected, actual);
+        } else {
+            assertEquals(message, expected, actual, Math.max(Math.abs(expected) * 1e-9, DELTA));
+        }
+    }
+
+
+    private static String getModificationStrings(PeptideSpectrumMatch psm, boolean withDescriptions) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Modification> modIt : new TreeMap<>(psm.getModifications()).entrySet()) {
+            Modification mod = modIt.getValue();
+            sb.append(modIt.getKey()).append(':')
+                    .append(mod.getResidue()).append(':')
+                    .append(String.format("%.6f", mod.getMass()));
+            if (withDescriptions) {
+                sb.append(':').append(mod.getDescription())
+                        .append(':').append(mod.getAccession());
+            }
+            sb.append(';');
+        }
+        return sb.toString();
+    }
+
+
+    private static TreeSet<String> getAccessionStrings(PIACompiler compiler, PeptideSpectrumMatch psm) {
+        Long fileID = psm.getFile().getID();
+
+        TreeSet<String> accessions = new TreeSet<>();
+        for (AccessionOccurrence occurrence : compiler.getPeptide(psm.getSequence()).getAccessionOccurrences()) {
+            accessions.add(occurrence.getAccession().getAccession()
+                    + ':' + occurrence.getStart() + '-' + occurrence.getEnd()
+                    + ':' + occurrence.getAccession().getDescription(fileID)
+                    + ':' + occurrence.getAccession().getDbSequence());
+        }
+        return accessions;
+    }
+}
@@ -0,0 +1,158 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class ProteinSequenceIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File fastaFile;
+
+    /** a protein longer than the sort depth of the index */
+    private static final String LONG_PROTEIN =
+            "MSTNPKPQRKTKRNTNRRPQDVKFPGGGQIVGGVYLLPRRGPRLGVRATRKTSERSQPRGRRQPIPKARRPEGRTWAQPGYPWPLYGNEGCGWAGWLLSPRGSRPSWGPTDPRRRSRNLGK";
+
+
+    @Before
+    public void setUp() throws IOException {
+        fastaFile = tempFolder.newFile("test.fasta");
+        Files.write(fastaFile.toPath(), Arrays.asList(
+                ">sp|P00001|PROT1_HUMAN Protein one",
+                "MKLVPEPTIDE",
+                "KLLIGR",
+                ">sp|P00002|PROT2_HUMAN Protein two",
+                "PEPTLDEKAAPEPTIDE",
+                ">sp|P00003|PROT3_HUMAN Protein without sequence",
+                ">sp|P00004|PROT4_HUMAN Protein four",
+                "GGGGPEPTIDE",
+                ">sp|P00005|PROT5_HUMAN Long protein",
+                LONG_PROTEIN), StandardCharsets.UTF_8);
+    }
+
+
+    @Test
+    public void testFindOccurrences() throws IOException {
+        for (int nrThreads : new int[] {1, 4}) {
+            ProteinSequenceIndex index = ProteinSequenceIndex.build(fastaFile.getAbsolutePath(), false, nrThreads);
+
+            // the protein without sequence is dropped
+            assertEquals(4, index.getNrProteins());
+            assertEquals("P00001", index.getAccession(0));
+            assertEquals("PROT1_HUMAN Protein one", index.getDescription(0));
+            assertEquals("MKLVPEPTIDEKLLIGR", index.getProteinSequence(0));
+            assertEquals("P00004", index.getAccession(2));
+            assertEquals(LONG_PROTEIN, index.getProteinSequence(3));
+
+            assertEquals(new TreeSet<>(Arrays.asList("0:5-11", "1:11-17", "2:5-11")),
+                    toStrings(index.findOccurrences("PEPTIDE")));
+            assertEquals(new TreeSet<>(Arrays.asList("0:5-11", "1:11-17", "2:5-11")),
+                    toStrings(index.findOccurrences("peptide")));
+            assertEquals(new TreeSet<>(Arrays.asList("1:1-7")), toStrings(index.findOccurrences("PEPTLDE")));
+            assertEquals(new TreeSet<>(Arrays.asList("0:1-17")),
+                    toStrings(index.findOccurrences("MKLVPEPTIDEKLLIGR")));
+
+            // no matches over the protein borders or beyond the protein ends
+            assertTrue(index.findOccurrences("PEPTIDEGGGG").isEmpty());
+            assertTrue(index.findOccurrences("LLIGRPEPT").isEmpty());
+            assertTrue(index.findOccurrences("LLIGRX").isEmpty());
+            assertTrue(index.findOccurrences("").isEmpty());
+
+            // peptides longer than the sort depth are verified completely
+            String longPeptide = LONG_PROTEIN.substring(10, 90);
+            assertEquals(new TreeSet<>(Arrays.asList("3:11-90")), toStrings(index.findOccurrences(longPeptide)));
+            assertTrue(index.findOccurrences(longPeptide.substring(0, 79) + "W").isEmpty());
+        }
+    }
+
+
+    @Test
+    public void testIsoleucineLeucineEquivalence() throws IOException {
+        ProteinSequenceIndex index = ProteinSequenceIndex.build(fastaFile.getAbsolutePath(), true, 2);
+        assertTrue(index.isIlEquivalent());
+
+        assertEquals(new TreeSet<>(Arrays.asList("0:5-11", "1:1-7", "1:11-17", "2:5-11")),
+                toStrings(index.findOccurrences("PEPTIDE")));
+        assertEquals(toStrings(index.findOccurrences("PEPTIDE")), toStrings(index.findOccurrences("PEPTLDE")));
+        assertEquals(new TreeSet<>(Arrays.asList("0:13-17")), toStrings(index.findOccurrences("IILGR")));
+
+        // the sequences are kept as they are in the FASTA file
+        assertEquals("PEPTLDEKAAPEPTIDE", index.getProteinSequence(1));
+
+        ProteinSequenceIndex exactIndex = ProteinSequenceIndex.build(fastaFile.getAbsolutePath(), false, 2);
+        assertFalse(exactIndex.isIlEquivalent());
+        assertTrue(exactIndex.findOccurrences("IILGR").isEmpty());
+    }
+
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        for (boolean ilEquivalent : new boolean[] {false, true}) {
+            ProteinSequenceIndex built = ProteinSequenceIndex.build(fastaFile.getAbsolutePath(), ilEquivalent, 2);
+
+            File indexFile = tempFolder.newFile("test-" + ilEquivalent + ProteinSequenceIndex.INDEX_FILE_SUFFIX);
+            built.write(indexFile);
+            ProteinSequenceIndex read = ProteinSequenceIndex.read(indexFile);
+
+            assertEquals(built.getFastaFileName(), read.getFastaFileName());
+            assertEquals(ilEquivalent, read.isIlEquivalent());
+            assertEquals(built.getNrProteins(), read.getNrProteins());
+            for (int protein = 0; protein < built.getNrProteins(); protein++) {
+                assertEquals(built.getAccession(protein), read.getAccession(protein));
+                assertEquals(built.getDescription(protein), read.getDescription(protein));
+                assertEquals(built.getProteinSequence(protein), read.getProteinSequence(protein));
+            }
+
+            for (String peptide : new String[] {"PEPTIDE", "PEPTLDE", "LLIGR", "IILGR", "GGGG", "K",
+                    LONG_PROTEIN.substring(10, 90), "PEPTIDEGGGG"}) {
+                assertEquals(peptide, toStrings(built.findOccurrences(peptide)),
+                        toStrings(read.findOccurrences(peptide)));
+            }
+        }
+    }
+
+
+    @Test
+    public void testGetIndexReusesIndexFile() throws IOException {
+        File indexFile = new File(fastaFile.getAbsolutePath() + ProteinSequenceIndex.INDEX_FILE_SUFFIX);
+        assertFalse(indexFile.exists());
+
+        ProteinSequenceIndex index = ProteinSequenceIndex.getIndex(fastaFile.getAbsolutePath(), false, 2);
+        assertTrue(indexFile.exists());
+        long written = indexFile.lastModified();
+
+        ProteinSequenceIndex reused = ProteinSequenceIndex.getIndex(fastaFile.getAbsolutePath(), false, 2);
+        assertEquals(written, indexFile.lastModified());
+        assertEquals(toStrings(index.findOccurrences("PEPTIDE")), toStrings(reused.findOccurrences("PEPTIDE")));
+
+        // an index with other settings is rebuilt
+        ProteinSequenceIndex ilIndex = ProteinSequenceIndex.getIndex(fastaFile.getAbsolutePath(), true, 2);
+        assertTrue(ilIndex.isIlEquivalent());
+        assertEquals(4, ilIndex.findOccurrences("PEPTIDE").size());
+    }
+
+
+    private static TreeSet<String> toStrings(List<ProteinSequenceIndex.ProteinOccurrence> occurrences) {
+        TreeSet<String> strings = new TreeSet<>();
+        for (ProteinSequenceIndex.ProteinOccurrence occurrence : occurrences) {
+            assertTrue(strings.add(occurrence.getProtein() + ":" + occurrence.getStart() + "-" + occurrence.getEnd()));
+        }
+        return strings;
+    }
+}
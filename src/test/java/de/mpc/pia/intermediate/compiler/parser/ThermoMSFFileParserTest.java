@@ -1,13 +1,17 @@
 package de.mpc.pia.intermediate.compiler.parser;
 
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.LegacyThermoMSFFileParser;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.ThermoMSFFileParser;
 import de.mpc.pia.modeller.PIAModeller;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -51,4 +55,19 @@ public class ThermoMSFFileParserTest {
 
         piaIntermediateFile.delete();
     }
+
+    @Test
+    public void testParserEqualsLegacyParser() {
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(ThermoMSFFileParser.getDataFromThermoMSFFile(msfFile.getName(), msfFile.getAbsolutePath(),
+                compiler));
+
+        PIACompiler legacyCompiler = new PIASimpleCompiler();
+        assertTrue(LegacyThermoMSFFileParser.getDataFromThermoMSFFile(msfFile.getName(),
+                msfFile.getAbsolutePath(), legacyCompiler));
+
+        // all scores and the modifications including their names must be equal
+        Map<String, PeptideSpectrumMatch> psms = ParsedPSMsAssert.assertEqualPSMs(legacyCompiler, compiler, true);
+        assertFalse(psms.isEmpty());
+    }
 }
\ No newline at end of file
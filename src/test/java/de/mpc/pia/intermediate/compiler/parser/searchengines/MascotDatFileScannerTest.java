@@ -0,0 +1,169 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.intermediate.AccessionOccurrence;
+import de.mpc.pia.intermediate.Modification;
+import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class MascotDatFileScannerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File mascotDatFile;
+
+    private double delta = 0.000001;
+
+
+    @Before
+    public void setUp() {
+        mascotDatFile = new File(MascotDatFileScannerTest.class.getResource("/mascot-scanner-test.dat").getPath());
+    }
+
+
+    @Test
+    public void testScannerEqualsLibrary() {
+        PIACompiler scannerCompiler = new PIASimpleCompiler();
+        MascotDatFileScanner scanner = new MascotDatFileScanner(mascotDatFile.getAbsolutePath());
+        assertTrue(scanner.scan(scannerCompiler.getUnimodParser()));
+        assertTrue(scanner.insertIntoCompiler("mascot", scannerCompiler));
+
+        PIACompiler libraryCompiler = new PIASimpleCompiler();
+        assertTrue(MascotDatFileParser.getDataFromMascotDatFileByLibrary("mascot",
+                mascotDatFile.getAbsolutePath(), libraryCompiler));
+
+        assertEquals(1, scannerCompiler.getFiles().size());
+        assertEquals(libraryCompiler.getFiles().size(), scannerCompiler.getFiles().size());
+        PIAInputFile scannerFile = scannerCompiler.getFiles().values().iterator().next();
+        PIAInputFile libraryFile = libraryCompiler.getFiles().values().iterator().next();
+        assertEquals(libraryFile.getName(), scannerFile.getName());
+        assertEquals(libraryFile.getFileName(), scannerFile.getFileName());
+        assertEquals(libraryFile.getFormat(), scannerFile.getFormat());
+
+        // 3 target and 1 decoy PSMs, query3 has no hits
+        Map<String, PeptideSpectrumMatch> scannerPSMs = getPSMsByKey(scannerCompiler);
+        Map<String, PeptideSpectrumMatch> libraryPSMs = getPSMsByKey(libraryCompiler);
+        assertEquals(4, scannerPSMs.size());
+        assertEquals(libraryPSMs.keySet(), scannerPSMs.keySet());
+        assertEquals(libraryCompiler.getNrPeptides(), scannerCompiler.getNrPeptides());
+        assertEquals(libraryCompiler.getNrAccessions(), scannerCompiler.getNrAccessions());
+
+        for (Map.Entry<String, PeptideSpectrumMatch> psmIt : scannerPSMs.entrySet()) {
+            String key = psmIt.getKey();
+            PeptideSpectrumMatch scannerPSM = psmIt.getValue();
+            PeptideSpectrumMatch libraryPSM = libraryPSMs.get(key);
+
+            assertEquals(key, libraryPSM.getCharge(), scannerPSM.getCharge());
+            assertEquals(key, libraryPSM.getMassToCharge(), scannerPSM.getMassToCharge(), delta);
+            assertEquals(key, libraryPSM.getDeltaMass(), scannerPSM.getDeltaMass(), delta);
+            assertEquals(key, libraryPSM.getRetentionTime(), scannerPSM.getRetentionTime(), delta);
+            assertEquals(key, libraryPSM.getMissedCleavages(), scannerPSM.getMissedCleavages());
+
+            for (ScoreModelEnum scoreType : new ScoreModelEnum[]{ScoreModelEnum.MASCOT_SCORE,
+                    ScoreModelEnum.MASCOT_EXPECT}) {
+                Double libraryScore = libraryPSM.getScore(scoreType.getShortName()).getValue();
+                Double scannerScore = scannerPSM.getScore(scoreType.getShortName()).getValue();
+                assertEquals(key + " " + scoreType, libraryScore, scannerScore, Math.abs(libraryScore) * 1e-6);
+            }
+
+            assertEquals(key, getModificationStrings(libraryPSM), getModificationStrings(scannerPSM));
+            assertEquals(key, getAccessionStrings(libraryCompiler, libraryPSM, libraryFile.getID()),
+                    getAccessionStrings(scannerCompiler, scannerPSM, scannerFile.getID()));
+        }
+
+        PeptideSpectrumMatch oxidized = scannerPSMs.get("Set1_A1.101.101.2|SAMPLEMK|false|M(3)");
+        assertNotNull(oxidized);
+        assertEquals("Oxidation", oxidized.getModifications().get(3).getDescription());
+
+        PeptideSpectrumMatch carbamidomethyl = scannerPSMs.get("Set1_A1.205.205.2|TESTCPEPKR|false|C(5)");
+        assertNotNull(carbamidomethyl);
+        assertEquals(57.021464, carbamidomethyl.getModifications().get(5).getMass(), delta);
+    }
+
+
+    @Test
+    public void testUnparsableQueryIsRejectedInScan() throws IOException {
+        String content = new String(Files.readAllBytes(mascotDatFile.toPath()), StandardCharsets.UTF_8);
+        File brokenFile = tempFolder.newFile("broken.dat");
+        Files.write(brokenFile.toPath(),
+                content.replace("q2_p1=1,1061.474982,0.000364", "q2_p1=1,1061.474982,noDelta")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        // the broken hit is in the second query, the file must be rejected before anything is inserted
+        PIACompiler compiler = new PIASimpleCompiler();
+        MascotDatFileScanner scanner = new MascotDatFileScanner(brokenFile.getAbsolutePath());
+        assertFalse(scanner.scan(compiler.getUnimodParser()));
+        assertTrue(compiler.getAllFileIDs().isEmpty());
+        assertEquals(0, compiler.getNrPeptideSpectrumMatches());
+    }
+
+
+    /**
+     * Maps the PSMs by spectrum title, sequence, decoy state and modification
+     * positions.
+     */
+    private static Map<String, PeptideSpectrumMatch> getPSMsByKey(PIACompiler compiler) {
+        Map<String, PeptideSpectrumMatch> psms = new TreeMap<>();
+        for (Long psmID : compiler.getAllPeptideSpectrumMatcheIDs()) {
+            PeptideSpectrumMatch psm = compiler.getPeptideSpectrumMatch(psmID);
+
+            StringBuilder key = new StringBuilder();
+            key.append(psm.getSpectrumTitle()).append('|')
+                    .append(psm.getSequence()).append('|')
+                    .append(psm.getIsDecoy()).append('|');
+            for (Map.Entry<Integer, Modification> modIt : psm.getModifications().entrySet()) {
+                key.append(modIt.getValue().getResidue()).append('(').append(modIt.getKey()).append(')');
+            }
+
+            assertEquals(null, psms.put(key.toString(), psm));
+        }
+        return psms;
+    }
+
+
+    private static String getModificationStrings(PeptideSpectrumMatch psm) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Modification> modIt : psm.getModifications().entrySet()) {
+            Modification mod = modIt.getValue();
+            sb.append(modIt.getKey()).append(':')
+                    .append(mod.getResidue()).append(':')
+                    .append(String.format("%.6f", mod.getMass())).append(':')
+                    .append(mod.getDescription()).append(';');
+        }
+        return sb.toString();
+    }
+
+
+    private static TreeSet<String> getAccessionStrings(PIACompiler compiler, PeptideSpectrumMatch psm,
+            Long fileID) {
+        TreeSet<String> accessions = new TreeSet<>();
+        for (AccessionOccurrence occurrence : compiler.getPeptide(psm.getSequence()).getAccessionOccurrences()) {
+            accessions.add(occurrence.getAccession().getAccession()
+                    + ':' + occurrence.getStart() + '-' + occurrence.getEnd()
+                    + ':' + occurrence.getAccession().getDescription(fileID));
+        }
+        return accessions;
+    }
+}
@@ -0,0 +1,60 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Modification;
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.intermediate.compiler.parser.ParsedPSMsAssert;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class TandemFileParserTest {
+
+    private File tandemFile;
+
+
+    @Before
+    public void setUp() {
+        tandemFile = new File(TandemFileParserTest.class.getResource("/test-datasets/test-xtandem.xml").getPath());
+    }
+
+
+    @Test
+    public void testParserEqualsLegacyParser() {
+        PIACompiler staxCompiler = new PIASimpleCompiler();
+        assertTrue(TandemFileParser.getDataFromTandemFile("tandem", tandemFile.getAbsolutePath(),
+                staxCompiler, null));
+
+        PIACompiler legacyCompiler = new PIASimpleCompiler();
+        assertTrue(LegacyTandemFileParser.getDataFromTandemFile("tandem", tandemFile.getAbsolutePath(),
+                legacyCompiler, null));
+
+        // the legacy parser did not look up the modifications in UNIMOD
+        Map<String, PeptideSpectrumMatch> psms = ParsedPSMsAssert.assertEqualPSMs(legacyCompiler, staxCompiler,
+                false,
+                ScoreModelEnum.XTANDEM_EXPECT.getShortName(), ScoreModelEnum.XTANDEM_HYPERSCORE.getShortName());
+        assertFalse(psms.isEmpty());
+
+        int nrCarbamidomethyl = 0;
+        for (PeptideSpectrumMatch psm : psms.values()) {
+            for (Modification mod : psm.getModifications().values()) {
+                if (mod.getResidue() == 'C') {
+                    assertEquals("Carbamidomethyl", mod.getDescription());
+                    assertEquals("UNIMOD:4", mod.getAccession());
+                    nrCarbamidomethyl++;
+                }
+            }
+        }
+        assertTrue(nrCarbamidomethyl > 0);
+    }
+}
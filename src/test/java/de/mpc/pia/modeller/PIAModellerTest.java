@@ -1,11 +1,16 @@
 package de.mpc.pia.modeller;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import de.mpc.pia.modeller.report.filter.FilterComparator;
 import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
@@ -16,6 +21,9 @@ public class PIAModellerTest {
 
     private static File piaFile;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
 
     @BeforeClass
     public static void initialize() {
@@ -50,4 +58,68 @@ public class PIAModellerTest {
         assertEquals("number of filtered PSM sets is wrong", 9,
                 piaModeller.getPSMModeller().getFilteredReportPSMSets(piaModeller.getPSMModeller().getFilters(0L)).size());
     }
+
+
+    /**
+     * Executes a pipeline with the multi-format export on the command line.
+     * An unknown export level rejects the export.
+     */
+    @Test
+    public void testCommandLineExportLevels() throws IOException {
+        File paramFile = createPipelineFile();
+
+        File psmFile = new File(tempFolder.getRoot(), "psms.csv");
+        PIAModeller.main(new String[] {"-disableUsageStatistics",
+                "-infile", piaFile.getAbsolutePath(),
+                "-paramFile", paramFile.getAbsolutePath(),
+                "-export", "level=psm", "csv:" + psmFile.getAbsolutePath()});
+        assertTrue(psmFile.exists());
+
+        File invalidLevelFile = new File(tempFolder.getRoot(), "spectra.csv");
+        PIAModeller.main(new String[] {"-disableUsageStatistics",
+                "-infile", piaFile.getAbsolutePath(),
+                "-paramFile", paramFile.getAbsolutePath(),
+                "-export", "level=spectrum", "csv:" + invalidLevelFile.getAbsolutePath()});
+        assertFalse(invalidLevelFile.exists());
+    }
+
+
+    /**
+     * Compiles a search engine result on the command line and executes a
+     * pipeline on it, while the compilation is written into a PIA XML file.
+     */
+    @Test
+    public void testCommandLineCompileWithPIAOutfile() throws IOException {
+        File paramFile = createPipelineFile();
+        File tandemFile = new File(PIAModellerTest.class.getResource("/55merge_tandem.mzid").getPath());
+
+        File compiledFile = new File(tempFolder.getRoot(), "compiled.pia.xml");
+        File psmFile = new File(tempFolder.getRoot(), "psms.csv");
+        PIAModeller.main(new String[] {"-disableUsageStatistics",
+                "-compile", tandemFile.getAbsolutePath(),
+                "-piaOutfile", compiledFile.getAbsolutePath(),
+                "-paramFile", paramFile.getAbsolutePath(),
+                "-export", "level=psm", "csv:" + psmFile.getAbsolutePath()});
+        assertTrue(psmFile.exists());
+        assertTrue(compiledFile.exists());
+
+        PIAModeller compiledModeller = new PIAModeller(compiledFile.getAbsolutePath());
+        assertEquals("number of files in PIA XML is not correct", 1, compiledModeller.getFiles().size());
+        assertTrue(compiledModeller.getPSMModeller().getNrReportPSMs(1L) > 0);
+    }
+
+
+    /**
+     * Creates a pipeline file, which sets the decoy pattern and calculates the
+     * FDR of all files.
+     */
+    private File createPipelineFile() throws IOException {
+        String paramFileName = tempFolder.newFile("pipeline.xml").getAbsolutePath();
+
+        PIAModeller.initialisePipelineXML(paramFileName, "test pipeline");
+        PIAModeller.appendToPipelineXML(paramFileName, paramFileName, new String[] {"PSMSetAllDecoyPattern", "Rnd.*"});
+        PIAModeller.appendToPipelineXML(paramFileName, paramFileName, new String[] {"PSMCalculateAllFDR"});
+
+        return new File(paramFileName);
+    }
 }
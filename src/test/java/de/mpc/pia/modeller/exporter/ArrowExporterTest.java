@@ -0,0 +1,224 @@
+package de.mpc.pia.modeller.exporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.FDRData.DecoyStrategy;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class ArrowExporterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private PIAModeller piaModeller;
+
+    private double delta = 0.000001;
+
+
+    @Before
+    public void setUp() {
+        File piaFile = new File(ArrowExporterTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+        piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        piaModeller.getPeptideModeller().calculateFDR(1L);
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+        seInference.addFilter(
+                new PSMScoreFilter(FilterComparator.less_equal, false, 0.5, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName()));
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        piaModeller.getProteinModeller().updateFDRData(DecoyStrategy.ACCESSIONPATTERN, "Rnd.*", 0.01);
+        piaModeller.getProteinModeller().updateDecoyStates();
+        piaModeller.getProteinModeller().calculateFDR();
+    }
+
+
+    @Test
+    public void testPSMExport() throws IOException {
+        File exportFile = tempFolder.newFile("psms.arrow");
+        assertTrue(new ArrowExporter(piaModeller).exportPSMs(1L, exportFile.getAbsolutePath(), false));
+
+        List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, null);
+        assertFalse(psms.isEmpty());
+        String scoreShort = piaModeller.getPSMModeller().getScoreShortNames(1L).get(0);
+
+        try (BufferAllocator allocator = new RootAllocator();
+                FileInputStream fis = new FileInputStream(exportFile);
+                ArrowFileReader reader = new ArrowFileReader(fis.getChannel(), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+            int row = 0;
+            while (reader.loadNextBatch()) {
+                VarCharVector dictionary = getAccessionsDictionary(reader);
+                for (int idx = 0; idx < root.getRowCount(); idx++, row++) {
+                    ReportPSM psm = psms.get(row);
+
+                    assertEquals(psm.getSequence(), getString(root, "sequence", idx));
+                    assertEquals(psm.getCharge(), ((IntVector) root.getVector("charge")).get(idx));
+                    assertDouble(psm.getMassToCharge(), root, "mz", idx);
+                    assertEquals(psm.getIsDecoy(), ((BitVector) root.getVector("decoy")).get(idx) == 1);
+                    assertEquals(getAccessionStrings(psm.getAccessions()),
+                            getAccessions(root, dictionary, idx));
+
+                    assertDouble(psm.getScore(scoreShort), root, scoreShort, idx);
+                    assertDouble(psm.getQValue(), root, "q_value", idx);
+                }
+            }
+            assertEquals(psms.size(), row);
+        }
+    }
+
+
+    @Test
+    public void testPeptideExport() throws IOException {
+        File exportFile = tempFolder.newFile("peptides.arrow");
+        assertTrue(new ArrowExporter(piaModeller).exportPeptides(1L, exportFile.getAbsolutePath(), false));
+
+        List<ReportPeptide> peptides = piaModeller.getPeptideModeller().getFilteredReportPeptides(1L, null);
+        assertFalse(peptides.isEmpty());
+
+        try (BufferAllocator allocator = new RootAllocator();
+                FileInputStream fis = new FileInputStream(exportFile);
+                ArrowFileReader reader = new ArrowFileReader(fis.getChannel(), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+            int row = 0;
+            while (reader.loadNextBatch()) {
+                VarCharVector dictionary = getAccessionsDictionary(reader);
+                for (int idx = 0; idx < root.getRowCount(); idx++, row++) {
+                    ReportPeptide peptide = peptides.get(row);
+
+                    assertEquals(peptide.getStringID(), getString(root, "peptide_id", idx));
+                    assertEquals(peptide.getNrSpectra().intValue(), ((IntVector) root.getVector("nr_spectra")).get(idx));
+                    assertEquals(getAccessionStrings(peptide.getAccessions()),
+                            getAccessions(root, dictionary, idx));
+                    assertDouble(peptide.getFDR(), root, "fdr", idx);
+                }
+            }
+            assertEquals(peptides.size(), row);
+        }
+    }
+
+
+    @Test
+    public void testProteinExport() throws IOException {
+        File exportFile = tempFolder.newFile("proteins.arrow");
+        assertTrue(new ArrowExporter(piaModeller).exportProteins(exportFile.getAbsolutePath(), false));
+
+        List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(null);
+        assertFalse(proteins.isEmpty());
+
+        try (BufferAllocator allocator = new RootAllocator();
+                FileInputStream fis = new FileInputStream(exportFile);
+                ArrowFileReader reader = new ArrowFileReader(fis.getChannel(), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+            int row = 0;
+            while (reader.loadNextBatch()) {
+                VarCharVector dictionary = getAccessionsDictionary(reader);
+                for (int idx = 0; idx < root.getRowCount(); idx++, row++) {
+                    ReportProtein protein = proteins.get(row);
+
+                    assertDouble(protein.getScore(), root, "score", idx);
+                    assertEquals(protein.getNrPeptides().intValue(), ((IntVector) root.getVector("nr_peptides")).get(idx));
+                    assertEquals(protein.getIsDecoy(), ((BitVector) root.getVector("decoy")).get(idx) == 1);
+                    assertEquals(getAccessionStrings(protein.getAccessions()),
+                            getAccessions(root, dictionary, idx));
+                }
+            }
+            assertEquals(proteins.size(), row);
+        }
+    }
+
+
+    private static VarCharVector getAccessionsDictionary(ArrowFileReader reader) throws IOException {
+        Dictionary dictionary = reader.getDictionaryVectors().values().iterator().next();
+        assertNotNull(dictionary);
+        return (VarCharVector) dictionary.getVector();
+    }
+
+
+    /**
+     * Asserts the value of a double column, in which NaN and null are stored
+     * as null.
+     */
+    private void assertDouble(Double expected, VectorSchemaRoot root, String column, int row) {
+        Float8Vector vector = (Float8Vector) root.getVector(column);
+        if ((expected == null) || expected.isNaN()) {
+            assertTrue(column, vector.isNull(row));
+        } else {
+            assertEquals(column, expected, vector.get(row), delta);
+        }
+    }
+
+
+    private static String getString(VectorSchemaRoot root, String column, int row) {
+        VarCharVector vector = (VarCharVector) root.getVector(column);
+        return vector.isNull(row) ? null : vector.getObject(row).toString();
+    }
+
+
+    /**
+     * Decodes the dictionary encoded accessions of the given row.
+     */
+    private static List<String> getAccessions(VectorSchemaRoot root, VarCharVector dictionary, int row) {
+        List<?> indices = ((ListVector) root.getVector("accessions")).getObject(row);
+
+        List<String> accessions = new ArrayList<>(indices.size());
+        for (Object index : indices) {
+            accessions.add(dictionary.getObject((Integer) index).toString());
+        }
+        return accessions;
+    }
+
+
+    private static List<String> getAccessionStrings(List<Accession> accessions) {
+        return accessions.stream().map(Accession::getAccession).collect(Collectors.toList());
+    }
+}
@@ -66,4 +66,18 @@ public class CSVExporterTest {
 
         exportFile.delete();
     }
+
+
+    /**
+     * Exports all levels with one and with several threads, each time of a
+     * newly inferred model.
+     */
+    @Test
+    public void testExportIndependentOfThreads() throws IOException {
+        ThreadedExportAssert.assertExportIndependentOfThreads(".csv", (modeller, nrThreads, exportFile) -> {
+            CSVExporter exporter = new CSVExporter(modeller);
+            exporter.setNrThreads(nrThreads);
+            return exporter.exportToCSV(0L, exportFile, true, true, true, true);
+        });
+    }
 }
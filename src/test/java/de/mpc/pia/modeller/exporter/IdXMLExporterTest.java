@@ -61,4 +61,18 @@ public class IdXMLExporterTest {
 
         exportFile.delete();
     }
+
+
+    /**
+     * Exports the protein level with one and with several threads, each time
+     * of a newly inferred model.
+     */
+    @Test
+    public void testExportIndependentOfThreads() throws IOException {
+        ThreadedExportAssert.assertExportIndependentOfThreads(".idXML", (modeller, nrThreads, exportFile) -> {
+            IdXMLExporter exporter = new IdXMLExporter(modeller);
+            exporter.setNrThreads(nrThreads);
+            return exporter.exportToIdXML(0L, exportFile, true, true);
+        });
+    }
 }
@@ -0,0 +1,64 @@
+package de.mpc.pia.modeller.exporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.modeller.exporter.MultiFormatExporter.ExportFormat;
+
+
+public class MultiFormatExporterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    /**
+     * Exports into all formats concurrently and one after the other, each on
+     * a newly loaded model, so that the concurrent exports start with all lazy
+     * values of the model unresolved.
+     */
+    @Test
+    public void testConcurrentExportEqualsSequentialExport() throws IOException {
+        File sequentialFolder = tempFolder.newFolder("sequential");
+        File concurrentFolder = tempFolder.newFolder("concurrent");
+
+        assertTrue(createExporter(sequentialFolder, 1).export());
+        assertTrue(createExporter(concurrentFolder, 8).export());
+
+        for (ExportFormat format : ExportFormat.values()) {
+            String fileName = getFileName(format);
+            assertEquals(format.toString(),
+                    ThreadedExportAssert.readWithoutDates(new File(sequentialFolder, fileName)),
+                    ThreadedExportAssert.readWithoutDates(new File(concurrentFolder, fileName)));
+        }
+    }
+
+
+    private MultiFormatExporter createExporter(File folder, int nrThreads) {
+        MultiFormatExporter exporter = new MultiFormatExporter(ThreadedExportAssert.createInferredModeller());
+        for (ExportFormat format : ExportFormat.values()) {
+            exporter.addTarget(format, new File(folder, getFileName(format)).getAbsolutePath());
+        }
+
+        exporter.setFileID(0L);
+        exporter.setPSMLevel(true);
+        exporter.setPeptideLevel(true);
+        exporter.setProteinLevel(true);
+        exporter.setFilterExport(false);
+        exporter.setNrThreads(nrThreads);
+
+        return exporter;
+    }
+
+
+    private static String getFileName(ExportFormat format) {
+        return "export." + format.toString().toLowerCase();
+    }
+}
@@ -115,4 +115,18 @@ public class MzTabExporterTest {
 
         //exportFile.delete();
     }
+
+
+    /**
+     * Exports the proteins and PSMs with the peptide level statistics with one
+     * and with several threads, each time of a newly inferred model.
+     */
+    @Test
+    public void testExportIndependentOfThreads() throws IOException {
+        ThreadedExportAssert.assertExportIndependentOfThreads(".mzTab", (modeller, nrThreads, exportFile) -> {
+            MzTabExporter exporter = new MzTabExporter(modeller);
+            exporter.setNrThreads(nrThreads);
+            return exporter.exportToMzTab(0L, exportFile, true, true, false, false);
+        });
+    }
 }
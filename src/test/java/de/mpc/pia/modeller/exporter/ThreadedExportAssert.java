@@ -0,0 +1,120 @@
+package de.mpc.pia.modeller.exporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.FDRData.DecoyStrategy;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+/**
+ * Compares exports with one and with several threads. Each export runs on a
+ * newly loaded and inferred model, so that also the multi-threaded export
+ * starts with all lazily calculated values of the model unresolved.
+ *
+ * @author julian
+ *
+ */
+final class ThreadedExportAssert {
+
+    /** the number of threads of the compared multi-threaded export */
+    static final int NR_THREADS = 4;
+
+
+    /**
+     * An export of the modeller into a file with the given number of threads.
+     */
+    @FunctionalInterface
+    interface ThreadedExport {
+        boolean export(PIAModeller modeller, int nrThreads, File exportFile) throws IOException;
+    }
+
+
+    private ThreadedExportAssert() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Asserts, that the export with one thread and the export with
+     * {@link #NR_THREADS} threads, each of a newly inferred model, create the
+     * same files (apart from the dates of the export).
+     *
+     * @param suffix the suffix of the exported files
+     * @param export
+     * @throws IOException
+     */
+    static void assertExportIndependentOfThreads(String suffix, ThreadedExport export) throws IOException {
+        File singleFile = File.createTempFile("pia_singleThreadedExport", suffix);
+        File multiFile = File.createTempFile("pia_multiThreadedExport", suffix);
+
+        try {
+            assertTrue(export.export(createInferredModeller(), 1, singleFile));
+            assertTrue(export.export(createInferredModeller(), NR_THREADS, multiFile));
+
+            assertEquals(readWithoutDates(singleFile), readWithoutDates(multiFile));
+        } finally {
+            singleFile.delete();
+            multiFile.delete();
+        }
+    }
+
+
+    /**
+     * Reads the exported file and removes the dates of the export, which may
+     * differ between two exports. The bytes are read as ISO-8859-1, which
+     * keeps binary files unchanged.
+     */
+    static String readWithoutDates(File exportFile) throws IOException {
+        String content = new String(Files.readAllBytes(exportFile.toPath()), StandardCharsets.ISO_8859_1);
+        return content.replaceAll(" (creationD|d)ate=\"[^\"]*\"", "");
+    }
+
+
+    /**
+     * Loads the merged Mascot and X!Tandem test file and infers the proteins
+     * with PSM sets and the protein FDR.
+     */
+    static PIAModeller createInferredModeller() {
+        File piaFile = new File(ThreadedExportAssert.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+
+        seInference.addFilter(
+                new PSMScoreFilter(FilterComparator.less_equal, false, 0.5, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName()));
+
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        piaModeller.getProteinModeller().updateFDRData(DecoyStrategy.ACCESSIONPATTERN, "Rnd.*", 0.01);
+        piaModeller.getProteinModeller().updateDecoyStates();
+        piaModeller.getProteinModeller().calculateFDR();
+
+        return piaModeller;
+    }
+}
@@ -0,0 +1,150 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class FilteredComponentsTest {
+
+    private PIAModeller piaModeller;
+
+
+    @Before
+    public void setUp() {
+        File piaFile = new File(FilteredComponentsTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+        piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+    }
+
+
+    @Test
+    public void testUnfilteredComponents() {
+        assertComponents(new OccamsRazorInference());
+    }
+
+
+    @Test
+    public void testFilteredComponents() {
+        OccamsRazorInference inference = new OccamsRazorInference();
+        inference.addFilter(new PSMScoreFilter(FilterComparator.less_equal, false, 0.01,
+                ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName()));
+
+        assertComponents(inference);
+    }
+
+
+    /**
+     * Checks the filtered components against the split into the PIA trees,
+     * which was used for the inference before: the components divide the trees
+     * and contain exactly the groups with filtered peptides. Two groups are in
+     * the same component, if they are connected by groups with filtered
+     * peptides, which is checked by a breadth-first search.
+     */
+    private void assertComponents(AbstractProteinInference inference) {
+        Map<Long, Group> groupMap = piaModeller.getGroups();
+        Map<Long, List<ReportPeptide>> filteredPeptides = inference.createFilteredReportPeptides(groupMap,
+                piaModeller.getPSMModeller().getReportPSMSets(),
+                piaModeller.getConsiderModifications(),
+                piaModeller.getPSMModeller().getPSMSetSettings(),
+                inference.sortPeptidesInMap(piaModeller.getPeptideModeller().getFilteredReportPeptides(0L,
+                        piaModeller.getPeptideModeller().getFilters(0L))));
+
+        List<Map<Long, Group>> components = inference.createFilteredComponents(groupMap, filteredPeptides);
+
+        Set<Long> groupsWithPeptides = new HashSet<>();
+        Set<Long> treesWithPeptides = new HashSet<>();
+        for (Group group : groupMap.values()) {
+            if (inference.groupHasReportPeptides(group, filteredPeptides)) {
+                groupsWithPeptides.add(group.getID());
+                treesWithPeptides.add(group.getTreeID());
+            }
+        }
+        assertFalse(groupsWithPeptides.isEmpty());
+
+        Set<Long> componentGroups = new HashSet<>();
+        Set<Set<Long>> componentSets = new HashSet<>();
+        int lastSize = Integer.MAX_VALUE;
+        for (Map<Long, Group> component : components) {
+            assertTrue("the components are not ordered by their size", component.size() <= lastSize);
+            lastSize = component.size();
+
+            // each component lies in a single tree
+            Long treeID = component.values().iterator().next().getTreeID();
+            for (Map.Entry<Long, Group> groupIt : component.entrySet()) {
+                assertEquals(treeID, Long.valueOf(groupIt.getValue().getTreeID()));
+                assertTrue("group in more than one component", componentGroups.add(groupIt.getKey()));
+            }
+            componentSets.add(component.keySet());
+        }
+        assertEquals(groupsWithPeptides, componentGroups);
+        assertTrue(components.size() >= treesWithPeptides.size());
+
+        assertEquals(searchComponents(groupMap, groupsWithPeptides), componentSets);
+    }
+
+
+    /**
+     * Searches the components of the given groups by their parent and child
+     * connections.
+     */
+    private static Set<Set<Long>> searchComponents(Map<Long, Group> groupMap, Set<Long> groupIDs) {
+        Set<Set<Long>> components = new HashSet<>();
+        Map<Long, Boolean> visited = new HashMap<>();
+
+        for (Long startID : groupIDs) {
+            if (visited.containsKey(startID)) {
+                continue;
+            }
+
+            Set<Long> component = new HashSet<>();
+            Deque<Long> queue = new ArrayDeque<>();
+            queue.add(startID);
+            visited.put(startID, true);
+
+            while (!queue.isEmpty()) {
+                Group group = groupMap.get(queue.poll());
+                component.add(group.getID());
+
+                Set<Long> neighbours = new HashSet<>(group.getParents().keySet());
+                neighbours.addAll(group.getChildren().keySet());
+                for (Long neighbourID : neighbours) {
+                    if (groupIDs.contains(neighbourID) && !visited.containsKey(neighbourID)) {
+                        visited.put(neighbourID, true);
+                        queue.add(neighbourID);
+                    }
+                }
+            }
+
+            components.add(component);
+        }
+
+        return components;
+    }
+}
@@ -0,0 +1,177 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Group;
+import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.ReportChangeEvent;
+import de.mpc.pia.modeller.ReportChangeEvent.ChangeKind;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+
+
+public class InferenceInputCacheTest {
+
+    private InferenceInputCache cache;
+
+    private Map<Long, Group> groupMap;
+
+    private Map<String, ReportPSMSet> reportPSMSetMap;
+
+    private Map<Long, List<ReportPeptide>> filteredPeptides;
+
+    private List<Map<Long, Group>> components;
+
+
+    @Before
+    public void setUp() {
+        cache = new InferenceInputCache();
+
+        groupMap = new HashMap<>();
+        groupMap.put(1L, new Group(1L));
+        reportPSMSetMap = new HashMap<>();
+
+        filteredPeptides = new HashMap<>();
+        filteredPeptides.put(1L, new ArrayList<>(Collections.singletonList(createPeptide(1L, "PEPTIDE"))));
+        components = Collections.singletonList(groupMap);
+    }
+
+
+    @Test
+    public void testCreateKey() {
+        Map<String, Boolean> psmSetSettings = new HashMap<>();
+        psmSetSettings.put("mascot_score", true);
+
+        String key = InferenceInputCache.createKey(Collections.<AbstractFilter>emptyList(), true, psmSetSettings);
+        assertEquals(key, InferenceInputCache.createKey(Collections.<AbstractFilter>emptyList(), true,
+                new HashMap<>(psmSetSettings)));
+        assertFalse(key.equals(InferenceInputCache.createKey(Collections.<AbstractFilter>emptyList(),
+                false, psmSetSettings)));
+    }
+
+
+    @Test
+    public void testHitAndChangedInput() {
+        InferenceInputCache.CachedInput input = putInput("key");
+
+        assertSame(input, cache.getInput("key", groupMap, reportPSMSetMap));
+        assertNull(cache.getInput("other key", groupMap, reportPSMSetMap));
+        assertSame(components, input.getComponents());
+
+        // other instances of the groups or PSM sets remove the input
+        assertNull(cache.getInput("key", new HashMap<>(groupMap), reportPSMSetMap));
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+
+        putInput("key");
+        assertNull(cache.getInput("key", groupMap, new HashMap<>(reportPSMSetMap)));
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        for (int nr = 0; nr < 4; nr++) {
+            putInput("key" + nr);
+        }
+
+        // key0 is accessed and therefore more recent than key1
+        assertNotNull(cache.getInput("key0", groupMap, reportPSMSetMap));
+        putInput("key4");
+
+        assertNull(cache.getInput("key1", groupMap, reportPSMSetMap));
+        for (String key : Arrays.asList("key0", "key2", "key3", "key4")) {
+            assertNotNull(key, cache.getInput(key, groupMap, reportPSMSetMap));
+        }
+    }
+
+
+    @Test
+    public void testReportChanged() {
+        PIAModeller piaModeller = new PIAModeller(new File(InferenceInputCacheTest.class
+                .getResource("/55merge_mascot_tandem.pia.xml").getPath()).getAbsolutePath());
+
+        // changes of single files' peptides are ignored
+        putInput("key");
+        cache.reportChanged(new ReportChangeEvent(piaModeller.getPeptideModeller(), ChangeKind.FDR, 1L));
+        assertNotNull(cache.getInput("key", groupMap, reportPSMSetMap));
+
+        // changes of the overview's peptides or of all files invalidate
+        cache.reportChanged(new ReportChangeEvent(piaModeller.getPeptideModeller(), ChangeKind.FILTERS, 0L));
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+
+        putInput("key");
+        cache.reportChanged(new ReportChangeEvent(piaModeller.getPeptideModeller(),
+                ChangeKind.GENERAL_SETTINGS, null));
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+
+        // any change of the PSMs invalidates
+        putInput("key");
+        cache.reportChanged(new ReportChangeEvent(piaModeller.getPSMModeller(), ChangeKind.FDR, 1L));
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+
+        putInput("key");
+        putInput("other key");
+        cache.invalidate();
+        assertNull(cache.getInput("key", groupMap, reportPSMSetMap));
+        assertNull(cache.getInput("other key", groupMap, reportPSMSetMap));
+    }
+
+
+    @Test
+    public void testFilteredPeptidesAreCopied() {
+        ReportPeptide modellerPeptide = createPeptide(2L, "ANOTHERPEPTIDE");
+        filteredPeptides.get(1L).add(modellerPeptide);
+        ReportPeptide createdPeptide = filteredPeptides.get(1L).get(0);
+
+        InferenceInputCache.CachedInput input = cache.putInput("key", groupMap, reportPSMSetMap,
+                filteredPeptides, components, Collections.singletonList(modellerPeptide));
+
+        // altering the passed map does not alter the input
+        filteredPeptides.get(1L).clear();
+
+        Map<Long, List<ReportPeptide>> firstRun = input.getFilteredPeptides();
+        assertEquals(2, firstRun.get(1L).size());
+        assertNotSame(createdPeptide, firstRun.get(1L).get(0));
+        assertEquals(createdPeptide.getStringID(), firstRun.get(1L).get(0).getStringID());
+        assertSame(modellerPeptide, firstRun.get(1L).get(1));
+
+        // altering the peptides of one run does not alter the next run
+        firstRun.get(1L).get(0).addToNonScoringPSMs(1L);
+        firstRun.get(1L).clear();
+
+        Map<Long, List<ReportPeptide>> secondRun = input.getFilteredPeptides();
+        assertEquals(2, secondRun.get(1L).size());
+        assertTrue(secondRun.get(1L).get(0).getNonScoringPSMIDs().isEmpty());
+        assertSame(modellerPeptide, secondRun.get(1L).get(1));
+    }
+
+
+    private InferenceInputCache.CachedInput putInput(String key) {
+        return cache.putInput(key, groupMap, reportPSMSetMap, filteredPeptides, components,
+                Collections.<ReportPeptide>emptyList());
+    }
+
+
+    private static ReportPeptide createPeptide(long id, String sequence) {
+        return new ReportPeptide(sequence, sequence, new Peptide(id, sequence));
+    }
+}
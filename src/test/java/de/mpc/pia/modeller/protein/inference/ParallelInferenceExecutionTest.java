@@ -0,0 +1,95 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ParallelInferenceExecutionTest {
+
+    private AbstractProteinInference inference;
+
+    private List<Integer> items;
+
+
+    @Before
+    public void setUp() {
+        inference = new ReportAllInference();
+        items = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+    }
+
+
+    @After
+    public void tearDown() {
+        inference.shutdownParallelExecution();
+    }
+
+
+    @Test
+    public void testAllResultsAreMerged() {
+        List<Integer> expected = new ArrayList<>();
+        for (Integer item : items) {
+            expected.add(item * 2);
+            if (item % 3 == 0) {
+                expected.add(-item);
+            }
+        }
+        Collections.sort(expected);
+
+        for (int nrThreads : new int[]{1, 2, 8}) {
+            inference.setAllowedThreads(nrThreads);
+
+            List<Integer> results = inference.runInParallel(items, (Integer item, List<Integer> buffer) -> {
+                buffer.add(item * 2);
+                if (item % 3 == 0) {
+                    buffer.add(-item);
+                }
+            }, 50.0);
+
+            Collections.sort(results);
+            assertEquals("threads: " + nrThreads, expected, results);
+            assertEquals(Long.valueOf(50), inference.getProgressValue());
+        }
+    }
+
+
+    @Test
+    public void testFailureIsRethrown() {
+        for (int nrThreads : new int[]{1, 2, 8}) {
+            inference.setAllowedThreads(nrThreads);
+            AtomicInteger processed = new AtomicInteger(0);
+
+            try {
+                inference.runInParallel(items, (Integer item, List<Integer> buffer) -> {
+                    if (item == 100) {
+                        throw new IllegalArgumentException("item 100");
+                    }
+                    processed.incrementAndGet();
+                    buffer.add(item);
+                }, 100.0);
+                fail("the failure was not rethrown with " + nrThreads + " threads");
+            } catch (IllegalArgumentException e) {
+                assertEquals("item 100", e.getMessage());
+            }
+
+            // no further items are started after the failure
+            assertTrue("threads: " + nrThreads, processed.get() < items.size() - 1);
+
+            // the threads can be used for the next run
+            List<Integer> results = inference.runInParallel(items,
+                    (Integer item, List<Integer> buffer) -> buffer.add(item), 100.0);
+            assertEquals(items.size(), results.size());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+public class UnionFindTest {
+
+    @Test
+    public void testInitialSets() {
+        UnionFind unionFind = new UnionFind(new long[]{9L, -3L, 5L});
+
+        assertEquals(3, unionFind.size());
+
+        // the IDs are sorted
+        assertEquals(0, unionFind.indexOf(-3L));
+        assertEquals(1, unionFind.indexOf(5L));
+        assertEquals(2, unionFind.indexOf(9L));
+        assertTrue(unionFind.indexOf(4L) < 0);
+
+        for (int index = 0; index < unionFind.size(); index++) {
+            assertEquals(index, unionFind.find(index));
+            assertEquals(1, unionFind.getSetSize(index));
+        }
+        assertEquals(9L, unionFind.getID(unionFind.indexOf(9L)));
+    }
+
+
+    @Test
+    public void testUnion() {
+        UnionFind unionFind = new UnionFind(new long[]{1L, 2L, 3L, 4L, 5L});
+
+        assertTrue(unionFind.unionIDs(1L, 2L));
+        assertTrue(unionFind.unionIDs(3L, 4L));
+        assertFalse(unionFind.unionIDs(2L, 1L));
+        assertTrue(unionFind.unionIDs(4L, 1L));
+        assertFalse(unionFind.unionIDs(3L, 2L));
+
+        int root = unionFind.find(unionFind.indexOf(1L));
+        for (long id = 1L; id <= 4L; id++) {
+            assertEquals(root, unionFind.find(unionFind.indexOf(id)));
+            assertEquals(4, unionFind.getSetSize(unionFind.indexOf(id)));
+        }
+        assertEquals(1, unionFind.getSetSize(unionFind.indexOf(5L)));
+
+        // unknown IDs are ignored
+        assertFalse(unionFind.unionIDs(5L, 6L));
+        assertFalse(unionFind.unionIDs(7L, 1L));
+        assertEquals(1, unionFind.getSetSize(unionFind.indexOf(5L)));
+    }
+
+
+    /**
+     * Compares random unions with a naive labelling of the sets.
+     */
+    @Test
+    public void testRandomUnionsAgainstLabels() {
+        Random random = new Random(42);
+
+        Set<Long> idSet = new HashSet<>();
+        while (idSet.size() < 1000) {
+            idSet.add(random.nextLong());
+        }
+        long[] ids = idSet.stream().mapToLong(Long::longValue).toArray();
+
+        UnionFind unionFind = new UnionFind(ids);
+        int[] labels = new int[ids.length];
+        for (int node = 0; node < labels.length; node++) {
+            labels[node] = node;
+        }
+
+        for (int nrUnions = 0; nrUnions < 800; nrUnions++) {
+            int nodeA = random.nextInt(ids.length);
+            int nodeB = random.nextInt(ids.length);
+
+            int labelA = labels[unionFind.indexOf(ids[nodeA])];
+            int labelB = labels[unionFind.indexOf(ids[nodeB])];
+            assertEquals(labelA != labelB, unionFind.unionIDs(ids[nodeA], ids[nodeB]));
+
+            for (int node = 0; node < labels.length; node++) {
+                if (labels[node] == labelB) {
+                    labels[node] = labelA;
+                }
+            }
+        }
+
+        for (int nodeA = 0; nodeA < labels.length; nodeA++) {
+            int setSize = 0;
+            for (int nodeB = 0; nodeB < labels.length; nodeB++) {
+                assertEquals(labels[nodeA] == labels[nodeB],
+                        unionFind.find(nodeA) == unionFind.find(nodeB));
+                if (labels[nodeA] == labels[nodeB]) {
+                    setSize++;
+                }
+            }
+            assertEquals(setSize, unionFind.getSetSize(nodeA));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.mpc.pia.modeller.protein.scoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.inference.OccamsRazorInference;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModel;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class ProteinScoreValuesTest {
+
+    private File idXMLmsgfFile;
+
+    private double scoreDelta = 0.000001;
+
+
+    @Before
+    public void setUp() {
+        idXMLmsgfFile = new File(ProteinScoreValuesTest.class.getResource("/merge1-msgf-fdr_filtered-015.idXML").getPath());
+    }
+
+
+    @Test
+    public void testMixedScoreDirections() {
+        List<ScoreModel> scores = Arrays.asList(
+                new ScoreModel(0.01, ScoreModelEnum.PSM_LEVEL_FDR_SCORE),
+                new ScoreModel(45.3, ScoreModelEnum.MASCOT_SCORE),
+                null,
+                new ScoreModel(Double.NaN, ScoreModelEnum.MASCOT_SCORE),
+                new ScoreModel(0.002, ScoreModelEnum.PSM_LEVEL_FDR_SCORE));
+
+        double[] values = ProteinScoreValues.extractValues(scores);
+        boolean[] lowerBetter = ProteinScoreValues.extractLowerScoreBetter(scores);
+
+        assertEquals(3, values.length);
+        assertEquals(3, lowerBetter.length);
+        assertTrue(lowerBetter[0]);
+        assertFalse(lowerBetter[1]);
+        assertTrue(lowerBetter[2]);
+
+        for (AbstractScoring scoring : createScorings()) {
+            assertEquals(scoring.getName(), perProteinScore(scoring, scores),
+                    scoring.calculateScore(values, lowerBetter), scoreDelta);
+        }
+    }
+
+
+    @Test
+    public void testPrecomputedScoresEqualPerProteinScores() throws IOException {
+        PIACompiler piaCompiler = new PIASimpleCompiler();
+        assertTrue(piaCompiler.getDataFromFile("msgf", idXMLmsgfFile.getAbsolutePath(), null, null));
+        piaCompiler.buildClusterList();
+        piaCompiler.buildIntermediateStructure();
+        piaCompiler.setName("testFile");
+
+        PIAModeller piaModeller = new PIAModeller(piaCompiler, null);
+        piaCompiler.finish();
+
+        piaModeller.setCreatePSMSets(true);
+        piaModeller.getPSMModeller().setAllDecoyPattern("s.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        OccamsRazorInference inference = new OccamsRazorInference();
+        inference.addFilter(new PSMScoreFilter(FilterComparator.less_equal, false, 0.01,
+                ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+        inference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        piaModeller.getProteinModeller().infereProteins(inference);
+
+        List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(new ArrayList<>());
+        assertFalse(proteins.isEmpty());
+
+        for (String scoreShort : Arrays.asList(ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName(),
+                ScoreModelEnum.MSGF_SPECEVALUE.getShortName())) {
+            for (PSMForScoring psmForScoring : PSMForScoring.values()) {
+                for (AbstractScoring scoring : createScorings()) {
+                    scoring.setSetting(AbstractScoring.SCORING_SETTING_ID, scoreShort);
+                    scoring.setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, psmForScoring.getShortName());
+
+                    scoring.calculateProteinScores(proteins);
+
+                    for (ReportProtein protein : withSubProteins(proteins)) {
+                        List<ScoreModel> scores = PSMForScoring.getProteinsScores(
+                                psmForScoring.getShortName(), protein, scoreShort);
+
+                        assertEquals(scoring.getName() + " with " + scoreShort + " (" + psmForScoring + ")",
+                                perProteinScore(scoring, scores), protein.getScore(), scoreDelta);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static List<AbstractScoring> createScorings() {
+        return Arrays.asList(new AdditiveScoring(new HashMap<>()),
+                new MultiplicativeScoring(new HashMap<>()),
+                new GeometricMeanScoring(new HashMap<>()));
+    }
+
+
+    private static List<ReportProtein> withSubProteins(List<ReportProtein> proteins) {
+        List<ReportProtein> allProteins = new ArrayList<>(proteins);
+        Set<Long> subProteinIDs = new HashSet<>();
+        for (ReportProtein protein : proteins) {
+            protein.getSubSets().stream()
+                    .filter(subProtein -> subProteinIDs.add(subProtein.getID()))
+                    .forEach(allProteins::add);
+        }
+        return allProteins;
+    }
+
+
+    /**
+     * Scores the protein's scores like the scorings did before the values were
+     * extracted into arrays, resolving the direction of each score by itself.
+     */
+    private static double perProteinScore(AbstractScoring scoring, List<ScoreModel> scores) {
+        int nrScores = 0;
+        for (ScoreModel score : scores) {
+            if ((score != null) && !score.getValue().isNaN()) {
+                nrScores++;
+            }
+        }
+
+        if (nrScores == 0) {
+            return Double.NaN;
+        }
+
+        double exp = 1.0 / nrScores;
+        Double proteinScore = Double.NaN;
+
+        for (ScoreModel score : scores) {
+            if ((score == null) || score.getValue().isNaN()) {
+                continue;
+            }
+
+            boolean lowerBetter = (score.getType().higherScoreBetter() != null)
+                    && !score.getType().higherScoreBetter();
+            double value = score.getValue();
+
+            if (scoring instanceof AdditiveScoring) {
+                proteinScore = proteinScore.isNaN() ? value : proteinScore + value;
+            } else if (scoring instanceof MultiplicativeScoring) {
+                if (proteinScore.isNaN()) {
+                    proteinScore = lowerBetter ? -Math.log10(value) : value;
+                } else {
+                    proteinScore = lowerBetter ? proteinScore - Math.log10(value) : proteinScore * value;
+                }
+            } else {
+                double root = Math.pow(value, exp);
+                if (proteinScore.isNaN()) {
+                    proteinScore = lowerBetter ? -Math.log10(root) : root;
+                } else {
+                    proteinScore = lowerBetter ? proteinScore - Math.log10(root) : proteinScore * root;
+                }
+            }
+        }
+
+        return proteinScore;
+    }
+}
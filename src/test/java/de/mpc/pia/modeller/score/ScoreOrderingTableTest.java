@@ -0,0 +1,129 @@
+package de.mpc.pia.modeller.score;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.modeller.score.ScoreOrderingTable.ValueType;
+import de.mpc.pia.tools.ReferenceDataCache;
+import de.mpc.pia.tools.ReferenceDataCache.Dataset;
+
+
+public class ScoreOrderingTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String COMET_XCORR = "MS:1002252";
+
+    private static final String MSGF_SPECEVALUE = "MS:1002052";
+
+    private static final String MSGF_QVALUE = "MS:1002054";
+
+
+    @Test
+    public void testShippedOBO() throws IOException {
+        ScoreOrderingTable table = new ScoreOrderingTable(new ReferenceDataCache(folder.newFolder("cache")));
+
+        assertEquals(Boolean.TRUE, table.higherScoreBetter(COMET_XCORR));
+        assertEquals(ValueType.SCORE, table.getValueType(COMET_XCORR));
+
+        assertEquals(Boolean.FALSE, table.higherScoreBetter(MSGF_SPECEVALUE));
+        assertEquals(ValueType.E_VALUE, table.getValueType(MSGF_SPECEVALUE));
+
+        assertEquals(Boolean.FALSE, table.higherScoreBetter(MSGF_QVALUE));
+        assertEquals(ValueType.Q_VALUE, table.getValueType(MSGF_QVALUE));
+
+        // the additional (PRIDE) accessions of the ScoreModelEnum are included
+        for (String accession : ScoreModelEnum.MASCOT_EXPECT.getAdditionalAccessions()) {
+            assertEquals(accession, Boolean.FALSE, table.higherScoreBetter(accession));
+        }
+
+        assertFalse(table.contains("MS:1000001"));
+        assertNull(table.higherScoreBetter(null));
+    }
+
+
+    /**
+     * A has_order relationship of a term overrides the ordering implied by
+     * its is_a to a p-, e- or q-value, independent of the order of the lines.
+     * The ScoreModelEnum overrides both.
+     */
+    @Test
+    public void testHasOrderOverridesIsA() throws IOException {
+        String obo;
+        try (InputStream in = ScoreOrderingTableTest.class.getResourceAsStream("/de/mpc/pia/psi-ms.obo")) {
+            obo = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+
+        // Comet:xcorr is higher-better in the OBO and the ScoreModelEnum, turn it in the OBO
+        int xcorrPos = obo.indexOf("id: " + COMET_XCORR);
+        int orderPos = obo.indexOf("relationship: has_order MS:1002108", xcorrPos);
+        assertTrue(orderPos > xcorrPos);
+        obo = obo.substring(0, orderPos) + "relationship: has_order MS:1002109"
+                + obo.substring(orderPos + "relationship: has_order MS:1002108".length());
+
+        obo += "\n[Term]\n"
+                + "id: MS:4000001\n"
+                + "name: test q-value with higher score better\n"
+                + "is_a: MS:1002354 ! PSM-level q-value\n"
+                + "relationship: has_order MS:1002108 ! higher score better\n"
+                + "\n[Term]\n"
+                + "id: MS:4000002\n"
+                + "name: test e-value with higher score better\n"
+                + "relationship: has_order MS:1002108 ! higher score better\n"
+                + "is_a: MS:1002353 ! PSM-level e-value\n"
+                + "\n[Term]\n"
+                + "id: MS:4000003\n"
+                + "name: test p-value without order\n"
+                + "is_a: MS:1002352 ! PSM-level p-value\n";
+
+        File oboFile = folder.newFile("psi-ms.obo");
+        Files.write(oboFile.toPath(), obo.getBytes(StandardCharsets.UTF_8));
+
+        ReferenceDataCache cache = new ReferenceDataCache(folder.newFolder("cache"));
+        cache.setSource(Dataset.PSI_MS, oboFile.toURI().toURL());
+        assertTrue(cache.refresh(Dataset.PSI_MS));
+
+        ScoreOrderingTable table = new ScoreOrderingTable(cache);
+
+        assertEquals(Boolean.TRUE, table.higherScoreBetter("MS:4000001"));
+        assertEquals(ValueType.Q_VALUE, table.getValueType("MS:4000001"));
+
+        assertEquals(Boolean.TRUE, table.higherScoreBetter("MS:4000002"));
+        assertEquals(ValueType.E_VALUE, table.getValueType("MS:4000002"));
+
+        assertEquals(Boolean.FALSE, table.higherScoreBetter("MS:4000003"));
+        assertEquals(ValueType.P_VALUE, table.getValueType("MS:4000003"));
+
+        assertEquals(ScoreModelEnum.COMET_XCORR.getCvAccession(), COMET_XCORR);
+        assertEquals(ScoreModelEnum.COMET_XCORR.higherScoreBetter(), table.higherScoreBetter(COMET_XCORR));
+
+        // the ScoreModelEnum keeps the value type from the OBO
+        assertEquals(ScoreModelEnum.MSGF_SPECEVALUE.higherScoreBetter(), table.higherScoreBetter(MSGF_SPECEVALUE));
+        assertEquals(ValueType.E_VALUE, table.getValueType(MSGF_SPECEVALUE));
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Compares the {@link CleavageSiteScanner} with splitting the sequences by
+ * the site regular expressions, as it was done before.
+ *
+ * @author julian
+ *
+ */
+public class CleavageSiteScannerTest {
+
+    /** regular expressions as created by the parsers, which are no cleavage agent's */
+    private static final String[] PARSED_REGEXPS = {
+            "(?<=[KR])(?=[^P])",
+            "(?<=\\S)(?=\\S)",
+            "(?<=[KR])(?=\\S)",
+            "(?<![P])(?=[DE])",
+            "(?<=[FYW])(?!P)|(?<=M)",
+            "(?<=K)(?!P)(?<!R)",
+            "(?<=[KR])|(?=P)|(?<=C)(?!C)",
+            "KP",
+            "[KR](?!P)"
+    };
+
+
+    @Test
+    public void testKnownSites() {
+        CleavageSiteScanner trypsin = new CleavageSiteScanner(CleavageAgent.TRYPSIN.getSiteRegexp());
+        assertEquals(0, trypsin.countSites("PEPTIDEK"));
+        assertEquals(1, trypsin.countSites("PEPKTIDER"));
+        assertEquals(0, trypsin.countSites("PEPKPTIDER"));
+        assertEquals(2, trypsin.countSites("KRR"));
+        assertEquals(0, trypsin.countSites(""));
+        assertArrayEquals(new String[]{"MK", "RPEPKPTIDE"}, trypsin.split("MKRPEPKPTIDE"));
+        assertArrayEquals(new String[]{"MK", "R", "GEK"}, trypsin.split("MKRGEK"));
+    }
+
+
+    @Test
+    public void testCleavageAgentsAgainstRegexp() {
+        for (CleavageAgent agent : CleavageAgent.values()) {
+            assertEqualsRegexp(agent.getSiteRegexp());
+        }
+    }
+
+
+    @Test
+    public void testParsedSitesAgainstRegexp() {
+        for (String regexp : PARSED_REGEXPS) {
+            assertEqualsRegexp(regexp);
+        }
+    }
+
+
+    /**
+     * Compares counting and splitting random sequences with the regular
+     * expression.
+     */
+    private static void assertEqualsRegexp(String regexp) {
+        CleavageSiteScanner scanner = new CleavageSiteScanner(regexp);
+
+        for (String sequence : createSequences()) {
+            String[] expected = sequence.split(regexp);
+            assertEquals(regexp + " " + sequence, expected.length - 1, scanner.countSites(sequence));
+            assertArrayEquals(regexp + " " + sequence, expected, scanner.split(sequence));
+        }
+    }
+
+
+    private static List<String> createSequences() {
+        String residues = "ACDEFGHIKLMNPQRSTVWYBZXUOKRPDEM";
+        Random random = new Random(42);
+
+        List<String> sequences = new ArrayList<>();
+        sequences.add("");
+        sequences.add("K");
+        sequences.add("P");
+        sequences.add("KP");
+        sequences.add("DD");
+        sequences.add("RRRR");
+        for (int nrSequence = 0; nrSequence < 500; nrSequence++) {
+            StringBuilder sequence = new StringBuilder();
+            int length = 1 + random.nextInt(60);
+            for (int pos = 0; pos < length; pos++) {
+                sequence.append(residues.charAt(random.nextInt(residues.length())));
+            }
+            sequences.add(sequence.toString());
+        }
+
+        return sequences;
+    }
+}
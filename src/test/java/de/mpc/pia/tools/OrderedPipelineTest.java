@@ -0,0 +1,69 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+
+public class OrderedPipelineTest {
+
+    private static final int NR_ITEMS = 1000;
+
+
+    @Test
+    public void testResultsInOrder() throws IOException {
+        for (int nrThreads : new int[]{1, 2, 8}) {
+            int[] next = {0};
+            List<Integer> results = new ArrayList<>();
+
+            OrderedPipeline.process(
+                    () -> (next[0] < NR_ITEMS) ? next[0]++ : null,
+                    item -> {
+                        // let the items finish in a random order
+                        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                            Thread.yield();
+                        }
+                        return item * 2;
+                    },
+                    results::add,
+                    nrThreads, "testing");
+
+            assertEquals(NR_ITEMS, results.size());
+            for (int idx = 0; idx < NR_ITEMS; idx++) {
+                assertEquals(Integer.valueOf(idx * 2), results.get(idx));
+            }
+        }
+    }
+
+
+    @Test
+    public void testProcessorExceptionIsRethrown() throws IOException {
+        int[] next = {0};
+        List<Integer> results = new ArrayList<>();
+
+        try {
+            OrderedPipeline.process(
+                    () -> (next[0] < NR_ITEMS) ? next[0]++ : null,
+                    item -> {
+                        if (item == 500) {
+                            throw new IllegalStateException("item " + item);
+                        }
+                        return item;
+                    },
+                    results::add,
+                    4, "testing");
+            fail("the exception of the processor was not rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("item 500", e.getMessage());
+        }
+
+        // all results before the failed item were consumed
+        assertEquals(500, results.size());
+    }
+}
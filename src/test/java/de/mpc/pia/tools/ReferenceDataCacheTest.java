@@ -0,0 +1,179 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.mpc.pia.tools.ReferenceDataCache.Dataset;
+import de.mpc.pia.tools.obo.OBOMapper;
+import de.mpc.pia.tools.unimod.UnimodParser;
+
+
+public class ReferenceDataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ReferenceDataCache cache;
+
+    private File remoteOBO;
+
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new ReferenceDataCache(folder.newFolder("cache"));
+
+        // a newer version of the ontology as stand-in for the remote file
+        String obo;
+        try (InputStream in = ReferenceDataCacheTest.class.getResourceAsStream("/de/mpc/pia/psi-ms.obo")) {
+            obo = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+        remoteOBO = folder.newFile("psi-ms.obo");
+        Files.write(remoteOBO.toPath(),
+                obo.replaceFirst("data-version: \\S+", "data-version: 99.0.0").getBytes(StandardCharsets.UTF_8));
+        cache.setSource(Dataset.PSI_MS, remoteOBO.toURI().toURL());
+    }
+
+
+    @Test
+    public void testShippedWithoutSnapshot() throws IOException {
+        assertNull(cache.getCachedVersion(Dataset.PSI_MS));
+        assertEquals("data-version: 4.0.17", readVersionLine(cache.openStream(Dataset.PSI_MS)));
+    }
+
+
+    @Test
+    public void testRefreshFromLocalSource() throws IOException {
+        assertTrue(cache.refresh(Dataset.PSI_MS));
+        assertEquals("99.0.0", cache.getCachedVersion(Dataset.PSI_MS));
+        assertEquals("data-version: 99.0.0", readVersionLine(cache.openStream(Dataset.PSI_MS)));
+
+        // unchanged data does not replace the snapshot
+        assertFalse(cache.refresh(Dataset.PSI_MS));
+
+        OBOMapper oboMapper = new OBOMapper(cache);
+        assertNotNull(oboMapper.getTerm("MS:1001176"));
+    }
+
+
+    @Test
+    public void testRefreshInBackground() throws Exception {
+        cache.setOnlineRefresh(true);
+
+        // the first call still uses the shipped file
+        assertEquals("data-version: 4.0.17", readVersionLine(cache.openStream(Dataset.PSI_MS)));
+        assertTrue(cache.refreshInBackground(Dataset.PSI_MS).get(30, TimeUnit.SECONDS));
+        assertEquals("data-version: 99.0.0", readVersionLine(cache.openStream(Dataset.PSI_MS)));
+    }
+
+
+    @Test
+    public void testUnreachableOrInvalidSource() throws Exception {
+        cache.setSource(Dataset.UNIMOD, new File(folder.getRoot(), "missing.xml").toURI().toURL());
+        assertFalse(cache.refreshInBackground(Dataset.UNIMOD).get(30, TimeUnit.SECONDS));
+        assertNull(cache.getCachedVersion(Dataset.UNIMOD));
+
+        File errorPage = folder.newFile("error.html");
+        Files.write(errorPage.toPath(), "<html>proxy error</html>".getBytes(StandardCharsets.UTF_8));
+        cache.setSource(Dataset.UNIMOD, errorPage.toURI().toURL());
+        assertFalse(cache.refresh(Dataset.UNIMOD));
+        assertNull(cache.getCachedVersion(Dataset.UNIMOD));
+
+        UnimodParser unimodParser = new UnimodParser(cache);
+        assertEquals("Phospho", unimodParser.getModificationByName("Phospho", "S").getTitle());
+    }
+
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        assertTrue(cache.refresh(Dataset.PSI_MS));
+
+        File snapshot = new File(folder.getRoot(), "cache/psi-ms.obo.snapshot");
+        byte[] content = Files.readAllBytes(snapshot.toPath());
+        Files.write(snapshot.toPath(), Arrays.copyOf(content, content.length / 2));
+
+        assertEquals("data-version: 4.0.17", readVersionLine(cache.openStream(Dataset.PSI_MS)));
+    }
+
+
+    @Test
+    public void testUnparsableDataIsNotCached() throws IOException {
+        // passes the check of the file start, but is no unimod.xml
+        File xmlErrorPage = folder.newFile("error.xml");
+        Files.write(xmlErrorPage.toPath(),
+                "<?xml version=\"1.0\"?><html>proxy error</html>".getBytes(StandardCharsets.UTF_8));
+        cache.setSource(Dataset.UNIMOD, xmlErrorPage.toURI().toURL());
+        assertFalse(cache.refresh(Dataset.UNIMOD));
+        assertNull(cache.getCachedVersion(Dataset.UNIMOD));
+
+        // a truncated ontology without any term
+        File truncatedOBO = folder.newFile("truncated.obo");
+        Files.write(truncatedOBO.toPath(),
+                "format-version: 1.2\ndata-version: 99.0.0\n".getBytes(StandardCharsets.UTF_8));
+        cache.setSource(Dataset.PSI_MS, truncatedOBO.toURI().toURL());
+        assertFalse(cache.refresh(Dataset.PSI_MS));
+        assertNull(cache.getCachedVersion(Dataset.PSI_MS));
+    }
+
+
+    @Test
+    public void testUnparsableSnapshotFallsBackToShipped() throws IOException {
+        assertTrue(cache.refresh(Dataset.PSI_MS));
+        assertEquals("data-version: 99.0.0", cache.read(Dataset.PSI_MS, ReferenceDataCacheTest::readVersionLine));
+
+        // a parser, which cannot parse the cached version
+        String versionLine = cache.read(Dataset.PSI_MS, inStream -> {
+            String line = readVersionLine(inStream);
+            if (line.endsWith("99.0.0")) {
+                throw new IOException("unsupported version " + line);
+            }
+            return line;
+        });
+        assertEquals("data-version: 4.0.17", versionLine);
+
+        OBOMapper oboMapper = new OBOMapper(cache);
+        assertNotNull(oboMapper.getTerm("MS:1001176"));
+    }
+
+
+    private static String readVersionLine(InputStream in) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("data-version:")) {
+                    return line;
+                }
+            }
+        }
+        return null;
+    }
+
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
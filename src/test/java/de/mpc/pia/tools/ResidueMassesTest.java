@@ -0,0 +1,72 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+public class ResidueMassesTest {
+
+    private double delta = 0.00001;
+
+
+    @Test
+    public void testResidueMasses() {
+        assertEquals(57.021464, ResidueMasses.getResidueMass('G'), delta);
+        assertEquals(113.084064, ResidueMasses.getResidueMass('I'), delta);
+        assertEquals(ResidueMasses.getResidueMass('L'), ResidueMasses.getResidueMass('I'), 0.0);
+        assertEquals(ResidueMasses.getResidueMass('M'), ResidueMasses.getResidueMass('m'), 0.0);
+        assertEquals(150.953636, ResidueMasses.getResidueMass('U'), delta);
+
+        // the ambiguous residues
+        assertEquals(114.534935, ResidueMasses.getResidueMass('B'), delta);
+        assertEquals(128.550586, ResidueMasses.getResidueMass('Z'), delta);
+        assertEquals(113.084064, ResidueMasses.getResidueMass('J'), delta);
+        assertEquals(ResidueMasses.UNKNOWN_RESIDUE_MASS, ResidueMasses.getResidueMass('X'), 0.0);
+        assertEquals(ResidueMasses.UNKNOWN_RESIDUE_MASS, ResidueMasses.getResidueMass('x'), 0.0);
+
+        // no residues
+        assertTrue(Double.isNaN(ResidueMasses.getResidueMass('*')));
+        assertTrue(Double.isNaN(ResidueMasses.getResidueMass('\u00e9')));
+    }
+
+
+    @Test
+    public void testPeptideMasses() {
+        assertEquals(799.359965, ResidueMasses.calculatePeptideMass("PEPTIDE"), delta);
+        assertEquals(799.359965, ResidueMasses.calculatePeptideMass("peptide"), delta);
+        assertEquals(18.010565, ResidueMasses.calculatePeptideMass(""), delta);
+
+        double mass = ResidueMasses.calculatePeptideMass("PEPXIDE");
+        assertEquals(799.359965 - 101.047679 + ResidueMasses.UNKNOWN_RESIDUE_MASS, mass, delta);
+
+        for (String sequence : new String[] {"PEPBIDE", "PEPZIDE", "PEPUIDE", "PEPXIDE"}) {
+            assertTrue(sequence, ResidueMasses.hasResidueMasses(sequence));
+            assertTrue(sequence, Double.isFinite(ResidueMasses.calculatePeptideMass(sequence)));
+        }
+    }
+
+
+    @Test
+    public void testNoResidues() {
+        for (String sequence : new String[] {"PEP*IDE", "PEP IDE", "PEPTIDE*", "PEP1IDE"}) {
+            assertFalse(sequence, ResidueMasses.hasResidueMasses(sequence));
+            try {
+                ResidueMasses.calculatePeptideMass(sequence);
+                fail(sequence + " was not rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(sequence));
+            }
+        }
+    }
+
+
+    @Test
+    public void testMassToCharge() {
+        assertEquals(400.687258, ResidueMasses.calculateMassToCharge(799.359965, 2), delta);
+        assertEquals(800.367241, ResidueMasses.calculateMassToCharge(799.359965, 1), delta);
+    }
+}
@@ -0,0 +1,213 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Compares the rows of the {@link TabSeparatedFileReader} with the lines of
+ * the file split by {@link String#split(String, int)}, which keeps the empty
+ * fields at the end of a line like the reader.
+ *
+ * @author julian
+ *
+ */
+public class TabSeparatedFileReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Test
+    public void testFieldsAndLineEndings() throws IOException {
+        String content = "id\tname\tvalue\r\n"
+                + "1\tfirst\t0.5\n"
+                + "\n"
+                + "2\t\t\r\n"
+                + "\r\n"
+                + "\t\t-3\n"
+                + " 4 \tlast\t1e3";
+        File file = writeFile("fields.tsv", content);
+
+        try (TabSeparatedFileReader reader = new TabSeparatedFileReader(file.getAbsolutePath(), true)) {
+            assertArrayEquals(new String[]{"id", "name", "value"}, reader.getHeaders());
+
+            List<TabSeparatedFileReader.Row> rows = new ArrayList<>();
+            assertEquals(4, reader.forEachRow(rows::add));
+
+            // the line numbers count the empty lines
+            assertEquals(2, rows.get(0).getLineNumber());
+            assertEquals(4, rows.get(1).getLineNumber());
+            assertEquals(6, rows.get(2).getLineNumber());
+            assertEquals(7, rows.get(3).getLineNumber());
+
+            assertEquals(1, rows.get(0).getInt(0));
+            assertEquals(0.5, rows.get(0).getDouble(2), 0.0);
+
+            assertEquals(3, rows.get(1).getFieldCount());
+            assertTrue(rows.get(1).isEmpty(1));
+            assertTrue(rows.get(1).isEmpty(2));
+            assertTrue(rows.get(1).isEmpty(3));
+            assertNull(rows.get(1).getString(3));
+
+            assertEquals("", rows.get(2).getString(0));
+            assertEquals(-3, rows.get(2).getInt(2));
+
+            // the integers are trimmed
+            assertEquals(4, rows.get(3).getInt(0));
+            assertEquals(1000.0, rows.get(3).getDouble(2), 0.0);
+        }
+
+        assertRowsEqualSplit(content, 1024);
+    }
+
+
+    @Test
+    public void testRandomFilesAgainstSplit() throws IOException {
+        Random random = new Random(42);
+
+        for (int nrFile = 0; nrFile < 50; nrFile++) {
+            int chunkSize = 16 + random.nextInt(48);
+            assertRowsEqualSplit(createRandomContent(random, 200, chunkSize), chunkSize);
+        }
+    }
+
+
+    @Test
+    public void testLinesAtChunkBoundaries() throws IOException {
+        // lines of exactly the chunk size (including the line breaks) and one byte shorter
+        int chunkSize = 16;
+        StringBuilder content = new StringBuilder();
+        for (int nrLine = 0; nrLine < 20; nrLine++) {
+            int length = ((nrLine % 2) == 0) ? chunkSize : chunkSize - 1;
+            String lineEnd = ((nrLine % 3) == 0) ? "\r\n" : "\n";
+
+            StringBuilder line = new StringBuilder();
+            while (line.length() < length - lineEnd.length()) {
+                line.append(((line.length() % 4) == 3) ? '\t' : (char) ('a' + nrLine));
+            }
+            content.append(line).append(lineEnd);
+        }
+
+        assertRowsEqualSplit(content.toString(), chunkSize);
+    }
+
+
+    @Test
+    public void testLineLongerThanChunk() throws IOException {
+        File file = writeFile("long.tsv", "short\tline\nthis\tline\tis\tlonger\tthan\tthe\tchunk\nend\n");
+
+        try (TabSeparatedFileReader reader = new TabSeparatedFileReader(file.getAbsolutePath(), false, 16)) {
+            reader.forEachRow(row -> row.getFieldCount());
+            fail("the too long line was not rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+    }
+
+
+    /**
+     * Reads the content with the given chunk size sequentially and in
+     * parallel and compares the rows with the split lines.
+     */
+    private void assertRowsEqualSplit(String content, int chunkSize) throws IOException {
+        File file = writeFile("compared.tsv", content);
+
+        List<String[]> expected = new ArrayList<>();
+        for (String line : content.split("\n", -1)) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (!line.isEmpty()) {
+                expected.add(line.split("\t", -1));
+            }
+        }
+
+        try (TabSeparatedFileReader reader = new TabSeparatedFileReader(file.getAbsolutePath(), false,
+                chunkSize)) {
+            List<String[]> rows = new ArrayList<>();
+            assertEquals(expected.size(), reader.forEachRow(row -> rows.add(getFields(row))));
+            assertFieldsEqual(expected, rows);
+        }
+
+        for (int nrThreads : new int[]{1, 4}) {
+            try (TabSeparatedFileReader reader = new TabSeparatedFileReader(file.getAbsolutePath(), false,
+                    chunkSize)) {
+                List<String[]> rows = new ArrayList<>();
+                assertEquals(expected.size(),
+                        reader.convertRows(TabSeparatedFileReaderTest::getFields, rows::add, nrThreads));
+                assertFieldsEqual(expected, rows);
+            }
+        }
+    }
+
+
+    private static void assertFieldsEqual(List<String[]> expected, List<String[]> rows) {
+        assertEquals(expected.size(), rows.size());
+        for (int idx = 0; idx < expected.size(); idx++) {
+            assertArrayEquals("row " + idx, expected.get(idx), rows.get(idx));
+        }
+    }
+
+
+    private static String[] getFields(TabSeparatedFileReader.Row row) {
+        String[] fields = new String[row.getFieldCount()];
+        for (int idx = 0; idx < fields.length; idx++) {
+            fields[idx] = row.getString(idx);
+        }
+        return fields;
+    }
+
+
+    /**
+     * Creates random lines with empty fields, empty lines, CRLF and non ASCII
+     * characters, each line (including its line break) fits into the chunk.
+     */
+    private static String createRandomContent(Random random, int nrLines, int chunkSize) {
+        String characters = "ab1.-\t\tä";
+        StringBuilder content = new StringBuilder();
+
+        for (int nrLine = 0; nrLine < nrLines; nrLine++) {
+            boolean crlf = random.nextBoolean();
+            int maxBytes = chunkSize - (crlf ? 2 : 1);
+
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(maxBytes + 1);
+            while (line.toString().getBytes(StandardCharsets.UTF_8).length < length) {
+                line.append(characters.charAt(random.nextInt(characters.length())));
+            }
+            if (line.toString().getBytes(StandardCharsets.UTF_8).length > maxBytes) {
+                line.setLength(line.length() - 1);
+            }
+
+            content.append(line);
+            if ((nrLine < nrLines - 1) || random.nextBoolean()) {
+                content.append(crlf ? "\r\n" : "\n");
+            }
+        }
+
+        return content.toString();
+    }
+
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,115 @@
+package de.mpc.pia.tools.matomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+
+public class PIAMatomoTrackerTest {
+
+    private static final String VISITOR_CID = "0123456789abcdef";
+
+    private HttpServer server;
+
+    private List<String> receivedQueries;
+
+    private volatile CountDownLatch releaseResponses;
+
+
+    @Before
+    public void setUp() throws IOException {
+        receivedQueries = new CopyOnWriteArrayList<>();
+        releaseResponses = new CountDownLatch(0);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/matomo.php", exchange -> {
+            try {
+                releaseResponses.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            receivedQueries.add(exchange.getRequestURI().getRawQuery());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        PIAMatomoTracker.setTrackingURL("http://localhost:" + server.getAddress().getPort() + "/matomo.php");
+        PIAMatomoTracker.disableTracking(false);
+    }
+
+
+    @After
+    public void tearDown() {
+        releaseResponses.countDown();
+        PIAMatomoTracker.flush(10000);
+        server.stop(0);
+    }
+
+
+    @Test
+    public void testEventsAreSent() {
+        PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_COMMAND_LINE_CATEGORY,
+                PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME, PIAMatomoTracker.PIA_TRACKING_COMPILER_STARTED, null,
+                VISITOR_CID);
+        PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_COMMAND_LINE_CATEGORY,
+                PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME, PIAMatomoTracker.PIA_TRACKING_COMPILER_FINISHED, 1,
+                VISITOR_CID);
+
+        assertTrue(PIAMatomoTracker.flush(10000));
+        assertEquals(2, receivedQueries.size());
+        assertTrue(receivedQueries.get(0).contains("e_a=" + PIAMatomoTracker.PIA_TRACKING_COMPILER_STARTED));
+        assertTrue(receivedQueries.get(1).contains("e_a=" + PIAMatomoTracker.PIA_TRACKING_COMPILER_FINISHED));
+        assertTrue(receivedQueries.get(1).contains("cid=" + VISITOR_CID));
+    }
+
+
+    @Test
+    public void testSlowServerDoesNotBlock() {
+        releaseResponses = new CountDownLatch(1);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3 * PIAMatomoTracker.QUEUE_CAPACITY; i++) {
+            PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_COMMAND_LINE_CATEGORY,
+                    PIAMatomoTracker.PIA_TRACKING_MODELLER_NAME, PIAMatomoTracker.PIA_TRACKING_MODELLER_XML_STARTED,
+                    i, VISITOR_CID);
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        assertTrue("tracking blocked for " + duration + " ms", duration < 1000);
+        assertFalse(PIAMatomoTracker.flush(100));
+
+        releaseResponses.countDown();
+        assertTrue(PIAMatomoTracker.flush(10000));
+
+        // the events beyond the queue's capacity (and the one being sent) were dropped
+        assertTrue(receivedQueries.size() <= PIAMatomoTracker.QUEUE_CAPACITY + 1);
+        assertTrue(receivedQueries.size() < 3 * PIAMatomoTracker.QUEUE_CAPACITY);
+    }
+
+
+    @Test
+    public void testDisabledTracking() {
+        PIAMatomoTracker.disableTracking(true);
+        PIAMatomoTracker.trackPIAEvent(PIAMatomoTracker.PIA_TRACKING_COMMAND_LINE_CATEGORY,
+                PIAMatomoTracker.PIA_TRACKING_COMPILER_NAME, PIAMatomoTracker.PIA_TRACKING_COMPILER_STARTED, null,
+                VISITOR_CID);
+        PIAMatomoTracker.disableTracking(false);
+
+        assertTrue(PIAMatomoTracker.flush(10000));
+        assertTrue(receivedQueries.isEmpty());
+    }
+}
@@ -2,14 +2,34 @@ package de.mpc.pia.tools.unimod;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
 
+import org.apache.log4j.Logger;
 import org.junit.Test;
 
+import de.mpc.pia.tools.unimod.jaxb.ModT;
+import de.mpc.pia.tools.unimod.jaxb.SpecificityT;
+
 
 public class UnimodParserTest {
 
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(UnimodParserTest.class);
+
+    /** the residues used for the random queries, including the "any residue" and a non-letter site */
+    private static final String[] QUERY_RESIDUES = {"A", "C", "D", "E", "F", "G", "H", "I", "K", "L", "M", "N",
+            "P", "Q", "R", "S", "T", "V", "W", "Y", ".", "N-term"};
+
+    /** the number of random queries of each kind */
+    private static final int NR_QUERIES = 200000;
+
 
     @Test
     public void testUnimodOffline() {
@@ -33,4 +53,181 @@ public class UnimodParserTest {
         assertNull(unimodParser.getModificationByName("sure_not_there", Arrays.asList("K", "F", "C")));
     }
 
+
+    /**
+     * Compares the indexed lookups with a scan over all modifications in the
+     * order of the Unimod file, as the lookups were implemented before the
+     * indexes, on random queries of the shipped unimod.xml.
+     */
+    @Test
+    public void testIndexedLookupsEqualScan() {
+        UnimodParser unimodParser = new UnimodParser(false);
+        List<ModT> modifications = unimodParser.getModifications();
+        assertFalse(modifications.isEmpty());
+
+        Random random = new Random(42);
+        for (int i = 0; i < NR_QUERIES; i++) {
+            ModT queryMod = modifications.get(random.nextInt(modifications.size()));
+            List<String> residues = randomResidues(random);
+
+            // masses around the tolerance borders of the modification
+            Double mass = queryMod.getDelta().getMonoMass()
+                    + (random.nextDouble() - 0.5) * 4 * UnimodParser.UNIMOD_MASS_TOLERANCE;
+            String name = randomName(queryMod, random);
+            String accession = "UNIMOD:" + (random.nextInt(modifications.size() * 2) + 1);
+
+            String query = name + " / " + mass + " / " + residues + " / " + accession;
+            assertSame(query, scanByMass(modifications, mass, residues),
+                    unimodParser.getModificationByMass(mass, residues));
+            assertSame(query, scanByName(modifications, name, residues),
+                    unimodParser.getModificationByName(name, residues));
+            assertSame(query, scanByNameAndMass(modifications, name, mass, residues),
+                    unimodParser.getModificationByNameAndMass(name, mass, residues));
+            assertSame(query, scanByAccession(modifications, accession),
+                    unimodParser.getModificationByAccession(accession));
+        }
+    }
+
+
+    /**
+     * Times the phospho-heavy workload of {@link #testIndexedLookupsEqualScan()}
+     * on the scan and on the indexes. The times are only logged, as they
+     * depend on the machine.
+     */
+    @Test
+    public void testPhosphoLookupTimes() {
+        UnimodParser unimodParser = new UnimodParser(false);
+        List<ModT> modifications = unimodParser.getModifications();
+
+        ModT phospho = unimodParser.getModificationByName("Phospho", "S");
+        assertNotNull(phospho);
+        String[] phosphoResidues = {"S", "T", "Y"};
+
+        List<List<String>> residues = new ArrayList<>(NR_QUERIES);
+        Random random = new Random(42);
+        for (int i = 0; i < NR_QUERIES; i++) {
+            residues.add(Collections.singletonList(phosphoResidues[random.nextInt(phosphoResidues.length)]));
+        }
+        Double mass = phospho.getDelta().getMonoMass();
+
+        long startTime = System.nanoTime();
+        for (List<String> queryResidues : residues) {
+            assertSame(phospho, scanModification(modifications, null, "Phospho", mass, queryResidues));
+        }
+        long scanTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (List<String> queryResidues : residues) {
+            assertSame(phospho, unimodParser.getModification(null, "Phospho", mass, queryResidues));
+        }
+        long indexTime = System.nanoTime() - startTime;
+
+        LOGGER.info(NR_QUERIES + " phospho lookups: scan " + scanTime / 1000000 + " ms, indexes "
+                + indexTime / 1000000 + " ms");
+    }
+
+
+    private static List<String> randomResidues(Random random) {
+        List<String> residues = new ArrayList<>(2);
+        int nrResidues = 1 + random.nextInt(2);
+        for (int i = 0; i < nrResidues; i++) {
+            residues.add(QUERY_RESIDUES[random.nextInt(QUERY_RESIDUES.length)]);
+        }
+        return residues;
+    }
+
+
+    /**
+     * Returns the title, full name or an alternative name of the modification
+     * in random case, or a name which is not in Unimod.
+     */
+    private static String randomName(ModT mod, Random random) {
+        List<String> names = new ArrayList<>();
+        names.add(mod.getTitle());
+        names.add(mod.getFullName());
+        names.addAll(mod.getAltName());
+        names.add("sure_not_there");
+
+        String name = names.get(random.nextInt(names.size()));
+        return random.nextBoolean() ? name.toUpperCase(Locale.ENGLISH) : name;
+    }
+
+
+    private static ModT scanModification(List<ModT> modifications, String accession, String name,
+            Double massdelta, List<String> residues) {
+        ModT mod = null;
+        if (accession != null) {
+            mod = scanByAccession(modifications, accession);
+        }
+        if ((mod == null) && (name != null) && (massdelta != null) && (residues != null)) {
+            mod = scanByNameAndMass(modifications, name, massdelta, residues);
+        }
+        if ((mod == null) && (massdelta != null) && (residues != null)) {
+            mod = scanByMass(modifications, massdelta, residues);
+        }
+        return mod;
+    }
+
+
+    private static ModT scanByAccession(List<ModT> modifications, String accession) {
+        Long id = Long.parseLong(accession.substring(7));
+        for (ModT mod : modifications) {
+            if (mod.getRecordId().equals(id)) {
+                return mod;
+            }
+        }
+        return null;
+    }
+
+
+    private static ModT scanByName(List<ModT> modifications, String query, List<String> residues) {
+        for (ModT mod : modifications) {
+            if (UnimodParser.isAnyName(query, mod) && scanResidues(mod, residues)) {
+                return mod;
+            }
+        }
+        return null;
+    }
+
+
+    private static ModT scanByNameAndMass(List<ModT> modifications, String query, Double massdelta,
+            List<String> residues) {
+        for (ModT mod : modifications) {
+            if (UnimodParser.isAnyName(query, mod)
+                    && (Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UnimodParser.UNIMOD_MASS_TOLERANCE)
+                    && scanResidues(mod, residues)) {
+                return mod;
+            }
+        }
+        return null;
+    }
+
+
+    private static ModT scanByMass(List<ModT> modifications, Double massdelta, List<String> residues) {
+        for (ModT mod : modifications) {
+            if ((Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UnimodParser.UNIMOD_MASS_TOLERANCE)
+                    && scanResidues(mod, residues)) {
+                return mod;
+            }
+        }
+        return null;
+    }
+
+
+    private static boolean scanResidues(ModT modification, List<String> residues) {
+        Set<String> specificities = new HashSet<>();
+        for (SpecificityT spec : modification.getSpecificity()) {
+            specificities.add(spec.getSite());
+            if ("N-term".equalsIgnoreCase(spec.getSite()) || "C-Term".equalsIgnoreCase(spec.getSite())) {
+                return true;
+            }
+        }
+
+        for (String residue : residues) {
+            if (!".".equals(residue) && !specificities.contains(residue)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }